@@ -35,6 +35,16 @@ public class MetricsRegistry {
         mMetricTypes.add(APIRequestMetrics.HttpClientPoolAvailableCount);
         mMetricTypes.add(APIRequestMetrics.HttpClientPoolLeasedCount);
         mMetricTypes.add(APIRequestMetrics.HttpClientPoolPendingCount);
+        mMetricTypes.add(APIRequestMetrics.RequestBytes);
+        mMetricTypes.add(APIRequestMetrics.ResponseBytes);
+        mMetricTypes.add(APIRequestMetrics.UploadThroughput);
+        mMetricTypes.add(APIRequestMetrics.DownloadThroughput);
+        mMetricTypes.add(APIRequestMetrics.TimeToFirstByte);
+        mMetricTypes.add(APIRequestMetrics.TimeToLastByte);
+        mMetricTypes.add(APIRequestMetrics.RequestUncompressedBytes);
+        mMetricTypes.add(APIRequestMetrics.RequestCompressionTime);
+        mMetricTypes.add(APIRequestMetrics.ResponseDecompressionTime);
+        mMetricTypes.add(APIRequestMetrics.RateLimiterWaitTime);
         //metricTypes.add(AWSServiceMetrics.HttpClientGetConnectionTime);
         syncReadOnly();
     }
@@ -85,9 +85,27 @@ public class PredefinedMetricTransformer implements IMetricTransformer {
                 case HttpClientSendRequestTime:
                 case HttpClientReceiveResponseTime:
                 case HttpRequestTime:
+                case TimeToFirstByte:
+                case TimeToLastByte:
+                case RateLimiterWaitTime:
                     return latencyMetricOf(oPredefined, pRequest, pResponse, INCLUDE_REQUEST_TYPE);
+                case RequestBytes:
+                case ResponseBytes:
+                case RequestUncompressedBytes:
+                    return metricOfValue(oPredefined, pRequest, pResponse, StandardUnit.Bytes);
+                case RequestCompressionTime:
+                case ResponseDecompressionTime:
+                    return metricOfValue(oPredefined, pRequest, pResponse, StandardUnit.Microseconds);
+                case UploadThroughput:
+                case DownloadThroughput:
+                    return metricOfValue(oPredefined, pRequest, pResponse, StandardUnit.BytesSecond);
                 case Exception:
                 case ThrottleException:
+                case ResponseCacheHit:
+                case ResponseCacheMiss:
+                case ResponseCacheRevalidation:
+                case RequestCoalesced:
+                case CircuitBreakerRejected:
                     return counterMetricOf(oPredefined, pRequest, pResponse, INCLUDE_REQUEST_TYPE);
                 default:
                     break;
@@ -186,6 +204,34 @@ public class PredefinedMetricTransformer implements IMetricTransformer {
         }
     }
     
+    /**
+     * Returns a list with a single, request type specific, metric datum for
+     * the value (e.g. bytes or throughput) recorded as counter for the
+     * specified metric type; or an empty list if there is none.
+     * 
+     * @param pUnit
+     *            unit of the value.
+     */
+    protected List<MetricDatum> metricOfValue(APIRequestMetrics pMetricType, Request<?> pReq, Object pResp, StandardUnit pUnit) {
+        IMetrics m = pReq.getMetrics();
+        TimingInfo ti = m.getTimingInfo();
+        Number oValue = ti.getCounter(pMetricType.name());
+        if (oValue == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(new MetricDatum()
+            .withMetricName(pReq.getServiceName())
+            .withDimensions(new Dimension()
+                    .withName(Dimensions.MetricType.name())
+                    .withValue(pMetricType.name()),
+                new Dimension()
+                    .withName(Dimensions.RequestType.name())
+                    .withValue(requestType(pReq)))
+            .withUnit(pUnit)
+            .withValue(Double.valueOf(oValue.doubleValue()))
+            .withTimestamp(endTimestamp(ti)));
+    }
+    
     /**
      * Returns all the latency metric data recorded for the specified metric
      * event type; or an empty list if there is none. The number of metric datum
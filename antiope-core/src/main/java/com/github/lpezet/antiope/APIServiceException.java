@@ -31,6 +31,11 @@ public class APIServiceException extends APIClientException {
 	
 	private static final long	serialVersionUID	= -408213717238880974L;
 
+	/** System property to create service exceptions without stack trace, when set to "true". */
+	public static final String	STACKLESS_PROPERTY	= "antiope.stacklessServiceExceptions";
+
+	private static volatile boolean	sStackless		= Boolean.getBoolean(STACKLESS_PROPERTY);
+
 	/**
      * Indicates who is responsible (if known) for a failed request.
      *
@@ -219,6 +224,35 @@ public class APIServiceException extends APIClientException {
     }
 
     /** {@inheritDoc} */
+    /**
+     * Whether service exceptions are created without stack trace.
+     *
+     * @return true if stackless.
+     */
+    public static boolean isStackless() {
+        return sStackless;
+    }
+
+    /**
+     * Makes all service exceptions created from now on skip filling in their
+     * stack trace (also see {@link #STACKLESS_PROPERTY}). Service errors come
+     * from the remote service, not from the calling code, and under heavy
+     * throttling the stack trace of each exception is a significant cost.
+     * Off by default.
+     *
+     * @param pStackless
+     *            true to skip stack traces.
+     */
+    public static void setStackless(boolean pStackless) {
+        sStackless = pStackless;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        if (sStackless) return this;
+        return super.fillInStackTrace();
+    }
+
     @Override
     public String getMessage() {
         return "Status Code: " + getStatusCode() + ", "
@@ -22,8 +22,15 @@
  */
 package com.github.lpezet.antiope.be;
 
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.github.lpezet.antiope.dao.IdleConnectionReaper;
+
 /**
  * @author luc
  */
@@ -46,31 +53,85 @@ public class APIConfiguration {
     /** The default max connection pool size. */
     public static final int DEFAULT_MAX_CONNECTIONS = 50;
 
+    /**
+     * The default max number of connections to a single endpoint: not set,
+     * meaning the pool size. Most clients talk to a single API host.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = -1;
+
+    /**
+     * The default time to wait for a connection from the pool. A negative
+     * value means waiting indefinitely.
+     */
+    public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = -1;
+
+    /**
+     * The default time to live of pooled connections. A negative value means
+     * connections are kept as long as the server allows it.
+     */
+    public static final long DEFAULT_CONNECTION_TTL = -1;
+
+    /** The default max number of asynchronous requests in flight. */
+    public static final int DEFAULT_MAX_ASYNC_REQUESTS = 200;
+
     /** The default HTTP user agent header for TSG Java SDK clients. */
     public static final String DEFAULT_USER_AGENT = "";// VersionInfoUtils.getUserAgent();
 
-    /*
+    /**
      * Default request retry policy, including the maximum retry count of 3, the
      * default retry condition and the default back-off strategy.
      * <p>
      * Note this default policy might be overridden by a service-specific
      * default policy, if the user doesn't provide a custom RetryPolicy
-     * implementation by link #setRetryPolicy(RetryPolicy). For example,
-     * AmazonDynamoDBClient by default uses a different retry policy
-     * link PredefinedRetryPolicies#DYNAMODB_DEFAULT.
+     * implementation by {@link #setRetryPolicy(RetryPolicy)}.
+     * 
+     * @see PredefinedRetryPolicies#DEFAULT
+     */
+    public static final RetryPolicy DEFAULT_RETRY_POLICY = PredefinedRetryPolicies.DEFAULT;
+    
+    /**
+     * The default number of tokens in the client-wide retry budget.
+     * 
+     * @see com.github.lpezet.antiope.bo.RetryBudget
+     */
+    public static final int DEFAULT_RETRY_BUDGET_CAPACITY = 100;
+    
+    /**
+     * The default number of requests per second of each endpoint and
+     * operation: unlimited.
      * 
-     * see PredefinedRetryPolicies#DEFAULT
-     * see PredefinedRetryPolicies#DYNAMODB_DEFAULT
+     * @see com.github.lpezet.antiope.bo.RateLimiter
      */
-    //public static final RetryPolicy DEFAULT_RETRY_POLICY = PredefinedRetryPolicies.DEFAULT;
+    public static final double DEFAULT_MAX_REQUESTS_PER_SECOND = -1;
+    
+    /** The default number of requests sent at once after a quiet period, when rate limited. */
+    public static final int DEFAULT_REQUEST_BURST = 10;
     
-    /*
-     * The default on whether to use the link IdleConnectionReaper to manage stale connections
+    /**
+     * The default on whether to use the {@link IdleConnectionReaper} to manage stale connections
      *
-     * see IdleConnectionReaper
+     * @see IdleConnectionReaper
      */
     public static final boolean DEFAULT_USE_REAPER = true;
     
+    /** The default time (ms) after which idle connections are closed by the {@link IdleConnectionReaper}. */
+    public static final long DEFAULT_CONNECTION_MAX_IDLE_MILLIS = 60 * 1000;
+    
+    /** The default inactivity time (ms) after which pooled connections are checked before being reused. */
+    public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY = 2 * 1000;
+    
+    /** The default request body size (bytes) above which uploads ask for a "100-continue" first. */
+    public static final long DEFAULT_EXPECT_CONTINUE_THRESHOLD = 1024 * 1024;
+    
+    /** Whether to ask for compressed (gzip or deflate) responses by default. */
+    public static final boolean DEFAULT_USE_GZIP = false;
+    
+    /** The default read limit when marking request content, to reset it on retry (bytes). */
+    public static final int DEFAULT_STREAM_READ_LIMIT = 128 * 1024 + 1;
+    
+    /** The default request body size (bytes) above which bodies get compressed: never. */
+    public static final long DEFAULT_REQUEST_COMPRESSION_THRESHOLD = -1;
+    
     public static final String DEFAULT_ENV_VAR_ACCESS_KEY = "API_ACCESS_KEY";
     public static final String DEFAULT_ENV_VAR_SECRET_KEY = "API_SECRET_KEY";
     
@@ -96,7 +157,21 @@ public class APIConfiguration {
     private int mMaxErrorRetry = -1;
     
     /** The retry policy upon failed requests. **/
-    //private RetryPolicy retryPolicy = DEFAULT_RETRY_POLICY;
+    private RetryPolicy mRetryPolicy = DEFAULT_RETRY_POLICY;
+    
+    /**
+     * The number of tokens in the client-wide retry budget, or -1 for an
+     * unlimited budget.
+     */
+    private int mRetryBudgetCapacity = DEFAULT_RETRY_BUDGET_CAPACITY;
+    
+    /**
+     * Requests per second of each endpoint and operation, or a negative
+     * value for no limit.
+     */
+    private double mMaxRequestsPerSecond = DEFAULT_MAX_REQUESTS_PER_SECOND;
+    
+    private int mRequestBurst = DEFAULT_REQUEST_BURST;
 
     private boolean mCheckSSLCertificates = true;
     
@@ -129,6 +204,36 @@ public class APIConfiguration {
     /** The maximum number of open HTTP connections. */
     private int mMaxConnections = DEFAULT_MAX_CONNECTIONS;
 
+    /**
+     * The maximum number of open HTTP connections to a single endpoint. Not
+     * set (zero or negative) means {@link #mMaxConnections}.
+     */
+    private int mMaxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+    /**
+     * Maximum number of open HTTP connections for specific endpoints (e.g.
+     * "https://api.example.com"), overriding {@link #mMaxConnectionsPerRoute}.
+     */
+    private final Map<String, Integer> mMaxConnectionsPerEndpoint = new HashMap<String, Integer>();
+
+    /**
+     * The amount of time to wait (in milliseconds) for a connection from the
+     * pool before giving up. A negative value means waiting indefinitely.
+     */
+    private int mConnectionRequestTimeout = DEFAULT_CONNECTION_REQUEST_TIMEOUT;
+
+    /**
+     * The maximum amount of time (in milliseconds) a pooled connection can be
+     * reused. A negative value means no limit.
+     */
+    private long mConnectionTTL = DEFAULT_CONNECTION_TTL;
+
+    /**
+     * The maximum number of asynchronous requests in flight. Callers trying
+     * to send more are blocked until one completes.
+     */
+    private int mMaxAsyncRequests = DEFAULT_MAX_ASYNC_REQUESTS;
+
     /**
      * The amount of time to wait (in milliseconds) for data to be transfered
      * over an established, open connection before the connection is timed out.
@@ -164,6 +269,49 @@ public class APIConfiguration {
      */
     private boolean mUseReaper = DEFAULT_USE_REAPER;
     
+    /** Connections idle for longer than this (ms) are closed by the {@link IdleConnectionReaper}. */
+    private long mConnectionMaxIdleMillis = DEFAULT_CONNECTION_MAX_IDLE_MILLIS;
+    
+    /**
+     * Pooled connections idle for longer than this (ms) are checked for
+     * staleness before being reused. Checking blocks for about a millisecond,
+     * so recently used connections are not. A negative value means always
+     * checking.
+     */
+    private int mValidateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+    
+    /**
+     * PUT and POST bodies larger than this (bytes), or of unknown length, are
+     * sent with "Expect: 100-continue", to learn of a failure before
+     * uploading them. It costs a round trip (up to 3s with servers ignoring
+     * it), so smaller bodies are sent right away. A negative value disables
+     * it.
+     */
+    private long mExpectContinueThreshold = DEFAULT_EXPECT_CONTINUE_THRESHOLD;
+    
+    /**
+     * Whether requests advertise "Accept-Encoding: gzip,deflate", responses
+     * being decompressed as they are read. Off by default: opt in for
+     * services returning large, compressible bodies.
+     */
+    private boolean mUseGzip = DEFAULT_USE_GZIP;
+    
+    /**
+     * Request bodies of known length larger than this (bytes) are sent gzip
+     * compressed ("Content-Encoding: gzip"). Only for services accepting
+     * them, and signers not depending on the body sent as is. A negative
+     * value disables it.
+     */
+    private long mRequestCompressionThreshold = DEFAULT_REQUEST_COMPRESSION_THRESHOLD;
+    
+    /**
+     * How much of the request content (bytes) may be read and still reset to
+     * retry the request, or hash it for signing. Past it, buffered streams
+     * would hold the whole body on the heap: the request isn't retried
+     * instead.
+     */
+    private int mStreamReadLimit = DEFAULT_STREAM_READ_LIMIT;
+    
     public int getConnectionTimeout() {
 		return mConnectionTimeout;
 	}
@@ -180,6 +328,93 @@ public class APIConfiguration {
 		mMaxConnections = pMaxConnections;
 	}
     
+    /**
+     * Returns the maximum number of connections to a single endpoint: the one
+     * set if any, {@link #getMaxConnections()} otherwise.
+     * 
+     * @return maximum number of connections.
+     */
+    public int getMaxConnectionsPerRoute() {
+		return mMaxConnectionsPerRoute > 0 ? mMaxConnectionsPerRoute : mMaxConnections;
+	}
+    
+    public void setMaxConnectionsPerRoute(int pMaxConnectionsPerRoute) {
+		mMaxConnectionsPerRoute = pMaxConnectionsPerRoute;
+	}
+    
+    /**
+     * Returns the maximum number of connections of specific endpoints.
+     * 
+     * @return Unmodifiable map of endpoint URL to maximum number of connections.
+     */
+    public Map<String, Integer> getMaxConnectionsPerEndpoint() {
+		return Collections.unmodifiableMap(mMaxConnectionsPerEndpoint);
+	}
+    
+    /**
+     * Sets the maximum number of connections to the given endpoint, overriding
+     * {@link #getMaxConnectionsPerRoute()} for it.
+     * 
+     * @param pEndpoint
+     *            endpoint URL, like "https://api.example.com" or "http://localhost:8080".
+     * @param pMaxConnections
+     *            maximum number of connections.
+     */
+    public void setMaxConnectionsForEndpoint(String pEndpoint, int pMaxConnections) {
+		mMaxConnectionsPerEndpoint.put(pEndpoint, pMaxConnections);
+	}
+    
+    /**
+     * Returns the maximum number of connections to the given endpoint: the
+     * one set for it if any, {@link #getMaxConnectionsPerRoute()} otherwise.
+     * 
+     * @param pEndpoint
+     *            endpoint.
+     * @return maximum number of connections.
+     */
+    public int getMaxConnectionsForEndpoint(URI pEndpoint) {
+    	if (pEndpoint != null && !mMaxConnectionsPerEndpoint.isEmpty()) {
+    		for (Entry<String, Integer> e : mMaxConnectionsPerEndpoint.entrySet()) {
+    			URI oEndpoint = URI.create(e.getKey());
+    			if (oEndpoint.getHost() != null && oEndpoint.getHost().equalsIgnoreCase(pEndpoint.getHost())
+    					&& String.valueOf(oEndpoint.getScheme()).equalsIgnoreCase(String.valueOf(pEndpoint.getScheme()))
+    					&& portOf(oEndpoint) == portOf(pEndpoint)) {
+    				return e.getValue();
+    			}
+    		}
+    	}
+		return getMaxConnectionsPerRoute();
+	}
+    
+    private static int portOf(URI pEndpoint) {
+    	if (pEndpoint.getPort() > 0) return pEndpoint.getPort();
+    	return "https".equalsIgnoreCase(pEndpoint.getScheme()) ? 443 : 80;
+    }
+    
+    public int getConnectionRequestTimeout() {
+		return mConnectionRequestTimeout;
+	}
+    
+    public void setConnectionRequestTimeout(int pConnectionRequestTimeout) {
+		mConnectionRequestTimeout = pConnectionRequestTimeout;
+	}
+    
+    public long getConnectionTTL() {
+		return mConnectionTTL;
+	}
+    
+    public void setConnectionTTL(long pConnectionTTL) {
+		mConnectionTTL = pConnectionTTL;
+	}
+    
+    public int getMaxAsyncRequests() {
+		return mMaxAsyncRequests;
+	}
+    
+    public void setMaxAsyncRequests(int pMaxAsyncRequests) {
+		mMaxAsyncRequests = pMaxAsyncRequests;
+	}
+    
     public int getMaxErrorRetry() {
 		return mMaxErrorRetry;
 	}
@@ -188,6 +423,62 @@ public class APIConfiguration {
 		mMaxErrorRetry = pMaxErrorRetry;
 	}
     
+    public RetryPolicy getRetryPolicy() {
+		return mRetryPolicy;
+	}
+    
+    public void setRetryPolicy(RetryPolicy pRetryPolicy) {
+		mRetryPolicy = pRetryPolicy;
+	}
+    
+    public int getRetryBudgetCapacity() {
+		return mRetryBudgetCapacity;
+	}
+    
+    /**
+     * Sets the number of tokens in the client-wide retry budget. Each retry
+     * takes tokens from the budget and successful requests put some back,
+     * so that retries stop when most requests are failing.
+     * 
+     * @param pRetryBudgetCapacity
+     *            number of tokens, or -1 for an unlimited budget.
+     */
+    public void setRetryBudgetCapacity(int pRetryBudgetCapacity) {
+		mRetryBudgetCapacity = pRetryBudgetCapacity;
+	}
+    
+    public double getMaxRequestsPerSecond() {
+		return mMaxRequestsPerSecond;
+	}
+    
+    /**
+     * Sets the number of requests per second of each endpoint and operation.
+     * Clients wait for their turn rather than exceed it, and slow down further
+     * when throttled.
+     * 
+     * @param pMaxRequestsPerSecond
+     *            requests per second, or a negative value for no limit.
+     * @see com.github.lpezet.antiope.bo.RateLimiter
+     */
+    public void setMaxRequestsPerSecond(double pMaxRequestsPerSecond) {
+		mMaxRequestsPerSecond = pMaxRequestsPerSecond;
+	}
+    
+    public int getRequestBurst() {
+		return mRequestBurst;
+	}
+    
+    /**
+     * Sets the number of requests which can be sent at once after a quiet
+     * period, when rate limited (see {@link #setMaxRequestsPerSecond(double)}).
+     * 
+     * @param pRequestBurst
+     *            burst size.
+     */
+    public void setRequestBurst(int pRequestBurst) {
+		mRequestBurst = pRequestBurst;
+	}
+    
     public String getProxyDomain() {
 		return mProxyDomain;
 	}
@@ -276,6 +567,54 @@ public class APIConfiguration {
 		mUseReaper = pUseReaper;
 	}
     
+    public long getConnectionMaxIdleMillis() {
+		return mConnectionMaxIdleMillis;
+	}
+    
+    public void setConnectionMaxIdleMillis(long pConnectionMaxIdleMillis) {
+		mConnectionMaxIdleMillis = pConnectionMaxIdleMillis;
+	}
+    
+    public int getValidateAfterInactivity() {
+		return mValidateAfterInactivity;
+	}
+    
+    public void setValidateAfterInactivity(int pValidateAfterInactivity) {
+		mValidateAfterInactivity = pValidateAfterInactivity;
+	}
+    
+    public long getExpectContinueThreshold() {
+		return mExpectContinueThreshold;
+	}
+    
+    public void setExpectContinueThreshold(long pExpectContinueThreshold) {
+		mExpectContinueThreshold = pExpectContinueThreshold;
+	}
+    
+    public boolean isUseGzip() {
+		return mUseGzip;
+	}
+    
+    public void setUseGzip(boolean pUseGzip) {
+		mUseGzip = pUseGzip;
+	}
+    
+    public long getRequestCompressionThreshold() {
+		return mRequestCompressionThreshold;
+	}
+    
+    public void setRequestCompressionThreshold(long pRequestCompressionThreshold) {
+		mRequestCompressionThreshold = pRequestCompressionThreshold;
+	}
+    
+    public int getStreamReadLimit() {
+		return mStreamReadLimit;
+	}
+    
+    public void setStreamReadLimit(int pStreamReadLimit) {
+		mStreamReadLimit = pStreamReadLimit;
+	}
+    
     public boolean isCheckSSLCertificates() {
 		return mCheckSSLCertificates;
 	}
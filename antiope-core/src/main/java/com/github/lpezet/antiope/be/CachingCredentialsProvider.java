@@ -0,0 +1,186 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.be;
+
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.lpezet.antiope.APIClientException;
+import com.github.lpezet.antiope.util.DaemonThreadFactory;
+
+/**
+ * Serves the credentials of another provider from memory, refreshing them in
+ * the background ahead of their expiry, so slow sources (files, remote
+ * services...) are kept off the request path.
+ * <p>
+ * Credentials expire at {@link IAPIExpiringCredentials#getExpiration()}
+ * when they tell, or after the refresh interval otherwise. A refresh starts
+ * on the first request within the prefetch time of that expiry, on the
+ * executor, while requests keep getting the current credentials. If it
+ * fails, the current credentials are kept (even past their expiry) and the
+ * refresh is tried again a few seconds later. Only the very first request
+ * waits, for the initial load.
+ * <p>
+ * Clients opt in by wrapping their provider, e.g.
+ * <code>new CachingCredentialsProvider(new DefaultAPICredentialsProviderChain(pConfiguration))</code>.
+ * 
+ * @author luc
+ */
+public class CachingCredentialsProvider implements IAPICredentialsProvider {
+	
+	public static final long DEFAULT_REFRESH_INTERVAL_MILLIS = 15 * 60 * 1000;
+	public static final long DEFAULT_PREFETCH_MILLIS = 60 * 1000;
+	/** Time before trying again after a failed refresh. */
+	static final long RETRY_DELAY_MILLIS = 5 * 1000;
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(CachingCredentialsProvider.class);
+	
+	private final IAPICredentialsProvider mDelegate;
+	private final long mRefreshIntervalMillis;
+	private final long mPrefetchMillis;
+	private final Executor mExecutor;
+	private final AtomicBoolean mRefreshing = new AtomicBoolean();
+	private volatile Cached mCached;
+	
+	public CachingCredentialsProvider(IAPICredentialsProvider pDelegate) {
+		this(pDelegate, DEFAULT_REFRESH_INTERVAL_MILLIS, DEFAULT_PREFETCH_MILLIS, null);
+	}
+	
+	/**
+	 * @param pDelegate
+	 *            provider to cache the credentials of.
+	 * @param pRefreshIntervalMillis
+	 *            lifetime of credentials without expiration.
+	 * @param pPrefetchMillis
+	 *            how long before expiry to start refreshing.
+	 * @param pExecutor
+	 *            executor running refreshes, or null for a shared daemon
+	 *            thread.
+	 */
+	public CachingCredentialsProvider(IAPICredentialsProvider pDelegate, long pRefreshIntervalMillis, long pPrefetchMillis, Executor pExecutor) {
+		if (pDelegate == null) throw new IllegalArgumentException("Credentials provider can't be null.");
+		mDelegate = pDelegate;
+		mRefreshIntervalMillis = pRefreshIntervalMillis;
+		mPrefetchMillis = pPrefetchMillis;
+		mExecutor = pExecutor != null ? pExecutor : DefaultExecutorHolder.INSTANCE;
+	}
+	
+	public IAPICredentialsProvider getDelegate() {
+		return mDelegate;
+	}
+	
+	@Override
+	public IAPICredentials getCredentials() {
+		Cached oCached = mCached;
+		if (oCached == null) return load();
+		if (System.currentTimeMillis() >= oCached.mRefreshAt) refreshAsync();
+		return oCached.mCredentials;
+	}
+	
+	/**
+	 * Refreshes the credentials right away, in the calling thread. The
+	 * current ones are kept if that fails.
+	 */
+	@Override
+	public void refresh() {
+		try {
+			mDelegate.refresh();
+			mCached = fetch();
+		} catch (RuntimeException e) {
+			if (mCached == null) throw e;
+			keepCurrent(e);
+		}
+	}
+	
+	private synchronized IAPICredentials load() {
+		if (mCached == null) mCached = fetch();
+		return mCached.mCredentials;
+	}
+	
+	private void refreshAsync() {
+		if (!mRefreshing.compareAndSet(false, true)) return;
+		try {
+			mExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						mCached = fetch();
+					} catch (RuntimeException e) {
+						keepCurrent(e);
+					} finally {
+						mRefreshing.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			mRefreshing.set(false);
+			LOGGER.warn("Unable to schedule credentials refresh.", e);
+		}
+	}
+	
+	private void keepCurrent(RuntimeException pError) {
+		Cached oCached = mCached;
+		LOGGER.warn("Unable to refresh credentials from " + mDelegate + ", keeping current ones: " + pError.getMessage());
+		mCached = new Cached(oCached.mCredentials, System.currentTimeMillis() + RETRY_DELAY_MILLIS);
+	}
+	
+	private Cached fetch() {
+		IAPICredentials oCredentials = mDelegate.getCredentials();
+		if (oCredentials == null) throw new APIClientException("No credentials from " + mDelegate);
+		long oExpiresAt = System.currentTimeMillis() + mRefreshIntervalMillis;
+		if (oCredentials instanceof IAPIExpiringCredentials) {
+			Date oExpiration = ((IAPIExpiringCredentials) oCredentials).getExpiration();
+			if (oExpiration != null) oExpiresAt = oExpiration.getTime();
+		}
+		return new Cached(oCredentials, oExpiresAt - mPrefetchMillis);
+	}
+	
+	private static class Cached {
+		private final IAPICredentials mCredentials;
+		/** Time (epoch ms) from which a refresh is due. */
+		private final long mRefreshAt;
+		
+		private Cached(IAPICredentials pCredentials, long pRefreshAt) {
+			mCredentials = pCredentials;
+			mRefreshAt = pRefreshAt;
+		}
+	}
+	
+	/**
+	 * Lazily created thread shared by all providers.
+	 */
+	private static class DefaultExecutorHolder {
+		static final Executor INSTANCE = Executors.newSingleThreadExecutor(new DaemonThreadFactory("antiope-credentials"));
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "(" + mDelegate + ")";
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.be;
+
+import java.util.Random;
+
+import com.github.lpezet.antiope.APIClientException;
+import com.github.lpezet.antiope.be.RetryPolicy.BackoffStrategy;
+import com.github.lpezet.antiope.be.RetryPolicy.RetryCondition;
+import com.github.lpezet.antiope.util.RetryUtils;
+
+/**
+ * This class includes a set of pre-defined retry policies, including default
+ * policies used by the clients.
+ * 
+ * @author luc
+ */
+public class PredefinedRetryPolicies {
+
+	/* Reusable retry policy components */
+
+	/**
+	 * SDK default max retry count.
+	 */
+	public static final int				DEFAULT_MAX_ERROR_RETRY		= 3;
+
+	/**
+	 * The SDK default retry condition, which checks for various conditions in
+	 * the following order:
+	 * <ul>
+	 * <li>Retry on client exceptions caused by IOException;
+	 * <li>Retry on service exceptions that are either 500, 502, 503, 504
+	 * status codes or throttling errors.
+	 * </ul>
+	 */
+	public static final RetryCondition	DEFAULT_RETRY_CONDITION		= new DefaultRetryCondition();
+
+	/**
+	 * The SDK default back-off strategy: capped exponential back-off with
+	 * "full jitter", i.e. a random delay between 0 and
+	 * <code>min(cap, base * 2^retries)</code>. Throttling errors use a larger
+	 * base delay than other errors.
+	 */
+	public static final BackoffStrategy	DEFAULT_BACKOFF_STRATEGY	= new FullJitterBackoffStrategy(100, 500, 20 * 1000);
+
+	/* Pre-defined retry policies */
+
+	/** No retry policy */
+	public static final RetryPolicy		NO_RETRY_POLICY				= new RetryPolicy(
+																			RetryPolicy.RetryCondition.NO_RETRY_CONDITION,
+																			RetryPolicy.BackoffStrategy.NO_DELAY,
+																			0,
+																			false);
+
+	/**
+	 * SDK default retry policy (honors the max error retry set in
+	 * {@link APIConfiguration}).
+	 */
+	public static final RetryPolicy		DEFAULT						= new RetryPolicy(
+																			DEFAULT_RETRY_CONDITION,
+																			DEFAULT_BACKOFF_STRATEGY,
+																			DEFAULT_MAX_ERROR_RETRY,
+																			true);
+
+	/**
+	 * The default implementation of RetryCondition used by most services.
+	 */
+	public static class DefaultRetryCondition implements RetryCondition {
+
+		@Override
+		public boolean shouldRetry(APIWebServiceRequest pOriginalRequest, APIClientException pException, int pRetriesAttempted) {
+			// Always retry on client exceptions caused by IOException
+			if (RetryUtils.isIOException(pException)) return true;
+			// Only retry on a subset of service exceptions
+			return RetryUtils.isRetryableServiceException(pException);
+		}
+	}
+
+	/**
+	 * Capped exponential back-off with full jitter: the delay before the
+	 * <i>n</i>th retry is chosen uniformly in <code>[0, min(cap, base * 2^n)]</code>.
+	 * Spreading retries over the whole window avoids clients retrying in
+	 * lock-step after a shared failure.
+	 */
+	public static class FullJitterBackoffStrategy implements BackoffStrategy {
+
+		/** Upper bound for the exponent, so the shift never overflows. */
+		private static final int	MAX_RETRIES	= 30;
+
+		private final Random		mRandom		= new Random();
+		private final long			mBaseDelay;
+		private final long			mThrottledBaseDelay;
+		private final long			mMaxBackoffTime;
+
+		/**
+		 * @param pBaseDelay
+		 *            Base delay (in milliseconds) for non-throttling errors.
+		 * @param pThrottledBaseDelay
+		 *            Base delay (in milliseconds) for throttling errors.
+		 * @param pMaxBackoffTime
+		 *            Maximum delay (in milliseconds) between two attempts.
+		 */
+		public FullJitterBackoffStrategy(long pBaseDelay, long pThrottledBaseDelay, long pMaxBackoffTime) {
+			mBaseDelay = pBaseDelay;
+			mThrottledBaseDelay = pThrottledBaseDelay;
+			mMaxBackoffTime = pMaxBackoffTime;
+		}
+
+		@Override
+		public long delayBeforeNextRetry(APIWebServiceRequest pOriginalRequest, APIClientException pException, int pRetriesAttempted) {
+			if (pRetriesAttempted < 0) return 0;
+			long oBase = RetryUtils.isThrottlingException(pException) ? mThrottledBaseDelay : mBaseDelay;
+			long oCeiling = Math.min(mMaxBackoffTime, oBase << Math.min(pRetriesAttempted, MAX_RETRIES));
+			if (oCeiling <= 0) return 0;
+			return (long) (mRandom.nextDouble() * (oCeiling + 1));
+		}
+	}
+}
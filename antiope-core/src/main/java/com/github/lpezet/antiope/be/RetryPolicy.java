@@ -0,0 +1,198 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.be;
+
+import com.github.lpezet.antiope.APIClientException;
+
+/**
+ * Retry policy that can be configured on a specific service client using
+ * {@link APIConfiguration}. This class is immutable, therefore safe to be
+ * shared by multiple clients.
+ * 
+ * @see APIConfiguration
+ * @see PredefinedRetryPolicies
+ * 
+ * @author luc
+ */
+public final class RetryPolicy {
+
+	/**
+	 * Condition on whether a request should be retried. This field
+	 * should not be null.
+	 */
+	private final RetryCondition	mRetryCondition;
+
+	/**
+	 * Back-off strategy to control how long the next retry should wait. This
+	 * field should not be null.
+	 */
+	private final BackoffStrategy	mBackoffStrategy;
+
+	/**
+	 * Non-negative integer indicating the max retry count.
+	 */
+	private final int				mMaxErrorRetry;
+
+	/**
+	 * Whether this retry policy should honor the max error retry set in
+	 * {@link APIConfiguration#setMaxErrorRetry(int)}.
+	 */
+	private final boolean			mHonorMaxErrorRetryInClientConfig;
+
+	/**
+	 * Constructs a new retry policy. See {@link PredefinedRetryPolicies} for
+	 * some pre-defined policy components, and also the default policies used
+	 * by the clients.
+	 * 
+	 * @param pRetryCondition
+	 *            Condition on whether a request should be retried. A null
+	 *            value will map to {@link PredefinedRetryPolicies#DEFAULT_RETRY_CONDITION}.
+	 * @param pBackoffStrategy
+	 *            Back-off strategy for controlling how long the next retry
+	 *            should wait. A null value will map to
+	 *            {@link PredefinedRetryPolicies#DEFAULT_BACKOFF_STRATEGY}.
+	 * @param pMaxErrorRetry
+	 *            Maximum number of retry attempts for failed requests. A
+	 *            negative value will map to {@link PredefinedRetryPolicies#DEFAULT_MAX_ERROR_RETRY}.
+	 * @param pHonorMaxErrorRetryInClientConfig
+	 *            Whether this retry policy should honor the max error retry
+	 *            set by {@link APIConfiguration#setMaxErrorRetry(int)}.
+	 */
+	public RetryPolicy(RetryCondition pRetryCondition, BackoffStrategy pBackoffStrategy, int pMaxErrorRetry, boolean pHonorMaxErrorRetryInClientConfig) {
+		mRetryCondition = pRetryCondition != null ? pRetryCondition : PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION;
+		mBackoffStrategy = pBackoffStrategy != null ? pBackoffStrategy : PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY;
+		mMaxErrorRetry = pMaxErrorRetry >= 0 ? pMaxErrorRetry : PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY;
+		mHonorMaxErrorRetryInClientConfig = pHonorMaxErrorRetryInClientConfig;
+	}
+
+	public RetryCondition getRetryCondition() {
+		return mRetryCondition;
+	}
+
+	public BackoffStrategy getBackoffStrategy() {
+		return mBackoffStrategy;
+	}
+
+	public int getMaxErrorRetry() {
+		return mMaxErrorRetry;
+	}
+
+	public boolean isMaxErrorRetryInClientConfigHonored() {
+		return mHonorMaxErrorRetryInClientConfig;
+	}
+
+	/**
+	 * Returns the maximum number of retries, taking into account the value
+	 * set in the given configuration when this policy honors it.
+	 * 
+	 * @param pConfiguration
+	 *            Client configuration.
+	 * @return Maximum number of retries.
+	 */
+	public int getMaxErrorRetry(APIConfiguration pConfiguration) {
+		if (mHonorMaxErrorRetryInClientConfig && pConfiguration != null && pConfiguration.getMaxErrorRetry() >= 0) {
+			return pConfiguration.getMaxErrorRetry();
+		}
+		return mMaxErrorRetry;
+	}
+
+	/**
+	 * The hook for providing custom condition on whether a failed request
+	 * should be retried.
+	 */
+	public static interface RetryCondition {
+
+		/**
+		 * A special RetryCondition which always returns false.
+		 */
+		public static final RetryCondition	NO_RETRY_CONDITION	= new RetryCondition() {
+																	@Override
+																	public boolean shouldRetry(APIWebServiceRequest pOriginalRequest, APIClientException pException, int pRetriesAttempted) {
+																		return false;
+																	}
+																};
+
+		/**
+		 * Returns whether a failed request should be retried according to the
+		 * given request context. In the following circumstances, the request
+		 * will fail directly without consulting this method:
+		 * <ul>
+		 * <li>if it has already reached the max retry limit,
+		 * <li>if the request contains non-repeatable content,
+		 * <li>if the client-wide retry budget is exhausted.
+		 * </ul>
+		 * 
+		 * @param pOriginalRequest
+		 *            The original request object being executed. For
+		 *            performance reason, this object is not a defensive copy,
+		 *            and caller should not attempt to modify its data.
+		 * @param pException
+		 *            The exception from the failed request, represented as an
+		 *            APIClientException object. There are two types of exception
+		 *            that will be passed to this method:
+		 *            <ul>
+		 *            <li>APIServiceException (sub-class of APIClientException)
+		 *            indicating a service error
+		 *            <li>APIClientException caused by an IOException when
+		 *            executing the HTTP request.
+		 *            </ul>
+		 *            Any other exceptions are not retryable.
+		 * @param pRetriesAttempted
+		 *            The number of times the current request has been
+		 *            attempted.
+		 * @return True if the failed request should be retried.
+		 */
+		public boolean shouldRetry(APIWebServiceRequest pOriginalRequest, APIClientException pException, int pRetriesAttempted);
+	}
+
+	/**
+	 * The hook for providing custom back-off strategy to control the sleep
+	 * time between retries.
+	 */
+	public static interface BackoffStrategy {
+
+		/**
+		 * A special BackoffStrategy which always returns zero delay.
+		 */
+		public static final BackoffStrategy	NO_DELAY	= new BackoffStrategy() {
+															@Override
+															public long delayBeforeNextRetry(APIWebServiceRequest pOriginalRequest, APIClientException pException, int pRetriesAttempted) {
+																return 0;
+															}
+														};
+
+		/**
+		 * Returns the delay (in milliseconds) before next retry attempt.
+		 * 
+		 * @param pOriginalRequest
+		 *            The original request object being executed.
+		 * @param pException
+		 *            The exception from the failed request.
+		 * @param pRetriesAttempted
+		 *            The number of times the current request has been
+		 *            attempted (not including the next attempt after the delay).
+		 * @return The delay (in milliseconds) before the next retry attempt.
+		 */
+		public long delayBeforeNextRetry(APIWebServiceRequest pOriginalRequest, APIClientException pException, int pRetriesAttempted);
+	}
+}
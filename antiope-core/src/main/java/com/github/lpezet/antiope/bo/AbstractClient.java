@@ -40,7 +40,7 @@ import com.github.lpezet.antiope.dao.RequestHandler;
 import com.github.lpezet.antiope.dao.Response;
 import com.github.lpezet.antiope.dao.Signer;
 import com.github.lpezet.antiope.metrics.APIRequestMetrics;
-import com.github.lpezet.antiope.metrics.BaseMetrics;
+import com.github.lpezet.antiope.metrics.ArrayMetrics;
 import com.github.lpezet.antiope.metrics.IMetrics;
 import com.github.lpezet.antiope.metrics.IMetricsCollector;
 import com.github.lpezet.antiope.metrics.StubMetricsCollector;
@@ -76,10 +76,16 @@ public abstract class AbstractClient {
      */
     private IMetricsCollector mMetricsCollector;
     
+    /** Optional client-side rate limiter. */
+    private RateLimiter mRateLimiter;
+    
 	public AbstractClient(APIConfiguration pConfiguration) {
     	mAPIConfiguration = pConfiguration;
         //mClient = new TSGHttpClient(clientConfiguration, requestMetricCollector);
         mRequestHandlers = new CopyOnWriteArrayList<RequestHandler>();
+        if (pConfiguration.getMaxRequestsPerSecond() > 0) {
+        	mRateLimiter = new RateLimiter(pConfiguration.getMaxRequestsPerSecond(), pConfiguration.getRequestBurst());
+        }
     }
 
 	public URI getEndpoint() {
@@ -113,7 +119,7 @@ public abstract class AbstractClient {
 	
 	protected final ExecutionContext createExecutionContext(APIWebServiceRequest req) {
         //boolean isMetricsEnabled = isRequestMetricsEnabled(req) || isProfilingEnabled();
-        ExecutionContext oResult = new ExecutionContext(mRequestHandlers, isProfilingEnabled() ? new BaseMetrics() : null);
+        ExecutionContext oResult = new ExecutionContext(mRequestHandlers, isProfilingEnabled() ? ArrayMetrics.acquire() : null);
         oResult.setSigner(getSigner());
         return oResult;
     }
@@ -130,18 +136,25 @@ public abstract class AbstractClient {
      * Common routine to end a client API request/response execution and collect
      * the request metrics.  Caller of this routine is responsible for starting
      * the event for {@link APIRequestMetrics#ClientExecuteTime} and call this method
-     * in a try-finally block. 
+     * in a try-finally block. Pooled {@link ArrayMetrics} are released once
+     * collected, and must not be used afterwards.
      * 
      * @param pMetrics Metrics
      * @param pRequest Request
      * @param pResponse Response
      */
     protected final void endClientExecution(IMetrics pMetrics, Request<?> pRequest, Response<?> pResponse) {
-        if (pRequest != null) {
-        	pMetrics.endEvent(APIRequestMetrics.ClientExecuteTime);
-        	pMetrics.getTimingInfo().endTiming();
-            IMetricsCollector c = findRequestMetricCollector(pRequest);
-            c.collectMetrics(pRequest, pResponse);
+        try {
+	        if (pRequest != null) {
+	        	pMetrics.endEvent(APIRequestMetrics.ClientExecuteTime);
+	        	pMetrics.getTimingInfo().endTiming();
+	            IMetricsCollector c = findRequestMetricCollector(pRequest);
+	            c.collectMetrics(pRequest, pResponse);
+	        }
+        } finally {
+        	if (pMetrics instanceof ArrayMetrics) {
+        		((ArrayMetrics) pMetrics).release();
+        	}
         }
     }
     
@@ -206,6 +219,22 @@ public abstract class AbstractClient {
 		mCredentialsProvider = pCredentialsProvider;
 	}
 
+	public RateLimiter getRateLimiter() {
+		return mRateLimiter;
+	}
+	
+	/**
+	 * Sets the rate limiter requests wait for before being sent. One is
+	 * created from {@link APIConfiguration#getMaxRequestsPerSecond()} when
+	 * set, and the same limiter can be shared by several clients.
+	 * 
+	 * @param pRateLimiter
+	 *            rate limiter, or null for none.
+	 */
+	public void setRateLimiter(RateLimiter pRateLimiter) {
+		mRateLimiter = pRateLimiter;
+	}
+	
 	public Signer getSigner() {
 		return mSigner;
 	}
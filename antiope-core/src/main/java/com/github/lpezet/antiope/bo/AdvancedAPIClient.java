@@ -23,8 +23,13 @@
 package com.github.lpezet.antiope.bo;
 
 import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
@@ -32,6 +37,13 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,19 +55,24 @@ import com.github.lpezet.antiope.be.APIConfiguration;
 import com.github.lpezet.antiope.be.APIWebServiceResponse;
 import com.github.lpezet.antiope.be.IAPICredentials;
 import com.github.lpezet.antiope.be.IAPICredentialsProvider;
+import com.github.lpezet.antiope.be.RetryPolicy;
 import com.github.lpezet.antiope.be.StaticCredentialsProvider;
 import com.github.lpezet.antiope.dao.CRC32MismatchException;
-import com.github.lpezet.antiope.dao.CountingInputStream;
 import com.github.lpezet.antiope.dao.ExecutionContext;
 import com.github.lpezet.antiope.dao.HttpMethodReleaseInputStream;
 import com.github.lpezet.antiope.dao.HttpResponse;
 import com.github.lpezet.antiope.dao.HttpResponseHandler;
 import com.github.lpezet.antiope.dao.IHttpRequestFactory;
+import com.github.lpezet.antiope.dao.InflatingInputStream;
+import com.github.lpezet.antiope.dao.MetricsInputStream;
+import com.github.lpezet.antiope.dao.PoolingHttpClient;
 import com.github.lpezet.antiope.dao.Request;
 import com.github.lpezet.antiope.dao.Response;
 import com.github.lpezet.antiope.metrics.APIRequestMetrics;
 import com.github.lpezet.antiope.metrics.IMetrics;
 import com.github.lpezet.antiope.transform.Unmarshaller;
+import com.github.lpezet.antiope.util.DaemonThreadFactory;
+import com.github.lpezet.antiope.util.RetryUtils;
 
 /**
  * @author luc
@@ -63,25 +80,37 @@ import com.github.lpezet.antiope.transform.Unmarshaller;
 public abstract class AdvancedAPIClient<R> extends BaseAPIClient<R> {
 
 	private static final String	HEADER_USER_AGENT	= "User-Agent";
+	private static final String	HEADER_RETRY_AFTER	= "Retry-After";
 
 	private Logger				mLogger				= LoggerFactory.getLogger(this.getClass());
 
 	private IHttpRequestFactory	mHttpRequestFactory;
 	private HttpClient			mHttpClient;
+	private HttpAsyncClient		mHttpAsyncClient;
+	private ConnPoolControl<HttpRoute>	mConnPoolControl;
+	private RetryBudget			mRetryBudget;
+	private ResponseCache		mResponseCache;
+	private CircuitBreaker		mCircuitBreaker;
 
 	public AdvancedAPIClient(APIConfiguration pConfiguration, HttpClient pHttpClient) {
 		super(pConfiguration);
 		mHttpClient = pHttpClient;
+		mConnPoolControl = getConnPoolControl(pHttpClient);
+		mRetryBudget = new RetryBudget(pConfiguration.getRetryBudgetCapacity());
 	}
 
 	public AdvancedAPIClient(APIConfiguration pConfiguration, IAPICredentials pCredentials, HttpClient pHttpClient) {
 		super(pConfiguration, new StaticCredentialsProvider(pCredentials));
 		mHttpClient = pHttpClient;
+		mConnPoolControl = getConnPoolControl(pHttpClient);
+		mRetryBudget = new RetryBudget(pConfiguration.getRetryBudgetCapacity());
 	}
 
 	public AdvancedAPIClient(APIConfiguration pConfiguration, IAPICredentialsProvider pCrendentialsProvider, HttpClient pHttpClient) {
 		super(pConfiguration, pCrendentialsProvider);
 		mHttpClient = pHttpClient;
+		mConnPoolControl = getConnPoolControl(pHttpClient);
+		mRetryBudget = new RetryBudget(pConfiguration.getRetryBudgetCapacity());
 	}
 
 	public IHttpRequestFactory getHttpRequestFactory() {
@@ -92,6 +121,101 @@ public abstract class AdvancedAPIClient<R> extends BaseAPIClient<R> {
 		mHttpRequestFactory = pHttpRequestFactory;
 	}
 
+	private static ConnPoolControl<HttpRoute> getConnPoolControl(HttpClient pHttpClient) {
+		return pHttpClient instanceof PoolingHttpClient ? ((PoolingHttpClient) pHttpClient).getConnPoolControl() : null;
+	}
+
+	public ConnPoolControl<HttpRoute> getConnPoolControl() {
+		return mConnPoolControl;
+	}
+
+	/**
+	 * Sets the connection pool to sample, when profiling is enabled, for
+	 * {@link APIRequestMetrics#HttpClientPoolAvailableCount},
+	 * {@link APIRequestMetrics#HttpClientPoolLeasedCount} and
+	 * {@link APIRequestMetrics#HttpClientPoolPendingCount}. It is set
+	 * automatically for clients created by
+	 * {@link com.github.lpezet.antiope.dao.DefaultHttpClientFactory}.
+	 * 
+	 * @param pConnPoolControl
+	 *            connection pool, like a PoolingHttpClientConnectionManager.
+	 */
+	public void setConnPoolControl(ConnPoolControl<HttpRoute> pConnPoolControl) {
+		mConnPoolControl = pConnPoolControl;
+	}
+
+	public HttpAsyncClient getHttpAsyncClient() {
+		return mHttpAsyncClient;
+	}
+
+	/**
+	 * Sets the non-blocking HTTP client used by
+	 * {@link #invokeAsync(Request, Unmarshaller, ExecutionContext, FutureCallback)}.
+	 * When none is set, asynchronous requests fall back to blocking calls run
+	 * in the asynchronous executor.
+	 * 
+	 * @param pHttpAsyncClient
+	 *            started HTTP async client.
+	 * @see com.github.lpezet.antiope.dao.DefaultHttpAsyncClientFactory
+	 */
+	public void setHttpAsyncClient(HttpAsyncClient pHttpAsyncClient) {
+		mHttpAsyncClient = pHttpAsyncClient;
+	}
+
+	public RetryBudget getRetryBudget() {
+		return mRetryBudget;
+	}
+
+	/**
+	 * Sets the retry budget of this client. The same budget can be shared by
+	 * several clients talking to the same service.
+	 * 
+	 * @param pRetryBudget
+	 *            retry budget.
+	 */
+	public void setRetryBudget(RetryBudget pRetryBudget) {
+		mRetryBudget = pRetryBudget;
+	}
+
+	public ResponseCache getResponseCache() {
+		return mResponseCache;
+	}
+
+	/**
+	 * Sets the cache of GET responses. No response is cached unless set.
+	 * 
+	 * @param pResponseCache
+	 *            response cache, possibly shared by several clients.
+	 */
+	public void setResponseCache(ResponseCache pResponseCache) {
+		mResponseCache = pResponseCache;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return mCircuitBreaker;
+	}
+
+	/**
+	 * Sets the circuit breaker rejecting calls to endpoints and operations
+	 * which keep failing. None is used unless set.
+	 * 
+	 * @param pCircuitBreaker
+	 *            circuit breaker, possibly shared by several clients.
+	 */
+	public void setCircuitBreaker(CircuitBreaker pCircuitBreaker) {
+		mCircuitBreaker = pCircuitBreaker;
+	}
+
+	/**
+	 * Creates a downloader fetching large bodies as concurrent ranges, over
+	 * the connections of this client and on its asynchronous executor.
+	 * 
+	 * @return new downloader.
+	 */
+	public RangedDownloader newRangedDownloader() {
+		return new RangedDownloader(mHttpClient, getAsyncExecutor());
+	}
+
 	protected abstract <T> HttpResponseHandler<APIWebServiceResponse<T>> createResponseHandler(ExecutionContext pContext, Unmarshaller<T, R> pUnmarshaller);
 
 	@Override
@@ -106,80 +230,667 @@ public abstract class AdvancedAPIClient<R> extends BaseAPIClient<R> {
 		// Apply whatever request options we know how to handle, such as user-agent.
 		setUserAgent(pRequest);
 
-		HttpRequestBase oHttpRequest = null;
-		org.apache.http.HttpResponse oApacheResponse = null;
+		RetryPolicy oRetryPolicy = getRetryPolicy();
+		int oRequestCount = 0;
+		boolean oRetryBudgetAcquired = false;
+		APIClientException oRetriedException = null;
 
-		try {
-			if (mLogger.isDebugEnabled()) mLogger.debug("Sending Request: " + pRequest.toString());
+		/*
+		 * Mark the content so it can be reset before each retry. The
+		 * RepeatableInputStreamRequestEntity created for the next attempt
+		 * will then stream it again from the start. The read limit is
+		 * bounded so a buffered stream doesn't end up holding the whole
+		 * body: past it, the stream can't be reset and the request isn't
+		 * retried.
+		 */
+		markContent(pRequest);
+
+		String oCacheKey = mResponseCache == null ? null : mResponseCache.getKey(pRequest, pUnmarshaller, pExecutionContext.getCredentials());
+		ResponseCache.Entry oCached = oCacheKey == null ? null : mResponseCache.get(oCacheKey);
+		if (oCached != null && oCached.isFresh()) {
+			return cacheHit(oCached, oMetrics);
+		}
+
+		RateLimiter.OperationKey oOperationKey = getOperationKey(pRequest);
+		while (true) {
+			++oRequestCount;
+			oMetrics.setCounter(APIRequestMetrics.RequestCount, oRequestCount);
+			if (oRequestCount > 1) { // retry
+				oMetrics.setCounter(APIRequestMetrics.RetryCount, oRequestCount - 1);
+				pauseBeforeNextRetry(pRequest, oRetriedException, oRequestCount - 2, oRetryPolicy, oMetrics);
+			}
+			// Circuit acquired last: no probe permit held while waiting.
+			waitForRateLimiter(oOperationKey, oMetrics);
+			CircuitBreaker.Circuit oCircuit = acquireCircuit(pRequest, oOperationKey, oMetrics);
+
+			HttpRequestBase oHttpRequest = null;
+			org.apache.http.HttpResponse oApacheResponse = null;
+			boolean oLeaveConnectionOpen = false;
+			boolean oByteTimingsOpen = false;
+			long oSentAt = 0;
 
-			HttpContext oHttpContext = HttpClientContext.create();
-			// NB: Signing should happen in createHttpRequest().
-			oHttpRequest = mHttpRequestFactory.createHttpRequest(pRequest, getAPIConfiguration(), oHttpContext, pExecutionContext);
-			
-			oMetrics.startEvent(APIRequestMetrics.HttpRequestTime);
 			try {
-				oApacheResponse = mHttpClient.execute(oHttpRequest, oHttpContext);
+				if (mLogger.isDebugEnabled()) mLogger.debug("Sending Request: " + pRequest.toString());
+
+				HttpContext oHttpContext = HttpClientContext.create();
+				// NB: Signing should happen in createHttpRequest().
+				oHttpRequest = mHttpRequestFactory.createHttpRequest(pRequest, getAPIConfiguration(), oHttpContext, pExecutionContext);
+				if (oCached != null) oCached.addConditionalHeaders(oHttpRequest);
+
+				captureConnectionPoolMetrics(oMetrics);
+				oMetrics.startEvent(APIRequestMetrics.HttpRequestTime);
+				oMetrics.startEvent(APIRequestMetrics.TimeToFirstByte);
+				oMetrics.startEvent(APIRequestMetrics.TimeToLastByte);
+				oByteTimingsOpen = true;
+				oSentAt = System.nanoTime();
+				try {
+					oApacheResponse = mHttpClient.execute(oHttpRequest, oHttpContext);
+				} finally {
+					oMetrics.endEvent(APIRequestMetrics.HttpRequestTime);
+				}
+				long oResponseNanos = System.nanoTime() - oSentAt;
+				// Outcome recorded: an I/O error reading the response no longer counts.
+				oSentAt = 0;
+				oMetrics.addProperty(APIRequestMetrics.StatusCode, oApacheResponse.getStatusLine().getStatusCode());
+				if (oCircuit != null && !isServerError(oApacheResponse)) {
+					recordOutcome(oCircuit, null, oResponseNanos, oMetrics);
+					oCircuit = null;
+				}
+
+				if (oCached != null && isNotModified(oApacheResponse)) {
+					mRetryBudget.release(oRetryBudgetAcquired ? RetryBudget.RETRY_COST : RetryBudget.NO_RETRY_INCREMENT);
+					return cacheRevalidated(oCacheKey, oCached, oApacheResponse, oMetrics);
+				}
+
+				if (isRequestSuccessful(oApacheResponse)) {
+					HttpResponse oHttpResponse = createResponse(oHttpRequest, pRequest, oApacheResponse);
+					// Ended when reading the content, whatever the outcome.
+					oByteTimingsOpen = false;
+					T oResponse = handleResponse(pRequest, oResponseHandler, oHttpRequest, oHttpResponse, oApacheResponse, pExecutionContext, true);
+					// Only once handled: a failing handler does not get to release the connection.
+					oLeaveConnectionOpen = oResponseHandler.needsConnectionLeftOpen();
+					// Give back to the retry budget: a successful retry returns what it took.
+					mRetryBudget.release(oRetryBudgetAcquired ? RetryBudget.RETRY_COST : RetryBudget.NO_RETRY_INCREMENT);
+					if (oCacheKey != null && !oLeaveConnectionOpen) {
+						cacheMiss(oCacheKey, oResponse, oHttpResponse, oApacheResponse, oMetrics);
+					}
+					return new Response<T>(oResponse, oHttpResponse);
+				}
+
+				oLeaveConnectionOpen = pErrorResponseHandler.needsConnectionLeftOpen();
+				APIServiceException oASE = null;
+				try {
+					oASE = handleErrorResponse(pRequest, pErrorResponseHandler, oHttpRequest, oApacheResponse);
+				} finally {
+					if (oCircuit != null) {
+						recordServerError(oCircuit, oASE, oResponseNanos, oMetrics);
+						oCircuit = null;
+					}
+				}
+				oMetrics.addProperty(APIRequestMetrics.APIRequestID, oASE.getRequestId());
+				oMetrics.addProperty(APIRequestMetrics.APIErrorCode, oASE.getErrorCode());
+				if (RetryUtils.isThrottlingException(oASE)) {
+					oMetrics.incrementCounter(APIRequestMetrics.ThrottleException);
+				}
+				slowDownIfThrottled(oOperationKey, oASE, oApacheResponse);
+				if (!shouldRetry(pRequest, oHttpRequest, oASE, oRequestCount - 1, oRetryPolicy)) {
+					throw oASE;
+				}
+				oRetryBudgetAcquired = true;
+				// Cache the retryable exception
+				oRetriedException = oASE;
+			} catch (IOException ioe) {
+				if (mLogger.isInfoEnabled()) mLogger.info("Unable to execute HTTP request: " + ioe.getMessage(), ioe);
+				oMetrics.incrementCounter(APIRequestMetrics.Exception);
+				oMetrics.addProperty(APIRequestMetrics.Exception, ioe.toString());
+				oMetrics.addProperty(APIRequestMetrics.APIRequestID, null);
+
+				APIClientException ace = new APIClientException("Unable to execute HTTP request: " + ioe.getMessage(), ioe);
+				if (oCircuit != null && oSentAt != 0) {
+					recordOutcome(oCircuit, ace, System.nanoTime() - oSentAt, oMetrics);
+					oCircuit = null;
+				}
+				if (!shouldRetry(pRequest, oHttpRequest, ace, oRequestCount - 1, oRetryPolicy)) {
+					throw ace;
+				}
+				oRetryBudgetAcquired = true;
+				// Cache the retryable exception
+				oRetriedException = ace;
+			} catch (RuntimeException e) {
+				throw handleUnexpectedFailure(e, oMetrics);
+			} catch (Error e) {
+				throw handleUnexpectedFailure(e, oMetrics);
 			} finally {
-				oMetrics.endEvent(APIRequestMetrics.HttpRequestTime);
+				// Outcome not recorded (e.g. request not sent): give the permit back.
+				if (oCircuit != null) oCircuit.release();
+				if (oByteTimingsOpen) {
+					oMetrics.endEvent(APIRequestMetrics.TimeToFirstByte);
+					oMetrics.endEvent(APIRequestMetrics.TimeToLastByte);
+				}
+				/*
+				 * Some response handlers need to manually manage the HTTP
+				 * connection and will take care of releasing the connection on
+				 * their own, but if this response handler doesn't need the
+				 * connection left open, we go ahead and release the it to free
+				 * up resources.
+				 */
+				if (!oLeaveConnectionOpen) {
+					releaseConnection(oApacheResponse);
+				}
 			}
-			oMetrics.addProperty(APIRequestMetrics.StatusCode, oApacheResponse.getStatusLine().getStatusCode());
+		}
+	}
+
+	@Override
+	protected <T> Future<Response<T>> doInvokeAsync(Request<?> pRequest, Unmarshaller<T, R> pUnmarshaller, HttpResponseHandler<APIServiceException> pErrorResponseHandler, ExecutionContext pExecutionContext, FutureCallback<Response<T>> pCallback) {
+		if (mHttpAsyncClient == null) {
+			return super.doInvokeAsync(pRequest, pUnmarshaller, pErrorResponseHandler, pExecutionContext, pCallback);
+		}
+		IMetrics oMetrics = pExecutionContext.getMetrics();
+		oMetrics.addProperty(APIRequestMetrics.ServiceName, pRequest.getServiceName());
+		oMetrics.addProperty(APIRequestMetrics.ServiceEndpoint, pRequest.getEndpoint());
 
-			HttpResponse oHttpResponse = createResponse(oHttpRequest, pRequest, oApacheResponse);
-			T oResponse = handleResponse(pRequest, oResponseHandler, oHttpRequest, oHttpResponse, oApacheResponse, pExecutionContext);
-			return new Response<T>(oResponse, oHttpResponse);
+		setUserAgent(pRequest);
 
-		} catch (IOException ioe) {
-			if (mLogger.isInfoEnabled()) mLogger.info("Unable to execute HTTP request: " + ioe.getMessage(), ioe);
-			oMetrics.incrementCounter(APIRequestMetrics.Exception);
-			oMetrics.addProperty(APIRequestMetrics.Exception, ioe.toString());
-			oMetrics.addProperty(APIRequestMetrics.APIRequestID, null);
+		markContent(pRequest);
 
-			APIClientException ace = new APIClientException("Unable to execute HTTP request: " + ioe.getMessage(), ioe);
-			// TODO
-			/*
-			 * if (!shouldRetry(request.getOriginalRequest(),
-			 * httpRequest,
-			 * ace,
-			 * requestCount,
-			 * config.getRetryPolicy())) {
-			 * throw ace;
-			 * }
-			 */
-			// Cache the retryable exception
-			// oRetriedException = ace;
-			// resetRequestAfterError(pRequest, ioe);
-			throw ace;
-		} catch (RuntimeException e) {
-			throw handleUnexpectedFailure(e, oMetrics);
-		} catch (Error e) {
-			throw handleUnexpectedFailure(e, oMetrics);
+		String oCacheKey = mResponseCache == null ? null : mResponseCache.getKey(pRequest, pUnmarshaller, pExecutionContext.getCredentials());
+		ResponseCache.Entry oCached = oCacheKey == null ? null : mResponseCache.get(oCacheKey);
+		if (oCached != null && oCached.isFresh()) {
+			BasicFuture<Response<T>> oResult = new BasicFuture<Response<T>>(pCallback);
+			oResult.completed(this.<T> cacheHit(oCached, oMetrics));
+			return oResult;
+		}
+
+		AsyncInvocation<T> oInvocation = new AsyncInvocation<T>(pRequest, createResponseHandler(pExecutionContext, pUnmarshaller), pErrorResponseHandler, pExecutionContext, pCallback, oCacheKey, oCached);
+		oInvocation.execute();
+		return oInvocation.mResult;
+	}
+
+	/**
+	 * Non-blocking execution of a request, with the same retry logic as
+	 * {@link AdvancedAPIClient#doInvoke(Request, Unmarshaller, HttpResponseHandler, ExecutionContext)}.
+	 * <p>
+	 * No thread is held while waiting for the service: the response is
+	 * processed in the asynchronous executor and retries are scheduled after
+	 * their back-off delay.
+	 * <p>
+	 * The (not thread-safe) metrics are only used by one thread at a time,
+	 * each step handing them to the next: executors and schedulers order what
+	 * was recorded before submitting a task before the task itself, and the
+	 * I/O reactor callbacks take the lock of the invocation, held while
+	 * sending, to see what was recorded before the request went out.
+	 */
+	private class AsyncInvocation<T> implements FutureCallback<org.apache.http.HttpResponse> {
+		private final Request<?>										mRequest;
+		private final HttpResponseHandler<APIWebServiceResponse<T>>	mResponseHandler;
+		private final HttpResponseHandler<APIServiceException>			mErrorResponseHandler;
+		private final ExecutionContext									mExecutionContext;
+		private final IMetrics											mMetrics;
+		private final RetryPolicy										mRetryPolicy;
+		private final BasicFuture<Response<T>>							mResult;
+		private final String											mCacheKey;
+		private final ResponseCache.Entry								mCached;
+		private final RateLimiter.OperationKey							mOperationKey;
+		private int														mRequestCount;
+		private CircuitBreaker.Circuit									mCircuit;
+		private volatile long											mSentAt;
+		private boolean													mRetryBudgetAcquired;
+		private HttpRequestBase											mHttpRequest;
+		private volatile Future<org.apache.http.HttpResponse>			mHttpFuture;
+
+		public AsyncInvocation(Request<?> pRequest, HttpResponseHandler<APIWebServiceResponse<T>> pResponseHandler, HttpResponseHandler<APIServiceException> pErrorResponseHandler, ExecutionContext pExecutionContext, FutureCallback<Response<T>> pCallback, String pCacheKey, ResponseCache.Entry pCached) {
+			mRequest = pRequest;
+			mCacheKey = pCacheKey;
+			mCached = pCached;
+			mOperationKey = getOperationKey(pRequest);
+			mResponseHandler = pResponseHandler;
+			mErrorResponseHandler = pErrorResponseHandler;
+			mExecutionContext = pExecutionContext;
+			mMetrics = pExecutionContext.getMetrics();
+			mRetryPolicy = getRetryPolicy();
+			mResult = new BasicFuture<Response<T>>(pCallback) {
+				@Override
+				public boolean cancel(boolean pMayInterruptIfRunning) {
+					Future<org.apache.http.HttpResponse> oHttpFuture = mHttpFuture;
+					if (oHttpFuture != null) oHttpFuture.cancel(pMayInterruptIfRunning);
+					return super.cancel(pMayInterruptIfRunning);
+				}
+			};
+		}
+
+		/**
+		 * Sends the next attempt, once the rate limiter (if any) allows it.
+		 */
+		void execute() {
+			if (mResult.isDone()) return;
+			RateLimiter oRateLimiter = getRateLimiter();
+			long oWait = oRateLimiter == null || mOperationKey == null ? 0 : oRateLimiter.reserve(mOperationKey, System.nanoTime());
+			if (oWait <= 0) {
+				send();
+				return;
+			}
+			mMetrics.startEvent(APIRequestMetrics.RateLimiterWaitTime);
+			RetrySchedulerHolder.INSTANCE.schedule(new Runnable() {
+				@Override
+				public void run() {
+					mMetrics.endEvent(APIRequestMetrics.RateLimiterWaitTime);
+					send();
+				}
+			}, oWait, TimeUnit.NANOSECONDS);
+		}
+
+		private synchronized void send() {
+			if (mResult.isDone()) return;
+			// Circuit acquired last: no probe permit held while waiting.
+			try {
+				mCircuit = acquireCircuit(mRequest, mOperationKey, mMetrics);
+			} catch (CircuitBreakerOpenException e) {
+				mResult.failed(e);
+				return;
+			}
+			try {
+				++mRequestCount;
+				mMetrics.setCounter(APIRequestMetrics.RequestCount, mRequestCount);
+				if (mRequestCount > 1) {
+					mMetrics.setCounter(APIRequestMetrics.RetryCount, mRequestCount - 1);
+				}
+				if (mLogger.isDebugEnabled()) mLogger.debug("Sending Request: " + mRequest.toString());
+
+				HttpContext oHttpContext = HttpClientContext.create();
+				// NB: Signing should happen in createHttpRequest().
+				mHttpRequest = mHttpRequestFactory.createHttpRequest(mRequest, getAPIConfiguration(), oHttpContext, mExecutionContext);
+				if (mCached != null) mCached.addConditionalHeaders(mHttpRequest);
+				captureConnectionPoolMetrics(mMetrics);
+				mMetrics.startEvent(APIRequestMetrics.HttpRequestTime);
+				mSentAt = System.nanoTime();
+				mHttpFuture = mHttpAsyncClient.execute(mHttpRequest, oHttpContext, this);
+			} catch (RuntimeException e) {
+				releaseCircuit();
+				mResult.failed(handleUnexpectedFailure(e, mMetrics));
+			}
+		}
+
+		@Override
+		public synchronized void completed(final org.apache.http.HttpResponse pApacheResponse) {
+			mMetrics.endEvent(APIRequestMetrics.HttpRequestTime);
+			final long oResponseNanos = System.nanoTime() - mSentAt;
+			mSentAt = 0;
+			if (mCircuit != null && !isServerError(pApacheResponse)) {
+				recordOutcome(mCircuit, null, oResponseNanos, mMetrics);
+				mCircuit = null;
+			}
+			try {
+				// Unmarshalling can be costly: keep it off the I/O dispatch threads.
+				getAsyncExecutor().execute(new Runnable() {
+					@Override
+					public void run() {
+						processResponse(pApacheResponse, oResponseNanos);
+					}
+				});
+			} catch (RuntimeException e) {
+				// Server error not to be processed: recorded as such.
+				if (mCircuit != null) {
+					recordServerError(mCircuit, null, oResponseNanos, mMetrics);
+					mCircuit = null;
+				}
+				releaseConnection(pApacheResponse);
+				mResult.failed(handleUnexpectedFailure(e, mMetrics));
+			}
+		}
+
+		@Override
+		public synchronized void failed(Exception pException) {
+			mMetrics.endEvent(APIRequestMetrics.HttpRequestTime);
+			handleFailure(pException);
+		}
+
+		@Override
+		public synchronized void cancelled() {
+			mMetrics.endEvent(APIRequestMetrics.HttpRequestTime);
+			releaseCircuit();
+			mResult.cancel(true);
+		}
+
+		/**
+		 * Gives back the circuit permit of an attempt whose outcome won't be
+		 * recorded.
+		 */
+		private void releaseCircuit() {
+			CircuitBreaker.Circuit oCircuit = mCircuit;
+			mCircuit = null;
+			if (oCircuit != null) oCircuit.release();
+		}
+
+		private void handleFailure(Exception pException) {
+			if (!(pException instanceof IOException)) {
+				releaseCircuit();
+				mResult.failed(handleUnexpectedFailure(pException, mMetrics));
+				return;
+			}
+			if (mLogger.isInfoEnabled()) mLogger.info("Unable to execute HTTP request: " + pException.getMessage(), pException);
+			mMetrics.incrementCounter(APIRequestMetrics.Exception);
+			mMetrics.addProperty(APIRequestMetrics.Exception, pException.toString());
+			mMetrics.addProperty(APIRequestMetrics.APIRequestID, null);
+			APIClientException oException = new APIClientException("Unable to execute HTTP request: " + pException.getMessage(), pException);
+			long oSentAt = mSentAt;
+			if (mCircuit != null && oSentAt != 0) {
+				mSentAt = 0;
+				recordOutcome(mCircuit, oException, System.nanoTime() - oSentAt, mMetrics);
+				mCircuit = null;
+			}
+			retryOrFail(oException);
+		}
+
+		private void processResponse(org.apache.http.HttpResponse pApacheResponse, long pResponseNanos) {
+			boolean oLeaveConnectionOpen = false;
+			try {
+				mMetrics.addProperty(APIRequestMetrics.StatusCode, pApacheResponse.getStatusLine().getStatusCode());
+				if (mCached != null && isNotModified(pApacheResponse)) {
+					mRetryBudget.release(mRetryBudgetAcquired ? RetryBudget.RETRY_COST : RetryBudget.NO_RETRY_INCREMENT);
+					mResult.completed(AdvancedAPIClient.this.<T> cacheRevalidated(mCacheKey, mCached, pApacheResponse, mMetrics));
+					return;
+				}
+				if (isRequestSuccessful(pApacheResponse)) {
+					HttpResponse oHttpResponse = createResponse(mHttpRequest, mRequest, pApacheResponse);
+					T oResponse = handleResponse(mRequest, mResponseHandler, mHttpRequest, oHttpResponse, pApacheResponse, mExecutionContext, false);
+					oLeaveConnectionOpen = mResponseHandler.needsConnectionLeftOpen();
+					mRetryBudget.release(mRetryBudgetAcquired ? RetryBudget.RETRY_COST : RetryBudget.NO_RETRY_INCREMENT);
+					if (mCacheKey != null && !oLeaveConnectionOpen) {
+						cacheMiss(mCacheKey, oResponse, oHttpResponse, pApacheResponse, mMetrics);
+					}
+					mResult.completed(new Response<T>(oResponse, oHttpResponse));
+					return;
+				}
+				oLeaveConnectionOpen = mErrorResponseHandler.needsConnectionLeftOpen();
+				APIServiceException oASE = null;
+				try {
+					oASE = handleErrorResponse(mRequest, mErrorResponseHandler, mHttpRequest, pApacheResponse);
+				} finally {
+					if (mCircuit != null) {
+						recordServerError(mCircuit, oASE, pResponseNanos, mMetrics);
+						mCircuit = null;
+					}
+				}
+				mMetrics.addProperty(APIRequestMetrics.APIRequestID, oASE.getRequestId());
+				mMetrics.addProperty(APIRequestMetrics.APIErrorCode, oASE.getErrorCode());
+				if (RetryUtils.isThrottlingException(oASE)) {
+					mMetrics.incrementCounter(APIRequestMetrics.ThrottleException);
+				}
+				slowDownIfThrottled(mOperationKey, oASE, pApacheResponse);
+				retryOrFail(oASE);
+			} catch (IOException ioe) {
+				handleFailure(ioe);
+			} catch (RuntimeException e) {
+				mResult.failed(handleUnexpectedFailure(e, mMetrics));
+			} finally {
+				if (!oLeaveConnectionOpen) {
+					releaseConnection(pApacheResponse);
+				}
+			}
+		}
+
+		/**
+		 * Schedules the next attempt after the back-off delay, or fails with
+		 * the given exception when the request should not be retried.
+		 */
+		private void retryOrFail(APIClientException pException) {
+			int oRetriesAttempted = mRequestCount - 1;
+			if (mResult.isDone() || !shouldRetry(mRequest, mHttpRequest, pException, oRetriesAttempted, mRetryPolicy)) {
+				mResult.failed(pException);
+				return;
+			}
+			mRetryBudgetAcquired = true;
+			long oDelay = mRetryPolicy.getBackoffStrategy().delayBeforeNextRetry(mRequest.getOriginalRequest(), pException, oRetriesAttempted);
+			if (mLogger.isDebugEnabled()) mLogger.debug("Retriable error detected, will retry in " + oDelay + "ms, attempt number: " + (oRetriesAttempted + 1));
+			if (oDelay <= 0) {
+				execute();
+				return;
+			}
+			mMetrics.startEvent(APIRequestMetrics.RetryPauseTime);
+			RetrySchedulerHolder.INSTANCE.schedule(new Runnable() {
+				@Override
+				public void run() {
+					mMetrics.endEvent(APIRequestMetrics.RetryPauseTime);
+					execute();
+				}
+			}, oDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Lazily created scheduler, shared by all clients, for delayed
+	 * asynchronous retries and rate limited requests.
+	 */
+	private static class RetrySchedulerHolder {
+		static final ScheduledExecutorService INSTANCE = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("antiope-retry"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Response<T> cacheHit(ResponseCache.Entry pCached, IMetrics pMetrics) {
+		mResponseCache.recordHit();
+		pMetrics.incrementCounter(APIRequestMetrics.ResponseCacheHit);
+		return new Response<T>((T) pCached.getResult(), pCached.getHttpResponse());
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Response<T> cacheRevalidated(String pCacheKey, ResponseCache.Entry pCached, org.apache.http.HttpResponse pNotModified, IMetrics pMetrics) {
+		mResponseCache.recordRevalidation();
+		pMetrics.incrementCounter(APIRequestMetrics.ResponseCacheRevalidation);
+		mResponseCache.revalidated(pCacheKey, pCached, pNotModified);
+		return new Response<T>((T) pCached.getResult(), pCached.getHttpResponse());
+	}
+
+	private void cacheMiss(String pCacheKey, Object pResult, HttpResponse pHttpResponse, org.apache.http.HttpResponse pApacheResponse, IMetrics pMetrics) {
+		// Only responses which could be cached count as misses.
+		if (mResponseCache.put(pCacheKey, pResult, pHttpResponse, pApacheResponse)) {
+			mResponseCache.recordMiss();
+			pMetrics.incrementCounter(APIRequestMetrics.ResponseCacheMiss);
+		}
+	}
+
+	/**
+	 * Samples the connection pool statistics, if profiling is enabled and the
+	 * pool is known.
+	 */
+	private void captureConnectionPoolMetrics(IMetrics pMetrics) {
+		if (mConnPoolControl == null || !getAPIConfiguration().isProfilingEnabled()) return;
+		PoolStats oStats = mConnPoolControl.getTotalStats();
+		pMetrics.setCounter(APIRequestMetrics.HttpClientPoolAvailableCount, oStats.getAvailable());
+		pMetrics.setCounter(APIRequestMetrics.HttpClientPoolLeasedCount, oStats.getLeased());
+		pMetrics.setCounter(APIRequestMetrics.HttpClientPoolPendingCount, oStats.getPending());
+	}
+
+	/**
+	 * Consumes and closes the given response, if any, so the underlying
+	 * connection goes back to the pool.
+	 */
+	private void releaseConnection(org.apache.http.HttpResponse pApacheResponse) {
+		try {
+			if (pApacheResponse != null) {
+				if (pApacheResponse.getEntity() != null
+						&& pApacheResponse.getEntity().getContent() != null) {
+					pApacheResponse.getEntity().getContent().close();
+				}
+
+				if (pApacheResponse instanceof CloseableHttpResponse) {
+					CloseableHttpResponse oCloseable = (CloseableHttpResponse) pApacheResponse;
+					oCloseable.close();
+				}
+			}
+		} catch (IOException e) {
+			mLogger.warn("Cannot close the response content.", e);
+		}
+	}
+
+	/**
+	 * Returns true if a failed request should be retried, its content then
+	 * being reset to be sent again.
+	 * 
+	 * @param pRequest
+	 *            The request that failed.
+	 * @param pMethod
+	 *            The current HTTP method being executed.
+	 * @param pException
+	 *            The client/service exception from the failed request.
+	 * @param pRetriesAttempted
+	 *            The number of times the current request has been retried.
+	 * @param pRetryPolicy
+	 *            The retry policy configured in this client.
+	 * @return True if the failed request should be retried.
+	 */
+	private boolean shouldRetry(Request<?> pRequest, HttpRequestBase pMethod, APIClientException pException, int pRetriesAttempted, RetryPolicy pRetryPolicy) {
+		if (pRetriesAttempted >= pRetryPolicy.getMaxErrorRetry(getAPIConfiguration())) {
+			return false;
+		}
+
+		if (pMethod instanceof HttpEntityEnclosingRequest) {
+			HttpEntity oEntity = ((HttpEntityEnclosingRequest) pMethod).getEntity();
+			if (oEntity != null && !oEntity.isRepeatable()) {
+				if (mLogger.isDebugEnabled()) mLogger.debug("Entity not repeatable");
+				return false;
+			}
+		}
+
+		if (!pRetryPolicy.getRetryCondition().shouldRetry(pRequest.getOriginalRequest(), pException, pRetriesAttempted)) {
+			return false;
+		}
+
+		if (!resetContent(pRequest)) {
+			if (mLogger.isDebugEnabled()) mLogger.debug("Content can't be reset, not retrying: " + pException.getMessage());
+			return false;
+		}
+
+		if (!mRetryBudget.tryAcquire()) {
+			if (mLogger.isDebugEnabled()) mLogger.debug("Retry budget exhausted, not retrying: " + pException.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Sleeps for a period of time on failed request to avoid flooding a
+	 * service with retries.
+	 * 
+	 * @param pRequest
+	 *            The request being retried.
+	 * @param pPreviousException
+	 *            The exception of the previous attempt.
+	 * @param pRetriesAttempted
+	 *            Number of retries already attempted.
+	 * @param pRetryPolicy
+	 *            The retry policy configured in this client.
+	 * @param pMetrics
+	 *            Metrics, where the pause is recorded as {@link APIRequestMetrics#RetryPauseTime}.
+	 */
+	private void pauseBeforeNextRetry(Request<?> pRequest, APIClientException pPreviousException, int pRetriesAttempted, RetryPolicy pRetryPolicy, IMetrics pMetrics) {
+		long oDelay = pRetryPolicy.getBackoffStrategy().delayBeforeNextRetry(pRequest.getOriginalRequest(), pPreviousException, pRetriesAttempted);
+		if (mLogger.isDebugEnabled()) mLogger.debug("Retriable error detected, will retry in " + oDelay + "ms, attempt number: " + (pRetriesAttempted + 1));
+		if (oDelay <= 0) return;
+		pMetrics.startEvent(APIRequestMetrics.RetryPauseTime);
+		try {
+			Thread.sleep(oDelay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new APIClientException(e.getMessage(), e);
 		} finally {
-			/*
-			 * Some response handlers need to manually manage the HTTP
-			 * connection and will take care of releasing the connection on
-			 * their own, but if this response handler doesn't need the
-			 * connection left open, we go ahead and release the it to free
-			 * up resources.
-			 */
-			 if (oResponseHandler != null && !oResponseHandler.needsConnectionLeftOpen()) {
-				 try {
-					 if (oApacheResponse != null) {
-						 if (oApacheResponse.getEntity() != null
-							 && oApacheResponse.getEntity().getContent() != null) {
-						 oApacheResponse.getEntity().getContent().close();
-						 }
-						 
-						 if (oApacheResponse instanceof CloseableHttpResponse) {
-							 CloseableHttpResponse oCloseable = (CloseableHttpResponse) oApacheResponse;
-							 oCloseable.close();
-						 }
-					 }
-				 } catch (IOException e) {
-				 mLogger.warn("Cannot close the response content.", e);
-				 }
-			 }
+			pMetrics.endEvent(APIRequestMetrics.RetryPauseTime);
 		}
+	}
+
+	/**
+	 * Returns the endpoint and operation of the given request, shared by the
+	 * rate limiter and circuit breaker for all its attempts, or null when
+	 * neither is set.
+	 */
+	private RateLimiter.OperationKey getOperationKey(Request<?> pRequest) {
+		if (mCircuitBreaker == null && getRateLimiter() == null) return null;
+		return RateLimiter.OperationKey.of(pRequest);
+	}
+
+	/**
+	 * Asks the circuit breaker, if any, to let the request through.
+	 * 
+	 * @return circuit to record the outcome on, or null without circuit
+	 *         breaker.
+	 * @throws CircuitBreakerOpenException
+	 *             when the circuit is open, counted as
+	 *             {@link APIRequestMetrics#CircuitBreakerRejected}.
+	 */
+	private CircuitBreaker.Circuit acquireCircuit(Request<?> pRequest, RateLimiter.OperationKey pKey, IMetrics pMetrics) {
+		CircuitBreaker oCircuitBreaker = mCircuitBreaker;
+		if (oCircuitBreaker == null || pKey == null) return null;
+		CircuitBreaker.Circuit oCircuit = oCircuitBreaker.tryAcquire(pKey, System.nanoTime());
+		if (oCircuit == null) {
+			pMetrics.incrementCounter(APIRequestMetrics.CircuitBreakerRejected);
+			throw new CircuitBreakerOpenException("Circuit breaker open for " + pRequest.getEndpoint() + ", request not sent.");
+		}
+		return oCircuit;
+	}
+
+	/**
+	 * Records the outcome of an attempt on its circuit, noting any state
+	 * change as {@link APIRequestMetrics#CircuitBreakerState}.
+	 */
+	private static void recordOutcome(CircuitBreaker.Circuit pCircuit, APIClientException pException, long pDurationNanos, IMetrics pMetrics) {
+		CircuitBreaker.State oNewState = pCircuit.record(pException, pDurationNanos);
+		if (oNewState != null) pMetrics.addProperty(APIRequestMetrics.CircuitBreakerState, oNewState.name());
+	}
+
+	/**
+	 * Records a server error (5xx) on its circuit, whether or not its error
+	 * response could be read (null exception): throttling aside, it is a
+	 * failure of the service all the same.
+	 */
+	private static void recordServerError(CircuitBreaker.Circuit pCircuit, APIServiceException pException, long pDurationNanos, IMetrics pMetrics) {
+		boolean oFailure = pException == null || CircuitBreaker.isFailure(pException);
+		CircuitBreaker.State oNewState = pCircuit.record(oFailure, pDurationNanos, System.nanoTime());
+		if (oNewState != null) pMetrics.addProperty(APIRequestMetrics.CircuitBreakerState, oNewState.name());
+	}
+
+	private static boolean isServerError(org.apache.http.HttpResponse pApacheResponse) {
+		return pApacheResponse.getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+	}
+
+	/**
+	 * Waits for the rate limiter, if any, to let the request through. The
+	 * wait is recorded as {@link APIRequestMetrics#RateLimiterWaitTime}.
+	 */
+	private void waitForRateLimiter(RateLimiter.OperationKey pKey, IMetrics pMetrics) {
+		RateLimiter oRateLimiter = getRateLimiter();
+		if (oRateLimiter == null || pKey == null) return;
+		long oWait = oRateLimiter.reserve(pKey, System.nanoTime());
+		if (oWait <= 0) return;
+		pMetrics.startEvent(APIRequestMetrics.RateLimiterWaitTime);
+		try {
+			TimeUnit.NANOSECONDS.sleep(oWait);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new APIClientException(e.getMessage(), e);
+		} finally {
+			pMetrics.endEvent(APIRequestMetrics.RateLimiterWaitTime);
+		}
+	}
 
+	/**
+	 * Slows down the rate limiter, if any, when the service throttled the
+	 * request or asked to retry after some time.
+	 */
+	private void slowDownIfThrottled(RateLimiter.OperationKey pKey, APIServiceException pException, org.apache.http.HttpResponse pApacheResponse) {
+		RateLimiter oRateLimiter = getRateLimiter();
+		if (oRateLimiter == null || pKey == null) return;
+		Header oRetryAfter = pApacheResponse.getFirstHeader(HEADER_RETRY_AFTER);
+		if (oRetryAfter == null && !RetryUtils.isThrottlingException(pException)) return;
+		oRateLimiter.throttled(pKey, oRetryAfter == null ? -1 : RateLimiter.parseRetryAfter(oRetryAfter.getValue(), System.currentTimeMillis()), System.nanoTime());
+	}
+
+	/**
+	 * Returns the retry policy from the configuration, or the default one if
+	 * none was set.
+	 */
+	private RetryPolicy getRetryPolicy() {
+		RetryPolicy oRetryPolicy = getAPIConfiguration().getRetryPolicy();
+		return oRetryPolicy == null ? APIConfiguration.DEFAULT_RETRY_POLICY : oRetryPolicy;
 	}
 
 	/**
@@ -191,32 +902,36 @@ public abstract class AdvancedAPIClient<R> extends BaseAPIClient<R> {
 	}
 
 	/**
-	 * Resets the specified request, so that it can be sent again, after
-	 * receiving the specified error. If a problem is encountered with resetting
-	 * the request, then an TSGClientException is thrown with the original
-	 * error as the cause (not an error about being unable to reset the stream).
+	 * Marks the content of the given request, if any, so it can be sent again
+	 * on retry, up to {@link APIConfiguration#getStreamReadLimit()} bytes.
+	 */
+	private void markContent(Request<?> pRequest) {
+		if (pRequest.getContent() != null && pRequest.getContent().markSupported()) {
+			pRequest.getContent().mark(getAPIConfiguration().getStreamReadLimit());
+		}
+	}
+
+	/**
+	 * Resets the content of the given request, if any, so that it can be sent
+	 * again.
 	 * 
-	 * @param request
+	 * @param pRequest
 	 *            The request being executed that failed and needs to be reset.
-	 * @param cause
-	 *            The original error that caused the request to fail.
-	 * @throws TSGClientException
-	 *             If the request can't be reset.
+	 * @return False if the content can't be reset, either not supporting it
+	 *         or having been read past its read limit.
 	 */
-	private void resetRequestAfterError(Request<?> request, Exception cause) throws APIClientException {
-		if (request.getContent() == null) {
-			return; // no reset needed
+	private boolean resetContent(Request<?> pRequest) {
+		if (pRequest.getContent() == null) {
+			return true; // no reset needed
 		}
-		if (!request.getContent().markSupported()) {
-			throw new APIClientException("Encountered an exception and stream is not resettable", cause);
+		if (!pRequest.getContent().markSupported()) {
+			return false;
 		}
 		try {
-			request.getContent().reset();
+			pRequest.getContent().reset();
+			return true;
 		} catch (IOException e) {
-			// This exception comes from being unable to reset the input stream,
-			// so throw the original, more meaningful exception
-			throw new APIClientException(
-					"Encountered an exception and couldn't reset the stream to retry", cause);
+			return false;
 		}
 	}
 
@@ -246,6 +961,8 @@ public abstract class AdvancedAPIClient<R> extends BaseAPIClient<R> {
 
 		APIServiceException exception = null;
 		try {
+			// A corrupt or unsupported Content-Encoding is an unreadable body, not an I/O error
+			decompress(response, apacheHttpResponse);
 			exception = errorResponseHandler.handle(response);
 			if (mLogger.isDebugEnabled()) mLogger.debug("Received error response: " + exception.toString());
 		} catch (Exception e) {
@@ -263,6 +980,16 @@ public abstract class AdvancedAPIClient<R> extends BaseAPIClient<R> {
 				exception.setStatusCode(503);
 				exception.setErrorType(ErrorType.Service);
 				exception.setErrorCode("Service unavailable");
+			} else if (status >= 500 || status == 429) {
+				/*
+				 * Keep server errors and throttling as service exceptions, even
+				 * without a readable body, so they can be classified (and retried).
+				 */
+				exception = new APIServiceException(status + " " + apacheHttpResponse.getStatusLine().getReasonPhrase());
+				exception.setServiceName(request.getServiceName());
+				exception.setStatusCode(status);
+				exception.setErrorType(status == 429 ? ErrorType.Client : ErrorType.Service);
+				exception.setErrorCode(apacheHttpResponse.getStatusLine().getReasonPhrase());
 			} else {
 				String errorMessage = "Unable to unmarshall error response (" + e.getMessage() + ")";
 				throw new APIClientException(errorMessage, e);
@@ -297,26 +1024,38 @@ public abstract class AdvancedAPIClient<R> extends BaseAPIClient<R> {
 	 * @param pExecutionContext
 	 *            Extra state information about the request currently being
 	 *            executed.
+	 * @param pLiveContent
+	 *            true when the content is read from the connection (rather
+	 *            than buffered by the asynchronous client): its time to first
+	 *            and last byte, and throughput, are then recorded.
 	 * @return The contents of the response, unmarshalled using the specified
 	 *         response handler.
 	 * @throws IOException
 	 *             If any problems were encountered reading the response
 	 *             contents from the HTTP method object.
 	 */
-	protected <T> T handleResponse(Request<?> pRequest, HttpResponseHandler<APIWebServiceResponse<T>> pResponseHandler, HttpRequestBase pMethod, HttpResponse pHttpResponse, org.apache.http.HttpResponse pApacheHttpResponse, ExecutionContext pExecutionContext) throws IOException {
-		if (pResponseHandler.needsConnectionLeftOpen() && pMethod instanceof HttpEntityEnclosingRequest) {
-			HttpEntityEnclosingRequest httpEntityEnclosingRequest = (HttpEntityEnclosingRequest) pMethod;
-			pHttpResponse.setContent(new HttpMethodReleaseInputStream(httpEntityEnclosingRequest));
+	protected <T> T handleResponse(Request<?> pRequest, HttpResponseHandler<APIWebServiceResponse<T>> pResponseHandler, HttpRequestBase pMethod, HttpResponse pHttpResponse, org.apache.http.HttpResponse pApacheHttpResponse, ExecutionContext pExecutionContext, boolean pLiveContent) throws IOException {
+		if (pResponseHandler.needsConnectionLeftOpen() && pHttpResponse.getContent() != null) {
+			// The handler (or what it returns) closes the content: releases the connection, or aborts if not fully read.
+			pHttpResponse.setContent(new HttpMethodReleaseInputStream(pHttpResponse.getContent(), pMethod));
 		}
 
+		MetricsInputStream oMetricsContent = null;
 		try {
-			CountingInputStream countingInputStream = null;
+			IMetrics oMetrics = pExecutionContext.getMetrics();
 			if (getAPIConfiguration().isProfilingEnabled()) {
-				countingInputStream = new CountingInputStream(pHttpResponse.getContent());
-				pHttpResponse.setContent(countingInputStream);
+				if (pHttpResponse.getContent() != null) {
+					oMetricsContent = new MetricsInputStream(pHttpResponse.getContent(), oMetrics, pLiveContent);
+					pHttpResponse.setContent(oMetricsContent);
+				} else if (pLiveContent) {
+					oMetrics.endEvent(APIRequestMetrics.TimeToFirstByte);
+					oMetrics.endEvent(APIRequestMetrics.TimeToLastByte);
+				}
 			}
+			// Decompressed over the metrics, counting the bytes received.
+			InflatingInputStream oInflatingContent = decompress(pHttpResponse, pApacheHttpResponse);
 
-			IMetrics oMetrics = pExecutionContext.getMetrics();
+			pHttpResponse.setMetrics(oMetrics);
 			APIWebServiceResponse<? extends T> oAPIResponse;
 			oMetrics.startEvent(APIRequestMetrics.ResponseProcessingTime);
 			try {
@@ -324,8 +1063,13 @@ public abstract class AdvancedAPIClient<R> extends BaseAPIClient<R> {
 			} finally {
 				oMetrics.endEvent(APIRequestMetrics.ResponseProcessingTime);
 			}
-			if (countingInputStream != null) {
-				oMetrics.setCounter(APIRequestMetrics.BytesProcessed, countingInputStream.getByteCount());
+			if (oMetricsContent != null) {
+				if (oInflatingContent != null) {
+					oMetrics.setCounter(APIRequestMetrics.BytesProcessed, oInflatingContent.getBytesInflated());
+					oMetrics.setCounter(APIRequestMetrics.ResponseDecompressionTime, TimeUnit.NANOSECONDS.toMicros(oInflatingContent.getInflateTimeNano()));
+				} else {
+					oMetrics.setCounter(APIRequestMetrics.BytesProcessed, oMetricsContent.getByteCount());
+				}
 			}
 
 			if (oAPIResponse == null) throw new APIClientException("Unable to unmarshall response metadata");
@@ -343,9 +1087,25 @@ public abstract class AdvancedAPIClient<R> extends BaseAPIClient<R> {
 		} catch (Exception e) {
 			String errorMessage = "Unable to unmarshall response (" + e.getMessage() + ")";
 			throw new APIClientException(errorMessage, e);
+		} finally {
+			// content left to the caller (streaming) is not accounted for past this point
+			if (oMetricsContent != null) oMetricsContent.finish();
 		}
 	}
 
+	/**
+	 * Decodes the content of the given response if it is compressed.
+	 * 
+	 * @return decoding stream set as content, or null.
+	 */
+	private static InflatingInputStream decompress(HttpResponse pHttpResponse, org.apache.http.HttpResponse pApacheHttpResponse) throws IOException {
+		Header oContentEncoding = pApacheHttpResponse.getFirstHeader(HTTP.CONTENT_ENCODING);
+		if (oContentEncoding == null) return null;
+		InflatingInputStream oContent = InflatingInputStream.forEncoding(pHttpResponse.getContent(), oContentEncoding.getValue());
+		if (oContent != null) pHttpResponse.setContent(oContent);
+		return oContent;
+	}
+
 	private HttpResponse createResponse(HttpRequestBase method, Request<?> request, org.apache.http.HttpResponse apacheHttpResponse) throws IOException {
 		HttpResponse httpResponse = new HttpResponse(/* request, */method);
 
@@ -369,6 +1129,10 @@ public abstract class AdvancedAPIClient<R> extends BaseAPIClient<R> {
 				response.getHeaders("Location").length > 0;
 	}
 
+	private static boolean isNotModified(org.apache.http.HttpResponse response) {
+		return response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED;
+	}
+
 	private boolean isRequestSuccessful(org.apache.http.HttpResponse response) {
 		int status = response.getStatusLine().getStatusCode();
 		return status / 100 == HttpStatus.SC_OK / 100;
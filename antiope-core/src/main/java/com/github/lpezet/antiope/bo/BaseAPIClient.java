@@ -22,7 +22,20 @@
  */
 package com.github.lpezet.antiope.bo;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,7 +53,12 @@ import com.github.lpezet.antiope.dao.ExecutionContext;
 import com.github.lpezet.antiope.dao.HttpResponseHandler;
 import com.github.lpezet.antiope.dao.Request;
 import com.github.lpezet.antiope.dao.Response;
+import com.github.lpezet.antiope.dao.StaxErrorResponseHandler;
+import com.github.lpezet.antiope.metrics.APIRequestMetrics;
+import com.github.lpezet.antiope.metrics.ArrayMetrics;
+import com.github.lpezet.antiope.metrics.IMetrics;
 import com.github.lpezet.antiope.transform.Unmarshaller;
+import com.github.lpezet.antiope.util.DaemonThreadFactory;
 
 /**
  * @author luc
@@ -50,6 +68,18 @@ public abstract class BaseAPIClient<R> extends AbstractClient {
 	
 	protected final Logger	logger	= LoggerFactory.getLogger(this.getClass());
 	
+	/**
+	 * Permits for asynchronous requests in flight.
+	 */
+	private final Semaphore mAsyncPermits;
+	
+	/**
+	 * Executor used to process (unmarshall) asynchronous responses.
+	 */
+	private Executor mAsyncExecutor;
+	
+	private RequestCoalescer mRequestCoalescer;
+	
 	public BaseAPIClient(APIConfiguration pConfiguration) {
 		this(pConfiguration, new DefaultAPICredentialsProviderChain(pConfiguration));
 	}
@@ -61,28 +91,377 @@ public abstract class BaseAPIClient<R> extends AbstractClient {
 	public BaseAPIClient(APIConfiguration pConfiguration, IAPICredentialsProvider pCrendentialsProvider) {
 		super(pConfiguration);
 		setCredentialsProvider(pCrendentialsProvider);
+		mAsyncPermits = new Semaphore(pConfiguration.getMaxAsyncRequests());
 	}
 
-	protected <X, Y extends APIWebServiceRequest> Response<X> invoke(Request<Y> request, Unmarshaller<X, R> unmarshaller, ExecutionContext executionContext) {
-			request.setEndpoint(getEndpoint());
-			//logger.debug("Endpoint = " + getEndpoint());
-			APIWebServiceRequest originalRequest = request.getOriginalRequest();
-			if (originalRequest != null) {
-				for (Entry<String, String> entry : originalRequest.copyPrivateRequestParameters().entrySet()) {
-					request.addParameter(entry.getKey(), entry.getValue());
+	protected <X, Y extends APIWebServiceRequest> Response<X> invoke(final Request<Y> request, final Unmarshaller<X, R> unmarshaller, final ExecutionContext executionContext) {
+			beforeInvoke(request, executionContext);
+			final HttpResponseHandler<APIServiceException> errorResponseHandler = createErrorResponseHandler();
+			String oCoalescingKey = mRequestCoalescer == null ? null : mRequestCoalescer.getKey(request, unmarshaller, executionContext.getCredentials());
+			if (oCoalescingKey == null) {
+				return doInvoke(request, unmarshaller, errorResponseHandler, executionContext);
+			}
+			return mRequestCoalescer.execute(oCoalescingKey, new RequestCoalescer.Call<Response<X>>() {
+				@Override
+				public Response<X> call() {
+					return doInvoke(request, unmarshaller, errorResponseHandler, executionContext);
+				}
+			}, new Runnable() {
+				@Override
+				public void run() {
+					executionContext.getMetrics().incrementCounter(APIRequestMetrics.RequestCoalesced);
 				}
+			});
+		}
+	
+	/**
+	 * Asynchronous version of {@link #invoke(Request, Unmarshaller, ExecutionContext)}.
+	 * <p>
+	 * When the maximum number of asynchronous requests in flight is reached
+	 * (see {@link APIConfiguration#getMaxAsyncRequests()}), the caller is
+	 * blocked until one completes.
+	 * <p>
+	 * As with {@link #invoke(Request, Unmarshaller, ExecutionContext)}, the
+	 * caller starts {@link APIRequestMetrics#ClientExecuteTime}, but does not
+	 * end the execution: it is ended, and its metrics collected, by the thread
+	 * completing the request, whatever the outcome. The execution context must
+	 * not be used by the caller afterwards.
+	 * 
+	 * @param request
+	 *            request.
+	 * @param unmarshaller
+	 *            unmarshaller.
+	 * @param executionContext
+	 *            execution context.
+	 * @param callback
+	 *            optional callback, notified once the response is processed.
+	 * @return Future of the response.
+	 */
+	protected <X, Y extends APIWebServiceRequest> Future<Response<X>> invokeAsync(Request<Y> request, Unmarshaller<X, R> unmarshaller, ExecutionContext executionContext, FutureCallback<Response<X>> callback) {
+		try {
+			mAsyncPermits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new APIClientException("Interrupted while waiting to send request.", e);
+		}
+		try {
+			beforeInvoke(request, executionContext);
+			HttpResponseHandler<APIServiceException> errorResponseHandler = createErrorResponseHandler();
+			AsyncCompletionCallback<X> oCompletion = new AsyncCompletionCallback<X>(request, executionContext.getMetrics(), callback);
+			oCompletion.mFuture = doInvokeAsync(request, unmarshaller, errorResponseHandler, executionContext, oCompletion);
+			return oCompletion.mResult;
+		} catch (RuntimeException e) {
+			try {
+				endClientExecution(executionContext.getMetrics(), request, null);
+			} finally {
+				mAsyncPermits.release();
 			}
-			IAPICredentials credentials = getCredentialsProvider().getCredentials();
-			if (originalRequest != null && originalRequest.getCredentials() != null) {
-				credentials = originalRequest.getCredentials();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Same as {@link #invokeAll(Collection, Operation, int, BatchListener)}
+	 * without listener.
+	 */
+	public <Y, X> BatchResult<X> invokeAll(Collection<? extends Y> pRequests, Operation<Y, X> pOperation, int pMaxConcurrency) {
+		return invokeAll(pRequests, pOperation, pMaxConcurrency, null);
+	}
+	
+	/**
+	 * Runs the given operation (typically one of the client's API methods)
+	 * on each request, with up to the given number of calls at once, and
+	 * waits for all of them.
+	 * <p>
+	 * Calls are pulled from the batch by as many workers as calls at once
+	 * (the caller being one of them), each keeping its connection busy until
+	 * the batch is drained. The concurrency is capped to the connections
+	 * available to the client's endpoint (see
+	 * {@link APIConfiguration#getMaxConnectionsForEndpoint(java.net.URI)} and
+	 * {@link APIConfiguration#getMaxConnections()}): more would only wait
+	 * for a connection.
+	 * <p>
+	 * Failures are isolated: an exception thrown by a call is recorded as its
+	 * outcome and the others go on.
+	 * 
+	 * @param pRequests
+	 *            requests.
+	 * @param pOperation
+	 *            operation to run on each request.
+	 * @param pMaxConcurrency
+	 *            maximum number of calls at once.
+	 * @param pListener
+	 *            optional listener, notified of each outcome in completion order.
+	 * @return outcomes, in input order.
+	 */
+	public <Y, X> BatchResult<X> invokeAll(Collection<? extends Y> pRequests, Operation<Y, X> pOperation, int pMaxConcurrency, BatchListener<Y, X> pListener) {
+		List<Y> oRequests = new ArrayList<Y>(pRequests);
+		APIConfiguration oConfiguration = getAPIConfiguration();
+		int oConcurrency = Math.min(pMaxConcurrency, Math.min(oConfiguration.getMaxConnectionsForEndpoint(getEndpoint()), oConfiguration.getMaxConnections()));
+		oConcurrency = Math.max(1, Math.min(oConcurrency, oRequests.size()));
+		BatchResult<X> oResult = new BatchResult<X>(oRequests.size(), oConcurrency);
+		BatchWorker<Y, X> oWorker = new BatchWorker<Y, X>(oRequests, pOperation, pListener, oResult, oConcurrency);
+		long oStart = System.nanoTime();
+		for (int i = 1; i < oConcurrency; i++) {
+			try {
+				getAsyncExecutor().execute(oWorker);
+			} catch (RejectedExecutionException e) {
+				// one worker less, the others drain the batch
+				oWorker.mDone.countDown();
 			}
-
-			executionContext.setCredentials(credentials);
-			
-			DefaultErrorResponseHandler errorResponseHandler = new DefaultErrorResponseHandler(mExceptionUnmarshallers);
-			return doInvoke(request, unmarshaller, errorResponseHandler, executionContext);
 		}
+		oWorker.run();
+		try {
+			oWorker.mDone.await();
+		} catch (InterruptedException e) {
+			oWorker.mCancelled = true;
+			Thread.currentThread().interrupt();
+			throw new APIClientException("Interrupted while waiting for batch to complete.", e);
+		}
+		oResult.done(System.nanoTime() - oStart);
+		if (logger.isDebugEnabled()) logger.debug("Batch: " + oResult);
+		return oResult;
+	}
+	
+	private void beforeInvoke(Request<?> request, ExecutionContext executionContext) {
+		request.setEndpoint(getEndpoint());
+		//logger.debug("Endpoint = " + getEndpoint());
+		APIWebServiceRequest originalRequest = request.getOriginalRequest();
+		if (originalRequest != null) {
+			for (Entry<String, String> entry : originalRequest.copyPrivateRequestParameters().entrySet()) {
+				request.addParameter(entry.getKey(), entry.getValue());
+			}
+		}
+		IAPICredentials credentials = originalRequest != null ? originalRequest.getCredentials() : null;
+		if (credentials == null) {
+			// Slow providers show here (see CachingCredentialsProvider).
+			executionContext.getMetrics().startEvent(APIRequestMetrics.CredentialsRequestTime);
+			try {
+				credentials = getCredentialsProvider().getCredentials();
+			} finally {
+				executionContext.getMetrics().endEvent(APIRequestMetrics.CredentialsRequestTime);
+			}
+		}
+
+		executionContext.setCredentials(credentials);
+	}
 	
+	/**
+	 * Creates the handler for error responses. Clients registering exception
+	 * unmarshallers get a {@link DefaultErrorResponseHandler} using them,
+	 * others a {@link StaxErrorResponseHandler}, which only pulls out the
+	 * error code, message and request id without building a DOM.
+	 * 
+	 * @return error response handler.
+	 */
+	protected HttpResponseHandler<APIServiceException> createErrorResponseHandler() {
+		if (mExceptionUnmarshallers.isEmpty()) return new StaxErrorResponseHandler();
+		return new DefaultErrorResponseHandler(mExceptionUnmarshallers);
+	}
+
 	protected abstract <T> Response<T> doInvoke(Request<?> pRequest, Unmarshaller<T, R> pUnmarshaller, HttpResponseHandler<APIServiceException> pErrorResponseHandler, ExecutionContext pExecutionContext) throws APIClientException, APIServiceException;
 	
+	/**
+	 * Executes the request asynchronously. This default implementation runs
+	 * {@link #doInvoke(Request, Unmarshaller, HttpResponseHandler, ExecutionContext)}
+	 * in the asynchronous executor: it still takes one thread per request in
+	 * flight. Sub-classes with a non-blocking transport should override it.
+	 * 
+	 * @param pRequest
+	 *            request.
+	 * @param pUnmarshaller
+	 *            unmarshaller.
+	 * @param pErrorResponseHandler
+	 *            error response handler.
+	 * @param pExecutionContext
+	 *            execution context.
+	 * @param pCallback
+	 *            callback to notify once the response is processed.
+	 * @return Future of the response.
+	 */
+	protected <T> Future<Response<T>> doInvokeAsync(final Request<?> pRequest, final Unmarshaller<T, R> pUnmarshaller, final HttpResponseHandler<APIServiceException> pErrorResponseHandler, final ExecutionContext pExecutionContext, FutureCallback<Response<T>> pCallback) {
+		final BasicFuture<Response<T>> oResult = new BasicFuture<Response<T>>(pCallback);
+		getAsyncExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					oResult.completed(doInvoke(pRequest, pUnmarshaller, pErrorResponseHandler, pExecutionContext));
+				} catch (Exception e) {
+					oResult.failed(e);
+				}
+			}
+		});
+		return oResult;
+	}
+	
+	/**
+	 * Returns the executor used to process asynchronous responses. Unless set,
+	 * a shared pool of daemon threads is used.
+	 * 
+	 * @return Executor
+	 */
+	public Executor getAsyncExecutor() {
+		return mAsyncExecutor != null ? mAsyncExecutor : DefaultAsyncExecutorHolder.INSTANCE;
+	}
+	
+	public void setAsyncExecutor(Executor pAsyncExecutor) {
+		mAsyncExecutor = pAsyncExecutor;
+	}
+	
+	public RequestCoalescer getRequestCoalescer() {
+		return mRequestCoalescer;
+	}
+	
+	/**
+	 * Enables coalescing of identical GET/HEAD requests in flight: only one
+	 * goes over the network and the others share its response. Disabled
+	 * unless set.
+	 * 
+	 * @param pRequestCoalescer
+	 *            request coalescer.
+	 */
+	public void setRequestCoalescer(RequestCoalescer pRequestCoalescer) {
+		mRequestCoalescer = pRequestCoalescer;
+	}
+	
+	/**
+	 * Lazily created executor shared by all clients.
+	 */
+	private static class DefaultAsyncExecutorHolder {
+		static final Executor INSTANCE = Executors.newCachedThreadPool(new DaemonThreadFactory("antiope-async"));
+	}
+	
+	/**
+	 * Operation run on each request of a batch.
+	 */
+	public interface Operation<Y, X> {
+		X invoke(Y pRequest) throws Exception;
+	}
+	
+	/**
+	 * Notified of the outcome of each call of a batch, as they complete (by
+	 * the thread which ran the call).
+	 */
+	public interface BatchListener<Y, X> {
+		void completed(int pIndex, Y pRequest, X pResult);
+		
+		void failed(int pIndex, Y pRequest, Exception pException);
+	}
+	
+	/**
+	 * Pulls calls from a batch until it's drained.
+	 */
+	private class BatchWorker<Y, X> implements Runnable {
+		private final List<Y> mRequests;
+		private final Operation<Y, X> mOperation;
+		private final BatchListener<Y, X> mListener;
+		private final BatchResult<X> mResult;
+		private final AtomicInteger mNext = new AtomicInteger();
+		private final CountDownLatch mDone;
+		private volatile boolean mCancelled;
+		
+		public BatchWorker(List<Y> pRequests, Operation<Y, X> pOperation, BatchListener<Y, X> pListener, BatchResult<X> pResult, int pWorkers) {
+			mRequests = pRequests;
+			mOperation = pOperation;
+			mListener = pListener;
+			mResult = pResult;
+			mDone = new CountDownLatch(pWorkers);
+		}
+		
+		@Override
+		public void run() {
+			try {
+				int i;
+				while (!mCancelled && (i = mNext.getAndIncrement()) < mRequests.size()) {
+					Y oRequest = mRequests.get(i);
+					long oStart = System.nanoTime();
+					X oResult;
+					try {
+						oResult = mOperation.invoke(oRequest);
+					} catch (Exception e) {
+						mResult.failed(i, e, System.nanoTime() - oStart);
+						if (mListener != null) notifyFailed(i, oRequest, e);
+						continue;
+					}
+					mResult.completed(i, oResult, System.nanoTime() - oStart);
+					if (mListener != null) notifyCompleted(i, oRequest, oResult);
+				}
+			} finally {
+				mDone.countDown();
+			}
+		}
+		
+		private void notifyCompleted(int pIndex, Y pRequest, X pResult) {
+			try {
+				mListener.completed(pIndex, pRequest, pResult);
+			} catch (RuntimeException e) {
+				logger.warn("Batch listener failed.", e);
+			}
+		}
+		
+		private void notifyFailed(int pIndex, Y pRequest, Exception pException) {
+			try {
+				mListener.failed(pIndex, pRequest, pException);
+			} catch (RuntimeException e) {
+				logger.warn("Batch listener failed.", e);
+			}
+		}
+	}
+	
+	/**
+	 * Ends the execution of an asynchronous request once it is done, on the
+	 * thread completing it: its metrics are collected (and pooled ones
+	 * released) and its permit released, before completing the Future
+	 * returned to the caller and notifying its callback.
+	 */
+	private class AsyncCompletionCallback<T> implements FutureCallback<Response<T>> {
+		private final Request<?> mRequest;
+		private final IMetrics mMetrics;
+		private final BasicFuture<Response<T>> mResult;
+		private volatile Future<Response<T>> mFuture;
+		
+		public AsyncCompletionCallback(Request<?> pRequest, IMetrics pMetrics, FutureCallback<Response<T>> pCallback) {
+			mRequest = pRequest;
+			mMetrics = pMetrics;
+			mResult = new BasicFuture<Response<T>>(pCallback) {
+				@Override
+				public boolean cancel(boolean pMayInterruptIfRunning) {
+					Future<Response<T>> oFuture = mFuture;
+					if (oFuture != null) oFuture.cancel(pMayInterruptIfRunning);
+					return super.cancel(pMayInterruptIfRunning);
+				}
+			};
+		}
+		
+		@Override
+		public void completed(Response<T> pResult) {
+			end(pResult);
+			mResult.completed(pResult);
+		}
+		
+		@Override
+		public void failed(Exception pException) {
+			end(null);
+			mResult.failed(pException);
+		}
+		
+		@Override
+		public void cancelled() {
+			// the request may still be running and recording metrics
+			if (mMetrics instanceof ArrayMetrics) ((ArrayMetrics) mMetrics).discard();
+			end(null);
+			mResult.cancel(true);
+		}
+		
+		private void end(Response<T> pResponse) {
+			try {
+				endClientExecution(mMetrics, mRequest, pResponse);
+			} catch (RuntimeException e) {
+				logger.warn("Unable to collect metrics of asynchronous request.", e);
+			} finally {
+				mAsyncPermits.release();
+			}
+		}
+	}
+	
 }
@@ -0,0 +1,154 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.bo;
+
+import java.util.AbstractList;
+import java.util.List;
+
+import com.github.lpezet.antiope.metrics.LatencyHistogram;
+
+/**
+ * Outcome of a batch of calls (see
+ * {@link BaseAPIClient#invokeAll(java.util.Collection, BaseAPIClient.Operation, int, BaseAPIClient.BatchListener)}):
+ * the result or failure of each call, in input order, along with the
+ * latencies and throughput of the batch.
+ * 
+ * @author luc
+ */
+public class BatchResult<T> {
+	
+	private final Object[] mResults;
+	private final Exception[] mFailures;
+	private final LatencyHistogram mLatencies = new LatencyHistogram();
+	private final int mConcurrency;
+	private long mElapsedNanos;
+	private int mFailureCount;
+	private LatencyHistogram.Snapshot mLatencySnapshot;
+	
+	BatchResult(int pSize, int pConcurrency) {
+		mResults = new Object[pSize];
+		mFailures = new Exception[pSize];
+		mConcurrency = pConcurrency;
+	}
+	
+	void completed(int pIndex, T pResult, long pLatencyNanos) {
+		mResults[pIndex] = pResult;
+		mLatencies.recordNanos(pLatencyNanos);
+	}
+	
+	void failed(int pIndex, Exception pFailure, long pLatencyNanos) {
+		mFailures[pIndex] = pFailure;
+		mLatencies.recordNanos(pLatencyNanos);
+	}
+	
+	/**
+	 * Called once all calls are done (and their outcome visible to the
+	 * calling thread).
+	 */
+	void done(long pElapsedNanos) {
+		mElapsedNanos = pElapsedNanos;
+		for (Exception e : mFailures) {
+			if (e != null) mFailureCount++;
+		}
+		mLatencySnapshot = mLatencies.snapshot();
+	}
+	
+	public int size() {
+		return mResults.length;
+	}
+	
+	public boolean isSuccess(int pIndex) {
+		return mFailures[pIndex] == null;
+	}
+	
+	/**
+	 * @param pIndex
+	 *            index of the request in the batch.
+	 * @return result of the call, or null if it failed.
+	 */
+	@SuppressWarnings("unchecked")
+	public T getResult(int pIndex) {
+		return (T) mResults[pIndex];
+	}
+	
+	/**
+	 * @param pIndex
+	 *            index of the request in the batch.
+	 * @return exception thrown by the call, or null if it succeeded.
+	 */
+	public Exception getFailure(int pIndex) {
+		return mFailures[pIndex];
+	}
+	
+	/**
+	 * @return results in input order, with nulls for failed calls.
+	 */
+	public List<T> getResults() {
+		return new AbstractList<T>() {
+			@Override
+			public T get(int pIndex) {
+				return getResult(pIndex);
+			}
+			
+			@Override
+			public int size() {
+				return mResults.length;
+			}
+		};
+	}
+	
+	public int getFailureCount() {
+		return mFailureCount;
+	}
+	
+	/**
+	 * @return number of calls actually run at once.
+	 */
+	public int getConcurrency() {
+		return mConcurrency;
+	}
+	
+	public long getElapsedMillis() {
+		return mElapsedNanos / 1000000;
+	}
+	
+	/**
+	 * @return calls completed (successfully or not) per second.
+	 */
+	public double getThroughput() {
+		return mElapsedNanos == 0 ? 0 : mResults.length * 1e9 / mElapsedNanos;
+	}
+	
+	/**
+	 * @return latencies of the individual calls.
+	 */
+	public LatencyHistogram.Snapshot getLatencies() {
+		return mLatencySnapshot;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("size=%d, failures=%d, concurrency=%d, elapsed=%dms, throughput=%.1f/s, latencies: %s",
+				size(), mFailureCount, mConcurrency, getElapsedMillis(), getThroughput(), mLatencySnapshot);
+	}
+}
@@ -0,0 +1,370 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.bo;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.lpezet.antiope.APIClientException;
+import com.github.lpezet.antiope.dao.Request;
+import com.github.lpezet.antiope.util.RetryUtils;
+
+/**
+ * Circuit breaker per endpoint and operation (see {@link RateLimiter} for
+ * how operations are told apart), so that calls to a service which is down
+ * fail right away instead of each waiting for a connect or socket timeout.
+ * <p>
+ * The outcomes of the last {@link #setWindowSize(int) window size} calls are
+ * kept. Once there are at least {@link #setMinimumCalls(int) minimum calls},
+ * the circuit opens when the rate of failures or the rate of slow calls
+ * reaches its threshold. Calls are then rejected until the
+ * {@link #setOpenMillis(long) open time} is over, after which the circuit is
+ * half-open: a few probes go through, closing the circuit when all of them
+ * succeed and opening it again at the first failure.
+ * <p>
+ * Failures are I/O errors and server errors (5xx), throttling aside: a
+ * service throttling its callers is up. Calls are slow when their response
+ * takes longer than {@link #setSlowCallMillis(long)}.
+ * <p>
+ * While closed, letting a call through is a lookup of its circuit (by a key
+ * built once per request, see {@link RateLimiter.OperationKey}) and a
+ * volatile read, and recording its outcome a few atomic operations.
+ * 
+ * @author luc
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	public static final int		DEFAULT_FAILURE_RATE_THRESHOLD		= 50;
+	public static final int		DEFAULT_SLOW_CALL_RATE_THRESHOLD	= 100;
+	public static final long	DEFAULT_SLOW_CALL_MILLIS			= 5 * 1000;
+	public static final int		DEFAULT_WINDOW_SIZE					= 100;
+	public static final int		DEFAULT_MINIMUM_CALLS				= 20;
+	public static final long	DEFAULT_OPEN_MILLIS					= 30 * 1000;
+	public static final int		DEFAULT_HALF_OPEN_PROBES			= 3;
+
+	private static final int	SUCCESS								= 1;
+	private static final int	FAILURE								= 2;
+	private static final int	SLOW								= 4;
+
+	private final Logger						mLogger					= LoggerFactory.getLogger(CircuitBreaker.class);
+	private final ConcurrentMap<String, Circuit>	mCircuits			= new ConcurrentHashMap<String, Circuit>();
+	private final AtomicLong					mRejectedCount			= new AtomicLong();
+	private final AtomicLong					mTransitionCount		= new AtomicLong();
+	private volatile int						mFailureRateThreshold	= DEFAULT_FAILURE_RATE_THRESHOLD;
+	private volatile int						mSlowCallRateThreshold	= DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+	private volatile long						mSlowCallNanos			= TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_CALL_MILLIS);
+	private volatile int						mWindowSize				= DEFAULT_WINDOW_SIZE;
+	private volatile int						mMinimumCalls			= DEFAULT_MINIMUM_CALLS;
+	private volatile long						mOpenNanos				= TimeUnit.MILLISECONDS.toNanos(DEFAULT_OPEN_MILLIS);
+	private volatile int						mHalfOpenProbes			= DEFAULT_HALF_OPEN_PROBES;
+
+	/**
+	 * @param pPercent
+	 *            percentage of failed calls in the window opening the circuit.
+	 */
+	public void setFailureRateThreshold(int pPercent) {
+		mFailureRateThreshold = pPercent;
+	}
+
+	/**
+	 * @param pPercent
+	 *            percentage of slow calls in the window opening the circuit,
+	 *            above 100 to never open on slow calls.
+	 */
+	public void setSlowCallRateThreshold(int pPercent) {
+		mSlowCallRateThreshold = pPercent;
+	}
+
+	/**
+	 * @param pSlowCallMillis
+	 *            time (ms) after which a response is slow.
+	 */
+	public void setSlowCallMillis(long pSlowCallMillis) {
+		mSlowCallNanos = TimeUnit.MILLISECONDS.toNanos(pSlowCallMillis);
+	}
+
+	/**
+	 * @param pWindowSize
+	 *            number of (last) calls the rates are computed on. Applies to
+	 *            circuits created or closed afterwards.
+	 */
+	public void setWindowSize(int pWindowSize) {
+		mWindowSize = Math.max(1, pWindowSize);
+	}
+
+	/**
+	 * @param pMinimumCalls
+	 *            number of calls in the window before the circuit can open.
+	 */
+	public void setMinimumCalls(int pMinimumCalls) {
+		mMinimumCalls = Math.max(1, pMinimumCalls);
+	}
+
+	/**
+	 * @param pOpenMillis
+	 *            time (ms) calls are rejected for once the circuit opens.
+	 */
+	public void setOpenMillis(long pOpenMillis) {
+		mOpenNanos = TimeUnit.MILLISECONDS.toNanos(pOpenMillis);
+	}
+
+	/**
+	 * @param pHalfOpenProbes
+	 *            number of calls let through, and which must succeed, to close
+	 *            a half-open circuit.
+	 */
+	public void setHalfOpenProbes(int pHalfOpenProbes) {
+		mHalfOpenProbes = Math.max(1, pHalfOpenProbes);
+	}
+
+	/**
+	 * Lets the given request through, unless its circuit is open.
+	 * 
+	 * @param pRequest
+	 *            request, with its endpoint set.
+	 * @return circuit to record the outcome of the call on, or null if the
+	 *         call is rejected.
+	 */
+	public Circuit tryAcquire(Request<?> pRequest) {
+		return tryAcquire(pRequest, System.nanoTime());
+	}
+
+	Circuit tryAcquire(Request<?> pRequest, long pNowNanos) {
+		return tryAcquire(RateLimiter.OperationKey.of(pRequest), pNowNanos);
+	}
+
+	Circuit tryAcquire(RateLimiter.OperationKey pKey, long pNowNanos) {
+		Circuit oCircuit = getCircuit(pKey, pNowNanos);
+		if (oCircuit.tryAcquire(pNowNanos)) return oCircuit;
+		mRejectedCount.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * @param pRequest
+	 *            request.
+	 * @return state of the circuit of requests like the given one.
+	 */
+	public State getState(Request<?> pRequest) {
+		return getCircuit(RateLimiter.OperationKey.of(pRequest), System.nanoTime()).mState;
+	}
+
+	/**
+	 * @return number of calls rejected so far.
+	 */
+	public long getRejectedCount() {
+		return mRejectedCount.get();
+	}
+
+	/**
+	 * @return number of state changes so far, all circuits included.
+	 */
+	public long getTransitionCount() {
+		return mTransitionCount.get();
+	}
+
+	/**
+	 * Returns true if the given exception counts as a failure of the service:
+	 * an I/O error or a server error other than throttling.
+	 * 
+	 * @param pException
+	 *            exception of a call.
+	 * @return true if a failure.
+	 */
+	public static boolean isFailure(APIClientException pException) {
+		if (RetryUtils.isIOException(pException)) return true;
+		return RetryUtils.isRetryableServiceException(pException) && !RetryUtils.isThrottlingException(pException);
+	}
+
+	private Circuit getCircuit(RateLimiter.OperationKey pKey, long pNowNanos) {
+		Circuit oCircuit = mCircuits.get(pKey.mKey);
+		if (oCircuit == null) {
+			oCircuit = new Circuit(pKey.mKey, pNowNanos);
+			Circuit oExisting = mCircuits.putIfAbsent(pKey.mKey, oCircuit);
+			if (oExisting != null) oCircuit = oExisting;
+		}
+		return oCircuit;
+	}
+
+	/**
+	 * Circuit of one endpoint and operation.
+	 */
+	public class Circuit {
+		private final String			mKey;
+		private final AtomicInteger		mProbePermits	= new AtomicInteger();
+		private final AtomicInteger		mProbeSuccesses	= new AtomicInteger();
+		private volatile State			mState			= State.CLOSED;
+		private volatile long			mStateSince;
+		private volatile Window			mWindow			= new Window(mWindowSize);
+
+		private Circuit(String pKey, long pNowNanos) {
+			mKey = pKey;
+			mStateSince = pNowNanos;
+		}
+
+		public State getState() {
+			return mState;
+		}
+
+		boolean tryAcquire(long pNow) {
+			State oState = mState;
+			if (oState == State.CLOSED) return true;
+			if (oState == State.OPEN) {
+				if (pNow - mStateSince < mOpenNanos) return false;
+				synchronized (this) {
+					if (mState == State.OPEN && pNow - mStateSince >= mOpenNanos) transition(State.HALF_OPEN, pNow);
+				}
+				oState = mState;
+				if (oState != State.HALF_OPEN) return oState == State.CLOSED;
+			}
+			if (takeProbePermit()) return true;
+			// Probes which never reported (e.g. unexpected errors): let new ones through.
+			synchronized (this) {
+				if (mState == State.HALF_OPEN && pNow - mStateSince >= mOpenNanos) {
+					transition(State.HALF_OPEN, pNow);
+					return takeProbePermit();
+				}
+			}
+			return false;
+		}
+
+		private boolean takeProbePermit() {
+			while (true) {
+				int oPermits = mProbePermits.get();
+				if (oPermits <= 0) return false;
+				if (mProbePermits.compareAndSet(oPermits, oPermits - 1)) return true;
+			}
+		}
+
+		/**
+		 * Gives back the permit of a call let through but not made (or whose
+		 * outcome is unknown, e.g. unexpected error), for another probe to
+		 * take it when half-open.
+		 */
+		void release() {
+			if (mState == State.HALF_OPEN) mProbePermits.incrementAndGet();
+		}
+
+		/**
+		 * Records the outcome of a call let through.
+		 * 
+		 * @param pException
+		 *            exception of the call, or null if it succeeded.
+		 * @param pDurationNanos
+		 *            time taken by the call.
+		 * @return new state of the circuit if this outcome changed it, null
+		 *         otherwise.
+		 */
+		public State record(APIClientException pException, long pDurationNanos) {
+			return record(pException != null && isFailure(pException), pDurationNanos, System.nanoTime());
+		}
+
+		State record(boolean pFailure, long pDurationNanos, long pNow) {
+			boolean oSlow = pDurationNanos >= mSlowCallNanos;
+			State oState = mState;
+			if (oState == State.CLOSED) {
+				Window oWindow = mWindow;
+				oWindow.record((pFailure ? FAILURE : SUCCESS) | (oSlow ? SLOW : 0));
+				if (!oWindow.isOverThresholds()) return null;
+				synchronized (this) {
+					if (mState != State.CLOSED || oWindow != mWindow) return null;
+					return transition(State.OPEN, pNow);
+				}
+			}
+			if (oState == State.HALF_OPEN) {
+				if (pFailure || oSlow) {
+					synchronized (this) {
+						return mState == State.HALF_OPEN ? transition(State.OPEN, pNow) : null;
+					}
+				}
+				if (mProbeSuccesses.incrementAndGet() >= mHalfOpenProbes) {
+					synchronized (this) {
+						return mState == State.HALF_OPEN ? transition(State.CLOSED, pNow) : null;
+					}
+				}
+			}
+			// Open: outcome of a call let through before, ignored.
+			return null;
+		}
+
+		private State transition(State pState, long pNow) {
+			if (pState == State.HALF_OPEN) {
+				mProbePermits.set(mHalfOpenProbes);
+				mProbeSuccesses.set(0);
+			} else if (pState == State.CLOSED) {
+				mWindow = new Window(mWindowSize);
+			} else {
+				mProbePermits.set(0);
+			}
+			if (mState != pState) {
+				mTransitionCount.incrementAndGet();
+				if (mLogger.isInfoEnabled()) mLogger.info("Circuit " + mKey + ": " + mState + " -> " + pState);
+			}
+			mStateSince = pNow;
+			mState = pState;
+			return pState;
+		}
+
+		/**
+		 * Outcomes of the last calls, in a ring, with running counts.
+		 */
+		private class Window {
+			private final AtomicIntegerArray	mOutcomes;
+			private final AtomicInteger			mCursor		= new AtomicInteger();
+			private final AtomicInteger			mCalls		= new AtomicInteger();
+			private final AtomicInteger			mFailures	= new AtomicInteger();
+			private final AtomicInteger			mSlowCalls	= new AtomicInteger();
+
+			Window(int pSize) {
+				mOutcomes = new AtomicIntegerArray(pSize);
+			}
+
+			void record(int pOutcome) {
+				int oIndex = (mCursor.getAndIncrement() & Integer.MAX_VALUE) % mOutcomes.length();
+				int oPrevious = mOutcomes.getAndSet(oIndex, pOutcome);
+				if (oPrevious == 0) mCalls.incrementAndGet();
+				int oFailures = (pOutcome & FAILURE) - (oPrevious & FAILURE);
+				if (oFailures != 0) mFailures.addAndGet(oFailures / FAILURE);
+				int oSlowCalls = (pOutcome & SLOW) - (oPrevious & SLOW);
+				if (oSlowCalls != 0) mSlowCalls.addAndGet(oSlowCalls / SLOW);
+			}
+
+			boolean isOverThresholds() {
+				long oCalls = mCalls.get();
+				if (oCalls < mMinimumCalls) return false;
+				return mFailures.get() * 100L >= mFailureRateThreshold * oCalls || mSlowCalls.get() * 100L >= mSlowCallRateThreshold * oCalls;
+			}
+		}
+	}
+}
@@ -0,0 +1,429 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.bo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.lpezet.antiope.APIClientException;
+
+/**
+ * Downloads large bodies as ranges fetched concurrently over pooled
+ * connections, each written in place into a preallocated {@link FileChannel}.
+ * <p>
+ * The first range doubles as the probe: a "206 Partial Content" response
+ * tells the resource supports ranges (whatever its "Accept-Ranges" header
+ * says) and gives its total length, from "Content-Range". The remaining
+ * ranges are then fetched by up to {@link #getParallelism()} tasks on the
+ * given executor. Servers ignoring ranges answer "200 OK" with the whole
+ * body, which is then simply streamed into the channel.
+ * <p>
+ * Ranges are fetched with "If-Range" set to the probe's validator (ETag, or
+ * Last-Modified), so a resource changing during the download fails it rather
+ * than mixing versions. A range failing on I/O or with a 5xx is resumed from
+ * the last byte written, up to {@link #getMaxRangeRetries()} times in a row
+ * without progress, without restarting the others.
+ * 
+ * @author luc
+ */
+public class RangedDownloader {
+	
+	public static final long DEFAULT_RANGE_SIZE = 8 * 1024 * 1024;
+	public static final int DEFAULT_PARALLELISM = 4;
+	public static final int DEFAULT_MAX_RANGE_RETRIES = 3;
+	
+	private static final String RANGE = "Range";
+	private static final String IF_RANGE = "If-Range";
+	private static final String CONTENT_RANGE = "Content-Range";
+	private static final String ETAG = "ETag";
+	private static final String LAST_MODIFIED = "Last-Modified";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private final Logger mLogger = LoggerFactory.getLogger(RangedDownloader.class);
+	private final HttpClient mHttpClient;
+	private final Executor mExecutor;
+	private long mRangeSize = DEFAULT_RANGE_SIZE;
+	private int mParallelism = DEFAULT_PARALLELISM;
+	private int mMaxRangeRetries = DEFAULT_MAX_RANGE_RETRIES;
+	
+	/**
+	 * @param pHttpClient client, pooling at least {@link #getParallelism()} connections per route to benefit from this.
+	 * @param pExecutor executor running the range fetches, or null to fetch them one after the other in the calling thread.
+	 */
+	public RangedDownloader(HttpClient pHttpClient, Executor pExecutor) {
+		mHttpClient = pHttpClient;
+		mExecutor = pExecutor;
+	}
+	
+	public long getRangeSize() {
+		return mRangeSize;
+	}
+	
+	public void setRangeSize(long pRangeSize) {
+		if (pRangeSize <= 0) throw new IllegalArgumentException("Range size must be positive.");
+		mRangeSize = pRangeSize;
+	}
+	
+	public int getParallelism() {
+		return mParallelism;
+	}
+	
+	/**
+	 * @param pParallelism maximum number of ranges fetched at the same time.
+	 */
+	public void setParallelism(int pParallelism) {
+		if (pParallelism <= 0) throw new IllegalArgumentException("Parallelism must be positive.");
+		mParallelism = pParallelism;
+	}
+	
+	public int getMaxRangeRetries() {
+		return mMaxRangeRetries;
+	}
+	
+	/**
+	 * @param pMaxRangeRetries number of times a range is resumed in a row without any progress before giving up.
+	 */
+	public void setMaxRangeRetries(int pMaxRangeRetries) {
+		mMaxRangeRetries = pMaxRangeRetries;
+	}
+	
+	/**
+	 * Downloads the given resource into the given file, created or truncated.
+	 * 
+	 * @see #download(URI, Map, FileChannel)
+	 */
+	public long download(URI pUri, Map<String, String> pHeaders, File pFile) {
+		RandomAccessFile oFile = null;
+		try {
+			oFile = new RandomAccessFile(pFile, "rw");
+			return download(pUri, pHeaders, oFile.getChannel());
+		} catch (IOException e) {
+			throw new APIClientException("Unable to download " + pUri + " into " + pFile + ": " + e.getMessage(), e);
+		} finally {
+			if (oFile != null) {
+				try {
+					oFile.close();
+				} catch (IOException e) {
+					mLogger.debug("Unable to close " + pFile, e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Downloads the given resource into the given channel, from its position
+	 * 0. The channel is sized to the resource's length, and not closed.
+	 * 
+	 * @param pUri
+	 *            resource to download.
+	 * @param pHeaders
+	 *            headers to send with every range (e.g. authorization), or null.
+	 * @param pChannel
+	 *            channel to write into.
+	 * @return length of the resource.
+	 */
+	public long download(URI pUri, Map<String, String> pHeaders, FileChannel pChannel) {
+		Map<String, String> oHeaders = pHeaders == null ? Collections.<String, String>emptyMap() : pHeaders;
+		try {
+			Download oDownload = new Download(pUri, oHeaders, pChannel);
+			Range oFirst = oDownload.probe();
+			if (oFirst == null) return oDownload.mLength;
+			
+			ConcurrentLinkedQueue<Range> oRanges = new ConcurrentLinkedQueue<Range>();
+			// The first range might not be complete, if the probe failed half way.
+			if (oFirst.mNext <= oFirst.mEnd) oRanges.add(oFirst);
+			for (long oStart = oFirst.mEnd + 1; oStart < oDownload.mLength; oStart += mRangeSize) {
+				oRanges.add(new Range(oStart, Math.min(oStart + mRangeSize, oDownload.mLength) - 1));
+			}
+			if (oRanges.isEmpty()) return oDownload.mLength;
+			
+			int oWorkers = Math.min(mParallelism, oRanges.size());
+			List<FutureTask<Void>> oTasks = new ArrayList<FutureTask<Void>>(oWorkers);
+			for (int i = 0; i < oWorkers; i++) {
+				FutureTask<Void> oTask = new FutureTask<Void>(new Worker(oDownload, oRanges), null);
+				oTasks.add(oTask);
+				if (mExecutor != null) mExecutor.execute(oTask);
+				else oTask.run();
+			}
+			for (FutureTask<Void> oTask : oTasks) {
+				try {
+					oTask.get();
+				} catch (ExecutionException e) {
+					oDownload.fail(e.getCause());
+				}
+			}
+			if (oDownload.mFailure != null) throw oDownload.mFailure;
+			return oDownload.mLength;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new APIClientException("Interrupted while downloading " + pUri, e);
+		} catch (IOException e) {
+			throw new APIClientException("Unable to download " + pUri + ": " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Bytes [mStart, mEnd] of the resource, mNext being the next one to write.
+	 */
+	private static class Range {
+		private final long mStart;
+		private final long mEnd;
+		private long mNext;
+		
+		private Range(long pStart, long pEnd) {
+			mStart = pStart;
+			mEnd = pEnd;
+			mNext = pStart;
+		}
+		
+		@Override
+		public String toString() {
+			return "bytes=" + mNext + "-" + mEnd;
+		}
+	}
+	
+	/**
+	 * Fetches ranges until there are none left, or the download failed.
+	 */
+	private class Worker implements Runnable {
+		private final Download mDownload;
+		private final ConcurrentLinkedQueue<Range> mRanges;
+		
+		private Worker(Download pDownload, ConcurrentLinkedQueue<Range> pRanges) {
+			mDownload = pDownload;
+			mRanges = pRanges;
+		}
+		
+		@Override
+		public void run() {
+			Range oRange;
+			while (mDownload.mFailure == null && (oRange = mRanges.poll()) != null) {
+				try {
+					mDownload.fetch(oRange);
+				} catch (Throwable e) {
+					mDownload.fail(e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * State of one download.
+	 */
+	private class Download {
+		private final URI mUri;
+		private final Map<String, String> mHeaders;
+		private final FileChannel mChannel;
+		private long mLength;
+		private String mValidator;
+		private volatile APIClientException mFailure;
+		
+		private Download(URI pUri, Map<String, String> pHeaders, FileChannel pChannel) {
+			mUri = pUri;
+			mHeaders = pHeaders;
+			mChannel = pChannel;
+		}
+		
+		/**
+		 * Fetches the first range, learning the length of the resource.
+		 * 
+		 * @return first range, possibly left to complete, or null if the
+		 *         resource is not to be fetched as ranges (already done).
+		 */
+		private Range probe() throws IOException {
+			Range oProbe = new Range(0, mRangeSize - 1);
+			HttpGet oGet = newGet(oProbe);
+			HttpResponse oResponse = mHttpClient.execute(oGet);
+			int oStatus = oResponse.getStatusLine().getStatusCode();
+			try {
+				if (oStatus == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+					// Empty resource.
+					mLength = 0;
+					mChannel.truncate(0);
+					return null;
+				}
+				if (oStatus == HttpStatus.SC_OK) {
+					mLogger.debug("{} does not support ranges, downloading it as a whole.", mUri);
+					mLength = write(oResponse.getEntity(), 0, Long.MAX_VALUE, null);
+					mChannel.truncate(mLength);
+					return null;
+				}
+				checkPartial(oResponse, oProbe);
+				mLength = parseLength(oResponse.getFirstHeader(CONTENT_RANGE));
+				mValidator = validatorOf(oResponse);
+				preallocate();
+				// Clipped for resources smaller than a range.
+				Range oFirst = new Range(0, Math.min(oProbe.mEnd, mLength - 1));
+				try {
+					write(oResponse.getEntity(), oFirst.mStart, oFirst.mEnd, oFirst);
+				} catch (IOException e) {
+					// Resumed with the other ranges.
+					mLogger.debug("First range of {} failed at {}: {}", new Object[] { mUri, oFirst.mNext, e.getMessage() });
+					oGet.abort();
+				}
+				return oFirst;
+			} finally {
+				oGet.releaseConnection();
+			}
+		}
+		
+		/**
+		 * Fetches the given range, resuming it on failure.
+		 */
+		private void fetch(Range pRange) throws IOException {
+			int oFailures = 0;
+			while (pRange.mNext <= pRange.mEnd && mFailure == null) {
+				long oStartedAt = pRange.mNext;
+				HttpGet oGet = newGet(pRange);
+				try {
+					HttpResponse oResponse = mHttpClient.execute(oGet);
+					int oStatus = oResponse.getStatusLine().getStatusCode();
+					if (oStatus >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+						throw new IOException("Status " + oStatus);
+					}
+					checkPartial(oResponse, pRange);
+					write(oResponse.getEntity(), pRange.mNext, pRange.mEnd, pRange);
+				} catch (IOException e) {
+					oGet.abort();
+					if (pRange.mNext > oStartedAt) oFailures = 0;
+					if (++oFailures > mMaxRangeRetries) throw e;
+					mLogger.debug("Range {} of {} failed, resuming: {}", new Object[] { pRange, mUri, e.getMessage() });
+				} finally {
+					oGet.releaseConnection();
+				}
+			}
+		}
+		
+		private HttpGet newGet(Range pRange) {
+			HttpGet oGet = new HttpGet(mUri);
+			for (Entry<String, String> e : mHeaders.entrySet()) {
+				oGet.addHeader(e.getKey(), e.getValue());
+			}
+			oGet.setHeader(RANGE, pRange.toString());
+			if (mValidator != null) oGet.setHeader(IF_RANGE, mValidator);
+			return oGet;
+		}
+		
+		private void checkPartial(HttpResponse pResponse, Range pRange) {
+			int oStatus = pResponse.getStatusLine().getStatusCode();
+			if (oStatus == HttpStatus.SC_PARTIAL_CONTENT) {
+				Header oContentRange = pResponse.getFirstHeader(CONTENT_RANGE);
+				if (oContentRange == null || !oContentRange.getValue().startsWith("bytes " + pRange.mNext + "-")) {
+					throw new APIClientException("Unexpected range for " + pRange + " of " + mUri + ": " + oContentRange);
+				}
+				return;
+			}
+			if (oStatus == HttpStatus.SC_OK && mValidator != null) {
+				throw new APIClientException(mUri + " changed during its download.");
+			}
+			throw new APIClientException("Unexpected status downloading " + pRange + " of " + mUri + ": " + pResponse.getStatusLine());
+		}
+		
+		/**
+		 * Makes the channel exactly the length of the resource up front, so
+		 * ranges are written in place whatever their order.
+		 */
+		private void preallocate() throws IOException {
+			if (mChannel.size() > mLength) mChannel.truncate(mLength);
+			else if (mChannel.size() < mLength) mChannel.write(ByteBuffer.wrap(new byte[1]), mLength - 1);
+		}
+		
+		/**
+		 * Writes the entity at the given position, up to the given end
+		 * (inclusive), keeping the range's next byte up to date.
+		 * 
+		 * @return number of bytes written.
+		 */
+		private long write(HttpEntity pEntity, long pPosition, long pEnd, Range pRange) throws IOException {
+			if (pEntity == null) return 0;
+			InputStream oContent = pEntity.getContent();
+			byte[] oBuffer = new byte[BUFFER_SIZE];
+			ByteBuffer oByteBuffer = ByteBuffer.wrap(oBuffer);
+			long oPosition = pPosition;
+			try {
+				int oRead;
+				while (oPosition <= pEnd && (oRead = oContent.read(oBuffer, 0, (int) Math.min(oBuffer.length - 1, pEnd - oPosition) + 1)) >= 0) {
+					oByteBuffer.clear().limit(oRead);
+					while (oByteBuffer.hasRemaining()) {
+						oPosition += mChannel.write(oByteBuffer, oPosition);
+					}
+					if (pRange != null) pRange.mNext = oPosition;
+				}
+			} finally {
+				oContent.close();
+			}
+			if (pRange != null && oPosition <= pRange.mEnd) {
+				throw new IOException("Premature end of range " + pRange + " of " + mUri);
+			}
+			return oPosition - pPosition;
+		}
+		
+		private synchronized void fail(Throwable pError) {
+			if (mFailure != null) return;
+			mFailure = pError instanceof APIClientException ? (APIClientException) pError : new APIClientException("Unable to download " + mUri + ": " + pError.getMessage(), pError);
+		}
+	}
+	
+	/**
+	 * Parses the total length of a "Content-Range: bytes first-last/length" header.
+	 */
+	static long parseLength(Header pContentRange) {
+		String oValue = pContentRange == null ? null : pContentRange.getValue();
+		int oSlash = oValue == null ? -1 : oValue.lastIndexOf('/');
+		if (oSlash < 0 || oValue.endsWith("*")) {
+			throw new APIClientException("Missing length in Content-Range: " + oValue);
+		}
+		return Long.parseLong(oValue.substring(oSlash + 1).trim());
+	}
+	
+	private static String validatorOf(HttpResponse pResponse) {
+		Header oETag = pResponse.getFirstHeader(ETAG);
+		// Weak ETags can't be used with If-Range.
+		if (oETag != null && !oETag.getValue().startsWith("W/")) return oETag.getValue();
+		Header oLastModified = pResponse.getFirstHeader(LAST_MODIFIED);
+		return oLastModified != null ? oLastModified.getValue() : null;
+	}
+}
@@ -0,0 +1,301 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.bo;
+
+import java.net.URI;
+import java.text.ParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.github.lpezet.antiope.be.APIWebServiceRequest;
+import com.github.lpezet.antiope.dao.Request;
+import com.github.lpezet.antiope.util.DateUtils;
+
+/**
+ * Client-side rate limiter: one token bucket per endpoint and operation,
+ * filled at a given number of requests per second up to a burst size.
+ * <p>
+ * Each attempt (retries included) reserves a token before being sent and
+ * waits for it when the bucket is empty, so that callers queue up instead
+ * of being throttled by the service. Reservations are taken in order: the
+ * wait of a caller includes the tokens reserved by the callers before it.
+ * <p>
+ * The rate adapts to the service: it is halved (at most once per second,
+ * down to {@link #MIN_RATE_FRACTION} of the configured rate) when a
+ * throttling error or a Retry-After header comes back, no token is handed
+ * out before the Retry-After delay, and the rate then climbs back linearly
+ * to the configured one.
+ * <p>
+ * Operations are told apart by the class of the original request, or by the
+ * HTTP method when there is none.
+ * 
+ * @author luc
+ */
+public class RateLimiter {
+
+	/** Lowest rate the limiter backs off to, as a fraction of the configured rate. */
+	public static final double	MIN_RATE_FRACTION			= 0.05;
+
+	/** Default time (ms) for the rate to climb back from its lowest to the configured one. */
+	public static final long	DEFAULT_RECOVERY_MILLIS		= 10 * 1000;
+
+	/** Longest Retry-After delay (ms) honored. */
+	public static final long	MAX_RETRY_AFTER_MILLIS		= 60 * 1000;
+
+	private static final double	BACKOFF_FACTOR				= 0.5;
+	private static final long	DECREASE_INTERVAL_NANOS		= TimeUnit.SECONDS.toNanos(1);
+
+	/** Shared DateUtils object for parsing dates */
+	private static final DateUtils	DATE_UTILS				= new DateUtils();
+
+	private final Limit									mDefaultLimit;
+	private final ConcurrentMap<String, Limit>			mOperationLimits	= new ConcurrentHashMap<String, Limit>();
+	private final ConcurrentMap<String, Bucket>			mBuckets			= new ConcurrentHashMap<String, Bucket>();
+	private volatile long								mRecoveryNanos		= TimeUnit.MILLISECONDS.toNanos(DEFAULT_RECOVERY_MILLIS);
+
+	/**
+	 * @param pRequestsPerSecond
+	 *            requests per second, for each endpoint and operation.
+	 * @param pBurst
+	 *            number of requests which can be sent at once after a quiet
+	 *            period.
+	 */
+	public RateLimiter(double pRequestsPerSecond, int pBurst) {
+		mDefaultLimit = new Limit(pRequestsPerSecond, pBurst);
+	}
+
+	/**
+	 * Sets the rate of the given operation, on every endpoint. Must be set
+	 * before the operation is used.
+	 * 
+	 * @param pOperation
+	 *            simple name of the class of the original request (like
+	 *            "GetObjectRequest"), or HTTP method (like "GET").
+	 * @param pRequestsPerSecond
+	 *            requests per second.
+	 * @param pBurst
+	 *            burst size.
+	 */
+	public void setLimit(String pOperation, double pRequestsPerSecond, int pBurst) {
+		mOperationLimits.put(pOperation, new Limit(pRequestsPerSecond, pBurst));
+	}
+
+	/**
+	 * @param pRecoveryMillis
+	 *            time for the rate to climb back from its lowest to the
+	 *            configured one.
+	 */
+	public void setRecoveryMillis(long pRecoveryMillis) {
+		mRecoveryNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, pRecoveryMillis));
+	}
+
+	/**
+	 * Reserves a token for the given request.
+	 * 
+	 * @param pRequest
+	 *            request, with its endpoint set.
+	 * @return nanoseconds to wait before sending the request.
+	 */
+	public long reserve(Request<?> pRequest) {
+		return reserve(pRequest, System.nanoTime());
+	}
+
+	long reserve(Request<?> pRequest, long pNowNanos) {
+		return reserve(OperationKey.of(pRequest), pNowNanos);
+	}
+
+	long reserve(OperationKey pKey, long pNowNanos) {
+		return getBucket(pKey, pNowNanos).reserve(pNowNanos, mRecoveryNanos);
+	}
+
+	/**
+	 * Slows down requests like the given one, after it was throttled or got
+	 * a Retry-After header back.
+	 * 
+	 * @param pRequest
+	 *            request.
+	 * @param pRetryAfterMillis
+	 *            Retry-After delay, or a negative value if none.
+	 */
+	public void throttled(Request<?> pRequest, long pRetryAfterMillis) {
+		throttled(pRequest, pRetryAfterMillis, System.nanoTime());
+	}
+
+	void throttled(Request<?> pRequest, long pRetryAfterMillis, long pNowNanos) {
+		throttled(OperationKey.of(pRequest), pRetryAfterMillis, pNowNanos);
+	}
+
+	void throttled(OperationKey pKey, long pRetryAfterMillis, long pNowNanos) {
+		long oRetryAfterNanos = pRetryAfterMillis <= 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(Math.min(pRetryAfterMillis, MAX_RETRY_AFTER_MILLIS));
+		getBucket(pKey, pNowNanos).throttled(pNowNanos, oRetryAfterNanos, mRecoveryNanos);
+	}
+
+	/**
+	 * @param pRequest
+	 *            request.
+	 * @return current rate (requests per second) for requests like the given one.
+	 */
+	public double getRate(Request<?> pRequest) {
+		return getBucket(OperationKey.of(pRequest), System.nanoTime()).getRate();
+	}
+
+	/**
+	 * Parses the value of a Retry-After header: either a number of seconds
+	 * or an HTTP date.
+	 * 
+	 * @param pValue
+	 *            header value.
+	 * @param pNowMillis
+	 *            current time, to compute the delay until a date.
+	 * @return delay in milliseconds, or -1 if it can't be parsed.
+	 */
+	public static long parseRetryAfter(String pValue, long pNowMillis) {
+		if (pValue == null) return -1;
+		String oValue = pValue.trim();
+		if (oValue.length() == 0) return -1;
+		if (Character.isDigit(oValue.charAt(0))) {
+			try {
+				return Long.parseLong(oValue) * 1000;
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+		try {
+			return Math.max(0, DATE_UTILS.parseRfc822Date(oValue).getTime() - pNowMillis);
+		} catch (ParseException e) {
+			return -1;
+		}
+	}
+
+	private Bucket getBucket(OperationKey pKey, long pNowNanos) {
+		Bucket oBucket = mBuckets.get(pKey.mKey);
+		if (oBucket == null) {
+			Limit oLimit = mOperationLimits.get(pKey.mOperation);
+			oBucket = new Bucket(oLimit == null ? mDefaultLimit : oLimit, pNowNanos);
+			Bucket oExisting = mBuckets.putIfAbsent(pKey.mKey, oBucket);
+			if (oExisting != null) oBucket = oExisting;
+		}
+		return oBucket;
+	}
+
+	/**
+	 * Endpoint and operation of a request, which buckets (and circuits, see
+	 * {@link CircuitBreaker}) are kept by. Built once per request and shared
+	 * by all its attempts.
+	 */
+	static final class OperationKey {
+		final String	mKey;
+		final String	mOperation;
+
+		private OperationKey(String pKey, String pOperation) {
+			mKey = pKey;
+			mOperation = pOperation;
+		}
+
+		static OperationKey of(Request<?> pRequest) {
+			String oOperation = getOperation(pRequest);
+			StringBuilder oKey = new StringBuilder(64);
+			URI oEndpoint = pRequest.getEndpoint();
+			if (oEndpoint != null) {
+				oKey.append(oEndpoint.getScheme()).append("://").append(oEndpoint.getHost()).append(':').append(oEndpoint.getPort());
+			}
+			return new OperationKey(oKey.append(' ').append(oOperation).toString(), oOperation);
+		}
+
+		private static String getOperation(Request<?> pRequest) {
+			APIWebServiceRequest oOriginalRequest = pRequest.getOriginalRequest();
+			if (oOriginalRequest != null) return oOriginalRequest.getClass().getSimpleName();
+			return pRequest.getHttpMethod() == null ? "" : pRequest.getHttpMethod().name();
+		}
+	}
+
+	private static class Limit {
+		private final double	mRate;
+		private final int		mBurst;
+
+		Limit(double pRate, int pBurst) {
+			if (pRate <= 0) throw new IllegalArgumentException("Rate must be positive: " + pRate);
+			mRate = pRate;
+			mBurst = Math.max(1, pBurst);
+		}
+	}
+
+	/**
+	 * Token bucket of one endpoint and operation. Tokens go negative when
+	 * reserved ahead of time.
+	 */
+	private static class Bucket {
+		private final double	mMaxRate;
+		private final double	mMinRate;
+		private final int		mBurst;
+		private double			mRate;
+		private double			mTokens;
+		private long			mLastRefill;
+		private long			mLastDecrease;
+		private long			mPausedUntil;
+
+		Bucket(Limit pLimit, long pNowNanos) {
+			mMaxRate = pLimit.mRate;
+			mMinRate = pLimit.mRate * MIN_RATE_FRACTION;
+			mBurst = pLimit.mBurst;
+			mRate = mMaxRate;
+			mTokens = mBurst;
+			mLastRefill = pNowNanos;
+			mLastDecrease = pNowNanos - DECREASE_INTERVAL_NANOS;
+			mPausedUntil = mLastDecrease;
+		}
+
+		synchronized long reserve(long pNow, long pRecoveryNanos) {
+			refill(pNow, pRecoveryNanos);
+			long oWait = mTokens >= 1 ? 0 : (long) ((1 - mTokens) / mRate * 1e9);
+			mTokens -= 1;
+			return Math.max(oWait, mPausedUntil - pNow);
+		}
+
+		synchronized void throttled(long pNow, long pRetryAfterNanos, long pRecoveryNanos) {
+			refill(pNow, pRecoveryNanos);
+			if (pNow - mLastDecrease >= DECREASE_INTERVAL_NANOS) {
+				mRate = Math.max(mMinRate, mRate * BACKOFF_FACTOR);
+				mLastDecrease = pNow;
+				// No burst right after being throttled.
+				mTokens = Math.min(mTokens, 0);
+			}
+			if (pNow + pRetryAfterNanos - mPausedUntil > 0) mPausedUntil = pNow + pRetryAfterNanos;
+		}
+
+		synchronized double getRate() {
+			return mRate;
+		}
+
+		private void refill(long pNow, long pRecoveryNanos) {
+			long oElapsed = pNow - mLastRefill;
+			if (oElapsed <= 0) return;
+			mLastRefill = pNow;
+			if (mRate < mMaxRate && pNow - mPausedUntil > 0) {
+				mRate = Math.min(mMaxRate, mRate + mMaxRate * oElapsed / pRecoveryNanos);
+			}
+			mTokens = Math.min(mBurst, mTokens + mRate * oElapsed / 1e9);
+		}
+	}
+}
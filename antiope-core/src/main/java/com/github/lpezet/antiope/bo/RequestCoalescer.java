@@ -0,0 +1,155 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.bo;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.lpezet.antiope.APIClientException;
+import com.github.lpezet.antiope.be.IAPICredentials;
+import com.github.lpezet.antiope.dao.HttpMethodName;
+import com.github.lpezet.antiope.dao.Request;
+import com.github.lpezet.antiope.transform.ElementIterator;
+import com.github.lpezet.antiope.transform.Unmarshaller;
+
+/**
+ * Coalesces identical idempotent requests in flight ("single flight"): the
+ * first caller executes the request while the others wait for, and share,
+ * its response (or exception).
+ * <p>
+ * Requests are identical when they have the same method, URI, parameters,
+ * headers, unmarshaller (type of result) and credentials identity. Only GET
+ * and HEAD requests are coalesced, and never with streaming unmarshallers
+ * (see {@link ElementIterator#isStreaming(Unmarshaller)}). Shared results
+ * must not be modified.
+ * 
+ * @author luc
+ */
+public class RequestCoalescer {
+
+	/**
+	 * Execution of a request.
+	 */
+	public interface Call<T> {
+		T call();
+	}
+
+	private final ConcurrentMap<String, Flight<?>>	mFlights	= new ConcurrentHashMap<String, Flight<?>>();
+	private final AtomicLong						mCoalesced	= new AtomicLong();
+
+	/**
+	 * Returns the key identifying the given request, or null if it can not
+	 * be coalesced.
+	 * 
+	 * @param pRequest
+	 *            request, with its endpoint set.
+	 * @param pUnmarshaller
+	 *            unmarshaller of the response, if any.
+	 * @param pCredentials
+	 *            credentials the request is sent with, if any.
+	 * @return key or null.
+	 */
+	public String getKey(Request<?> pRequest, Unmarshaller<?, ?> pUnmarshaller, IAPICredentials pCredentials) {
+		HttpMethodName oMethod = pRequest.getHttpMethod();
+		if (oMethod != HttpMethodName.GET && oMethod != HttpMethodName.HEAD) return null;
+		if (ElementIterator.isStreaming(pUnmarshaller)) return null;
+		StringBuilder oKey = new StringBuilder(128).append(oMethod.name()).append(' ');
+		ResponseCache.appendURI(oKey, pRequest).append('\n');
+		ResponseCache.appendUnmarshaller(oKey, pUnmarshaller).append('\n');
+		for (Map.Entry<String, String> e : new TreeMap<String, String>(pRequest.getHeaders()).entrySet()) {
+			oKey.append(e.getKey()).append(':').append(e.getValue()).append('\n');
+		}
+		if (pCredentials != null && pCredentials.getAccessKey() != null) oKey.append(pCredentials.getAccessKey());
+		return oKey.toString();
+	}
+
+	/**
+	 * Executes the given call, unless an identical one is in flight, in which
+	 * case its outcome is waited for and returned.
+	 * 
+	 * @param pKey
+	 *            key of the request.
+	 * @param pCall
+	 *            execution of the request.
+	 * @param pListener
+	 *            notified when the outcome of another call is used, may be
+	 *            null.
+	 * @return result of the call.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T execute(String pKey, Call<T> pCall, Runnable pListener) {
+		Flight<T> oFlight = new Flight<T>();
+		Flight<T> oInFlight = (Flight<T>) mFlights.putIfAbsent(pKey, oFlight);
+		if (oInFlight != null) {
+			mCoalesced.incrementAndGet();
+			if (pListener != null) pListener.run();
+			return oInFlight.await();
+		}
+		try {
+			T oResult = pCall.call();
+			oFlight.mResult = oResult;
+			return oResult;
+		} catch (RuntimeException e) {
+			oFlight.mException = e;
+			throw e;
+		} catch (Error e) {
+			oFlight.mException = e;
+			throw e;
+		} finally {
+			mFlights.remove(pKey, oFlight);
+			oFlight.mDone.countDown();
+		}
+	}
+
+	/**
+	 * Returns how many requests were coalesced so far.
+	 * 
+	 * @return number of requests which did not go over the network.
+	 */
+	public long getCoalescedCount() {
+		return mCoalesced.get();
+	}
+
+	private static class Flight<T> {
+		private final CountDownLatch	mDone	= new CountDownLatch(1);
+		// Written before, and read after, the count down: visibility guaranteed by the latch.
+		private T						mResult;
+		private Throwable				mException;
+
+		T await() {
+			try {
+				mDone.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new APIClientException("Interrupted while waiting for identical request in flight.", e);
+			}
+			if (mException instanceof RuntimeException) throw (RuntimeException) mException;
+			if (mException instanceof Error) throw (Error) mException;
+			return mResult;
+		}
+	}
+}
@@ -0,0 +1,369 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.bo;
+
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpMessage;
+import org.apache.http.HttpRequest;
+
+import com.github.lpezet.antiope.be.IAPICredentials;
+import com.github.lpezet.antiope.dao.HttpMethodName;
+import com.github.lpezet.antiope.dao.HttpResponse;
+import com.github.lpezet.antiope.dao.Request;
+import com.github.lpezet.antiope.transform.StaxCursorUnmarshallerAdapter;
+import com.github.lpezet.antiope.transform.Unmarshaller;
+import com.github.lpezet.antiope.util.DateUtils;
+import com.github.lpezet.antiope.util.UrlEncoder;
+
+/**
+ * Size-bounded (LRU) cache of unmarshalled responses to GET requests.
+ * <p>
+ * Responses are keyed by their URI, the unmarshaller (type of result), the
+ * values of the request headers that vary the response (see
+ * {@link #DEFAULT_VARY_HEADERS}) and the identity of the credentials used. They
+ * are fresh for the time given by Cache-Control max-age (or Expires), and not
+ * cached when they vary (Vary header) on request headers outside the key. Once
+ * stale, responses with an ETag or Last-Modified header are revalidated with
+ * If-None-Match/If-Modified-Since: a 304 then reuses the cached result
+ * without unmarshalling anything.
+ * <p>
+ * Cached results are shared between callers and must not be modified.
+ * 
+ * @author luc
+ */
+public class ResponseCache {
+
+	/** Request headers making part of the cache key unless specified otherwise. */
+	public static final String[]			DEFAULT_VARY_HEADERS	= { "Accept", "Accept-Encoding", "Accept-Language" };
+
+	private static final String				CACHE_CONTROL			= "Cache-Control";
+	private static final String				ETAG					= "ETag";
+	private static final String				LAST_MODIFIED			= "Last-Modified";
+	private static final String				EXPIRES					= "Expires";
+	private static final String				DATE					= "Date";
+	private static final String				IF_NONE_MATCH			= "If-None-Match";
+	private static final String				IF_MODIFIED_SINCE		= "If-Modified-Since";
+	private static final String				VARY					= "Vary";
+
+	/** Shared DateUtils object for parsing dates */
+	private static final DateUtils			DATE_UTILS				= new DateUtils();
+
+	private final Map<String, Entry>		mEntries;
+	private final String[]					mVaryHeaders;
+	private final AtomicLong				mHits					= new AtomicLong();
+	private final AtomicLong				mMisses					= new AtomicLong();
+	private final AtomicLong				mRevalidations			= new AtomicLong();
+
+	public ResponseCache(int pMaxEntries) {
+		this(pMaxEntries, DEFAULT_VARY_HEADERS);
+	}
+
+	/**
+	 * @param pMaxEntries
+	 *            maximum number of responses kept. Least recently used ones
+	 *            are evicted first.
+	 * @param pVaryHeaders
+	 *            request headers making part of the cache key.
+	 */
+	public ResponseCache(final int pMaxEntries, String... pVaryHeaders) {
+		mVaryHeaders = pVaryHeaders;
+		mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long	serialVersionUID	= 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ResponseCache.Entry> pEldest) {
+				return size() > pMaxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cache key of the given request, or null if its response
+	 * can not be cached. The key is computed before signing, since signatures
+	 * usually change with every request: the identity of the credentials
+	 * used stands for them.
+	 * 
+	 * @param pRequest
+	 *            request, with its endpoint set.
+	 * @param pUnmarshaller
+	 *            unmarshaller of the response, if any.
+	 * @param pCredentials
+	 *            credentials the request is sent with, if any.
+	 * @return key or null.
+	 */
+	public String getKey(Request<?> pRequest, Unmarshaller<?, ?> pUnmarshaller, IAPICredentials pCredentials) {
+		if (pRequest.getHttpMethod() != HttpMethodName.GET) return null;
+		StringBuilder oKey = appendURI(new StringBuilder(128), pRequest).append('\n');
+		appendUnmarshaller(oKey, pUnmarshaller);
+		for (String oName : mVaryHeaders) {
+			oKey.append('\n');
+			for (Map.Entry<String, String> e : pRequest.getHeaders().entrySet()) {
+				if (oName.equalsIgnoreCase(e.getKey())) {
+					oKey.append(e.getValue());
+					break;
+				}
+			}
+		}
+		oKey.append('\n');
+		if (pCredentials != null && pCredentials.getAccessKey() != null) oKey.append(pCredentials.getAccessKey());
+		return oKey.toString();
+	}
+
+	/**
+	 * Appends the URI of the request, before signing, with its path and
+	 * parameters encoded (as sent) and its parameters sorted.
+	 */
+	static StringBuilder appendURI(StringBuilder pKey, Request<?> pRequest) {
+		if (pRequest.getEndpoint() != null) pKey.append(pRequest.getEndpoint());
+		if (pRequest.getResourcePath() != null) UrlEncoder.encode(pKey, pRequest.getResourcePath(), true);
+		char oSeparator = '?';
+		for (Map.Entry<String, String> e : new TreeMap<String, String>(pRequest.getParameters()).entrySet()) {
+			pKey.append(oSeparator);
+			UrlEncoder.encodeForm(pKey, e.getKey());
+			if (e.getValue() != null) {
+				pKey.append('=');
+				UrlEncoder.encodeForm(pKey, e.getValue());
+			}
+			oSeparator = '&';
+		}
+		return pKey;
+	}
+
+	/**
+	 * Appends the class of the given unmarshaller (looking through
+	 * {@link StaxCursorUnmarshallerAdapter}), standing for the type of result.
+	 */
+	static StringBuilder appendUnmarshaller(StringBuilder pKey, Unmarshaller<?, ?> pUnmarshaller) {
+		Object oUnmarshaller = pUnmarshaller;
+		if (oUnmarshaller instanceof StaxCursorUnmarshallerAdapter) oUnmarshaller = ((StaxCursorUnmarshallerAdapter<?>) oUnmarshaller).getUnmarshaller();
+		if (oUnmarshaller != null) pKey.append(oUnmarshaller.getClass().getName());
+		return pKey;
+	}
+
+	public Entry get(String pKey) {
+		synchronized (mEntries) {
+			return mEntries.get(pKey);
+		}
+	}
+
+	/**
+	 * Stores the result of a successful response, if cacheable: not marked
+	 * no-store, not varying on request headers outside the key, and either
+	 * fresh for some time or revalidatable.
+	 * 
+	 * @param pKey
+	 *            cache key.
+	 * @param pResult
+	 *            unmarshalled result.
+	 * @param pHttpResponse
+	 *            HTTP response (its content is not kept).
+	 * @param pApacheHttpResponse
+	 *            Apache HTTP response, for its headers.
+	 * @return true if the response was stored.
+	 */
+	public boolean put(String pKey, Object pResult, HttpResponse pHttpResponse, HttpMessage pApacheHttpResponse) {
+		String oCacheControl = getHeader(pApacheHttpResponse, CACHE_CONTROL);
+		if (oCacheControl != null && oCacheControl.toLowerCase().contains("no-store")) return false;
+		if (!isVaryCovered(pApacheHttpResponse)) return false;
+		long oExpires = getExpires(pApacheHttpResponse, System.currentTimeMillis());
+		String oETag = getHeader(pApacheHttpResponse, ETAG);
+		String oLastModified = getHeader(pApacheHttpResponse, LAST_MODIFIED);
+		if (oExpires <= System.currentTimeMillis() && oETag == null && oLastModified == null) return false;
+		pHttpResponse.setContent(null);
+		synchronized (mEntries) {
+			mEntries.put(pKey, new Entry(pResult, pHttpResponse, oETag, oLastModified, oExpires));
+		}
+		return true;
+	}
+
+	/**
+	 * Extends the freshness of an entry following a 304 (Not Modified)
+	 * response.
+	 * 
+	 * @param pKey
+	 *            cache key.
+	 * @param pEntry
+	 *            revalidated entry.
+	 * @param pNotModified
+	 *            the 304 response.
+	 */
+	public void revalidated(String pKey, Entry pEntry, HttpMessage pNotModified) {
+		pEntry.mExpires = getExpires(pNotModified, System.currentTimeMillis());
+		synchronized (mEntries) {
+			if (!mEntries.containsKey(pKey)) mEntries.put(pKey, pEntry);
+		}
+	}
+
+	public void clear() {
+		synchronized (mEntries) {
+			mEntries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (mEntries) {
+			return mEntries.size();
+		}
+	}
+
+	void recordHit() {
+		mHits.incrementAndGet();
+	}
+
+	void recordMiss() {
+		mMisses.incrementAndGet();
+	}
+
+	void recordRevalidation() {
+		mRevalidations.incrementAndGet();
+	}
+
+	public long getHitCount() {
+		return mHits.get();
+	}
+
+	public long getMissCount() {
+		return mMisses.get();
+	}
+
+	public long getRevalidationCount() {
+		return mRevalidations.get();
+	}
+
+	/**
+	 * Returns until when a response is fresh, from its Cache-Control max-age
+	 * or its Expires header. Responses marked no-cache, or without any of
+	 * those, must be revalidated right away.
+	 */
+	private static long getExpires(HttpMessage pResponse, long pNow) {
+		String oCacheControl = getHeader(pResponse, CACHE_CONTROL);
+		if (oCacheControl != null) {
+			for (String oDirective : oCacheControl.split(",")) {
+				oDirective = oDirective.trim().toLowerCase();
+				if (oDirective.equals("no-cache")) {
+					return 0;
+				}
+				if (oDirective.startsWith("max-age=")) {
+					try {
+						return pNow + Long.parseLong(oDirective.substring("max-age=".length())) * 1000;
+					} catch (NumberFormatException e) {
+						return 0;
+					}
+				}
+			}
+		}
+		String oExpires = getHeader(pResponse, EXPIRES);
+		if (oExpires != null) {
+			try {
+				long oExpiresTime = DATE_UTILS.parseRfc822Date(oExpires).getTime();
+				String oDate = getHeader(pResponse, DATE);
+				// Relative to the server clock, to be immune to clock skew.
+				long oServerNow = oDate == null ? pNow : DATE_UTILS.parseRfc822Date(oDate).getTime();
+				return pNow + (oExpiresTime - oServerNow);
+			} catch (ParseException e) {
+				return 0;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns true if the request headers the response varies on, if any, are
+	 * all part of the cache key. Vary: * never is.
+	 */
+	private boolean isVaryCovered(HttpMessage pResponse) {
+		for (Header oHeader : pResponse.getHeaders(VARY)) {
+			for (String oName : oHeader.getValue().split(",")) {
+				oName = oName.trim();
+				if (oName.length() == 0) continue;
+				if (!isVaryHeader(oName)) return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isVaryHeader(String pName) {
+		for (String oName : mVaryHeaders) {
+			if (oName.equalsIgnoreCase(pName)) return true;
+		}
+		return false;
+	}
+
+	private static String getHeader(HttpMessage pMessage, String pName) {
+		Header oHeader = pMessage.getFirstHeader(pName);
+		return oHeader == null ? null : oHeader.getValue();
+	}
+
+	/**
+	 * Cached response.
+	 */
+	public static class Entry {
+		private final Object		mResult;
+		private final HttpResponse	mHttpResponse;
+		private final String		mETag;
+		private final String		mLastModified;
+		private volatile long		mExpires;
+
+		Entry(Object pResult, HttpResponse pHttpResponse, String pETag, String pLastModified, long pExpires) {
+			mResult = pResult;
+			mHttpResponse = pHttpResponse;
+			mETag = pETag;
+			mLastModified = pLastModified;
+			mExpires = pExpires;
+		}
+
+		public boolean isFresh() {
+			return System.currentTimeMillis() < mExpires;
+		}
+
+		public boolean isRevalidatable() {
+			return mETag != null || mLastModified != null;
+		}
+
+		/**
+		 * Makes the given request conditional, so the service answers 304 if
+		 * this entry is still valid.
+		 * 
+		 * @param pRequest
+		 *            request.
+		 */
+		public void addConditionalHeaders(HttpRequest pRequest) {
+			if (mETag != null) pRequest.setHeader(IF_NONE_MATCH, mETag);
+			if (mLastModified != null) pRequest.setHeader(IF_MODIFIED_SINCE, mLastModified);
+		}
+
+		public Object getResult() {
+			return mResult;
+		}
+
+		public HttpResponse getHttpResponse() {
+			return mHttpResponse;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.bo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client-wide token bucket limiting how many retries can be in flight
+ * relative to successful requests.
+ * <p>
+ * Every retry must acquire {@link #RETRY_COST} tokens and every successful
+ * request returns some back to the bucket. When a downstream service is
+ * failing, the bucket drains quickly and retries stop, so that retries can't
+ * multiply the load on the service during an outage. Requests themselves are
+ * never blocked by the budget, only retries.
+ * 
+ * @author luc
+ */
+public class RetryBudget {
+
+	/** Number of tokens one retry takes from the bucket. */
+	public static final int		RETRY_COST				= 5;
+
+	/** Number of tokens a request succeeding on its first attempt puts back. */
+	public static final int		NO_RETRY_INCREMENT		= 1;
+
+	private final int			mCapacity;
+	private final AtomicInteger	mAvailable;
+
+	/**
+	 * @param pCapacity
+	 *            Maximum number of tokens in the bucket. A negative value
+	 *            means the budget is unlimited.
+	 */
+	public RetryBudget(int pCapacity) {
+		mCapacity = pCapacity;
+		mAvailable = new AtomicInteger(pCapacity);
+	}
+
+	/**
+	 * Attempts to take the cost of one retry from the bucket.
+	 * 
+	 * @return True if the retry can proceed, false if the budget is exhausted.
+	 */
+	public boolean tryAcquire() {
+		return tryAcquire(RETRY_COST);
+	}
+
+	/**
+	 * Attempts to take the given number of tokens from the bucket.
+	 * 
+	 * @param pCost
+	 *            number of tokens.
+	 * @return True if the tokens were acquired, false if the budget is
+	 *         exhausted.
+	 */
+	public boolean tryAcquire(int pCost) {
+		if (mCapacity < 0) return true;
+		while (true) {
+			int oAvailable = mAvailable.get();
+			if (oAvailable < pCost) return false;
+			if (mAvailable.compareAndSet(oAvailable, oAvailable - pCost)) return true;
+		}
+	}
+
+	/**
+	 * Puts back the given number of tokens, without ever exceeding the
+	 * capacity of the bucket.
+	 * 
+	 * @param pAmount
+	 *            number of tokens.
+	 */
+	public void release(int pAmount) {
+		if (mCapacity < 0) return;
+		while (true) {
+			int oAvailable = mAvailable.get();
+			if (oAvailable >= mCapacity) return;
+			int oNext = Math.min(mCapacity, oAvailable + pAmount);
+			if (mAvailable.compareAndSet(oAvailable, oNext)) return;
+		}
+	}
+
+	public int getAvailable() {
+		return mCapacity < 0 ? Integer.MAX_VALUE : mAvailable.get();
+	}
+
+	public int getCapacity() {
+		return mCapacity;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ * 
+ *  http://aws.amazon.com/apache2.0
+ * 
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.lpezet.antiope.be.APIWebServiceResponse;
+import com.github.lpezet.antiope.be.ResponseMetadata;
+import com.github.lpezet.antiope.transform.ElementIterator;
+import com.github.lpezet.antiope.transform.StreamingUnmarshaller;
+import com.github.lpezet.antiope.transform.Unmarshaller;
+
+/**
+ * Base of the StAX response handlers, whichever StAX API (events or cursor)
+ * they read the response with: unmarshalls the response, collects its
+ * metadata, and hands the reader over to the {@link ElementIterator} returned
+ * by a {@link StreamingUnmarshaller}.
+ * 
+ * @param <T> type of the result.
+ * @param <R> type of the XML reader.
+ * @param <C> type of the unmarshaller context.
+ * 
+ * @author luc
+ *
+ */
+public abstract class AbstractStaxResponseHandler<T, R, C> implements HttpResponseHandler<APIWebServiceResponse<T>> {
+
+    /** The StAX unmarshaller to use when handling the response */
+    private final Unmarshaller<T, C> responseUnmarshaller;
+
+    /** Whether the unmarshaller returns an ElementIterator still reading the response. */
+    private final boolean streaming;
+
+    /** Shared logger for profiling information */
+    private static final Logger log = LoggerFactory.getLogger(AbstractStaxResponseHandler.class);
+
+    /**
+     * Factory for creating XML readers. XMLInputFactory is not guaranteed to
+     * be thread-safe: one per thread instead of locking a shared one.
+     */
+    private static final ThreadLocal<XMLInputFactory> xmlInputFactory = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            return XMLInputFactory.newInstance();
+        }
+    };
+
+    /**
+     * @param responseUnmarshaller
+     *            The StAX unmarshaller to use on the response (not null).
+     */
+    protected AbstractStaxResponseHandler(Unmarshaller<T, C> responseUnmarshaller) {
+        this.responseUnmarshaller = responseUnmarshaller;
+        this.streaming = ElementIterator.isStreaming(responseUnmarshaller);
+    }
+
+    public APIWebServiceResponse<T> handle(HttpResponse response) throws Exception {
+        log.trace("Parsing service response XML");
+        InputStream content = response.getContent();
+        if (content == null) content = new ByteArrayInputStream("<eof/>".getBytes());
+
+        final R reader = createReader(xmlInputFactory.get(), content);
+        boolean handedOver = false;
+
+        try {
+            APIWebServiceResponse<T> oAPIResponse = new APIWebServiceResponse<T>();
+            C unmarshallerContext = createUnmarshallerContext(reader, response.getHeaders());
+            registerMetadataExpression(unmarshallerContext, "ResponseMetadata/RequestId", 2, ResponseMetadata.API_REQUEST_ID);
+            registerMetadataExpression(unmarshallerContext, "requestId", 2, ResponseMetadata.API_REQUEST_ID);
+            registerAdditionalMetadataExpressions(unmarshallerContext);
+
+            T result = responseUnmarshaller.unmarshall(unmarshallerContext);
+            oAPIResponse.setResult(result);
+            if (streaming) {
+                // the iterator reads on, and releases the reader and the connection when done
+                ElementIterator<?> iterator = (ElementIterator<?>) result;
+                iterator.addResource(content);
+                iterator.addResource(new Closeable() {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            closeReader(reader);
+                        } catch (XMLStreamException e) {
+                            throw new IOException(e.getMessage(), e);
+                        }
+                    }
+                });
+                handedOver = true;
+            }
+
+            oAPIResponse.setResponseMetadata(new ResponseMetadata(getMetadata(unmarshallerContext)));
+
+            log.trace("Done parsing service response");
+            return oAPIResponse;
+        } finally {
+            if (!handedOver) {
+                try {
+                    closeReader(reader);
+                } catch (XMLStreamException e) {
+                    log.warn("Error closing xml parser", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the reader of the response content.
+     */
+    protected abstract R createReader(XMLInputFactory factory, InputStream content) throws XMLStreamException;
+
+    protected abstract void closeReader(R reader) throws XMLStreamException;
+
+    protected abstract C createUnmarshallerContext(R reader, Map<String, String> headers);
+
+    protected abstract void registerMetadataExpression(C unmarshallerContext, String expression, int targetDepth, String storageKey);
+
+    protected abstract Map<String, String> getMetadata(C unmarshallerContext);
+
+    /**
+     * Hook for subclasses to override in order to collect additional metadata
+     * from service responses.
+     *
+     * @param unmarshallerContext
+     *            The unmarshaller context used to process a service's response
+     *            data.
+     */
+    protected void registerAdditionalMetadataExpressions(C unmarshallerContext) {}
+
+    /**
+     * Since this response handler completely consumes all the data from the
+     * underlying HTTP connection during the handle method, we don't need to
+     * keep the HTTP connection open. Unless the unmarshaller is a
+     * {@link StreamingUnmarshaller}: the connection is then released by the
+     * {@link ElementIterator} returned.
+     *
+     */
+    public boolean needsConnectionLeftOpen() {
+        return streaming;
+    }
+
+}
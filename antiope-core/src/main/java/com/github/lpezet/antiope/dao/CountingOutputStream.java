@@ -0,0 +1,61 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @author luc
+ *
+ */
+public class CountingOutputStream extends FilterOutputStream {
+	private long	mByteCount	= 0;
+
+	public CountingOutputStream(OutputStream pOut) {
+		super(pOut);
+	}
+
+	/**
+	 * Returns the number of bytes written to this stream so far.
+	 *
+	 * @return the number of bytes written to this stream so far.
+	 */
+	public long getByteCount() {
+		return mByteCount;
+	}
+
+	@Override
+	public void write(int pByte) throws IOException {
+		out.write(pByte);
+		mByteCount++;
+	}
+
+	@Override
+	public void write(byte[] pBuffer, int pOffset, int pLength) throws IOException {
+		// not through FilterOutputStream, writing one byte at a time
+		out.write(pBuffer, pOffset, pLength);
+		mByteCount += pLength;
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+import org.apache.http.Consts;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.NTCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.HttpAsyncClient;
+
+import com.github.lpezet.antiope.be.APIConfiguration;
+
+/**
+ * Creates non-blocking HTTP clients, based on a single I/O reactor, so the
+ * number of requests in flight is not bound to the number of threads.
+ * 
+ * @author luc
+ */
+public class DefaultHttpAsyncClientFactory implements IHttpAsyncClientFactory {
+
+	@Override
+	public HttpAsyncClient createHttpAsyncClient(APIConfiguration pConfiguration) {
+		IOReactorConfig oIOReactorConfig = IOReactorConfig.custom()
+				.setIoThreadCount(Runtime.getRuntime().availableProcessors())
+				.setConnectTimeout(pConfiguration.getConnectionTimeout())
+				.setSoTimeout(pConfiguration.getSocketTimeout())
+				.setTcpNoDelay(true)
+				.setSndBufSize(Math.max(0, pConfiguration.getSocketSendBufferSizeHint()))
+				.setRcvBufSize(Math.max(0, pConfiguration.getSocketReceiveBufferSizeHint()))
+				.build();
+
+		ConnectionConfig oConnectionConfig = ConnectionConfig.custom()
+				.setMalformedInputAction(CodingErrorAction.IGNORE)
+				.setUnmappableInputAction(CodingErrorAction.IGNORE)
+				.setCharset(Consts.UTF_8)
+				.build();
+
+		RequestConfig oDefaultRequestConfig = RequestConfig.custom()
+				.setCookieSpec(CookieSpecs.BEST_MATCH)
+				.setTargetPreferredAuthSchemes(Arrays.asList(AuthSchemes.NTLM, AuthSchemes.DIGEST))
+				.setProxyPreferredAuthSchemes(Arrays.asList(AuthSchemes.BASIC))
+				.setConnectTimeout(pConfiguration.getConnectionTimeout())
+				.setSocketTimeout(pConfiguration.getSocketTimeout())
+				.setConnectionRequestTimeout(pConfiguration.getConnectionRequestTimeout())
+				.build();
+
+		CredentialsProvider oCredentialsProvider = new BasicCredentialsProvider();
+		HttpHost oProxy = null;
+
+		if (pConfiguration.getProxyHost() != null && pConfiguration.getProxyPort() > 0) {
+			String proxyHost = pConfiguration.getProxyHost();
+			int proxyPort = pConfiguration.getProxyPort();
+			String proxyUsername = pConfiguration.getProxyUsername();
+			String proxyPassword = pConfiguration.getProxyPassword();
+			String proxyDomain = pConfiguration.getProxyDomain();
+			String proxyWorkstation = pConfiguration.getProxyWorkstation();
+
+			oProxy = new HttpHost(proxyHost, proxyPort);
+
+			if (proxyUsername != null && proxyPassword != null) {
+				oCredentialsProvider.setCredentials(
+						new AuthScope(proxyHost, proxyPort),
+						new NTCredentials(proxyUsername, proxyPassword, proxyWorkstation, proxyDomain));
+			}
+		}
+
+		CloseableHttpAsyncClient oHttpAsyncClient = HttpAsyncClients.custom()
+				.setDefaultIOReactorConfig(oIOReactorConfig)
+				.setDefaultConnectionConfig(oConnectionConfig)
+				.setDefaultRequestConfig(oDefaultRequestConfig)
+				.setDefaultCookieStore(new BasicCookieStore())
+				.setDefaultCredentialsProvider(oCredentialsProvider)
+				.setProxy(oProxy)
+				.setSSLContext(DefaultHttpClientFactory.createSSLContext(pConfiguration))
+				.setHostnameVerifier(DefaultHttpClientFactory.createHostnameVerifier(pConfiguration))
+				.setMaxConnTotal(pConfiguration.getMaxConnections())
+				.setMaxConnPerRoute(pConfiguration.getMaxConnectionsPerRoute())
+				.build();
+		oHttpAsyncClient.start();
+		return oHttpAsyncClient;
+	}
+}
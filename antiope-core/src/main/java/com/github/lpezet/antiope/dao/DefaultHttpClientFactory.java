@@ -22,11 +22,17 @@
  */
 package com.github.lpezet.antiope.dao;
 
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
 import java.nio.charset.CodingErrorAction;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -67,6 +73,7 @@ import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.impl.conn.SystemDefaultDnsResolver;
 import org.apache.http.impl.io.DefaultHttpRequestWriterFactory;
+import org.apache.http.protocol.HttpContext;
 
 import com.github.lpezet.antiope.APIClientException;
 import com.github.lpezet.antiope.be.APIConfiguration;
@@ -81,53 +88,35 @@ public class DefaultHttpClientFactory implements IHttpClientFactory {
 	private static final String HTTP = "http";
 
 	@Override
-	public HttpClient createHttpClient(APIConfiguration pConfiguration) {
+	public HttpClient createHttpClient(final APIConfiguration pConfiguration) {
 
 		// Use a custom connection factory to customize the process of
 		// initialization of outgoing HTTP connections. Beside standard connection
 		// configuration parameters HTTP connection factory can define message
 		// parser / writer routines to be employed by individual connections.
-		HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> oConnFactory = new ManagedHttpClientConnectionFactory(new DefaultHttpRequestWriterFactory(), new DefaultHttpResponseParserFactory());
+		// Connections are only checked for staleness (a blocking read) when idle for a while.
+		HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> oConnFactory = new InactivityValidatingConnectionFactory(
+				new ManagedHttpClientConnectionFactory(new DefaultHttpRequestWriterFactory(), new DefaultHttpResponseParserFactory()),
+				pConfiguration.getValidateAfterInactivity());
 
-		SSLContext oSslContext = null;
-		X509HostnameVerifier oHostnameVerifier = null;
-		if (pConfiguration.isCheckSSLCertificates()) {
-			oSslContext = SSLContexts.createSystemDefault();
-			oHostnameVerifier = new BrowserCompatHostnameVerifier();
-		} else {
-			final TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
-		        @Override
-		        public void checkClientTrusted( final X509Certificate[] chain, final String authType ) {
-		        }
-		        @Override
-		        public void checkServerTrusted( final X509Certificate[] chain, final String authType ) {
-		        }
-		        @Override
-		        public X509Certificate[] getAcceptedIssuers() {
-		            return null;
-		        }
-		    } };
-		    
-		    // Install the all-trusting trust manager
-			try {
-			    final SSLContext sslContext = SSLContext.getInstance( SSL );
-			    sslContext.init( null, trustAllCerts, new java.security.SecureRandom() ); 
-			    // Create an ssl socket factory with our all-trusting manager
-			    //final SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
-			    oSslContext = sslContext;
-			} catch (NoSuchAlgorithmException e) {
-				throw new APIClientException(e);
-			} catch (KeyManagementException e) {
-				throw new APIClientException(e);
-			}
-		    oHostnameVerifier = new AllowAllHostnameVerifier();
-		}
+		SSLContext oSslContext = createSSLContext(pConfiguration);
+		X509HostnameVerifier oHostnameVerifier = createHostnameVerifier(pConfiguration);
 		
 		// Create a registry of custom connection socket factories for supported
 		// protocol schemes.
 		Registry<ConnectionSocketFactory> oSocketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create()
-				.register(HTTP, PlainConnectionSocketFactory.INSTANCE)
-				.register(HTTPS, new SSLConnectionSocketFactory(oSslContext, oHostnameVerifier))
+				.register(HTTP, new PlainConnectionSocketFactory() {
+					@Override
+					public Socket createSocket(HttpContext pContext) throws IOException {
+						return configureSocket(super.createSocket(pContext), pConfiguration);
+					}
+				})
+				.register(HTTPS, new SSLConnectionSocketFactory(oSslContext, oHostnameVerifier) {
+					@Override
+					public Socket createSocket(HttpContext pContext) throws IOException {
+						return configureSocket(super.createSocket(pContext), pConfiguration);
+					}
+				})
 				.build();
 
 		// Use custom DNS resolver to override the system DNS resolution.
@@ -143,7 +132,7 @@ public class DefaultHttpClientFactory implements IHttpClientFactory {
 		};*/
 
 		// Create a connection manager with custom configuration.
-		PoolingHttpClientConnectionManager oConnManager = new PoolingHttpClientConnectionManager(oSocketFactoryRegistry, oConnFactory, oDnsResolver);
+		PoolingHttpClientConnectionManager oConnManager = new PoolingHttpClientConnectionManager(oSocketFactoryRegistry, oConnFactory, null, oDnsResolver, pConfiguration.getConnectionTTL(), TimeUnit.MILLISECONDS);
 
 		// Create socket configuration
 		SocketConfig oSocketConfig = SocketConfig.custom()
@@ -175,9 +164,11 @@ public class DefaultHttpClientFactory implements IHttpClientFactory {
 
 		// Configure total max or per route limits for persistent connections
 		// that can be kept in the pool or leased by the connection manager.
-		oConnManager.setMaxTotal(100);
-		oConnManager.setDefaultMaxPerRoute(10);
-		//oConnManager.setMaxPerRoute(new HttpRoute(new HttpHost("somehost", 80)), 20);
+		oConnManager.setMaxTotal(pConfiguration.getMaxConnections());
+		oConnManager.setDefaultMaxPerRoute(pConfiguration.getMaxConnectionsPerRoute());
+		for (Entry<String, Integer> e : pConfiguration.getMaxConnectionsPerEndpoint().entrySet()) {
+			oConnManager.setMaxPerRoute(toRoute(e.getKey(), pConfiguration), e.getValue());
+		}
 
 		// Use custom cookie store if necessary.
 		CookieStore oCookieStore = new BasicCookieStore();
@@ -187,10 +178,11 @@ public class DefaultHttpClientFactory implements IHttpClientFactory {
 		RequestConfig oDefaultRequestConfig = RequestConfig.custom()
 				.setCookieSpec(CookieSpecs.BEST_MATCH)
 				//.setExpectContinueEnabled(true)			// WARNING: setting it to true slows things down by 4s!!!!
-				.setStaleConnectionCheckEnabled(true)
+				.setStaleConnectionCheckEnabled(true)		// only probes connections idle for a while (see InactivityValidatingConnectionFactory)
 				.setTargetPreferredAuthSchemes(Arrays.asList(AuthSchemes.NTLM, AuthSchemes.DIGEST))
 				.setProxyPreferredAuthSchemes(Arrays.asList(AuthSchemes.BASIC))
 				.setConnectTimeout(pConfiguration.getConnectionTimeout())
+				.setConnectionRequestTimeout(pConfiguration.getConnectionRequestTimeout())
 				.build();
 
 		CredentialsProvider oCredentialsProvider = new BasicCredentialsProvider();
@@ -220,9 +212,15 @@ public class DefaultHttpClientFactory implements IHttpClientFactory {
 				.setDefaultCredentialsProvider(oCredentialsProvider)
 				.setProxy(oProxy)
 				.setDefaultRequestConfig(oDefaultRequestConfig)
+				// Responses are decompressed by the API client, accounting for both sizes.
+				.disableContentCompression()
 				.build();
 		
-		return oHttpClient;
+		if (pConfiguration.isUseReaper()) {
+			IdleConnectionReaper.registerConnectionManager(oConnManager, pConfiguration.getConnectionMaxIdleMillis());
+		}
+		
+		return new PoolingHttpClient(oHttpClient, oConnManager);
 		/*
 		RequestConfig oRequestConfig = RequestConfig.custom()
 				.setConnectTimeout(pConfiguration.getConnectionTimeout())
@@ -231,4 +229,98 @@ public class DefaultHttpClientFactory implements IHttpClientFactory {
 				.build();
 		*/
 	}
+
+	/**
+	 * Applies the socket buffer size hints of the configuration, if any. It
+	 * must happen before connecting for the receive buffer to be taken into
+	 * account in the TCP window negotiation.
+	 * 
+	 * @param pSocket
+	 *            unconnected socket.
+	 * @param pConfiguration
+	 *            configuration.
+	 * @return the given socket.
+	 * @throws SocketException
+	 *             if the buffer sizes can not be set.
+	 */
+	static Socket configureSocket(Socket pSocket, APIConfiguration pConfiguration) throws SocketException {
+		if (pConfiguration.getSocketSendBufferSizeHint() > 0) {
+			pSocket.setSendBufferSize(pConfiguration.getSocketSendBufferSizeHint());
+		}
+		if (pConfiguration.getSocketReceiveBufferSizeHint() > 0) {
+			pSocket.setReceiveBufferSize(pConfiguration.getSocketReceiveBufferSizeHint());
+		}
+		return pSocket;
+	}
+
+	/**
+	 * Returns the route to the given endpoint, the way the client would plan
+	 * it.
+	 * 
+	 * @param pEndpoint
+	 *            endpoint URL.
+	 * @param pConfiguration
+	 *            configuration, for the proxy.
+	 * @return route.
+	 */
+	static HttpRoute toRoute(String pEndpoint, APIConfiguration pConfiguration) {
+		URI oURI = URI.create(pEndpoint);
+		String oScheme = oURI.getScheme() == null ? HTTP : oURI.getScheme().toLowerCase();
+		boolean oSecure = HTTPS.equals(oScheme);
+		int oPort = oURI.getPort() > 0 ? oURI.getPort() : (oSecure ? 443 : 80);
+		HttpHost oTarget = new HttpHost(oURI.getHost(), oPort, oScheme);
+		if (pConfiguration.getProxyHost() != null && pConfiguration.getProxyPort() > 0) {
+			return new HttpRoute(oTarget, null, new HttpHost(pConfiguration.getProxyHost(), pConfiguration.getProxyPort()), oSecure);
+		}
+		return new HttpRoute(oTarget, null, oSecure);
+	}
+
+	/**
+	 * Creates the SSL context to use for the given configuration: the system
+	 * default one, or one trusting all certificates when
+	 * {@link APIConfiguration#isCheckSSLCertificates()} is false.
+	 * 
+	 * @param pConfiguration
+	 *            configuration.
+	 * @return SSL context.
+	 */
+	static SSLContext createSSLContext(APIConfiguration pConfiguration) {
+		if (pConfiguration.isCheckSSLCertificates()) {
+			return SSLContexts.createSystemDefault();
+		}
+		final TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
+	        @Override
+	        public void checkClientTrusted( final X509Certificate[] chain, final String authType ) {
+	        }
+	        @Override
+	        public void checkServerTrusted( final X509Certificate[] chain, final String authType ) {
+	        }
+	        @Override
+	        public X509Certificate[] getAcceptedIssuers() {
+	            return null;
+	        }
+	    } };
+	    
+	    // Install the all-trusting trust manager
+		try {
+		    final SSLContext sslContext = SSLContext.getInstance( SSL );
+		    sslContext.init( null, trustAllCerts, new java.security.SecureRandom() ); 
+		    return sslContext;
+		} catch (NoSuchAlgorithmException e) {
+			throw new APIClientException(e);
+		} catch (KeyManagementException e) {
+			throw new APIClientException(e);
+		}
+	}
+
+	/**
+	 * Creates the hostname verifier to use for the given configuration.
+	 * 
+	 * @param pConfiguration
+	 *            configuration.
+	 * @return hostname verifier.
+	 */
+	static X509HostnameVerifier createHostnameVerifier(APIConfiguration pConfiguration) {
+		return pConfiguration.isCheckSSLCertificates() ? new BrowserCompatHostnameVerifier() : new AllowAllHostnameVerifier();
+	}
 }
@@ -22,9 +22,11 @@
  */
 package com.github.lpezet.antiope.dao;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.channels.FileChannel;
 import java.util.Map.Entry;
 
 import org.apache.http.HttpEntity;
@@ -34,9 +36,8 @@ import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.params.CoreProtocolPNames;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 
 import com.github.lpezet.antiope.APIClientException;
@@ -55,6 +56,9 @@ public class DefaultHttpRequestFactory implements IHttpRequestFactory {
 	private static final String	CONTENT_LENGTH		= "Content-Length";
 	private static final String	HOST				= "Host";
 	private static final String	CONTENT_TYPE		= "Content-Type";
+	private static final String	CONTENT_ENCODING	= "Content-Encoding";
+	private static final String	ACCEPT_ENCODING		= "Accept-Encoding";
+	private static final String	GZIP_DEFLATE		= "gzip,deflate";
 	private static final String	SPACE				= " ";
 	private static final String	DEFAULT_ENCODING	= "UTF-8";
 
@@ -76,20 +80,26 @@ public class DefaultHttpRequestFactory implements IHttpRequestFactory {
 		 * have to escape the double-slash between endpoint and resource-path
 		 * into "/%2F"
 		 */
-		String oUri = HttpUtils.appendUri(oEndpoint.toString(), pRequest.getResourcePath(), true);
-		String oEncodedParams = HttpUtils.encodeParameters(pRequest);
+		StringBuilder oUriBuilder = HttpUtils.appendUri(new StringBuilder(128), oEndpoint.toString(), pRequest.getResourcePath(), true);
+		String oEncodedParams = null;
 
 		/*
 		 * For all non-POST requests, and any POST requests that already have a
 		 * payload, we put the encoded params directly in the URI, otherwise,
 		 * we'll put them in the POST request's payload.
+		 * Params are encoded straight into the URI builder; the standalone
+		 * string is only carved out when it is needed as POST body.
 		 */
 		boolean oRequestHasNoPayload = pRequest.getContent() == null;
 		boolean oRequestIsPost = pRequest.getHttpMethod() == HttpMethodName.POST;
 		boolean oPutParamsInUri = !oRequestIsPost || oRequestHasNoPayload;
-		if (oEncodedParams != null && oPutParamsInUri) {
-			oUri += QMARK + oEncodedParams;
+		if (!pRequest.getParameters().isEmpty() && oPutParamsInUri) {
+			oUriBuilder.append(QMARK);
+			int oParamsStart = oUriBuilder.length();
+			HttpUtils.encodeParameters(oUriBuilder, pRequest.getParameters());
+			if (oRequestIsPost) oEncodedParams = oUriBuilder.substring(oParamsStart);
 		}
+		String oUri = oUriBuilder.toString();
 
 		HttpRequestBase oHttpRequest;
 		if (pRequest.getHttpMethod() == HttpMethodName.POST) {
@@ -105,30 +115,13 @@ public class DefaultHttpRequestFactory implements IHttpRequestFactory {
 			if (pRequest.getContent() == null && oEncodedParams != null) {
 				oPostMethod.setEntity(newStringEntity(oEncodedParams));
 			} else if (pRequest.getContent() != null) {
-				oPostMethod.setEntity(new RepeatableInputStreamRequestEntity( pRequest ));
+				oPostMethod.setEntity(expectContinue(oPostMethod, compress(newRequestEntity(pRequest), pRequest, pConfiguration), pConfiguration));
 			}
 			oHttpRequest = oPostMethod;
 		} else if (pRequest.getHttpMethod() == HttpMethodName.PUT) {
 			HttpPut putMethod = new HttpPut(oUri);
-			
-			/*
-			 * Enable 100-continue support for PUT operations, since this is
-			 * where we're potentially uploading large amounts of data and want
-			 * to find out as early as possible if an operation will fail. We
-			 * don't want to do this for all operations since it will cause
-			 * extra latency in the network interaction.
-			 */
-			putMethod.getParams().setParameter(CoreProtocolPNames.USE_EXPECT_CONTINUE, true);
-
-			//if (pPreviousEntity != null) {
-			//	putMethod.setEntity(pPreviousEntity);
-			//} else 
 			if (pRequest.getContent() != null) {
-				HttpEntity entity = new RepeatableInputStreamRequestEntity(pRequest);
-				if (pRequest.getHeaders().get(CONTENT_LENGTH) == null) {
-					entity = newBufferedHttpEntity(entity);
-				}
-				putMethod.setEntity( entity );
+				putMethod.setEntity(expectContinue(putMethod, compress(newRequestEntity(pRequest), pRequest, pConfiguration), pConfiguration));
 			}
 			
 			oHttpRequest = putMethod;
@@ -177,6 +170,11 @@ public class DefaultHttpRequestFactory implements IHttpRequestFactory {
 			pHttpRequest.addHeader(entry.getKey(), entry.getValue());
 		}
 
+		/* Responses are decompressed as they are read (see InflatingInputStream) */
+		if (pConfiguration.isUseGzip() && pHttpRequest.getFirstHeader(ACCEPT_ENCODING) == null) {
+			pHttpRequest.addHeader(ACCEPT_ENCODING, GZIP_DEFLATE);
+		}
+
 		/* Set content type and encoding */
 		if (pHttpRequest.getHeaders(CONTENT_TYPE) == null || pHttpRequest.getHeaders(CONTENT_TYPE).length == 0) {
 			pHttpRequest.addHeader(CONTENT_TYPE, "application/x-www-form-urlencoded; " + "charset=" + DEFAULT_ENCODING.toLowerCase());
@@ -218,18 +216,59 @@ public class DefaultHttpRequestFactory implements IHttpRequestFactory {
 	}
 
 	/**
-	 * Utility function for creating a new BufferedEntity and wrapping any
-	 * errors as an TSGClientException.
-	 * 
-	 * @param entity
-	 *            The HTTP entity to wrap with a buffered HTTP entity.
-	 * @return A new BufferedHttpEntity wrapping the specified entity.
+	 * Creates the entity streaming the request's content. File content is
+	 * sent straight from its channel (see {@link FileChannelEntity}), starting
+	 * at its current position. Any other content is streamed as is, chunked
+	 * when its length is not known, instead of being buffered in memory to
+	 * compute it.
 	 */
-	private HttpEntity newBufferedHttpEntity(HttpEntity entity) {
-		try {
-			return new BufferedHttpEntity(entity);
-		} catch (IOException e) {
-			throw new APIClientException("Unable to create HTTP entity: " + e.getMessage(), e);
+	private HttpEntity newRequestEntity(Request<?> pRequest) {
+		if (pRequest.getContent() instanceof FileInputStream) {
+			FileChannel oChannel = ((FileInputStream) pRequest.getContent()).getChannel();
+			try {
+				long oPosition = oChannel.position();
+				String oContentLength = pRequest.getHeaders().get(CONTENT_LENGTH);
+				long oLength = oContentLength != null ? Long.parseLong(oContentLength) : oChannel.size() - oPosition;
+				FileChannelEntity oEntity = new FileChannelEntity(oChannel, oPosition, oLength);
+				oEntity.setContentType(pRequest.getHeaders().get(CONTENT_TYPE));
+				oEntity.setMetrics(pRequest.getMetrics());
+				return oEntity;
+			} catch (IOException e) {
+				throw new APIClientException("Unable to create HTTP entity: " + e.getMessage(), e);
+			} catch (NumberFormatException e) {
+				// Falling back to streaming, which deals with it.
+			}
+		}
+		return new RepeatableInputStreamRequestEntity(pRequest);
+	}
+
+	/**
+	 * Compresses payloads of known length larger than the configured
+	 * threshold, unless already encoded.
+	 */
+	private HttpEntity compress(HttpEntity pEntity, Request<?> pRequest, APIConfiguration pConfiguration) {
+		long oThreshold = pConfiguration.getRequestCompressionThreshold();
+		if (oThreshold < 0 || pEntity.getContentLength() <= oThreshold || pRequest.getHeaders().containsKey(CONTENT_ENCODING)) return pEntity;
+		return new GzipCompressingEntity(pEntity, pRequest.getMetrics());
+	}
+
+	/**
+	 * Enables 100-continue support for payloads larger than the configured
+	 * threshold, or of unknown length. This is where we're potentially
+	 * uploading large amounts of data and want to find out as early as
+	 * possible if an operation will fail. We don't want to do this for all
+	 * payloads since it costs an extra round trip.
+	 * <p>
+	 * The header is set directly rather than through request parameters,
+	 * which would make HttpClient drop the client's default request
+	 * configuration (timeouts, stale connection check...).
+	 */
+	private HttpEntity expectContinue(HttpRequestBase pHttpRequest, HttpEntity pEntity, APIConfiguration pConfiguration) {
+		long oThreshold = pConfiguration.getExpectContinueThreshold();
+		long oLength = pEntity.getContentLength();
+		if (oThreshold >= 0 && (oLength < 0 || oLength > oThreshold)) {
+			pHttpRequest.addHeader(HTTP.EXPECT_DIRECTIVE, HTTP.EXPECT_CONTINUE);
 		}
+		return pEntity;
 	}
 }
@@ -41,7 +41,7 @@ public class ExecutionContext {
 	}
 	
 	public ExecutionContext(List<RequestHandler> pRequestHandlers, IMetrics pMetrics) {
-		mMetrics = pMetrics != null ? pMetrics : new StubMetrics();
+		mMetrics = pMetrics != null ? pMetrics : StubMetrics.getInstance();
 		mRequestHandlers = pRequestHandlers;
 	}
 
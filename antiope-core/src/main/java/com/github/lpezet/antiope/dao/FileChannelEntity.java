@@ -0,0 +1,203 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.FileContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+import com.github.lpezet.antiope.metrics.APIRequestMetrics;
+import com.github.lpezet.antiope.metrics.IMetrics;
+
+/**
+ * Request entity streaming a region of a {@link FileChannel}, without ever
+ * buffering it in memory.
+ * <p>
+ * Blocking clients get it through {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+ * onto the connection's output stream. Asynchronous clients get it through
+ * {@link FileContentEncoder#transfer(FileChannel, long, long)}, which lets the
+ * kernel send the file straight to the socket when the connection is not
+ * encrypted or chunked.
+ * <p>
+ * Reads are positional, so the entity is repeatable and leaves the channel's
+ * own position untouched. The channel is not closed by this entity.
+ * 
+ * @author luc
+ */
+public class FileChannelEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+	
+	private static final int BUFFER_SIZE = 8 * 1024;
+	
+	private final FileChannel mChannel;
+	private final long mPosition;
+	private final long mLength;
+	private IMetrics mMetrics;
+	/** Bytes already produced by {@link #produceContent(ContentEncoder, IOControl)}. */
+	private long mProduced;
+	private ByteBuffer mBuffer;
+	
+	/**
+	 * @param pChannel channel to read from.
+	 * @param pPosition position of the first byte to send.
+	 * @param pLength number of bytes to send.
+	 */
+	public FileChannelEntity(FileChannel pChannel, long pPosition, long pLength) {
+		if (pChannel == null) throw new IllegalArgumentException("Channel can't be null.");
+		if (pPosition < 0 || pLength < 0) throw new IllegalArgumentException("Position and length must be positive.");
+		mChannel = pChannel;
+		mPosition = pPosition;
+		mLength = pLength;
+	}
+	
+	/**
+	 * Records {@link APIRequestMetrics#RequestBytes} and {@link APIRequestMetrics#UploadThroughput}
+	 * into the given metrics when written out.
+	 */
+	public void setMetrics(IMetrics pMetrics) {
+		mMetrics = pMetrics;
+	}
+	
+	public FileChannel getChannel() {
+		return mChannel;
+	}
+	
+	@Override
+	public long getContentLength() {
+		return mLength;
+	}
+	
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+	
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+	
+	@Override
+	public InputStream getContent() throws IOException {
+		return new RegionInputStream();
+	}
+	
+	@Override
+	public void writeTo(OutputStream pOut) throws IOException {
+		if (pOut == null) throw new IllegalArgumentException("Output stream can't be null.");
+		long oStart = System.nanoTime();
+		// Not closed on purpose: it would close the connection's stream.
+		WritableByteChannel oOut = Channels.newChannel(pOut);
+		long oWritten = 0;
+		while (oWritten < mLength) {
+			long oCount = mChannel.transferTo(mPosition + oWritten, mLength - oWritten, oOut);
+			if (oCount <= 0) checkNotTruncated(mPosition + oWritten);
+			oWritten += oCount;
+		}
+		pOut.flush();
+		if (mMetrics != null) {
+			long oElapsed = System.nanoTime() - oStart;
+			mMetrics.setCounter(APIRequestMetrics.RequestBytes, oWritten);
+			if (oElapsed > 0 && oWritten > 0) {
+				mMetrics.setCounter(APIRequestMetrics.UploadThroughput, MetricsInputStream.throughput(oWritten, oElapsed));
+			}
+		}
+	}
+	
+	@Override
+	public void produceContent(ContentEncoder pEncoder, IOControl pIOControl) throws IOException {
+		long oRemaining = mLength - mProduced;
+		if (oRemaining > 0) {
+			long oCount;
+			if (pEncoder instanceof FileContentEncoder) {
+				oCount = ((FileContentEncoder) pEncoder).transfer(mChannel, mPosition + mProduced, oRemaining);
+			} else {
+				if (mBuffer == null) mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+				mBuffer.clear();
+				if (oRemaining < mBuffer.capacity()) mBuffer.limit((int) oRemaining);
+				mChannel.read(mBuffer, mPosition + mProduced);
+				mBuffer.flip();
+				// Whatever the encoder does not take is read again next time.
+				oCount = pEncoder.write(mBuffer);
+			}
+			if (oCount <= 0) checkNotTruncated(mPosition + mProduced);
+			mProduced += Math.max(oCount, 0);
+		}
+		if (mProduced >= mLength) {
+			pEncoder.complete();
+			if (mMetrics != null) mMetrics.setCounter(APIRequestMetrics.RequestBytes, mProduced);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		// Ready to be produced again, for retries.
+		mProduced = 0;
+	}
+	
+	private void checkNotTruncated(long pAt) throws IOException {
+		if (mChannel.size() <= pAt) {
+			throw new IOException("File truncated: expected " + mLength + " bytes from position " + mPosition + " but it ends at " + mChannel.size() + ".");
+		}
+	}
+	
+	/**
+	 * Positional stream over the region, for whoever needs the content as a stream (e.g. signers).
+	 */
+	private class RegionInputStream extends InputStream {
+		private long mRead;
+		
+		@Override
+		public int read() throws IOException {
+			byte[] oByte = new byte[1];
+			int oRead = read(oByte, 0, 1);
+			return oRead < 0 ? -1 : oByte[0] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] pBuffer, int pOffset, int pLength) throws IOException {
+			long oRemaining = mLength - mRead;
+			if (oRemaining <= 0) return -1;
+			if (pLength == 0) return 0;
+			ByteBuffer oBuffer = ByteBuffer.wrap(pBuffer, pOffset, (int) Math.min(pLength, oRemaining));
+			int oRead = mChannel.read(oBuffer, mPosition + mRead);
+			if (oRead < 0) return -1;
+			mRead += oRead;
+			return oRead;
+		}
+		
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(Integer.MAX_VALUE, mLength - mRead);
+		}
+	}
+}
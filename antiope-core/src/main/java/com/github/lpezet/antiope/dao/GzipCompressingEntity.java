@@ -0,0 +1,188 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+import com.github.lpezet.antiope.metrics.APIRequestMetrics;
+import com.github.lpezet.antiope.metrics.IMetrics;
+
+/**
+ * Request entity gzip compressing the wrapped one as it is written, sent
+ * chunked since its compressed length is not known up front. The
+ * {@link Deflater} is pooled per thread.
+ * <p>
+ * Records {@link APIRequestMetrics#RequestBytes} (compressed, as sent),
+ * {@link APIRequestMetrics#RequestUncompressedBytes} and
+ * {@link APIRequestMetrics#RequestCompressionTime}, to weigh the bytes saved
+ * against the CPU spent.
+ * 
+ * @author luc
+ */
+public class GzipCompressingEntity extends HttpEntityWrapper {
+	
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+	private static final int BUFFER_SIZE = 8 * 1024;
+	
+	private static final ThreadLocal<Deflater[]> POOL = new ThreadLocal<Deflater[]>() {
+		@Override
+		protected Deflater[] initialValue() {
+			return new Deflater[1];
+		}
+	};
+	
+	private final IMetrics mMetrics;
+	
+	/**
+	 * @param pEntity entity to compress.
+	 * @param pMetrics metrics of the request, or null.
+	 */
+	public GzipCompressingEntity(HttpEntity pEntity, IMetrics pMetrics) {
+		super(pEntity);
+		mMetrics = pMetrics;
+	}
+	
+	@Override
+	public Header getContentEncoding() {
+		return new BasicHeader(HTTP.CONTENT_ENCODING, InflatingInputStream.GZIP);
+	}
+	
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+	
+	@Override
+	public boolean isChunked() {
+		return true;
+	}
+	
+	@Override
+	public void writeTo(OutputStream pOut) throws IOException {
+		long oStart = System.nanoTime();
+		CountingOutputStream oWire = new CountingOutputStream(pOut);
+		GzipOutputStream oGzip = new GzipOutputStream(oWire);
+		try {
+			wrappedEntity.writeTo(oGzip);
+			oGzip.finish();
+		} finally {
+			oGzip.release();
+		}
+		oWire.flush();
+		if (mMetrics != null) {
+			long oElapsed = System.nanoTime() - oStart;
+			long oBytes = oWire.getByteCount();
+			// Overrides what the wrapped entity recorded, uncompressed.
+			mMetrics.setCounter(APIRequestMetrics.RequestBytes, oBytes);
+			if (oElapsed > 0 && oBytes > 0) {
+				mMetrics.setCounter(APIRequestMetrics.UploadThroughput, MetricsInputStream.throughput(oBytes, oElapsed));
+			}
+			mMetrics.setCounter(APIRequestMetrics.RequestUncompressedBytes, oGzip.mUncompressed);
+			mMetrics.setCounter(APIRequestMetrics.RequestCompressionTime, TimeUnit.NANOSECONDS.toMicros(oGzip.mDeflateTimeNano));
+		}
+	}
+	
+	/**
+	 * Gzip stream deflating with a pooled deflater, timing the deflation
+	 * alone. Does not close the underlying stream.
+	 */
+	private static class GzipOutputStream extends OutputStream {
+		private final OutputStream mOut;
+		private final byte[] mBuffer = new byte[BUFFER_SIZE];
+		private final CRC32 mCrc = new CRC32();
+		private Deflater mDeflater;
+		private long mUncompressed;
+		private long mDeflateTimeNano;
+		
+		private GzipOutputStream(OutputStream pOut) throws IOException {
+			mOut = pOut;
+			Deflater[] oPooled = POOL.get();
+			if (oPooled[0] != null) {
+				mDeflater = oPooled[0];
+				oPooled[0] = null;
+			} else {
+				mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			}
+			mOut.write(GZIP_HEADER);
+		}
+		
+		@Override
+		public void write(int pByte) throws IOException {
+			write(new byte[] { (byte) pByte }, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] pBuffer, int pOffset, int pLength) throws IOException {
+			if (pLength == 0) return;
+			mCrc.update(pBuffer, pOffset, pLength);
+			mUncompressed += pLength;
+			mDeflater.setInput(pBuffer, pOffset, pLength);
+			while (!mDeflater.needsInput()) deflate();
+		}
+		
+		private void finish() throws IOException {
+			mDeflater.finish();
+			while (!mDeflater.finished()) deflate();
+			writeIntLE((int) mCrc.getValue());
+			writeIntLE((int) mUncompressed);
+		}
+		
+		private void deflate() throws IOException {
+			long oStart = System.nanoTime();
+			int oDeflated = mDeflater.deflate(mBuffer, 0, mBuffer.length);
+			mDeflateTimeNano += System.nanoTime() - oStart;
+			if (oDeflated > 0) mOut.write(mBuffer, 0, oDeflated);
+		}
+		
+		private void writeIntLE(int pValue) throws IOException {
+			mOut.write(pValue & 0xff);
+			mOut.write((pValue >> 8) & 0xff);
+			mOut.write((pValue >> 16) & 0xff);
+			mOut.write((pValue >> 24) & 0xff);
+		}
+		
+		/**
+		 * Gives the deflater back to the pool of the calling thread, or frees it.
+		 */
+		private void release() {
+			Deflater[] oPooled = POOL.get();
+			if (oPooled[0] == null) {
+				mDeflater.reset();
+				oPooled[0] = mDeflater;
+			} else {
+				mDeflater.end();
+			}
+			mDeflater = null;
+		}
+	}
+}
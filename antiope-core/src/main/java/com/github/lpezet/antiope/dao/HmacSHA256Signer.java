@@ -0,0 +1,491 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.github.lpezet.antiope.APIClientException;
+import com.github.lpezet.antiope.be.APIConfiguration;
+import com.github.lpezet.antiope.be.IAPICredentials;
+import com.github.lpezet.antiope.util.HttpUtils;
+import com.github.lpezet.antiope.util.UrlEncoder;
+
+/**
+ * Reference HMAC-SHA256 signer, following the layout of AWS Signature
+ * Version 4: a canonical request (method, path, sorted query, sorted
+ * headers, payload hash) is hashed into a string to sign, itself signed with
+ * a key derived from the secret key for the day, region and service.
+ * <p>
+ * Built for throughput:
+ * <ul>
+ * <li>{@link Mac} and {@link MessageDigest} instances are kept per thread,
+ * the {@link Mac} staying initialized with the last signing key used.</li>
+ * <li>Derived signing keys are cached per access key and scope (day, region,
+ * service): four HMACs once a day instead of on every request.</li>
+ * <li>Canonical strings are built into per thread buffers and hashed without
+ * intermediate strings.</li>
+ * <li>The payload is hashed by streaming it through the digest, with
+ * positional reads for files and mark/reset otherwise (up to
+ * {@link #setStreamReadLimit(int)}), so the stream is left where the request
+ * entity will read it from. A payload hash already set in the
+ * "X-Amz-Content-Sha256" header is used as is, and
+ * {@link #setUnsignedPayload(boolean)} skips it altogether.</li>
+ * </ul>
+ * 
+ * @author luc
+ */
+public class HmacSHA256Signer implements Signer {
+	
+	public static final String ALGORITHM = "AWS4-HMAC-SHA256";
+	public static final String DATE_HEADER = "X-Amz-Date";
+	public static final String CONTENT_SHA256_HEADER = "X-Amz-Content-Sha256";
+	public static final String AUTHORIZATION_HEADER = "Authorization";
+	public static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+	
+	private static final String KEY_PREFIX = "AWS4";
+	private static final String TERMINATOR = "aws4_request";
+	private static final String HMAC_SHA256 = "HmacSHA256";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	/** Derived keys kept before the cache is emptied (e.g. at the turn of a day). */
+	private static final int MAX_CACHED_KEYS = 64;
+	/** Buffers growing past this are not kept. */
+	private static final int MAX_BUFFER_SIZE = 64 * 1024;
+	
+	private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<Buffers>() {
+		@Override
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+	
+	private final String mServiceName;
+	private final String mRegion;
+	private final ConcurrentMap<String, DerivedKey> mDerivedKeys = new ConcurrentHashMap<String, DerivedKey>();
+	private boolean mDoubleUrlEncode = true;
+	private boolean mUnsignedPayload;
+	private int mStreamReadLimit = APIConfiguration.DEFAULT_STREAM_READ_LIMIT;
+	
+	/**
+	 * @param pServiceName service name, part of the signing scope.
+	 * @param pRegion region, part of the signing scope.
+	 */
+	public HmacSHA256Signer(String pServiceName, String pRegion) {
+		mServiceName = pServiceName;
+		mRegion = pRegion;
+	}
+	
+	/**
+	 * @param pDoubleUrlEncode true (default) to encode the already encoded
+	 *            path again in the canonical request, as all AWS services but
+	 *            S3 expect.
+	 */
+	public void setDoubleUrlEncode(boolean pDoubleUrlEncode) {
+		mDoubleUrlEncode = pDoubleUrlEncode;
+	}
+	
+	/**
+	 * @param pUnsignedPayload true to not hash (nor read) payloads, for
+	 *            services accepting it.
+	 */
+	public void setUnsignedPayload(boolean pUnsignedPayload) {
+		mUnsignedPayload = pUnsignedPayload;
+	}
+	
+	/**
+	 * @param pStreamReadLimit how much of a payload (bytes), neither a file
+	 *            nor already hashed, may be read to hash it: it's marked then
+	 *            reset, a buffered stream holding as much on the heap.
+	 *            Larger payloads fail to sign.
+	 */
+	public void setStreamReadLimit(int pStreamReadLimit) {
+		mStreamReadLimit = pStreamReadLimit;
+	}
+	
+	@Override
+	public void sign(Request<?> pRequest, IAPICredentials pCredentials) throws APIClientException {
+		sign(pRequest, pCredentials, System.currentTimeMillis() - pRequest.getTimeOffset() * 1000L);
+	}
+	
+	void sign(Request<?> pRequest, IAPICredentials pCredentials, long pTimeMillis) {
+		if (pCredentials == null || pCredentials.getAccessKey() == null || pCredentials.getSecretKey() == null) return;
+		Buffers oBuffers = BUFFERS.get();
+		try {
+			String oDateTime = oBuffers.formatDateTime(pTimeMillis);
+			String oDate = oDateTime.substring(0, 8);
+			Map<String, String> oHeaders = pRequest.getHeaders();
+			// Left by a previous attempt.
+			removeHeader(oHeaders, AUTHORIZATION_HEADER);
+			removeHeader(oHeaders, DATE_HEADER);
+			pRequest.addHeader(DATE_HEADER, oDateTime);
+			String oPayloadHash = getHeader(oHeaders, CONTENT_SHA256_HEADER);
+			if (oPayloadHash == null && mUnsignedPayload) {
+				oPayloadHash = UNSIGNED_PAYLOAD;
+				pRequest.addHeader(CONTENT_SHA256_HEADER, oPayloadHash);
+			}
+			boolean oParamsInBody = pRequest.getContent() == null && HttpUtils.usePayloadForQueryParameters(pRequest);
+			if (oPayloadHash == null) oPayloadHash = hashPayload(pRequest, oParamsInBody, oBuffers);
+			
+			// Canonical request
+			StringBuilder oCanonical = oBuffers.mCanonical;
+			oCanonical.setLength(0);
+			oCanonical.append(pRequest.getHttpMethod().name()).append('\n');
+			appendCanonicalPath(oCanonical, pRequest, oBuffers);
+			oCanonical.append('\n');
+			if (!oParamsInBody) appendCanonicalQuery(oCanonical, pRequest.getParameters(), oBuffers);
+			oCanonical.append('\n');
+			String oSignedHeaders = appendCanonicalHeaders(oCanonical, pRequest, oBuffers);
+			oCanonical.append('\n').append(oSignedHeaders).append('\n').append(oPayloadHash);
+			
+			// String to sign
+			StringBuilder oScope = oBuffers.mScope;
+			oScope.setLength(0);
+			oScope.append(oDate).append('/').append(mRegion).append('/').append(mServiceName).append('/').append(TERMINATOR);
+			StringBuilder oStringToSign = oBuffers.mStringToSign;
+			oStringToSign.setLength(0);
+			oStringToSign.append(ALGORITHM).append('\n').append(oDateTime).append('\n').append(oScope).append('\n');
+			appendHex(oStringToSign, oBuffers.hash(oCanonical));
+			
+			byte[] oSigningKey = getSigningKey(pCredentials, oDate, oScope, oBuffers);
+			byte[] oSignature = oBuffers.hmac(oSigningKey, oBuffers.encode(oStringToSign));
+			
+			StringBuilder oAuthorization = oBuffers.mScratch;
+			oAuthorization.setLength(0);
+			oAuthorization.append(ALGORITHM).append(" Credential=").append(pCredentials.getAccessKey()).append('/').append(oScope)
+				.append(", SignedHeaders=").append(oSignedHeaders)
+				.append(", Signature=");
+			appendHex(oAuthorization, oSignature);
+			pRequest.addHeader(AUTHORIZATION_HEADER, oAuthorization.toString());
+		} catch (IOException e) {
+			throw new APIClientException("Unable to sign request: " + e.getMessage(), e);
+		} catch (GeneralSecurityException e) {
+			throw new APIClientException("Unable to sign request: " + e.getMessage(), e);
+		} finally {
+			oBuffers.trim();
+		}
+	}
+	
+	private void appendCanonicalPath(StringBuilder pTo, Request<?> pRequest, Buffers pBuffers) {
+		URI oEndpoint = pRequest.getEndpoint();
+		String oBasePath = oEndpoint == null || oEndpoint.getRawPath() == null ? "" : oEndpoint.getRawPath();
+		if (!mDoubleUrlEncode) {
+			HttpUtils.appendUri(pTo, oBasePath, pRequest.getResourcePath(), true);
+			return;
+		}
+		StringBuilder oPath = pBuffers.mScratch;
+		oPath.setLength(0);
+		HttpUtils.appendUri(oPath, oBasePath, pRequest.getResourcePath(), true);
+		UrlEncoder.encode(pTo, oPath, true);
+	}
+	
+	private static void appendCanonicalQuery(StringBuilder pTo, Map<String, String> pParameters, Buffers pBuffers) {
+		if (pParameters.isEmpty()) return;
+		List<String> oPairs = pBuffers.mSorted;
+		oPairs.clear();
+		StringBuilder oPair = pBuffers.mScratch;
+		for (Entry<String, String> e : pParameters.entrySet()) {
+			oPair.setLength(0);
+			UrlEncoder.encode(oPair, e.getKey(), false).append('=');
+			if (e.getValue() != null) UrlEncoder.encode(oPair, e.getValue(), false);
+			oPairs.add(oPair.toString());
+		}
+		// "=" sorts before any encoded character, so pairs sort by name, then value.
+		Collections.sort(oPairs);
+		for (int i = 0; i < oPairs.size(); i++) {
+			if (i > 0) pTo.append('&');
+			pTo.append(oPairs.get(i));
+		}
+		oPairs.clear();
+	}
+	
+	/**
+	 * Appends the canonical headers: host (as sent by the request factory)
+	 * and the request's own, but the user agent which might be overridden.
+	 * 
+	 * @return signed headers.
+	 */
+	private static String appendCanonicalHeaders(StringBuilder pTo, Request<?> pRequest, Buffers pBuffers) {
+		List<String> oNames = pBuffers.mSorted;
+		oNames.clear();
+		oNames.add("host");
+		for (String oName : pRequest.getHeaders().keySet()) {
+			String oLowerCase = oName.toLowerCase(Locale.ENGLISH);
+			if ("host".equals(oLowerCase) || "user-agent".equals(oLowerCase)) continue;
+			oNames.add(oLowerCase);
+		}
+		Collections.sort(oNames);
+		StringBuilder oSignedHeaders = pBuffers.mScratch;
+		oSignedHeaders.setLength(0);
+		for (int i = 0; i < oNames.size(); i++) {
+			String oName = oNames.get(i);
+			if (i > 0) oSignedHeaders.append(';');
+			oSignedHeaders.append(oName);
+			pTo.append(oName).append(':');
+			if ("host".equals(oName)) {
+				URI oEndpoint = pRequest.getEndpoint();
+				pTo.append(oEndpoint.getHost());
+				if (HttpUtils.isUsingNonDefaultPort(oEndpoint)) pTo.append(':').append(oEndpoint.getPort());
+			} else {
+				appendTrimmed(pTo, getHeader(pRequest.getHeaders(), oName));
+			}
+			pTo.append('\n');
+		}
+		oNames.clear();
+		return oSignedHeaders.toString();
+	}
+	
+	/**
+	 * Appends the value without leading and trailing spaces, and with
+	 * sequential spaces reduced to one.
+	 */
+	private static void appendTrimmed(StringBuilder pTo, String pValue) {
+		if (pValue == null) return;
+		boolean oSpace = false;
+		int oStart = pTo.length();
+		for (int i = 0; i < pValue.length(); i++) {
+			char c = pValue.charAt(i);
+			if (c == ' ' || c == '\t') {
+				oSpace = pTo.length() > oStart;
+				continue;
+			}
+			if (oSpace) pTo.append(' ');
+			oSpace = false;
+			pTo.append(c);
+		}
+	}
+	
+	private String hashPayload(Request<?> pRequest, boolean pParamsInBody, Buffers pBuffers) throws IOException {
+		MessageDigest oDigest = pBuffers.mSha256;
+		oDigest.reset();
+		InputStream oContent = pRequest.getContent();
+		if (oContent == null) {
+			if (pParamsInBody) {
+				// As the request factory puts them in the body.
+				StringBuilder oParams = pBuffers.mScratch;
+				oParams.setLength(0);
+				HttpUtils.encodeParameters(oParams, pRequest.getParameters());
+				oDigest.update(pBuffers.encode(oParams), 0, pBuffers.mBytes.position());
+			}
+		} else if (oContent instanceof FileInputStream) {
+			FileChannel oChannel = ((FileInputStream) oContent).getChannel();
+			long oPosition = oChannel.position();
+			String oContentLength = getHeader(pRequest.getHeaders(), "Content-Length");
+			long oEnd = oContentLength != null ? oPosition + Long.parseLong(oContentLength) : oChannel.size();
+			ByteBuffer oBuffer = ByteBuffer.wrap(pBuffers.mRead);
+			while (oPosition < oEnd) {
+				oBuffer.clear();
+				if (oEnd - oPosition < oBuffer.capacity()) oBuffer.limit((int) (oEnd - oPosition));
+				int oRead = oChannel.read(oBuffer, oPosition);
+				if (oRead < 0) break;
+				oDigest.update(pBuffers.mRead, 0, oRead);
+				oPosition += oRead;
+			}
+		} else if (oContent.markSupported()) {
+			oContent.mark(mStreamReadLimit);
+			int oRead;
+			while ((oRead = oContent.read(pBuffers.mRead)) >= 0) {
+				oDigest.update(pBuffers.mRead, 0, oRead);
+			}
+			try {
+				oContent.reset();
+			} catch (IOException e) {
+				throw new APIClientException("Unable to hash a payload larger than the stream read limit (" + mStreamReadLimit + " bytes): set the " + CONTENT_SHA256_HEADER + " header, or use unsigned payloads.", e);
+			}
+		} else {
+			throw new APIClientException("Unable to hash a payload which can't be read twice: set the " + CONTENT_SHA256_HEADER + " header, or use unsigned payloads.");
+		}
+		StringBuilder oHex = pBuffers.mScratch;
+		oHex.setLength(0);
+		return appendHex(oHex, oDigest.digest()).toString();
+	}
+	
+	private byte[] getSigningKey(IAPICredentials pCredentials, String pDate, CharSequence pScope, Buffers pBuffers) throws GeneralSecurityException {
+		String oCacheKey = pCredentials.getAccessKey() + '/' + pScope;
+		DerivedKey oDerived = mDerivedKeys.get(oCacheKey);
+		if (oDerived != null && oDerived.mSecretKey.equals(pCredentials.getSecretKey())) return oDerived.mKey;
+		
+		byte[] oKey = pBuffers.hmac((KEY_PREFIX + pCredentials.getSecretKey()).getBytes(UTF8), pDate.getBytes(UTF8));
+		oKey = pBuffers.hmac(oKey, mRegion.getBytes(UTF8));
+		oKey = pBuffers.hmac(oKey, mServiceName.getBytes(UTF8));
+		oKey = pBuffers.hmac(oKey, TERMINATOR.getBytes(UTF8));
+		if (mDerivedKeys.size() >= MAX_CACHED_KEYS) mDerivedKeys.clear();
+		mDerivedKeys.put(oCacheKey, new DerivedKey(pCredentials.getSecretKey(), oKey));
+		return oKey;
+	}
+	
+	private static StringBuilder appendHex(StringBuilder pTo, byte[] pBytes) {
+		for (byte b : pBytes) {
+			pTo.append(HEX[(b >> 4) & 0x0f]).append(HEX[b & 0x0f]);
+		}
+		return pTo;
+	}
+	
+	private static String getHeader(Map<String, String> pHeaders, String pName) {
+		String oValue = pHeaders.get(pName);
+		if (oValue != null) return oValue;
+		for (Entry<String, String> e : pHeaders.entrySet()) {
+			if (e.getKey().equalsIgnoreCase(pName)) return e.getValue();
+		}
+		return null;
+	}
+	
+	private static void removeHeader(Map<String, String> pHeaders, String pName) {
+		if (pHeaders.remove(pName) != null) return;
+		for (String oName : pHeaders.keySet()) {
+			if (oName.equalsIgnoreCase(pName)) {
+				pHeaders.remove(oName);
+				return;
+			}
+		}
+	}
+	
+	private static class DerivedKey {
+		private final String mSecretKey;
+		private final byte[] mKey;
+		
+		private DerivedKey(String pSecretKey, byte[] pKey) {
+			mSecretKey = pSecretKey;
+			mKey = pKey;
+		}
+	}
+	
+	/**
+	 * Per thread state: digests, buffers and the last date formatted.
+	 */
+	private static class Buffers {
+		private final StringBuilder mCanonical = new StringBuilder(1024);
+		private final StringBuilder mStringToSign = new StringBuilder(256);
+		private final StringBuilder mScope = new StringBuilder(64);
+		private StringBuilder mScratch = new StringBuilder(256);
+		private final List<String> mSorted = new ArrayList<String>();
+		private final byte[] mRead = new byte[8 * 1024];
+		private ByteBuffer mBytes = ByteBuffer.allocate(1024);
+		private final CharsetEncoder mEncoder = UTF8.newEncoder();
+		private final MessageDigest mSha256;
+		private final Mac mMac;
+		/** Key mMac is initialized with. */
+		private byte[] mMacKey;
+		private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+		private long mLastSecond = Long.MIN_VALUE;
+		private String mLastDateTime;
+		
+		private Buffers() {
+			try {
+				mSha256 = MessageDigest.getInstance("SHA-256");
+				mMac = Mac.getInstance(HMAC_SHA256);
+			} catch (GeneralSecurityException e) {
+				throw new APIClientException("Unable to set up HMAC-SHA256 signing: " + e.getMessage(), e);
+			}
+			mDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+		
+		private String formatDateTime(long pTimeMillis) {
+			long oSecond = pTimeMillis / 1000;
+			if (oSecond != mLastSecond) {
+				mLastDateTime = mDateFormat.format(new Date(oSecond * 1000));
+				mLastSecond = oSecond;
+			}
+			return mLastDateTime;
+		}
+		
+		/**
+		 * Encodes the given characters as UTF-8 into mBytes, from 0 to its position.
+		 * 
+		 * @return backing array of mBytes.
+		 */
+		private byte[] encode(CharSequence pChars) {
+			mEncoder.reset();
+			CharBuffer oChars = CharBuffer.wrap(pChars);
+			mBytes.clear();
+			while (true) {
+				CoderResult oResult = mEncoder.encode(oChars, mBytes, true);
+				if (oResult.isUnderflow()) oResult = mEncoder.flush(mBytes);
+				if (oResult.isUnderflow()) break;
+				if (oResult.isOverflow()) {
+					ByteBuffer oLarger = ByteBuffer.allocate(mBytes.capacity() * 2);
+					mBytes.flip();
+					oLarger.put(mBytes);
+					mBytes = oLarger;
+				} else {
+					// Unpaired surrogates and the like: replaced, as String#getBytes does.
+					oChars.position(oChars.position() + oResult.length());
+					mBytes.put((byte) '?');
+				}
+			}
+			return mBytes.array();
+		}
+		
+		private byte[] hash(CharSequence pChars) {
+			byte[] oBytes = encode(pChars);
+			mSha256.reset();
+			mSha256.update(oBytes, 0, mBytes.position());
+			return mSha256.digest();
+		}
+		
+		/**
+		 * HMAC of the data (or of mBytes' content if the data is its backing array).
+		 */
+		private byte[] hmac(byte[] pKey, byte[] pData) throws GeneralSecurityException {
+			if (pKey != mMacKey) {
+				mMac.init(new SecretKeySpec(pKey, HMAC_SHA256));
+				mMacKey = pKey;
+			}
+			mMac.update(pData, 0, pData == mBytes.array() ? mBytes.position() : pData.length);
+			return mMac.doFinal();
+		}
+		
+		private void trim() {
+			if (mCanonical.capacity() > MAX_BUFFER_SIZE) {
+				mCanonical.setLength(0);
+				mCanonical.trimToSize();
+			}
+			if (mScratch.capacity() > MAX_BUFFER_SIZE) mScratch = new StringBuilder(256);
+			if (mBytes.capacity() > MAX_BUFFER_SIZE) mBytes = ByteBuffer.allocate(1024);
+		}
+	}
+}
@@ -20,6 +20,7 @@ import java.io.InputStream;
 
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.client.methods.AbortableHttpRequest;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,6 +29,7 @@ public class HttpMethodReleaseInputStream  extends InputStream {
 
     private InputStream inputStream = null;
     private HttpEntityEnclosingRequest httpRequest = null;
+    private HttpUriRequest abortableRequest = null;
     private boolean alreadyReleased = false;
     private boolean underlyingStreamConsumed = false;
 
@@ -58,6 +60,23 @@ public class HttpMethodReleaseInputStream  extends InputStream {
         }
     }
 
+    /**
+     * Constructs an input stream wrapping the response content of the given
+     * HTTP method. Closing it before the content is fully consumed aborts the
+     * method, so the connection is discarded rather than drained.
+     * 
+     * @param content
+     *            The response content.
+     * @param httpMethod
+     *            The HTTP method being executed, aborted if the content is
+     *            not fully consumed.
+     */
+    public HttpMethodReleaseInputStream(InputStream content, HttpUriRequest httpMethod) {
+        this.inputStream = content;
+        this.abortableRequest = httpMethod;
+        if (httpMethod instanceof HttpEntityEnclosingRequest) this.httpRequest = (HttpEntityEnclosingRequest) httpMethod;
+    }
+
     /**
      * Returns the underlying HttpMethod object that contains/manages the actual
      * HTTP connection.
@@ -80,7 +99,9 @@ public class HttpMethodReleaseInputStream  extends InputStream {
             if (!underlyingStreamConsumed) {
                 // Underlying input stream has not been consumed, abort method
                 // to force connection to be closed and cleaned-up.
-            	if (httpRequest instanceof AbortableHttpRequest) {
+            	if (abortableRequest != null) {
+            		abortableRequest.abort();
+            	} else if (httpRequest instanceof AbortableHttpRequest) {
             		AbortableHttpRequest abortableHttpRequest = (AbortableHttpRequest)httpRequest;
             		abortableHttpRequest.abort();
             	}
@@ -20,6 +20,8 @@ import java.util.Map;
 
 import org.apache.http.client.methods.HttpRequestBase;
 
+import com.github.lpezet.antiope.metrics.IMetrics;
+
 
 /**
  * @author luc
@@ -33,6 +35,7 @@ public class HttpResponse {
 	private int						statusCode;
 	private InputStream				content;
 	private Map<String, String>		headers	= new HashMap<String, String>();
+	private IMetrics				metrics;
 
 	/**
 	 * Constructs a new HttpResponse associated with the specified request.
@@ -145,4 +148,24 @@ public class HttpResponse {
 		return statusCode;
 	}
 
+	/**
+	 * Sets the metrics of the request this response is for, so response
+	 * handlers can record their own.
+	 * 
+	 * @param metrics
+	 *            The metrics of the request.
+	 */
+	public void setMetrics(IMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the metrics of the request this response is for, if any.
+	 * 
+	 * @return The metrics of the request, or null.
+	 */
+	public IMetrics getMetrics() {
+		return metrics;
+	}
+
 }
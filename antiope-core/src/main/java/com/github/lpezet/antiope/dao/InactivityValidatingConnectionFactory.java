@@ -0,0 +1,217 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.ssl.SSLSession;
+
+import org.apache.http.HttpConnectionMetrics;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Connection factory creating connections which only run the (blocking)
+ * stale check when idle for longer than a given time. Recently used
+ * connections are assumed not stale, so enabling the stale connection check
+ * only costs something for connections sitting in the pool for a while.
+ * <p>
+ * httpclient 4.4 has this built in (validateAfterInactivity); this is the
+ * equivalent for 4.3.
+ * 
+ * @author luc
+ */
+public class InactivityValidatingConnectionFactory implements HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> {
+
+	private final HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection>	mConnectionFactory;
+	private final long																mValidateAfterInactivity;
+
+	/**
+	 * @param pConnectionFactory
+	 *            factory creating the actual connections.
+	 * @param pValidateAfterInactivity
+	 *            inactivity time (ms) after which connections are checked
+	 *            when leased. A negative value means connections are always
+	 *            checked.
+	 */
+	public InactivityValidatingConnectionFactory(HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> pConnectionFactory, long pValidateAfterInactivity) {
+		mConnectionFactory = pConnectionFactory;
+		mValidateAfterInactivity = pValidateAfterInactivity;
+	}
+
+	@Override
+	public ManagedHttpClientConnection create(HttpRoute pRoute, ConnectionConfig pConfig) {
+		return new InactivityValidatingConnection(mConnectionFactory.create(pRoute, pConfig), mValidateAfterInactivity);
+	}
+
+	private static class InactivityValidatingConnection implements ManagedHttpClientConnection, HttpContext {
+		private final ManagedHttpClientConnection	mConnection;
+		private final long							mValidateAfterInactivity;
+		private volatile long						mLastActivity;
+
+		public InactivityValidatingConnection(ManagedHttpClientConnection pConnection, long pValidateAfterInactivity) {
+			mConnection = pConnection;
+			mValidateAfterInactivity = pValidateAfterInactivity;
+			mLastActivity = System.currentTimeMillis();
+		}
+
+		@Override
+		public boolean isStale() {
+			if (!mConnection.isOpen()) return true;
+			if (System.currentTimeMillis() - mLastActivity <= mValidateAfterInactivity) return false;
+			return mConnection.isStale();
+		}
+
+		@Override
+		public void bind(Socket pSocket) throws IOException {
+			mConnection.bind(pSocket);
+			mLastActivity = System.currentTimeMillis();
+		}
+
+		@Override
+		public HttpResponse receiveResponseHeader() throws HttpException, IOException {
+			HttpResponse oResponse = mConnection.receiveResponseHeader();
+			mLastActivity = System.currentTimeMillis();
+			return oResponse;
+		}
+
+		@Override
+		public String getId() {
+			return mConnection.getId();
+		}
+
+		@Override
+		public Socket getSocket() {
+			return mConnection.getSocket();
+		}
+
+		@Override
+		public SSLSession getSSLSession() {
+			return mConnection.getSSLSession();
+		}
+
+		@Override
+		public boolean isResponseAvailable(int pTimeout) throws IOException {
+			return mConnection.isResponseAvailable(pTimeout);
+		}
+
+		@Override
+		public void sendRequestHeader(HttpRequest pRequest) throws HttpException, IOException {
+			mConnection.sendRequestHeader(pRequest);
+		}
+
+		@Override
+		public void sendRequestEntity(HttpEntityEnclosingRequest pRequest) throws HttpException, IOException {
+			mConnection.sendRequestEntity(pRequest);
+		}
+
+		@Override
+		public void receiveResponseEntity(HttpResponse pResponse) throws HttpException, IOException {
+			mConnection.receiveResponseEntity(pResponse);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			mConnection.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			mConnection.close();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return mConnection.isOpen();
+		}
+
+		@Override
+		public void setSocketTimeout(int pTimeout) {
+			mConnection.setSocketTimeout(pTimeout);
+		}
+
+		@Override
+		public int getSocketTimeout() {
+			return mConnection.getSocketTimeout();
+		}
+
+		@Override
+		public void shutdown() throws IOException {
+			mConnection.shutdown();
+		}
+
+		@Override
+		public HttpConnectionMetrics getMetrics() {
+			return mConnection.getMetrics();
+		}
+
+		@Override
+		public InetAddress getLocalAddress() {
+			return mConnection.getLocalAddress();
+		}
+
+		@Override
+		public int getLocalPort() {
+			return mConnection.getLocalPort();
+		}
+
+		@Override
+		public InetAddress getRemoteAddress() {
+			return mConnection.getRemoteAddress();
+		}
+
+		@Override
+		public int getRemotePort() {
+			return mConnection.getRemotePort();
+		}
+
+		@Override
+		public Object getAttribute(String pId) {
+			return mConnection instanceof HttpContext ? ((HttpContext) mConnection).getAttribute(pId) : null;
+		}
+
+		@Override
+		public void setAttribute(String pId, Object pObj) {
+			if (mConnection instanceof HttpContext) ((HttpContext) mConnection).setAttribute(pId, pObj);
+		}
+
+		@Override
+		public Object removeAttribute(String pId) {
+			return mConnection instanceof HttpContext ? ((HttpContext) mConnection).removeAttribute(pId) : null;
+		}
+
+		@Override
+		public String toString() {
+			return mConnection.toString();
+		}
+	}
+}
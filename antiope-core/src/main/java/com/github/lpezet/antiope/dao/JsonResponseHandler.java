@@ -0,0 +1,184 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.github.lpezet.antiope.be.APIWebServiceResponse;
+import com.github.lpezet.antiope.be.ResponseMetadata;
+import com.github.lpezet.antiope.metrics.APIRequestMetrics;
+import com.github.lpezet.antiope.metrics.IMetrics;
+import com.github.lpezet.antiope.transform.ElementIterator;
+import com.github.lpezet.antiope.transform.JsonUnmarshallerContext;
+import com.github.lpezet.antiope.transform.StreamingUnmarshaller;
+import com.github.lpezet.antiope.transform.Unmarshaller;
+import com.github.lpezet.antiope.transform.VoidJsonUnmarshaller;
+
+/**
+ * JSON counterpart of {@link StaxResponseHandler}.
+ * <p>
+ * Parsers are all created from one process-wide {@link JsonFactory}: it is
+ * thread-safe, recycles the parser buffers per thread, and shares its
+ * canonicalized field names across responses (which
+ * {@link JsonUnmarshallerContext#testExpression(String)} relies on).
+ * <p>
+ * Whatever the unmarshaller leaves unread is skipped, so metadata
+ * expressions get to see the whole document. The number of bytes parsed is
+ * recorded as {@link APIRequestMetrics#BytesProcessed} in the metrics of the
+ * response, if any ({@link APIRequestMetrics#ResponseProcessingTime} being
+ * recorded by the client around any handler).
+ * 
+ * @author luc
+ *
+ */
+public class JsonResponseHandler<T> implements HttpResponseHandler<APIWebServiceResponse<T>> {
+
+	/** Shared factory: parsers must not close the response content themselves. */
+	private static final JsonFactory					JSON_FACTORY	= new JsonFactory().configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+
+	private static final byte[]							EMPTY			= new byte[0];
+
+	/** Whether the unmarshaller returns an ElementIterator still reading the response. */
+	private final boolean								streaming;
+
+	/** Shared logger for profiling information */
+	private static final Logger							log				= LoggerFactory.getLogger(JsonResponseHandler.class);
+
+	/** The JSON unmarshaller to use when handling the response */
+	private Unmarshaller<T, JsonUnmarshallerContext>	responseUnmarshaller;
+
+	/**
+	 * Constructs a new response handler that will use the specified JSON
+	 * unmarshaller to unmarshall the service response.
+	 * 
+	 * @param responseUnmarshaller
+	 *            The JSON unmarshaller to use on the response.
+	 */
+	public JsonResponseHandler(Unmarshaller<T, JsonUnmarshallerContext> responseUnmarshaller) {
+		this.responseUnmarshaller = responseUnmarshaller;
+
+		/*
+		 * Even if the invoked operation just returns null, we still need an
+		 * unmarshaller to run so we can pull out response metadata.
+		 */
+		if (this.responseUnmarshaller == null) {
+			this.responseUnmarshaller = new VoidJsonUnmarshaller<T>();
+		}
+		this.streaming = ElementIterator.isStreaming(this.responseUnmarshaller);
+	}
+
+	/**
+	 * Returns the factory all parsers of this handler are created from.
+	 * Clients parsing JSON on their own should use it too, rather than
+	 * creating their own.
+	 * 
+	 * @return shared JSON factory.
+	 */
+	public static JsonFactory getJsonFactory() {
+		return JSON_FACTORY;
+	}
+
+	public APIWebServiceResponse<T> handle(HttpResponse response) throws Exception {
+		log.trace("Parsing service response JSON");
+		InputStream content = response.getContent();
+		IMetrics metrics = response.getMetrics();
+		CountingInputStream countingContent = null;
+		if (metrics != null && content != null) {
+			// parser locations are not reliable byte offsets (they are chars for some parsers)
+			if (content instanceof CountingInputStream) countingContent = (CountingInputStream) content;
+			else content = countingContent = new CountingInputStream(content);
+		}
+		final JsonParser jsonParser = content == null ? JSON_FACTORY.createJsonParser(EMPTY) : JSON_FACTORY.createJsonParser(content);
+
+		boolean handedOver = false;
+		try {
+			APIWebServiceResponse<T> oAPIResponse = new APIWebServiceResponse<T>();
+			JsonUnmarshallerContext unmarshallerContext = new JsonUnmarshallerContext(jsonParser, response);
+			unmarshallerContext.registerMetadataExpression("RequestId", 2, ResponseMetadata.API_REQUEST_ID);
+			unmarshallerContext.registerMetadataExpression("requestId", 1, ResponseMetadata.API_REQUEST_ID);
+			registerAdditionalMetadataExpressions(unmarshallerContext);
+
+			T result = responseUnmarshaller.unmarshall(unmarshallerContext);
+			oAPIResponse.setResult(result);
+
+			if (streaming) {
+				// the iterator reads on, and releases the parser and the connection when done
+				// (metadata being collected as it goes)
+				ElementIterator<?> iterator = (ElementIterator<?>) result;
+				if (content != null) iterator.addResource(content);
+				iterator.addResource(jsonParser);
+				oAPIResponse.setResponseMetadata(new ResponseMetadata(unmarshallerContext.getMetadata()));
+				handedOver = true;
+				return oAPIResponse;
+			}
+
+			// skip what is left, for metadata and byte count
+			while (unmarshallerContext.nextToken() != null) {}
+
+			Map<String, String> metadata = unmarshallerContext.getMetadata();
+			oAPIResponse.setResponseMetadata(new ResponseMetadata(metadata));
+
+			if (countingContent != null) metrics.setCounter(APIRequestMetrics.BytesProcessed, countingContent.getByteCount());
+
+			log.trace("Done parsing service response");
+			return oAPIResponse;
+		} finally {
+			if (!handedOver) {
+				try {
+					jsonParser.close();
+				} catch (IOException e) {
+					log.warn("Error closing json parser", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hook for subclasses to override in order to collect additional metadata
+	 * from service responses.
+	 * 
+	 * @param unmarshallerContext
+	 *            The unmarshaller context used to process a service's response
+	 *            data.
+	 */
+	protected void registerAdditionalMetadataExpressions(JsonUnmarshallerContext unmarshallerContext) {}
+
+	/**
+	 * Since this response handler completely consumes all the data from the
+	 * underlying HTTP connection during the handle method, we don't need to
+	 * keep the HTTP connection open. Unless the unmarshaller is a
+	 * {@link StreamingUnmarshaller}: the connection is then released by the
+	 * {@link ElementIterator} returned.
+	 */
+	public boolean needsConnectionLeftOpen() {
+		return streaming;
+	}
+
+}
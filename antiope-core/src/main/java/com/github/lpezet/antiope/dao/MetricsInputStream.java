@@ -0,0 +1,135 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import com.github.lpezet.antiope.metrics.APIRequestMetrics;
+import com.github.lpezet.antiope.metrics.IMetrics;
+
+/**
+ * Response content counting the bytes read and the time spent reading them.
+ * <p>
+ * Ends {@link APIRequestMetrics#TimeToFirstByte} on the first byte read and
+ * {@link APIRequestMetrics#TimeToLastByte} at the end of the content (both
+ * started along with {@link APIRequestMetrics#HttpRequestTime}), then records
+ * {@link APIRequestMetrics#ResponseBytes} and
+ * {@link APIRequestMetrics#DownloadThroughput}. Content not fully read when
+ * {@link #finish()} is called (e.g. streamed to the caller, or failure) only
+ * gets the bytes read so far recorded, and the events still open ended:
+ * metrics are not touched afterwards.
+ * <p>
+ * Only {@link APIRequestMetrics#ResponseBytes} is recorded for content
+ * which is not read live from the connection (e.g. buffered by the
+ * asynchronous client).
+ * 
+ * @author luc
+ */
+public class MetricsInputStream extends CountingInputStream {
+
+	private final IMetrics	mMetrics;
+	private final boolean	mTimed;
+	private long			mReadTimeNano;
+	private boolean			mFirstByteRead;
+	private boolean			mLastByteRead;
+	private boolean			mFinished;
+
+	/**
+	 * @param pIn
+	 *            response content.
+	 * @param pMetrics
+	 *            metrics of the request.
+	 * @param pTimed
+	 *            true when the content is read live from the connection,
+	 *            TimeToFirstByte and TimeToLastByte having been started.
+	 */
+	public MetricsInputStream(InputStream pIn, IMetrics pMetrics, boolean pTimed) {
+		super(pIn);
+		mMetrics = pMetrics;
+		mTimed = pTimed;
+	}
+
+	@Override
+	public int read() throws IOException {
+		long oStart = System.nanoTime();
+		int oByte = super.read();
+		mReadTimeNano += System.nanoTime() - oStart;
+		afterRead(oByte < 0 ? -1 : 1);
+		return oByte;
+	}
+
+	@Override
+	public int read(byte[] pBuffer, int pOffset, int pLength) throws IOException {
+		long oStart = System.nanoTime();
+		int oRead = super.read(pBuffer, pOffset, pLength);
+		mReadTimeNano += System.nanoTime() - oStart;
+		afterRead(oRead);
+		return oRead;
+	}
+
+	private void afterRead(int pRead) {
+		if (mFinished) return;
+		if (!mTimed) {
+			if (pRead < 0) finish();
+		} else if (pRead > 0 && !mFirstByteRead) {
+			mFirstByteRead = true;
+			mMetrics.endEvent(APIRequestMetrics.TimeToFirstByte);
+		} else if (pRead < 0) {
+			if (!mFirstByteRead) {
+				mFirstByteRead = true;
+				mMetrics.endEvent(APIRequestMetrics.TimeToFirstByte);
+			}
+			mLastByteRead = true;
+			mMetrics.endEvent(APIRequestMetrics.TimeToLastByte);
+			finish();
+		}
+	}
+
+	/**
+	 * Ends the events still open and records the bytes read so far and the
+	 * throughput, once. Called at the end of the content, or by the client
+	 * once the response has been handled.
+	 */
+	public void finish() {
+		if (mFinished) return;
+		mFinished = true;
+		if (mTimed) {
+			if (!mFirstByteRead) mMetrics.endEvent(APIRequestMetrics.TimeToFirstByte);
+			if (!mLastByteRead) mMetrics.endEvent(APIRequestMetrics.TimeToLastByte);
+		}
+		long oBytes = getByteCount();
+		mMetrics.setCounter(APIRequestMetrics.ResponseBytes, oBytes);
+		if (mTimed && mReadTimeNano > 0 && oBytes > 0) {
+			mMetrics.setCounter(APIRequestMetrics.DownloadThroughput, throughput(oBytes, mReadTimeNano));
+		}
+	}
+
+	/**
+	 * @return bytes per second.
+	 */
+	static long throughput(long pBytes, long pNanos) {
+		return (long) (pBytes * (double) TimeUnit.SECONDS.toNanos(1) / pNanos);
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.io.IOException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * HTTP client giving access to its connection pool, so pool statistics can
+ * be sampled for each request.
+ * 
+ * @author luc
+ */
+public class PoolingHttpClient extends CloseableHttpClient {
+
+	private final CloseableHttpClient					mHttpClient;
+	private final PoolingHttpClientConnectionManager	mConnectionManager;
+
+	public PoolingHttpClient(CloseableHttpClient pHttpClient, PoolingHttpClientConnectionManager pConnectionManager) {
+		mHttpClient = pHttpClient;
+		mConnectionManager = pConnectionManager;
+	}
+
+	public ConnPoolControl<HttpRoute> getConnPoolControl() {
+		return mConnectionManager;
+	}
+
+	@Override
+	protected CloseableHttpResponse doExecute(HttpHost pTarget, HttpRequest pRequest, HttpContext pContext) throws IOException, ClientProtocolException {
+		return mHttpClient.execute(pTarget, pRequest, pContext);
+	}
+
+	@Override
+	public void close() throws IOException {
+		IdleConnectionReaper.removeConnectionManager(mConnectionManager);
+		mHttpClient.close();
+	}
+
+	@Override
+	@SuppressWarnings("deprecation")
+	public org.apache.http.params.HttpParams getParams() {
+		return mHttpClient.getParams();
+	}
+
+	@Override
+	@SuppressWarnings("deprecation")
+	public org.apache.http.conn.ClientConnectionManager getConnectionManager() {
+		return mHttpClient.getConnectionManager();
+	}
+
+}
@@ -23,6 +23,9 @@ import org.apache.http.entity.InputStreamEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.lpezet.antiope.metrics.APIRequestMetrics;
+import com.github.lpezet.antiope.metrics.IMetrics;
+
 /**
  * @author luc
  *
@@ -49,6 +52,9 @@ public class RepeatableInputStreamRequestEntity  extends BasicHttpEntity {
      */
     private IOException originalException;
 
+    /** Metrics of the request, recording the bytes written and upload throughput */
+    private final IMetrics metrics;
+
 
     /**
      * Creates a new RepeatableInputStreamRequestEntity using the information
@@ -61,13 +67,10 @@ public class RepeatableInputStreamRequestEntity  extends BasicHttpEntity {
      *            content length, and content).
      */
     public RepeatableInputStreamRequestEntity(final Request<?> request) {
-    	setChunked(false);
-
         /*
          * If we don't specify a content length when we instantiate our
-         * InputStreamRequestEntity, then HttpClient will attempt to
-         * buffer the entire stream contents into memory to determine
-         * the content length.
+         * InputStreamRequestEntity, the contents are sent chunked, rather
+         * than buffered in memory to determine the content length.
          *
          * TODO: It'd be nice to have easier access to content length and
          *       content type from the request, instead of having to look
@@ -81,7 +84,7 @@ public class RepeatableInputStreamRequestEntity  extends BasicHttpEntity {
             }
         } catch (NumberFormatException nfe) {
             log.warn("Unable to parse content length from request.  " +
-            		"Buffering contents in memory.");
+            		"Sending contents chunked.");
         }
 
         String contentType = request.getHeaders().get("Content-Type");
@@ -100,15 +103,17 @@ public class RepeatableInputStreamRequestEntity  extends BasicHttpEntity {
         //}
         inputStreamRequestEntity.setContentType(contentType);
         content = request.getContent();
+        metrics = request.getMetrics();
 
         setContent(content);
         setContentType(contentType);
         setContentLength(contentLength);
+        setChunked(contentLength < 0);
     }
 
     @Override
 	public boolean isChunked() {
-    	return false;
+    	return getContentLength() < 0;
 	}
 
     /**
@@ -125,7 +130,9 @@ public class RepeatableInputStreamRequestEntity  extends BasicHttpEntity {
     /**
      * Resets the underlying InputStream if this isn't the first attempt to
      * write out the request, otherwise simply delegates to
-     * InputStreamRequestEntity to write out the data.
+     * InputStreamRequestEntity to write out the data. The bytes written and
+     * the time taken are recorded as {@link APIRequestMetrics#RequestBytes}
+     * and {@link APIRequestMetrics#UploadThroughput}.
      * <p>
      * If an error is encountered the first time we try to write the request
      * entity, we remember the original exception, and report that as the root
@@ -140,7 +147,19 @@ public class RepeatableInputStreamRequestEntity  extends BasicHttpEntity {
             if (!firstAttempt && isRepeatable()) content.reset();
 
             firstAttempt = false;
-            inputStreamRequestEntity.writeTo(output);
+            if (metrics == null) {
+                inputStreamRequestEntity.writeTo(output);
+            } else {
+                CountingOutputStream countingOutput = new CountingOutputStream(output);
+                long start = System.nanoTime();
+                inputStreamRequestEntity.writeTo(countingOutput);
+                long elapsed = System.nanoTime() - start;
+                long bytes = countingOutput.getByteCount();
+                metrics.setCounter(APIRequestMetrics.RequestBytes, bytes);
+                if (elapsed > 0 && bytes > 0) {
+                    metrics.setCounter(APIRequestMetrics.UploadThroughput, MetricsInputStream.throughput(bytes, elapsed));
+                }
+            }
         } catch (IOException ioe) {
             if (originalException == null) originalException = ioe;
             throw originalException;
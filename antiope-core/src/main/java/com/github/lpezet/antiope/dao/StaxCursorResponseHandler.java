@@ -0,0 +1,92 @@
+/*
+ * Copyright 2010-2013 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ * 
+ *  http://aws.amazon.com/apache2.0
+ * 
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.io.InputStream;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.github.lpezet.antiope.transform.StaxCursorUnmarshallerAdapter;
+import com.github.lpezet.antiope.transform.StaxCursorUnmarshallerContext;
+import com.github.lpezet.antiope.transform.StaxUnmarshallerContext;
+import com.github.lpezet.antiope.transform.Unmarshaller;
+import com.github.lpezet.antiope.transform.VoidStaxCursorUnmarshaller;
+
+/**
+ * Same as {@link StaxResponseHandler} but using the cursor API of StAX
+ * ({@link XMLStreamReader}), which does not create an object for each event.
+ * 
+ * @author luc
+ *
+ */
+public class StaxCursorResponseHandler<T> extends AbstractStaxResponseHandler<T, XMLStreamReader, StaxCursorUnmarshallerContext> {
+
+    /**
+     * Constructs a new response handler that will use the specified StAX
+     * unmarshaller to unmarshall the service response.
+     *
+     * @param responseUnmarshaller
+     *            The StAX unmarshaller to use on the response.
+     */
+    public StaxCursorResponseHandler(Unmarshaller<T, StaxCursorUnmarshallerContext> responseUnmarshaller) {
+        /*
+         * Even if the invoked operation just returns null, we still need an
+         * unmarshaller to run so we can pull out response metadata.
+         */
+        super(responseUnmarshaller != null ? responseUnmarshaller : new VoidStaxCursorUnmarshaller<T>());
+    }
+
+    /**
+     * Creates a response handler for an unmarshaller written against
+     * {@link StaxUnmarshallerContext}.
+     *
+     * @param responseUnmarshaller
+     *            The StAX event unmarshaller to use on the response.
+     * @return response handler
+     */
+    public static <T> StaxCursorResponseHandler<T> of(Unmarshaller<T, StaxUnmarshallerContext> responseUnmarshaller) {
+        if (responseUnmarshaller == null) return new StaxCursorResponseHandler<T>(null);
+        return new StaxCursorResponseHandler<T>(new StaxCursorUnmarshallerAdapter<T>(responseUnmarshaller));
+    }
+
+    @Override
+    protected XMLStreamReader createReader(XMLInputFactory factory, InputStream content) throws XMLStreamException {
+        return factory.createXMLStreamReader(content);
+    }
+
+    @Override
+    protected void closeReader(XMLStreamReader reader) throws XMLStreamException {
+        reader.close();
+    }
+
+    @Override
+    protected StaxCursorUnmarshallerContext createUnmarshallerContext(XMLStreamReader reader, Map<String, String> headers) {
+        return new StaxCursorUnmarshallerContext(reader, headers);
+    }
+
+    @Override
+    protected void registerMetadataExpression(StaxCursorUnmarshallerContext unmarshallerContext, String expression, int targetDepth, String storageKey) {
+        unmarshallerContext.registerMetadataExpression(expression, targetDepth, storageKey);
+    }
+
+    @Override
+    protected Map<String, String> getMetadata(StaxCursorUnmarshallerContext unmarshallerContext) {
+        return unmarshallerContext.getMetadata();
+    }
+
+}
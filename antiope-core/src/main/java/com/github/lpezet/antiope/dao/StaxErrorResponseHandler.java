@@ -0,0 +1,129 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.lpezet.antiope.APIServiceException;
+import com.github.lpezet.antiope.APIServiceException.ErrorType;
+
+/**
+ * Error response handler streaming through the error document and only
+ * pulling out the error code, message and request id, instead of building a
+ * DOM like {@link DefaultErrorResponseHandler}.
+ * <p>
+ * It understands the usual error documents, like
+ * <code>&lt;Error&gt;&lt;Code&gt;...&lt;/Code&gt;&lt;Message&gt;...&lt;/Message&gt;&lt;RequestId&gt;...&lt;/RequestId&gt;&lt;/Error&gt;</code>
+ * or <code>&lt;Response&gt;&lt;Errors&gt;&lt;Error&gt;...&lt;/Error&gt;&lt;/Errors&gt;&lt;RequestID&gt;...&lt;/RequestID&gt;&lt;/Response&gt;</code>,
+ * whatever the namespace. The first value found for each is used.
+ * <p>
+ * Used by clients without exception unmarshallers.
+ * 
+ * @author luc
+ */
+public class StaxErrorResponseHandler implements HttpResponseHandler<APIServiceException> {
+
+	private static final Logger						mLogger				= LoggerFactory.getLogger(StaxErrorResponseHandler.class);
+
+	/** XMLInputFactory is not guaranteed to be thread-safe: one per thread. */
+	private static final ThreadLocal<XMLInputFactory>	XML_INPUT_FACTORY	= new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory oFactory = XMLInputFactory.newInstance();
+			oFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			return oFactory;
+		}
+	};
+
+	public APIServiceException handle(HttpResponse pErrorResponse) throws Exception {
+		String oCode = null;
+		String oMessage = null;
+		String oRequestId = null;
+		InputStream oContent = pErrorResponse.getContent();
+		if (oContent != null) {
+			XMLStreamReader oReader = null;
+			try {
+				oReader = XML_INPUT_FACTORY.get().createXMLStreamReader(oContent);
+				while (oReader.hasNext() && (oCode == null || oMessage == null || oRequestId == null)) {
+					if (oReader.next() != XMLStreamConstants.START_ELEMENT) continue;
+					String oName = oReader.getLocalName();
+					if (oCode == null && ("Code".equals(oName) || "code".equals(oName))) {
+						oCode = oReader.getElementText().trim();
+					} else if (oMessage == null && ("Message".equals(oName) || "message".equals(oName))) {
+						oMessage = oReader.getElementText().trim();
+					} else if (oRequestId == null && ("RequestId".equals(oName) || "RequestID".equals(oName) || "requestId".equals(oName))) {
+						oRequestId = oReader.getElementText().trim();
+					}
+				}
+			} catch (XMLStreamException e) {
+				// Not (well-formed) XML: same as DefaultErrorResponseHandler
+				APIServiceException oException = new APIServiceException(String.format("Unable to unmarshall error response (%s)", e.getMessage()), e);
+				oException.setErrorCode(String.format("%s %s", pErrorResponse.getStatusCode(), pErrorResponse.getStatusText()));
+				oException.setErrorType(toErrorType(pErrorResponse.getStatusCode()));
+				oException.setStatusCode(pErrorResponse.getStatusCode());
+				return oException;
+			} finally {
+				close(oReader);
+			}
+		}
+
+		APIServiceException oException = new APIServiceException(oMessage != null ? oMessage : pErrorResponse.getStatusText());
+		oException.setErrorCode(oCode != null ? oCode : String.format("%s %s", pErrorResponse.getStatusCode(), pErrorResponse.getStatusText()));
+		oException.setRequestId(oRequestId);
+		oException.setErrorType(toErrorType(pErrorResponse.getStatusCode()));
+		oException.setStatusCode(pErrorResponse.getStatusCode());
+		return oException;
+	}
+
+	private static ErrorType toErrorType(int pStatusCode) {
+		if (pStatusCode >= 500) return ErrorType.Service;
+		if (pStatusCode >= 400) return ErrorType.Client;
+		return ErrorType.Unknown;
+	}
+
+	private static void close(XMLStreamReader pReader) {
+		if (pReader == null) return;
+		try {
+			pReader.close();
+		} catch (XMLStreamException e) {
+			mLogger.warn("Error closing xml parser", e);
+		}
+	}
+
+	/**
+	 * Since this response handler completely consumes all the data it needs
+	 * from the underlying HTTP connection during the handle method, we don't
+	 * need to keep the HTTP connection open.
+	 */
+	public boolean needsConnectionLeftOpen() {
+		return false;
+	}
+}
@@ -14,7 +14,6 @@
  */
 package com.github.lpezet.antiope.dao;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.Map;
 
@@ -22,11 +21,6 @@ import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.github.lpezet.antiope.be.APIWebServiceResponse;
-import com.github.lpezet.antiope.be.ResponseMetadata;
 import com.github.lpezet.antiope.transform.StaxUnmarshallerContext;
 import com.github.lpezet.antiope.transform.Unmarshaller;
 import com.github.lpezet.antiope.transform.VoidStaxUnmarshaller;
@@ -35,17 +29,7 @@ import com.github.lpezet.antiope.transform.VoidStaxUnmarshaller;
  * @author luc
  *
  */
-public class StaxResponseHandler<T> implements HttpResponseHandler<APIWebServiceResponse<T>> {
-
-    /** The StAX unmarshaller to use when handling the response */
-    private Unmarshaller<T, StaxUnmarshallerContext> responseUnmarshaller;
-
-    /** Shared logger for profiling information */
-    private static final Logger log = LoggerFactory.getLogger(StaxResponseHandler.class);
-
-    /** Shared factory for creating XML event readers */
-    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
-
+public class StaxResponseHandler<T> extends AbstractStaxResponseHandler<T, XMLEventReader, StaxUnmarshallerContext> {
 
     /**
      * Constructs a new response handler that will use the specified StAX
@@ -57,8 +41,6 @@ public class StaxResponseHandler<T> implements HttpResponseHandler<APIWebService
      *            The StAX unmarshaller to use on the response.
      */
     public StaxResponseHandler(Unmarshaller<T, StaxUnmarshallerContext> responseUnmarshaller) {
-        this.responseUnmarshaller = responseUnmarshaller;
-
         /*
          * Even if the invoked operation just returns null, we still need an
          * unmarshaller to run so we can pull out response metadata.
@@ -66,64 +48,32 @@ public class StaxResponseHandler<T> implements HttpResponseHandler<APIWebService
          * We might want to pass this in through the client class so that we
          * don't have to do this check here.
          */
-        if (this.responseUnmarshaller == null) {
-            this.responseUnmarshaller = new VoidStaxUnmarshaller<T>();
-        }
+        super(responseUnmarshaller != null ? responseUnmarshaller : new VoidStaxUnmarshaller<T>());
     }
 
+    @Override
+    protected XMLEventReader createReader(XMLInputFactory factory, InputStream content) throws XMLStreamException {
+        return factory.createXMLEventReader(content);
+    }
 
-    public APIWebServiceResponse<T> handle(HttpResponse response) throws Exception {
-        log.trace("Parsing service response XML");
-        InputStream content = response.getContent();
-        if (content == null) content = new ByteArrayInputStream("<eof/>".getBytes());
-
-        XMLEventReader eventReader;
-        synchronized (xmlInputFactory) {
-            eventReader = xmlInputFactory.createXMLEventReader(content);
-        }
-
-        try {
-        	APIWebServiceResponse<T> oAPIResponse = new APIWebServiceResponse<T>();
-            StaxUnmarshallerContext unmarshallerContext = new StaxUnmarshallerContext(eventReader, response.getHeaders());
-            unmarshallerContext.registerMetadataExpression("ResponseMetadata/RequestId", 2, ResponseMetadata.API_REQUEST_ID);
-            unmarshallerContext.registerMetadataExpression("requestId", 2, ResponseMetadata.API_REQUEST_ID);
-            registerAdditionalMetadataExpressions(unmarshallerContext);
-
-            T result = responseUnmarshaller.unmarshall(unmarshallerContext);
-            oAPIResponse.setResult(result);
-
-            Map<String, String> metadata = unmarshallerContext.getMetadata();
-            oAPIResponse.setResponseMetadata(new ResponseMetadata(metadata));
+    @Override
+    protected void closeReader(XMLEventReader reader) throws XMLStreamException {
+        reader.close();
+    }
 
-            log.trace("Done parsing service response");
-            return oAPIResponse;
-        } finally {
-            try {
-                eventReader.close();
-            } catch (XMLStreamException e) {
-                log.warn("Error closing xml parser", e);
-            }
-        }
+    @Override
+    protected StaxUnmarshallerContext createUnmarshallerContext(XMLEventReader reader, Map<String, String> headers) {
+        return new StaxUnmarshallerContext(reader, headers);
     }
 
-    /**
-     * Hook for subclasses to override in order to collect additional metadata
-     * from service responses.
-     *
-     * @param unmarshallerContext
-     *            The unmarshaller context used to process a service's response
-     *            data.
-     */
-    protected void registerAdditionalMetadataExpressions(StaxUnmarshallerContext unmarshallerContext) {}
+    @Override
+    protected void registerMetadataExpression(StaxUnmarshallerContext unmarshallerContext, String expression, int targetDepth, String storageKey) {
+        unmarshallerContext.registerMetadataExpression(expression, targetDepth, storageKey);
+    }
 
-    /**
-     * Since this response handler completely consumes all the data from the
-     * underlying HTTP connection during the handle method, we don't need to
-     * keep the HTTP connection open.
-     *
-     */
-    public boolean needsConnectionLeftOpen() {
-        return false;
+    @Override
+    protected Map<String, String> getMetadata(StaxUnmarshallerContext unmarshallerContext) {
+        return unmarshallerContext.getMetadata();
     }
 
 }
@@ -22,6 +22,9 @@ package com.github.lpezet.antiope.metrics;
 public enum APIRequestMetrics implements RequestMetricType {
 	APIErrorCode,
 	APIRequestID,
+	/**
+	 * Number of bytes of response content handed to the response handler (after any decompression).
+	 */
 	BytesProcessed,
 	/**
 	 * Total number of milliseconds taken for a request/response including
@@ -92,5 +95,69 @@ public enum APIRequestMetrics implements RequestMetricType {
 	 * Used to count and preserve the throttle related exceptions.
 	 */
 	ThrottleException,
+	/**
+	 * Number of responses served from the response cache, without any request to API.
+	 */
+	ResponseCacheHit,
+	/**
+	 * Number of cacheable responses fully received from API.
+	 */
+	ResponseCacheMiss,
+	/**
+	 * Number of cached responses revalidated by API (304 Not Modified).
+	 */
+	ResponseCacheRevalidation,
+	/**
+	 * Set when a request was not sent, sharing the response of an identical request in flight instead.
+	 */
+	RequestCoalesced,
+	/**
+	 * Number of bytes of request content written to API.
+	 */
+	RequestBytes,
+	/**
+	 * Number of bytes of response content read from API (as received, e.g. before any decompression).
+	 */
+	ResponseBytes,
+	/**
+	 * Bytes per second writing the request content.
+	 */
+	UploadThroughput,
+	/**
+	 * Bytes per second reading the response content (time spent in reads).
+	 */
+	DownloadThroughput,
+	/**
+	 * Number of milliseconds from sending a request to reading the first byte of its response content.
+	 */
+	TimeToFirstByte,
+	/**
+	 * Number of milliseconds from sending a request to reading the last byte of its response content.
+	 */
+	TimeToLastByte,
+	/**
+	 * Number of bytes of request content before compression, when compressed.
+	 */
+	RequestUncompressedBytes,
+	/**
+	 * Number of microseconds spent compressing the request content.
+	 */
+	RequestCompressionTime,
+	/**
+	 * Number of microseconds spent decompressing the response content.
+	 */
+	ResponseDecompressionTime,
+	/**
+	 * Number of milliseconds spent waiting for the client's rate limiter before sending requests.
+	 */
+	RateLimiterWaitTime,
+	/**
+	 * Set when a request was not sent because the circuit breaker of its endpoint and operation was open.
+	 */
+	CircuitBreakerRejected,
+	/**
+	 * New state of the circuit breaker, when the outcome of the request changed it.
+	 */
+	CircuitBreakerState,
 	;
 }
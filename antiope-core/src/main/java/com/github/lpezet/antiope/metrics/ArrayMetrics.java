@@ -0,0 +1,498 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IMetrics} keeping the timings, counters and properties of
+ * {@link APIRequestMetrics} in primitive arrays indexed by ordinal, so
+ * recording them neither allocates nor hashes any name. Any other metric
+ * (custom {@link MetricType} or name) goes to a {@link BaseMetrics} created on
+ * first use.
+ * <p>
+ * Instances are meant to be obtained through {@link #acquire()}, handing out
+ * the instance pooled for the calling thread, and given back with
+ * {@link #release()} once the metrics have been collected. A released
+ * instance is reset by the next {@link #acquire()} on that thread, so
+ * {@link IMetricsCollector}s must read what they need within
+ * {@link IMetricsCollector#collectMetrics(com.github.lpezet.antiope.dao.Request, com.github.lpezet.antiope.dao.Response)}.
+ * 
+ * @author luc
+ */
+//NotThreadSafe
+public class ArrayMetrics implements IMetrics {
+
+	private static final Logger								LATENCY_LOGGER		= LoggerFactory.getLogger("api.latency");
+	private static final Logger								LOGGER				= LoggerFactory.getLogger(ArrayMetrics.class);
+	private static final Object								KEY_VALUE_SEPARATOR	= "=";
+	private static final Object								COMMA_SEPARATOR		= ", ";
+	private static final int								INITIAL_CAPACITY	= 16;
+
+	private static final APIRequestMetrics[]				METRICS				= APIRequestMetrics.values();
+	private static final Map<String, APIRequestMetrics>	METRICS_BY_NAME		= new HashMap<String, APIRequestMetrics>();
+	static {
+		for (APIRequestMetrics m : METRICS) {
+			METRICS_BY_NAME.put(m.name(), m);
+		}
+	}
+
+	private static final ThreadLocal<ArrayMetrics>			POOL				= new ThreadLocal<ArrayMetrics>() {
+		@Override
+		protected ArrayMetrics initialValue() {
+			return new ArrayMetrics();
+		}
+	};
+
+	private final ArrayTimingInfo	mTimingInfo;
+	private volatile boolean		mInUse;
+	private volatile boolean		mDiscarded;
+
+	private final long[]			mEventStarts		= new long[METRICS.length];
+	private final boolean[]			mEventsStarted		= new boolean[METRICS.length];
+	private final long[]			mCounters			= new long[METRICS.length];
+	private final boolean[]			mCountersSet		= new boolean[METRICS.length];
+
+	private int[]					mTimingMetrics		= new int[INITIAL_CAPACITY];
+	private long[]					mTimingStarts		= new long[INITIAL_CAPACITY];
+	private long[]					mTimingEnds			= new long[INITIAL_CAPACITY];
+	private int						mTimingCount;
+
+	private int[]					mPropertyMetrics	= new int[INITIAL_CAPACITY];
+	private Object[]				mPropertyValues		= new Object[INITIAL_CAPACITY];
+	private int						mPropertyCount;
+
+	private BaseMetrics				mOthers;
+
+	public ArrayMetrics() {
+		mTimingInfo = new ArrayTimingInfo(System.currentTimeMillis(), System.nanoTime());
+	}
+
+	/**
+	 * Returns the instance pooled for the calling thread, reset and started,
+	 * or a new instance when the pooled one has not been released yet (e.g.
+	 * asynchronous execution still in progress). A discarded instance is
+	 * replaced in the pool.
+	 * 
+	 * @return ArrayMetrics
+	 */
+	public static ArrayMetrics acquire() {
+		ArrayMetrics oMetrics = POOL.get();
+		if (oMetrics.mDiscarded) {
+			oMetrics = new ArrayMetrics();
+			POOL.set(oMetrics);
+		} else if (oMetrics.mInUse) {
+			return new ArrayMetrics();
+		}
+		oMetrics.reset();
+		oMetrics.mInUse = true;
+		return oMetrics;
+	}
+
+	/**
+	 * Gives this instance back to the pool of the thread which acquired it.
+	 * Nothing should be recorded after this call. Can be called from any
+	 * thread.
+	 */
+	public void release() {
+		mInUse = false;
+	}
+
+	/**
+	 * Takes this instance out of the pool for good, when something may still
+	 * be recording into it after its release (e.g. cancelled asynchronous
+	 * execution). Can be called from any thread.
+	 */
+	public void discard() {
+		mDiscarded = true;
+	}
+
+	private void reset() {
+		mTimingInfo.restart(System.currentTimeMillis(), System.nanoTime());
+		Arrays.fill(mEventsStarted, false);
+		Arrays.fill(mCountersSet, false);
+		Arrays.fill(mPropertyValues, 0, mPropertyCount, null);
+		mTimingCount = 0;
+		mPropertyCount = 0;
+		mOthers = null;
+	}
+
+	private static int indexOf(MetricType pMetric) {
+		if (pMetric instanceof APIRequestMetrics) {
+			return ((APIRequestMetrics) pMetric).ordinal();
+		}
+		return indexOf(pMetric.name());
+	}
+
+	private static int indexOf(String pName) {
+		APIRequestMetrics oMetric = pName == null ? null : METRICS_BY_NAME.get(pName);
+		return oMetric == null ? -1 : oMetric.ordinal();
+	}
+
+	private BaseMetrics others() {
+		if (mOthers == null) {
+			mOthers = new BaseMetrics();
+		}
+		return mOthers;
+	}
+
+	@Override
+	public final TimingInfo getTimingInfo() {
+		return mTimingInfo;
+	}
+
+	@Override
+	public void startEvent(String pEventName) {
+		int i = indexOf(pEventName);
+		if (i < 0) {
+			others().startEvent(pEventName);
+		} else {
+			startEvent(i);
+		}
+	}
+
+	@Override
+	public void startEvent(MetricType pF) {
+		int i = indexOf(pF);
+		if (i < 0) {
+			others().startEvent(pF.name());
+		} else {
+			startEvent(i);
+		}
+	}
+
+	private void startEvent(int pIndex) {
+		/* This will overwrite past events */
+		mEventStarts[pIndex] = System.nanoTime();
+		mEventsStarted[pIndex] = true;
+	}
+
+	@Override
+	public void endEvent(String pEventName) {
+		int i = indexOf(pEventName);
+		if (i < 0) {
+			others().endEvent(pEventName);
+		} else {
+			endEvent(i);
+		}
+	}
+
+	@Override
+	public void endEvent(MetricType pF) {
+		int i = indexOf(pF);
+		if (i < 0) {
+			others().endEvent(pF.name());
+		} else {
+			endEvent(i);
+		}
+	}
+
+	private void endEvent(int pIndex) {
+		long oEndTimeNano = System.nanoTime();
+		/* Somebody tried to end an event that was not started. */
+		if (!mEventsStarted[pIndex]) {
+			LOGGER.warn("Trying to end an event which was never started: {}", METRICS[pIndex]);
+			return;
+		}
+		addTiming(pIndex, mEventStarts[pIndex], oEndTimeNano);
+	}
+
+	private void addTiming(int pIndex, long pStartTimeNano, long pEndTimeNano) {
+		if (mTimingCount == mTimingMetrics.length) {
+			int oCapacity = mTimingCount << 1;
+			mTimingMetrics = Arrays.copyOf(mTimingMetrics, oCapacity);
+			mTimingStarts = Arrays.copyOf(mTimingStarts, oCapacity);
+			mTimingEnds = Arrays.copyOf(mTimingEnds, oCapacity);
+		}
+		mTimingMetrics[mTimingCount] = pIndex;
+		mTimingStarts[mTimingCount] = pStartTimeNano;
+		mTimingEnds[mTimingCount] = pEndTimeNano;
+		mTimingCount++;
+	}
+
+	@Override
+	public void incrementCounter(String pEvent) {
+		int i = indexOf(pEvent);
+		if (i < 0) {
+			others().incrementCounter(pEvent);
+		} else {
+			incrementCounter(i);
+		}
+	}
+
+	@Override
+	public void incrementCounter(MetricType pF) {
+		int i = indexOf(pF);
+		if (i < 0) {
+			others().incrementCounter(pF.name());
+		} else {
+			incrementCounter(i);
+		}
+	}
+
+	private void incrementCounter(int pIndex) {
+		mCounters[pIndex] = mCountersSet[pIndex] ? mCounters[pIndex] + 1 : 1;
+		mCountersSet[pIndex] = true;
+	}
+
+	@Override
+	public void setCounter(String pCounterName, long pCount) {
+		int i = indexOf(pCounterName);
+		if (i < 0) {
+			others().setCounter(pCounterName, pCount);
+		} else {
+			setCounter(i, pCount);
+		}
+	}
+
+	@Override
+	public void setCounter(MetricType pF, long pCount) {
+		int i = indexOf(pF);
+		if (i < 0) {
+			others().setCounter(pF.name(), pCount);
+		} else {
+			setCounter(i, pCount);
+		}
+	}
+
+	private void setCounter(int pIndex, long pCount) {
+		mCounters[pIndex] = pCount;
+		mCountersSet[pIndex] = true;
+	}
+
+	@Override
+	public void addProperty(String pPropertyName, Object pValue) {
+		int i = indexOf(pPropertyName);
+		if (i < 0) {
+			others().addProperty(pPropertyName, pValue);
+		} else {
+			addProperty(i, pValue);
+		}
+	}
+
+	@Override
+	public void addProperty(MetricType pF, Object pValue) {
+		int i = indexOf(pF);
+		if (i < 0) {
+			others().addProperty(pF.name(), pValue);
+		} else {
+			addProperty(i, pValue);
+		}
+	}
+
+	private void addProperty(int pIndex, Object pValue) {
+		if (mPropertyCount == mPropertyMetrics.length) {
+			int oCapacity = mPropertyCount << 1;
+			mPropertyMetrics = Arrays.copyOf(mPropertyMetrics, oCapacity);
+			mPropertyValues = Arrays.copyOf(mPropertyValues, oCapacity);
+		}
+		mPropertyMetrics[mPropertyCount] = pIndex;
+		mPropertyValues[mPropertyCount] = pValue;
+		mPropertyCount++;
+	}
+
+	@Override
+	public List<Object> getProperty(String pPropertyName) {
+		int i = indexOf(pPropertyName);
+		if (i < 0) {
+			return mOthers == null ? null : mOthers.getProperty(pPropertyName);
+		}
+		return getProperty(i);
+	}
+
+	@Override
+	public List<Object> getProperty(MetricType pF) {
+		int i = indexOf(pF);
+		if (i < 0) {
+			return mOthers == null ? null : mOthers.getProperty(pF.name());
+		}
+		return getProperty(i);
+	}
+
+	private List<Object> getProperty(int pIndex) {
+		List<Object> oValues = null;
+		for (int i = 0; i < mPropertyCount; i++) {
+			if (mPropertyMetrics[i] != pIndex) continue;
+			if (oValues == null) oValues = new ArrayList<Object>();
+			oValues.add(mPropertyValues[i]);
+		}
+		return oValues;
+	}
+
+	@Override
+	public void log() {
+		StringBuilder oBuilder = new StringBuilder();
+		for (int i = 0; i < METRICS.length; i++) {
+			List<Object> oValues = getProperty(i);
+			if (oValues != null) {
+				keyValueFormat(METRICS[i].name(), oValues, oBuilder);
+			}
+		}
+		if (mOthers != null) {
+			for (Entry<String, List<Object>> e : mOthers.getProperties().entrySet()) {
+				keyValueFormat(e.getKey(), e.getValue(), oBuilder);
+			}
+		}
+		for (Entry<String, Number> e : mTimingInfo.getAllCounters().entrySet()) {
+			keyValueFormat(e.getKey(), e.getValue(), oBuilder);
+		}
+		for (Entry<String, List<TimingInfo>> e : mTimingInfo.getSubMeasurementsByName().entrySet()) {
+			keyValueFormat(e.getKey(), e.getValue(), oBuilder);
+		}
+		LATENCY_LOGGER.info(oBuilder.toString());
+	}
+
+	private static void keyValueFormat(Object pKey, Object pValue, StringBuilder pBuilder) {
+		pBuilder.append(pKey).append(KEY_VALUE_SEPARATOR).append(pValue).append(COMMA_SEPARATOR);
+	}
+
+	private static TimingInfo timingOf(long pStartTimeNano, long pEndTimeNano) {
+		return TimingInfo.unmodifiableTimingInfo(pStartTimeNano, Long.valueOf(pEndTimeNano));
+	}
+
+	/**
+	 * Root timing, reading counters and sub-measurements straight from the
+	 * arrays. The views it returns are built on demand: only collectors pay
+	 * for them.
+	 */
+	private final class ArrayTimingInfo extends TimingInfo {
+
+		ArrayTimingInfo(long pStartEpochTimeMilli, long pStartTimeNano) {
+			super(Long.valueOf(pStartEpochTimeMilli), pStartTimeNano, null);
+		}
+
+		@Override
+		public void addSubMeasurement(String pSubMeasurementName, TimingInfo pTI) {
+			int i = indexOf(pSubMeasurementName);
+			if (i < 0) {
+				others().getTimingInfo().addSubMeasurement(pSubMeasurementName, pTI);
+			} else if (pTI.isEndTimeKnown()) {
+				addTiming(i, pTI.getStartTimeNano(), pTI.getEndTimeNano());
+			}
+		}
+
+		@Override
+		public TimingInfo getSubMeasurement(String pSubMeasurementName) {
+			return getSubMeasurement(pSubMeasurementName, 0);
+		}
+
+		@Override
+		public TimingInfo getSubMeasurement(String pSubMesurementName, int pIndex) {
+			int i = indexOf(pSubMesurementName);
+			if (i < 0) {
+				return mOthers == null ? null : mOthers.getTimingInfo().getSubMeasurement(pSubMesurementName, pIndex);
+			}
+			if (pIndex < 0) return null;
+			for (int j = 0, n = 0; j < mTimingCount; j++) {
+				if (mTimingMetrics[j] == i && n++ == pIndex) {
+					return timingOf(mTimingStarts[j], mTimingEnds[j]);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public TimingInfo getLastSubMeasurement(String pSubMeasurementName) {
+			int i = indexOf(pSubMeasurementName);
+			if (i < 0) {
+				return mOthers == null ? null : mOthers.getTimingInfo().getLastSubMeasurement(pSubMeasurementName);
+			}
+			for (int j = mTimingCount - 1; j >= 0; j--) {
+				if (mTimingMetrics[j] == i) {
+					return timingOf(mTimingStarts[j], mTimingEnds[j]);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public List<TimingInfo> getAllSubMeasurements(String pSubMeasurementName) {
+			int i = indexOf(pSubMeasurementName);
+			if (i < 0) {
+				return mOthers == null ? null : mOthers.getTimingInfo().getAllSubMeasurements(pSubMeasurementName);
+			}
+			return getAllSubMeasurements(i);
+		}
+
+		private List<TimingInfo> getAllSubMeasurements(int pIndex) {
+			List<TimingInfo> oTimings = null;
+			for (int j = 0; j < mTimingCount; j++) {
+				if (mTimingMetrics[j] != pIndex) continue;
+				if (oTimings == null) oTimings = new ArrayList<TimingInfo>();
+				oTimings.add(timingOf(mTimingStarts[j], mTimingEnds[j]));
+			}
+			return oTimings;
+		}
+
+		@Override
+		public Map<String, List<TimingInfo>> getSubMeasurementsByName() {
+			if (mTimingCount == 0 && mOthers == null) return Collections.emptyMap();
+			Map<String, List<TimingInfo>> oResult = new LinkedHashMap<String, List<TimingInfo>>();
+			for (int i = 0; i < METRICS.length; i++) {
+				List<TimingInfo> oTimings = getAllSubMeasurements(i);
+				if (oTimings != null) oResult.put(METRICS[i].name(), oTimings);
+			}
+			if (mOthers != null) oResult.putAll(mOthers.getTimingInfo().getSubMeasurementsByName());
+			return oResult;
+		}
+
+		@Override
+		public Number getCounter(String pKey) {
+			int i = indexOf(pKey);
+			if (i < 0) {
+				return mOthers == null ? null : mOthers.getTimingInfo().getCounter(pKey);
+			}
+			return mCountersSet[i] ? Long.valueOf(mCounters[i]) : null;
+		}
+
+		@Override
+		public Map<String, Number> getAllCounters() {
+			Map<String, Number> oResult = new LinkedHashMap<String, Number>();
+			for (int i = 0; i < METRICS.length; i++) {
+				if (mCountersSet[i]) oResult.put(METRICS[i].name(), Long.valueOf(mCounters[i]));
+			}
+			if (mOthers != null) oResult.putAll(mOthers.getTimingInfo().getAllCounters());
+			return oResult;
+		}
+
+		@Override
+		public void setCounter(String pKey, long pCount) {
+			ArrayMetrics.this.setCounter(pKey, pCount);
+		}
+
+		@Override
+		public void incrementCounter(String pKey) {
+			ArrayMetrics.this.incrementCounter(pKey);
+		}
+	}
+}
@@ -203,6 +203,10 @@ public class BaseMetrics implements IMetrics {
         builder.append(key).append(KEY_VALUE_SEPARATOR).append(value).append(COMMA_SEPARATOR);
     }
 
+    Map<String, List<Object>> getProperties() {
+        return mProperties;
+    }
+
     @Override
     public List<Object> getProperty(String propertyName){
     	return mProperties.get(propertyName);
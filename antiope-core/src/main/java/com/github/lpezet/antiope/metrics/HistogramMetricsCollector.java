@@ -0,0 +1,206 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.lpezet.antiope.dao.Request;
+import com.github.lpezet.antiope.dao.Response;
+import com.github.lpezet.antiope.util.DaemonThreadFactory;
+
+/**
+ * Aggregates the latencies of {@link APIRequestMetrics#ClientExecuteTime},
+ * {@link APIRequestMetrics#HttpRequestTime},
+ * {@link APIRequestMetrics#ResponseProcessingTime} and
+ * {@link APIRequestMetrics#RequestSigningTime} in {@link LatencyHistogram}s
+ * per service and operation, instead of logging each request like
+ * {@link LogMetricsCollector}.
+ * <p>
+ * {@link #snapshot()} returns the percentiles over the interval since the
+ * previous snapshot, and {@link #startLogging(long, TimeUnit)} logs them
+ * periodically (one line per service, operation and metric recorded).
+ * <p>
+ * Requires profiling to be enabled (see
+ * {@link com.github.lpezet.antiope.be.APIConfiguration#setProfilingEnabled(boolean)}).
+ * 
+ * @author luc
+ */
+//ThreadSafe
+public class HistogramMetricsCollector implements IMetricsCollector {
+
+	private static final APIRequestMetrics[]											LATENCY_METRICS	= {
+		APIRequestMetrics.ClientExecuteTime,
+		APIRequestMetrics.HttpRequestTime,
+		APIRequestMetrics.ResponseProcessingTime,
+		APIRequestMetrics.RequestSigningTime };
+
+	private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram[]>>	mHistograms		= new ConcurrentHashMap<String, ConcurrentMap<String, LatencyHistogram[]>>();
+	private final Logger																mLogger;
+	private volatile boolean															mEnabled		= true;
+	private ScheduledExecutorService													mScheduler;
+
+	public HistogramMetricsCollector() {
+		mLogger = LoggerFactory.getLogger(HistogramMetricsCollector.class);
+	}
+
+	public HistogramMetricsCollector(String pLogName) {
+		mLogger = LoggerFactory.getLogger(pLogName);
+	}
+
+	@Override
+	public void collectMetrics(Request<?> pRequest, Response<?> pResponse) {
+		IMetrics oMetrics = pRequest.getMetrics();
+		if (oMetrics == null) return;
+		LatencyHistogram[] oHistograms = histogramsOf(String.valueOf(pRequest.getServiceName()), operationOf(pRequest));
+		TimingInfo oRoot = oMetrics.getTimingInfo();
+		// ClientExecuteTime taken from the root, as in LogMetricsCollector
+		if (oRoot.isEndTimeKnown()) {
+			oHistograms[0].recordNanos(oRoot.getEndTimeNano() - oRoot.getStartTimeNano());
+		}
+		for (int i = 1; i < LATENCY_METRICS.length; i++) {
+			List<TimingInfo> oSubMeasures = oRoot.getAllSubMeasurements(LATENCY_METRICS[i].name());
+			if (oSubMeasures == null) continue;
+			for (TimingInfo oSub : oSubMeasures) {
+				if (oSub.isEndTimeKnown()) {
+					oHistograms[i].recordNanos(oSub.getEndTimeNano() - oSub.getStartTimeNano());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the name of the operation the histograms of the given request
+	 * are kept under: the simple class name of the original request, or the
+	 * HTTP method when there is none.
+	 * 
+	 * @param pRequest
+	 *            request
+	 * @return operation name
+	 */
+	protected String operationOf(Request<?> pRequest) {
+		Object oOriginalRequest = pRequest.getOriginalRequest();
+		return oOriginalRequest != null ? oOriginalRequest.getClass().getSimpleName() : String.valueOf(pRequest.getHttpMethod());
+	}
+
+	private LatencyHistogram[] histogramsOf(String pService, String pOperation) {
+		ConcurrentMap<String, LatencyHistogram[]> oOperations = mHistograms.get(pService);
+		if (oOperations == null) {
+			oOperations = new ConcurrentHashMap<String, LatencyHistogram[]>();
+			ConcurrentMap<String, LatencyHistogram[]> oExisting = mHistograms.putIfAbsent(pService, oOperations);
+			if (oExisting != null) oOperations = oExisting;
+		}
+		LatencyHistogram[] oHistograms = oOperations.get(pOperation);
+		if (oHistograms == null) {
+			oHistograms = new LatencyHistogram[LATENCY_METRICS.length];
+			for (int i = 0; i < oHistograms.length; i++) {
+				oHistograms[i] = new LatencyHistogram();
+			}
+			LatencyHistogram[] oExisting = oOperations.putIfAbsent(pOperation, oHistograms);
+			if (oExisting != null) oHistograms = oExisting;
+		}
+		return oHistograms;
+	}
+
+	/**
+	 * Takes the snapshots of all the histograms with recordings since the
+	 * previous call, keyed by "service/operation/metric".
+	 * 
+	 * @return snapshots, sorted by key.
+	 */
+	public Map<String, LatencyHistogram.Snapshot> snapshot() {
+		Map<String, LatencyHistogram.Snapshot> oResult = new TreeMap<String, LatencyHistogram.Snapshot>();
+		for (Map.Entry<String, ConcurrentMap<String, LatencyHistogram[]>> oService : mHistograms.entrySet()) {
+			for (Map.Entry<String, LatencyHistogram[]> oOperation : oService.getValue().entrySet()) {
+				LatencyHistogram[] oHistograms = oOperation.getValue();
+				for (int i = 0; i < oHistograms.length; i++) {
+					LatencyHistogram.Snapshot oSnapshot = oHistograms[i].snapshot();
+					if (oSnapshot.getCount() == 0) continue;
+					oResult.put(oService.getKey() + "/" + oOperation.getKey() + "/" + LATENCY_METRICS[i].name(), oSnapshot);
+				}
+			}
+		}
+		return oResult;
+	}
+
+	/**
+	 * Logs (at INFO) the snapshots of the interval since the previous call.
+	 */
+	public void logSnapshots() {
+		for (Map.Entry<String, LatencyHistogram.Snapshot> e : snapshot().entrySet()) {
+			mLogger.info("{}: {}", e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Starts logging the snapshots every given period, from a daemon thread.
+	 * Restarts it if already started.
+	 * 
+	 * @param pPeriod
+	 *            period between two summaries
+	 * @param pUnit
+	 *            unit of the period
+	 */
+	public synchronized void startLogging(long pPeriod, TimeUnit pUnit) {
+		stopLogging();
+		mScheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("antiope-metrics"));
+		mScheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					logSnapshots();
+				} catch (RuntimeException e) {
+					mLogger.warn("Unexpected error logging metrics.", e);
+				}
+			}
+		}, pPeriod, pPeriod, pUnit);
+	}
+
+	/**
+	 * Stops the periodic logging, if started.
+	 */
+	public synchronized void stopLogging() {
+		if (mScheduler != null) {
+			mScheduler.shutdownNow();
+			mScheduler = null;
+		}
+	}
+
+	public void setEnabled(boolean pEnabled) {
+		mEnabled = pEnabled;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return mEnabled;
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory, log-bucketed latency histogram (in the spirit of HdrHistogram).
+ * <p>
+ * Latencies are recorded in microseconds, from 0 up to about 71 minutes
+ * (longer ones are clamped). Each power of 2 is split in 64 linear
+ * sub-buckets, so any reported value is within 1.6% of the recorded one, for
+ * 1728 buckets (about 14 KB) whatever the number of recordings.
+ * <p>
+ * Recording is lock-free (a few atomic increments) and can be done by any
+ * number of threads. {@link #snapshot()} drains the buckets without blocking
+ * them: each recording ends up in exactly one snapshot.
+ * 
+ * @author luc
+ */
+//ThreadSafe
+public class LatencyHistogram {
+
+	private static final int	SUB_BUCKET_BITS		= 6;
+	private static final int	SUB_BUCKET_COUNT	= 1 << SUB_BUCKET_BITS;
+	private static final int	MAX_EXPONENT		= 31;
+	static final long			MAX_VALUE			= (1L << (MAX_EXPONENT + 1)) - 1;
+	static final int			BUCKET_COUNT		= (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray	mCounts	= new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong		mSum	= new AtomicLong();
+	private final AtomicLong		mMax	= new AtomicLong();
+
+	/**
+	 * @param pNanos
+	 *            latency, in nanoseconds.
+	 */
+	public void recordNanos(long pNanos) {
+		record(TimeUnit.NANOSECONDS.toMicros(pNanos));
+	}
+
+	/**
+	 * @param pMicros
+	 *            latency, in microseconds.
+	 */
+	public void record(long pMicros) {
+		long oValue = pMicros < 0 ? 0 : Math.min(pMicros, MAX_VALUE);
+		mCounts.incrementAndGet(indexOf(oValue));
+		mSum.addAndGet(oValue);
+		long oMax;
+		while (oValue > (oMax = mMax.get()) && !mMax.compareAndSet(oMax, oValue));
+	}
+
+	static int indexOf(long pValue) {
+		if (pValue < SUB_BUCKET_COUNT) return (int) pValue;
+		int oShift = (63 - Long.numberOfLeadingZeros(pValue)) - SUB_BUCKET_BITS;
+		return ((oShift + 1) << SUB_BUCKET_BITS) + (int) ((pValue >>> oShift) - SUB_BUCKET_COUNT);
+	}
+
+	/**
+	 * @return highest value falling in the given bucket.
+	 */
+	static long highestValueOf(int pIndex) {
+		if (pIndex < SUB_BUCKET_COUNT) return pIndex;
+		int oShift = (pIndex >>> SUB_BUCKET_BITS) - 1;
+		long oMantissa = (pIndex & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+		return ((oMantissa + 1) << oShift) - 1;
+	}
+
+	/**
+	 * @return lowest value falling in the given bucket.
+	 */
+	static long lowestValueOf(int pIndex) {
+		if (pIndex < SUB_BUCKET_COUNT) return pIndex;
+		int oShift = (pIndex >>> SUB_BUCKET_BITS) - 1;
+		return ((pIndex & (SUB_BUCKET_COUNT - 1)) + (long) SUB_BUCKET_COUNT) << oShift;
+	}
+
+	/**
+	 * Takes everything recorded since the previous snapshot (or creation)
+	 * and resets the histogram for the next interval. Recordings racing with
+	 * it go to either interval; the sum (hence mean) may be off by those.
+	 * 
+	 * @return Snapshot
+	 */
+	public Snapshot snapshot() {
+		long[] oCounts = new long[BUCKET_COUNT];
+		long oTotal = 0;
+		int oHighest = -1;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			if (mCounts.get(i) == 0) continue;
+			long c = mCounts.getAndSet(i, 0);
+			oCounts[i] = c;
+			oTotal += c;
+			if (c != 0) oHighest = i;
+		}
+		long oSum = mSum.getAndSet(0);
+		long oMax = mMax.getAndSet(0);
+		// a max raced into the next interval: keep it consistent with the buckets
+		if (oHighest >= 0 && oMax < lowestValueOf(oHighest)) {
+			oMax = highestValueOf(oHighest);
+		}
+		return new Snapshot(oCounts, oTotal, oSum, oMax);
+	}
+
+	/**
+	 * Immutable view of the latencies recorded over an interval. All values are in milliseconds.
+	 */
+	public static final class Snapshot {
+		private final long[]	mCounts;
+		private final long		mCount;
+		private final long		mSum;
+		private final long		mMax;
+
+		Snapshot(long[] pCounts, long pCount, long pSum, long pMax) {
+			mCounts = pCounts;
+			mCount = pCount;
+			mSum = pSum;
+			mMax = pMax;
+		}
+
+		public long getCount() {
+			return mCount;
+		}
+
+		public double getMean() {
+			return mCount == 0 ? 0 : toMillis(mSum) / mCount;
+		}
+
+		public double getMax() {
+			return toMillis(mMax);
+		}
+
+		/**
+		 * @param pPercentile
+		 *            percentile, between 0 and 100 (e.g. 99.9).
+		 * @return highest latency (within the histogram precision) of the given percentile of the recordings, or 0 if none.
+		 */
+		public double getValueAtPercentile(double pPercentile) {
+			if (mCount == 0) return 0;
+			long oRank = Math.max(1, (long) Math.ceil(Math.min(pPercentile, 100) / 100 * mCount));
+			long oSeen = 0;
+			for (int i = 0; i < mCounts.length; i++) {
+				oSeen += mCounts[i];
+				if (oSeen >= oRank) {
+					return toMillis(Math.min(highestValueOf(i), mMax));
+				}
+			}
+			return getMax();
+		}
+
+		public double getP50() {
+			return getValueAtPercentile(50);
+		}
+
+		public double getP90() {
+			return getValueAtPercentile(90);
+		}
+
+		public double getP99() {
+			return getValueAtPercentile(99);
+		}
+
+		public double getP999() {
+			return getValueAtPercentile(99.9);
+		}
+
+		private static double toMillis(long pMicros) {
+			return pMicros / 1000.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("count=%d, mean=%.3fms, p50=%.3fms, p90=%.3fms, p99=%.3fms, p99.9=%.3fms, max=%.3fms",
+					mCount, getMean(), getP50(), getP90(), getP99(), getP999(), getMax());
+		}
+	}
+}
@@ -31,8 +31,25 @@ import java.util.List;
  */
 public class StubMetrics implements IMetrics {
 
+	private static final StubMetrics INSTANCE = new StubMetrics();
+	
+	/* Shared, so metrics disabled costs no allocation: ending it is a no-op. */
+	private static final TimingInfo STUB_TIMING_INFO = new TimingInfo(null, 0, null) {
+		@Deprecated
+		@Override
+		public void setEndTime(long pEndTimeMilli) {}
+		@Override
+		public void setEndTimeNano(long pEndTimeNano) {}
+		@Override
+		public TimingInfo endTiming() { return this; }
+	};
+	
+	public static StubMetrics getInstance() {
+		return INSTANCE;
+	}
+
 	@Override
-	public TimingInfo getTimingInfo() { return TimingInfo.startTiming(); }
+	public TimingInfo getTimingInfo() { return STUB_TIMING_INFO; }
 	
 	@Override
 	public void startEvent(String pEventName) {}
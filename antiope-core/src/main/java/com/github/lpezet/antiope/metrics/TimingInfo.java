@@ -33,7 +33,8 @@ public class TimingInfo {
 	 * For more info, see:
 	 * https://blogs.oracle.com/dholmes/entry/inside_the_hotspot_vm_clocks
 	 */
-	private final Long	mStartEpochTimeMilli;
+	private long		mStartEpochTimeMilli;
+	private boolean		mStartEpochTimeMilliKnown;
 	/**
 	 * Start time in nanosecond used for timing measurement.
 	 * Note the value in this field may have nothing to do with
@@ -45,7 +46,7 @@ public class TimingInfo {
 	 * <p>
 	 * Note System.nanoTime() can return negative values.
 	 */
-	private final long	mStartTimeNano;
+	private long		mStartTimeNano;
 	/**
 	 * End time in nanosecond used for timing measurement or null if unknown.
 	 * Note the value in this field is only meant to be used for timing
@@ -55,7 +56,8 @@ public class TimingInfo {
 	 * <p>
 	 * Note System.nanoTime() can return negative values.
 	 */
-	private Long		mEndTimeNano;
+	private long		mEndTimeNano;
+	private boolean		mEndTimeNanoKnown;
 
 	/**
 	 * Captures the current wall clock time (since epoch in millisecond)
@@ -161,9 +163,26 @@ public class TimingInfo {
 	 *            end time in nanosecond; or null if not known
 	 */
 	protected TimingInfo(Long startEpochTimeMilli, long startTimeNano, Long endTimeNano) {
+		this.mStartEpochTimeMilliKnown = startEpochTimeMilli != null;
+		this.mStartEpochTimeMilli = mStartEpochTimeMilliKnown ? startEpochTimeMilli.longValue() : UNKNOWN;
+		this.mStartTimeNano = startTimeNano;
+		this.mEndTimeNanoKnown = endTimeNano != null;
+		this.mEndTimeNano = mEndTimeNanoKnown ? endTimeNano.longValue() : UNKNOWN;
+	}
+
+	/**
+	 * Restarts this timing in place, so a pooled instance can be reused
+	 * for another measurement without allocating.
+	 * 
+	 * @param startEpochTimeMilli start time since epoch in millisecond
+	 * @param startTimeNano start time in nanosecond
+	 */
+	void restart(long startEpochTimeMilli, long startTimeNano) {
 		this.mStartEpochTimeMilli = startEpochTimeMilli;
+		this.mStartEpochTimeMilliKnown = true;
 		this.mStartTimeNano = startTimeNano;
-		this.mEndTimeNano = endTimeNano;
+		this.mEndTimeNano = UNKNOWN;
+		this.mEndTimeNanoKnown = false;
 	}
 
 	@Deprecated
@@ -176,12 +195,11 @@ public class TimingInfo {
 
 	@Deprecated
 	public final long getStartEpochTimeMilli() {
-		Long v = getStartEpochTimeMilliIfKnown();
-		return v == null ? UNKNOWN : v.longValue();
+		return mStartEpochTimeMilliKnown ? mStartEpochTimeMilli : UNKNOWN;
 	}
 
 	public final Long getStartEpochTimeMilliIfKnown() {
-		return mStartEpochTimeMilli;
+		return mStartEpochTimeMilliKnown ? Long.valueOf(mStartEpochTimeMilli) : null;
 	}
 
 	public final long getStartTimeNano() {
@@ -202,23 +220,22 @@ public class TimingInfo {
 	public final Long getEndEpochTimeMilliIfKnown() {
 		return isStartEpochTimeMilliKnown() && isEndTimeKnown()
 				// make use of the wall clock time and elpased time
-				? mStartEpochTimeMilli.longValue()
-						+ TimeUnit.NANOSECONDS.toMillis(mEndTimeNano.longValue() - mStartTimeNano)
+				? Long.valueOf(mStartEpochTimeMilli
+						+ TimeUnit.NANOSECONDS.toMillis(mEndTimeNano - mStartTimeNano))
 				: null;
 	}
 
 	public final long getEndTimeNano() {
-		return mEndTimeNano == null ? UNKNOWN : mEndTimeNano;
+		return mEndTimeNanoKnown ? mEndTimeNano : UNKNOWN;
 	}
 
 	public final Long getEndTimeNanoIfKnown() {
-		return mEndTimeNano;
+		return mEndTimeNanoKnown ? Long.valueOf(mEndTimeNano) : null;
 	}
 
 	@Deprecated
 	public final double getTimeTakenMillis() {
-		Double v = getTimeTakenMillisIfKnown();
-		return v == null ? UNKNOWN : v.doubleValue();
+		return isEndTimeKnown() ? durationMilliOf(mStartTimeNano, mEndTimeNano) : UNKNOWN;
 	}
 
 	public final Double getTimeTakenMillisIfKnown() {
@@ -244,16 +261,15 @@ public class TimingInfo {
 
 	@Deprecated
 	public final long getElapsedTimeMillis() {
-		Double v = getTimeTakenMillisIfKnown();
-		return v == null ? UNKNOWN : v.longValue();
+		return isEndTimeKnown() ? (long) durationMilliOf(mStartTimeNano, mEndTimeNano) : UNKNOWN;
 	}
 
 	public final boolean isEndTimeKnown() {
-		return mEndTimeNano != null;
+		return mEndTimeNanoKnown;
 	}
 
 	public final boolean isStartEpochTimeMilliKnown() {
-		return mStartEpochTimeMilli != null;
+		return mStartEpochTimeMilliKnown;
 	}
 
 	public final String toString() {
@@ -262,15 +278,18 @@ public class TimingInfo {
 
 	@Deprecated
 	public void setEndTime(long endTimeMilli) {
-		this.mEndTimeNano = Long.valueOf(TimeUnit.MILLISECONDS.toNanos(endTimeMilli));
+		this.mEndTimeNano = TimeUnit.MILLISECONDS.toNanos(endTimeMilli);
+		this.mEndTimeNanoKnown = true;
 	}
 
 	public void setEndTimeNano(long endTimeNano) {
 		this.mEndTimeNano = endTimeNano;
+		this.mEndTimeNanoKnown = true;
 	}
 
 	public TimingInfo endTiming() {
-		this.mEndTimeNano = Long.valueOf(System.nanoTime());
+		this.mEndTimeNano = System.nanoTime();
+		this.mEndTimeNanoKnown = true;
 		return this;
 	}
 
@@ -0,0 +1,167 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.transform;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.lpezet.antiope.APIClientException;
+
+/**
+ * Iterator over the elements of a list in a response, unmarshalled one at a
+ * time while the response is being read, instead of all of them before the
+ * response is returned.
+ * <p>
+ * Resources (parser, response content and with it the HTTP connection) are
+ * released as soon as the last element has been read, or when closed, or if
+ * unmarshalling fails. Callers not iterating to the end must close it:
+ * 
+ * <pre>
+ * ElementIterator&lt;Place&gt; places = client.getPlaces(...);
+ * try {
+ *     while (places.hasNext()) { ... }
+ * } finally {
+ *     places.close();
+ * }
+ * </pre>
+ * 
+ * Not thread-safe.
+ * 
+ * @author luc
+ */
+public abstract class ElementIterator<E> implements Iterator<E>, Closeable {
+
+	private static final Logger		LOGGER		= LoggerFactory.getLogger(ElementIterator.class);
+
+	private final List<Closeable>	mResources	= new ArrayList<Closeable>(2);
+	private E						mNext;
+	private boolean					mFetched;
+	private boolean					mClosed;
+
+	/**
+	 * Reads the next element.
+	 * 
+	 * @return next element, or null when there is none left.
+	 * @throws Exception
+	 *             when reading or unmarshalling fails.
+	 */
+	protected abstract E fetch() throws Exception;
+
+	/**
+	 * Adds a resource to close once iteration is finished. Resources are
+	 * closed in the reverse order they were added.
+	 * 
+	 * @param pResource
+	 *            resource to close.
+	 */
+	public void addResource(Closeable pResource) {
+		if (mClosed) {
+			closeQuietly(pResource);
+		} else {
+			mResources.add(pResource);
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!mFetched && !mClosed) {
+			try {
+				mNext = fetch();
+			} catch (Exception e) {
+				closeQuietly(this);
+				throw new APIClientException("Unable to unmarshall response element (" + e.getMessage() + ")", e);
+			}
+			mFetched = true;
+			if (mNext == null) closeQuietly(this);
+		}
+		return mNext != null;
+	}
+
+	@Override
+	public E next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		E oNext = mNext;
+		mNext = null;
+		mFetched = false;
+		return oNext;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public boolean isClosed() {
+		return mClosed;
+	}
+
+	/**
+	 * Releases the parser and the response content, aborting the connection
+	 * if it has not been fully read. Can be called more than once.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (mClosed) return;
+		mClosed = true;
+		mNext = null;
+		IOException oFirst = null;
+		for (int i = mResources.size() - 1; i >= 0; i--) {
+			try {
+				mResources.get(i).close();
+			} catch (IOException e) {
+				if (oFirst == null) oFirst = e;
+			}
+		}
+		mResources.clear();
+		if (oFirst != null) throw oFirst;
+	}
+
+	private static void closeQuietly(Closeable pResource) {
+		try {
+			pResource.close();
+		} catch (IOException e) {
+			LOGGER.warn("Error releasing response resources.", e);
+		}
+	}
+
+	/**
+	 * Finds out whether the given unmarshaller streams (see
+	 * {@link StreamingUnmarshaller}), looking through
+	 * {@link StaxCursorUnmarshallerAdapter}.
+	 * 
+	 * @param pUnmarshaller
+	 *            unmarshaller
+	 * @return true if streaming.
+	 */
+	public static boolean isStreaming(Unmarshaller<?, ?> pUnmarshaller) {
+		if (pUnmarshaller instanceof StaxCursorUnmarshallerAdapter) return isStreaming(((StaxCursorUnmarshallerAdapter<?>) pUnmarshaller).getUnmarshaller());
+		return pUnmarshaller instanceof StreamingUnmarshaller;
+	}
+}
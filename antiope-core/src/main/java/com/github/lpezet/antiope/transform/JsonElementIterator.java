@@ -0,0 +1,96 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.transform;
+
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Iterates over the elements of the arrays of a given field in a JSON
+ * response, each unmarshalled by the given unmarshaller when reached.
+ * <p>
+ * The element unmarshaller is called with the context on the first token of
+ * the element (START_OBJECT for objects) and must read up to its last one
+ * (the matching END_OBJECT).
+ * 
+ * @author luc
+ */
+public class JsonElementIterator<E> extends ElementIterator<E> {
+
+	private final JsonUnmarshallerContext					mContext;
+	private final String									mField;
+	private final Unmarshaller<E, JsonUnmarshallerContext>	mElementUnmarshaller;
+	private boolean											mInArray;
+
+	/**
+	 * @param pContext
+	 *            context of the response.
+	 * @param pField
+	 *            name of the array field (e.g. "Items"), or "." for the first
+	 *            array found (e.g. a top-level one).
+	 * @param pElementUnmarshaller
+	 *            unmarshaller of one element.
+	 */
+	public JsonElementIterator(JsonUnmarshallerContext pContext, String pField, Unmarshaller<E, JsonUnmarshallerContext> pElementUnmarshaller) {
+		mContext = pContext;
+		mField = pField;
+		mElementUnmarshaller = pElementUnmarshaller;
+	}
+
+	@Override
+	protected E fetch() throws Exception {
+		while (true) {
+			JsonToken oToken = mContext.nextToken();
+			if (oToken == null) return null;
+			if (mInArray) {
+				// elements are read whole: anything else than an element start is the end of the array
+				if (oToken == JsonToken.END_ARRAY) {
+					mInArray = false;
+				} else {
+					return mElementUnmarshaller.unmarshall(mContext);
+				}
+			} else if (oToken == JsonToken.START_ARRAY && mContext.testExpression(mField)) {
+				mInArray = true;
+			}
+		}
+	}
+
+	/**
+	 * Creates an unmarshaller returning a {@link JsonElementIterator}, to be
+	 * given to a response handler as is.
+	 * 
+	 * @param pField
+	 *            name of the array field (e.g. "Items"), or "." for the first
+	 *            array found.
+	 * @param pElementUnmarshaller
+	 *            unmarshaller of one element.
+	 * @return streaming unmarshaller.
+	 */
+	public static <E> StreamingUnmarshaller<E, JsonUnmarshallerContext> unmarshaller(final String pField, final Unmarshaller<E, JsonUnmarshallerContext> pElementUnmarshaller) {
+		return new StreamingUnmarshaller<E, JsonUnmarshallerContext>() {
+			@Override
+			public ElementIterator<E> unmarshall(JsonUnmarshallerContext pContext) throws Exception {
+				return new JsonElementIterator<E>(pContext, pField, pElementUnmarshaller);
+			}
+		};
+	}
+}
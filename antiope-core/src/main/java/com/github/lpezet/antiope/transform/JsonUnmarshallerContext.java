@@ -23,10 +23,10 @@ import static com.fasterxml.jackson.core.JsonToken.START_OBJECT;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
@@ -48,7 +48,9 @@ public class JsonUnmarshallerContext {
     private final JsonParser jsonParser;
 
     /**
-     * A stack of JsonFieldTokenPair objects that indicates the current state of the context.
+     * The stack of field names that indicates the current state of the context,
+     * with, for each of them, whether it opened an array (START_ARRAY) or an
+     * object (START_OBJECT).
      * For example, if we have a JSON object:
      * { 
      *   A :
@@ -62,22 +64,29 @@ public class JsonUnmarshallerContext {
      *       ]
      *     }
      * }
-     * When the parser points to "D", the state of this stack should be (from top to bottom):
-     *  [ (C, START_OBJECT), (B, START_ARRAY), (A, START_OBJECT) ]
+     * When the parser points to "D", the state of this stack should be (from bottom to top):
+     *  [ (A, START_OBJECT), (B, START_ARRAY), (C, START_OBJECT) ]
+     * <p>
+     * It is kept in plain arrays (an unsynchronized deque): pushing and
+     * popping allocates nothing, and the field names, as canonicalized by
+     * Jackson, are kept as is.
      */
-    private final Stack<JsonFieldTokenPair> stack = new Stack<JsonFieldTokenPair>();
+    private String[] fields = new String[16];
+    private boolean[] arrays = new boolean[16];
+    private int depth;
 
     /**
      * The name of the field that is currently being parsed. This value is
      * nulled out when the parser reaches into the object/array structure of the
-     * corresponding value, and then it will be pushed into the stack after
-     * wrapped into a JsonFieldTokenPair object with the START_OBJECT or
-     * START_ARRAY token following it. 
+     * corresponding value, and then it will be pushed into the stack 
+     * with the START_OBJECT or START_ARRAY token following it. 
      * So in the same example as shown above:
      *   (1) when the parser moves from "C" to "{", (currentField, START_OBJECT)
      *       will be pushed into the stack and currentField will be set null;
      *   (2) but when it moves from "{" to "C", nothing will be pushed into the 
      *       stack and only currentField will be updated from null to "D".
+     * When not null, it is also kept in fields[depth], right above the stack,
+     * so the whole path can be matched against path expressions.
      */
     private String currentField;
     
@@ -92,6 +101,10 @@ public class JsonUnmarshallerContext {
 
     private final HttpResponse httpResponse;
 
+    private PathExpressions pathExpressions;
+    private int pathId = UNKNOWN_PATH_ID;
+    private static final int UNKNOWN_PATH_ID = -2;
+
 
     public JsonUnmarshallerContext(JsonParser jsonParser) {
         this(jsonParser, null);
@@ -131,9 +144,7 @@ public class JsonUnmarshallerContext {
      *         document being parsed.
      */
     public int getCurrentDepth() {
-        int depth = stack.size();
-        if (currentField != null) depth++;
-        return depth;
+        return currentField != null ? depth + 1 : depth;
     }
 
     /**
@@ -180,15 +191,56 @@ public class JsonUnmarshallerContext {
         if (expression.equals(".")) {
             return true;
         } else {
+            // field names are canonicalized (and interned by default) by Jackson,
+            // so equals() mostly ends on its reference comparison
             if (currentField != null) {
                 return currentField.equals(expression);
             } else {
-                return (!stack.isEmpty())
-                        && stack.peek().getField().equals(expression);
+                return depth > 0 && fields[depth - 1].equals(expression);
             }
         }
     }
 
+    /**
+     * Tests a registered expression (see {@link #setPathExpressions(PathExpressions)})
+     * against the current position in the JSON document being parsed.
+     * Expressions are field names, or paths of field names (e.g. "Items/Name").
+     * 
+     * @param expressionId
+     *            identifier of the expression in the path expressions of this context.
+     * @return True if the expression matches the current document position.
+     */
+    public boolean testExpression(int expressionId) {
+        return pathExpressions.matches(expressionId, fields, getCurrentDepth(), null);
+    }
+
+    /**
+     * Returns the identifier of the most specific expression, among the path
+     * expressions of this context, matching the current position in the JSON
+     * document being parsed. It is computed once per token, when first asked.
+     * 
+     * @return identifier of the expression, or {@link PathExpressions#NO_MATCH}.
+     */
+    public int getCurrentPathId() {
+        if (pathId == UNKNOWN_PATH_ID) pathId = pathExpressions == null ? PathExpressions.NO_MATCH : pathExpressions.match(fields, getCurrentDepth(), null);
+        return pathId;
+    }
+
+    public PathExpressions getPathExpressions() {
+        return pathExpressions;
+    }
+
+    /**
+     * Sets the compiled expressions used by {@link #getCurrentPathId()} and
+     * {@link #testExpression(int)}.
+     * 
+     * @param pathExpressions path expressions
+     */
+    public void setPathExpressions(PathExpressions pathExpressions) {
+        this.pathExpressions = pathExpressions;
+        this.pathId = UNKNOWN_PATH_ID;
+    }
+
     /**
      * Returns the name of the JSON field that is the nearest parent of the
      * current context.
@@ -198,8 +250,8 @@ public class JsonUnmarshallerContext {
         String parentElement;
         if (currentField != null) {
             parentElement = currentField;
-        } else if ( !stack.isEmpty() ) {
-            parentElement = stack.peek().getField();
+        } else if (depth > 0) {
+            parentElement = fields[depth - 1];
         } else {
             parentElement = "";
         }
@@ -306,40 +358,56 @@ public class JsonUnmarshallerContext {
 
     private void updateContext() throws IOException {
         lastParsedParentElement = null;
+        pathId = UNKNOWN_PATH_ID;
         if (currentToken == null) return;
 
         if (currentToken == START_OBJECT || currentToken == START_ARRAY) {
             if (currentField != null) {
-                stack.push(new JsonFieldTokenPair(currentField, currentToken));
+                push(currentField, currentToken == START_ARRAY);
                 currentField = null;
             }
         } else if (currentToken == END_OBJECT || currentToken == END_ARRAY) {
-            if (!stack.isEmpty()) {
-                boolean squareBracketsMatch = currentToken == END_ARRAY && stack.peek().getToken() == START_ARRAY;
-                boolean curlyBracketsMatch = currentToken == END_OBJECT && stack.peek().getToken() == START_OBJECT;
+            if (depth > 0) {
+                boolean squareBracketsMatch = currentToken == END_ARRAY && arrays[depth - 1];
+                boolean curlyBracketsMatch = currentToken == END_OBJECT && !arrays[depth - 1];
                 if (squareBracketsMatch || curlyBracketsMatch) {
-                    lastParsedParentElement = stack.pop().getField();
+                    lastParsedParentElement = fields[--depth];
                 }
             }
             currentField = null;
         } else if (currentToken == FIELD_NAME) {
-            String t = jsonParser.getText();
-            currentField = t;
+            currentField = jsonParser.getCurrentName();
+            if (depth == fields.length) grow();
+            fields[depth] = currentField;
+        } else if (!metadataExpressions.isEmpty()) {
+            for (int i = 0; i < metadataExpressions.size(); i++) {
+                MetadataExpression me = metadataExpressions.get(i);
+                if (testExpression(me.expression, me.targetDepth)) {
+                    metadata.put(me.key, readText());
+                }
+            }
         }
     }
 
+    private void push(String field, boolean array) {
+        if (depth == fields.length) grow();
+        fields[depth] = field;
+        arrays[depth] = array;
+        depth++;
+    }
+
+    private void grow() {
+        fields = Arrays.copyOf(fields, fields.length * 2);
+        arrays = Arrays.copyOf(arrays, arrays.length * 2);
+    }
+
     @Override
     public String toString() {
         StringBuilder stackString = new StringBuilder();
 
-        for (JsonFieldTokenPair jsonFieldTokenPair : stack) {
-            stackString.append("/")
-                       .append(jsonFieldTokenPair.getField());
-        }
-
-        if (currentField != null) {
+        for (int i = 0; i < getCurrentDepth(); i++) {
             stackString.append("/")
-                       .append(currentField);
+                       .append(fields[i]);
         }
 
         return stackString.length() == 0 ? "/" : stackString.toString();
@@ -353,37 +421,4 @@ public class JsonUnmarshallerContext {
     public String getLastParsedParentElement() {
         return lastParsedParentElement;
     }
-
-    /**
-     * An immutable class used to indicate a JSON field value followed by a
-     * subsequent JSON token. This inner class should only be used by the
-     * private stack to indicate the current state of the context.
-     */
-    private static class JsonFieldTokenPair {
-        private final String field;
-        private final JsonToken jsonToken;
-        
-        /**
-         * @param fieldString
-         *            Not null.
-         * @param token
-         *            Not null.
-         */
-        public JsonFieldTokenPair(String fieldString, JsonToken token) {
-            field = fieldString;
-            jsonToken = token;
-        }
-        
-        public String getField() {
-            return field;
-        }
-        
-        public JsonToken getToken() {
-            return jsonToken;
-        }
-        
-        public String toString() {
-            return field + ": " + jsonToken.asString();
-        }
-    }
 }
@@ -0,0 +1,222 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.transform;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Set of path expressions compiled once, to be matched against the current
+ * position of an unmarshaller context by identifier rather than by string.
+ * <p>
+ * Expressions are registered once (typically in a static initializer of an
+ * unmarshaller) and get consecutive identifiers, starting at 0, in
+ * registration order. Those can be declared as constants and used in a
+ * <code>switch</code> on {@link StaxCursorUnmarshallerContext#getCurrentPathId()}
+ * (or {@link StaxUnmarshallerContext#getCurrentPathId()}):
+ * 
+ * <pre>
+ * static final PathExpressions PATHS = new PathExpressions("day", "date", "forecast/low");
+ * static final int DAY = 0, DATE = 1, LOW = 2;
+ * ...
+ * context.setPathExpressions(PATHS);
+ * switch (context.getCurrentPathId()) {
+ *     case DAY: ...
+ * }
+ * </pre>
+ * 
+ * Expressions are compiled into a trie of their segments, last segment first,
+ * so finding the expression matching the current position only walks the
+ * path as deep as the longest expression.
+ * <p>
+ * Unlike {@link StaxUnmarshallerContext#testExpression(String)}, segments
+ * are matched as a whole ("ay" does not match "day"). As with it, a last
+ * segment without '@' also matches an attribute of that name, so that
+ * existing expressions can be registered as they are.
+ * <p>
+ * Registering is not thread-safe: register all expressions before sharing
+ * the instance. Matching is thread-safe.
+ * 
+ * @author luc
+ */
+public class PathExpressions {
+
+	/** Returned when no registered expression matches the current position. */
+	public static final int		NO_MATCH		= -1;
+
+	private static final String	ANY				= ".";
+
+	private final Node			mRoot			= new Node();
+	private final List<String>	mExpressions	= new ArrayList<String>();
+	/** Segments of each expression, last segment first. */
+	private final List<String[]>	mSegments		= new ArrayList<String[]>();
+
+	public PathExpressions(String... pExpressions) {
+		for (String e : pExpressions) register(e);
+	}
+
+	/**
+	 * Registers an expression, if not already registered.
+	 * 
+	 * @param pExpression
+	 *            psuedo-xpath expression (e.g. "forecast", "item/@uri" or ".").
+	 * @return identifier of the expression.
+	 */
+	public int register(String pExpression) {
+		int oId = mExpressions.indexOf(pExpression);
+		if (oId >= 0) return oId;
+		oId = mExpressions.size();
+		String[] oSegments = ANY.equals(pExpression) ? new String[0] : reverse(pExpression.split("/"));
+		Node oNode = mRoot;
+		for (int i = 0; i < oSegments.length; i++) {
+			String s = oSegments[i];
+			if (i == 0 && s.startsWith("@")) oNode = oNode.attributeChild(s.substring(1));
+			else oNode = oNode.child(s);
+		}
+		if (oNode.mId == NO_MATCH) oNode.mId = oId;
+		mExpressions.add(pExpression);
+		mSegments.add(oSegments);
+		return oId;
+	}
+
+	public int size() {
+		return mExpressions.size();
+	}
+
+	public String getExpression(int pId) {
+		return mExpressions.get(pId);
+	}
+
+	/**
+	 * Finds the most specific (longest) registered expression matching the
+	 * given position. On an attribute, "@name" expressions are preferred.
+	 * 
+	 * @param pNames
+	 *            names of the elements from the root down to the current one.
+	 * @param pDepth
+	 *            number of names used in <code>pNames</code>.
+	 * @param pAttribute
+	 *            name of the current attribute, or null if not on an
+	 *            attribute.
+	 * @return identifier of the expression, or {@link #NO_MATCH}.
+	 */
+	public int match(String[] pNames, int pDepth, String pAttribute) {
+		if (pAttribute == null) return deepest(mRoot, pNames, pDepth, mRoot.mId);
+		// "@name" expressions first, then "name" ones
+		int oId = deepest(mRoot.getAttribute(pAttribute), pNames, pDepth, NO_MATCH);
+		if (oId != NO_MATCH) return oId;
+		return deepest(mRoot.get(pAttribute), pNames, pDepth, mRoot.mId);
+	}
+
+	/**
+	 * Tests a given registered expression against the given position.
+	 * 
+	 * @param pId
+	 *            identifier of the expression.
+	 * @param pNames
+	 *            names of the elements from the root down to the current one.
+	 * @param pDepth
+	 *            number of names used in <code>pNames</code>.
+	 * @param pAttribute
+	 *            name of the current attribute, or null if not on an
+	 *            attribute.
+	 * @return true if the expression matches.
+	 */
+	public boolean matches(int pId, String[] pNames, int pDepth, String pAttribute) {
+		String[] oSegments = mSegments.get(pId);
+		int oLevel = pDepth;
+		for (int i = 0; i < oSegments.length; i++) {
+			String s = oSegments[i];
+			if (i == 0 && pAttribute != null) {
+				boolean oMatch = s.charAt(0) == '@' ? s.length() == pAttribute.length() + 1 && s.endsWith(pAttribute) : s.equals(pAttribute);
+				if (!oMatch) return false;
+			} else {
+				if (oLevel == 0 || !s.equals(pNames[--oLevel])) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Walks down the trie from the given node along the path, from the
+	 * current element up to the root.
+	 * 
+	 * @return identifier of the deepest expression found, or <code>pDefaultId</code>.
+	 */
+	private static int deepest(Node pNode, String[] pNames, int pLevel, int pDefaultId) {
+		int oId = pDefaultId;
+		Node oNode = pNode;
+		int oLevel = pLevel;
+		while (oNode != null) {
+			if (oNode.mId != NO_MATCH) oId = oNode.mId;
+			if (oLevel == 0) break;
+			oNode = oNode.get(pNames[--oLevel]);
+		}
+		return oId;
+	}
+
+	private static String[] reverse(String[] pSegments) {
+		String[] oReversed = new String[pSegments.length];
+		for (int i = 0; i < pSegments.length; i++) {
+			oReversed[i] = pSegments[pSegments.length - 1 - i];
+		}
+		return oReversed;
+	}
+
+	private static class Node {
+		private Map<String, Node>	mChildren;
+		/** Children for "@name" segments, keyed by name (only used on the root). */
+		private Map<String, Node>	mAttributes;
+		private int					mId	= NO_MATCH;
+
+		private Node get(String pSegment) {
+			return mChildren == null ? null : mChildren.get(pSegment);
+		}
+
+		private Node getAttribute(String pName) {
+			return mAttributes == null ? null : mAttributes.get(pName);
+		}
+
+		private Node attributeChild(String pName) {
+			if (mAttributes == null) mAttributes = new HashMap<String, Node>();
+			Node oChild = mAttributes.get(pName);
+			if (oChild == null) {
+				oChild = new Node();
+				mAttributes.put(pName, oChild);
+			}
+			return oChild;
+		}
+
+		private Node child(String pSegment) {
+			if (mChildren == null) mChildren = new HashMap<String, Node>();
+			Node oChild = mChildren.get(pSegment);
+			if (oChild == null) {
+				oChild = new Node();
+				mChildren.put(pSegment, oChild);
+			}
+			return oChild;
+		}
+	}
+}
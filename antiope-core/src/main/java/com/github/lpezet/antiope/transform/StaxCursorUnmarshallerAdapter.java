@@ -0,0 +1,48 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.transform;
+
+/**
+ * Runs an {@link Unmarshaller} of {@link StaxUnmarshallerContext} on a
+ * {@link StaxCursorUnmarshallerContext}, for unmarshallers not migrated to
+ * the cursor API yet.
+ * 
+ * @author luc
+ */
+public class StaxCursorUnmarshallerAdapter<T> implements Unmarshaller<T, StaxCursorUnmarshallerContext> {
+
+	private final Unmarshaller<T, StaxUnmarshallerContext>	mUnmarshaller;
+
+	public StaxCursorUnmarshallerAdapter(Unmarshaller<T, StaxUnmarshallerContext> pUnmarshaller) {
+		mUnmarshaller = pUnmarshaller;
+	}
+
+	@Override
+	public T unmarshall(StaxCursorUnmarshallerContext pContext) throws Exception {
+		return mUnmarshaller.unmarshall(pContext.asStaxUnmarshallerContext());
+	}
+
+	public Unmarshaller<T, StaxUnmarshallerContext> getUnmarshaller() {
+		return mUnmarshaller;
+	}
+}
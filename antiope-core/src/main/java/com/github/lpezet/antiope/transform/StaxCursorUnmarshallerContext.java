@@ -0,0 +1,456 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.transform;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Unmarshaller context on top of the cursor API of StAX ({@link XMLStreamReader}).
+ * <p>
+ * Unlike {@link StaxUnmarshallerContext}, no object is allocated per token:
+ * {@link #nextToken()} returns the type of the token (one of
+ * {@link XMLStreamConstants}) and the data of the current token is read from
+ * this context. Attributes are reported as {@link XMLStreamConstants#ATTRIBUTE}
+ * tokens following their start element, like with {@link StaxUnmarshallerContext}.
+ * <p>
+ * Existing {@link Unmarshaller}s of {@link StaxUnmarshallerContext} can be
+ * used through {@link #asStaxUnmarshallerContext()}.
+ * 
+ * @author luc
+ */
+public class StaxCursorUnmarshallerContext {
+
+	private final XMLStreamReader		mReader;
+	private final Map<String, String>	mHeaders;
+
+	private String[]					mStack				= new String[16];
+	private int							mDepth;
+	private int							mCurrentToken		= XMLStreamConstants.START_DOCUMENT;
+	private boolean						mStarted;
+
+	/** Index of the current attribute, when the current token is an attribute. */
+	private int							mAttributeIndex		= -1;
+	/** Number of attributes of the last start element still to report. */
+	private int							mAttributeCount;
+	/** Set when readText() consumed the end element, to report it on the next call to nextToken(). */
+	private boolean						mPendingEndElement;
+
+	private final StringBuilder			mText				= new StringBuilder(64);
+
+	private final Map<String, String>	mMetadata			= new HashMap<String, String>();
+	private final List<MetadataExpression>	mMetadataExpressions	= new ArrayList<MetadataExpression>();
+	/** Key under which to store the text of the current element, if it matched a metadata expression. */
+	private String						mMetadataKey;
+
+	private static final int			UNKNOWN_PATH_ID		= -2;
+
+	private PathExpressions				mPathExpressions;
+	private int							mPathId				= UNKNOWN_PATH_ID;
+
+	private StaxUnmarshallerContext		mStaxUnmarshallerContext;
+
+	public StaxCursorUnmarshallerContext(XMLStreamReader pReader) {
+		this(pReader, null);
+	}
+
+	/**
+	 * @param pReader
+	 *            The source of XML tokens for this unmarshalling context.
+	 * @param pHeaders
+	 *            The set of response headers associated with this unmarshaller
+	 *            context.
+	 */
+	public StaxCursorUnmarshallerContext(XMLStreamReader pReader, Map<String, String> pHeaders) {
+		mReader = pReader;
+		mHeaders = pHeaders;
+	}
+
+	/**
+	 * Returns the value of the header with the specified name from the
+	 * response, or null if not present.
+	 * 
+	 * @param pHeader
+	 *            The name of the header to lookup.
+	 * @return The value of the header, or null if not present.
+	 */
+	public String getHeader(String pHeader) {
+		if (mHeaders == null) return null;
+		return mHeaders.get(pHeader);
+	}
+
+	/**
+	 * Moves to the next token and returns its type. Comments, processing
+	 * instructions and ignorable whitespace are skipped.
+	 * 
+	 * @return The type of the new current token, one of {@link XMLStreamConstants}.
+	 * @throws XMLStreamException XMLStreamException
+	 */
+	public int nextToken() throws XMLStreamException {
+		mPathId = UNKNOWN_PATH_ID;
+		if (mAttributeCount > 0) {
+			mAttributeIndex++;
+			mAttributeCount--;
+			return mCurrentToken = XMLStreamConstants.ATTRIBUTE;
+		}
+		mAttributeIndex = -1;
+		if (mPendingEndElement) {
+			mPendingEndElement = false;
+			mMetadataKey = null;
+			mDepth--;
+			return mCurrentToken = XMLStreamConstants.END_ELEMENT;
+		}
+		if (!mStarted) {
+			// The reader starts on START_DOCUMENT: report it first.
+			mStarted = true;
+			return mCurrentToken = mReader.getEventType();
+		}
+		int oToken;
+		do {
+			oToken = mReader.next();
+		} while (oToken == XMLStreamConstants.COMMENT || oToken == XMLStreamConstants.PROCESSING_INSTRUCTION || oToken == XMLStreamConstants.SPACE);
+		switch (oToken) {
+			case XMLStreamConstants.START_ELEMENT:
+				push(mReader.getLocalName());
+				mAttributeCount = mReader.getAttributeCount();
+				mMetadataKey = findMetadataKey();
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				mMetadataKey = null;
+				mDepth--;
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+				oToken = XMLStreamConstants.CHARACTERS;
+				if (mMetadataKey != null) mMetadata.put(mMetadataKey, mReader.getText());
+				break;
+			default:
+				break;
+		}
+		return mCurrentToken = oToken;
+	}
+
+	/**
+	 * Returns the type of the current token.
+	 * 
+	 * @return one of {@link XMLStreamConstants}.
+	 */
+	public int getCurrentToken() {
+		return mCurrentToken;
+	}
+
+	public boolean isStartElement() {
+		return mCurrentToken == XMLStreamConstants.START_ELEMENT;
+	}
+
+	public boolean isEndElement() {
+		return mCurrentToken == XMLStreamConstants.END_ELEMENT;
+	}
+
+	public boolean isAttribute() {
+		return mCurrentToken == XMLStreamConstants.ATTRIBUTE;
+	}
+
+	public boolean isEndDocument() {
+		return mCurrentToken == XMLStreamConstants.END_DOCUMENT;
+	}
+
+	/**
+	 * Returns true if this unmarshaller context is at the very beginning of a
+	 * source document (i.e. no data has been parsed from the document yet).
+	 * 
+	 * @return true if at the beginning of the document.
+	 */
+	public boolean isStartOfDocument() {
+		return !mStarted;
+	}
+
+	/**
+	 * Returns the local name of the current element (started or ended), or of
+	 * the current attribute.
+	 * 
+	 * @return local name.
+	 */
+	public String getLocalName() {
+		switch (mCurrentToken) {
+			case XMLStreamConstants.ATTRIBUTE:
+				return mReader.getAttributeLocalName(mAttributeIndex);
+			case XMLStreamConstants.END_ELEMENT:
+				// already popped, like with StaxUnmarshallerContext
+				return mStack[mDepth];
+			default:
+				return mDepth == 0 ? null : mStack[mDepth - 1];
+		}
+	}
+
+	/**
+	 * Returns the text of the current token: the value of the current
+	 * attribute, the text of the current characters, or the text content of
+	 * the current element (reading up to its end).
+	 * 
+	 * @return The text contents of the current element or attribute.
+	 * @throws XMLStreamException XMLStreamException
+	 */
+	public String readText() throws XMLStreamException {
+		if (mCurrentToken == XMLStreamConstants.ATTRIBUTE) {
+			return mReader.getAttributeValue(mAttributeIndex);
+		}
+		if (mCurrentToken == XMLStreamConstants.CHARACTERS) {
+			return mReader.getText();
+		}
+		// Attributes of the element can not be reported once moved past it.
+		mAttributeCount = 0;
+		mText.setLength(0);
+		while (true) {
+			int oToken = mReader.next();
+			switch (oToken) {
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					mText.append(mReader.getTextCharacters(), mReader.getTextStart(), mReader.getTextLength());
+					break;
+				case XMLStreamConstants.COMMENT:
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					mPendingEndElement = true;
+					String oText = mText.toString();
+					if (mMetadataKey != null) mMetadata.put(mMetadataKey, oText);
+					return oText;
+				default:
+					throw new RuntimeException("Encountered unexpected token: " + oToken);
+			}
+		}
+	}
+
+	/**
+	 * Returns the element depth of the parser's current position in the XML
+	 * document being parsed. As with {@link StaxUnmarshallerContext}, an
+	 * element is no longer counted once its end element is reached.
+	 * 
+	 * @return The element depth.
+	 */
+	public int getCurrentDepth() {
+		return mDepth;
+	}
+
+	/**
+	 * Tests the specified expression against the current position in the XML
+	 * document being parsed. As with {@link StaxUnmarshallerContext}, the
+	 * expression matches if the current path (e.g. "/a/b/@c") ends with it.
+	 * 
+	 * @param pExpression
+	 *            The psuedo-xpath expression to test.
+	 * @return True if the expression matches the current document position.
+	 */
+	public boolean testExpression(String pExpression) {
+		if (pExpression.equals(".")) return true;
+		return pathEndsWith(pExpression, false);
+	}
+
+	/**
+	 * Tests the specified expression against the current position in the XML
+	 * document being parsed, and restricts the expression to matching at the
+	 * specified stack depth.
+	 * 
+	 * @param pExpression
+	 *            The psuedo-xpath expression to test.
+	 * @param pStartingStackDepth
+	 *            The depth in the stack representing where the expression must
+	 *            start matching in order for this method to return true.
+	 * @return True if the specified expression matches the current position in
+	 *         the XML document, starting from the specified depth.
+	 */
+	public boolean testExpression(String pExpression, int pStartingStackDepth) {
+		if (pExpression.equals(".")) return true;
+		// Same depth accounting as StaxUnmarshallerContext: attributes are not a new depth level
+		int oIndex = -1;
+		while ((oIndex = pExpression.indexOf('/', oIndex + 1)) > -1) {
+			if (pExpression.charAt(oIndex + 1) != '@') pStartingStackDepth++;
+		}
+		return pStartingStackDepth == mDepth && pathEndsWith(pExpression, true);
+	}
+
+	/**
+	 * Tests a registered expression (see {@link #setPathExpressions(PathExpressions)})
+	 * against the current position in the XML document being parsed.
+	 * 
+	 * @param pExpressionId
+	 *            identifier of the expression in the path expressions of this context.
+	 * @return True if the expression matches the current document position.
+	 */
+	public boolean testExpression(int pExpressionId) {
+		return mPathExpressions.matches(pExpressionId, mStack, mDepth, getAttributeName());
+	}
+
+	/**
+	 * Returns the identifier of the most specific expression, among the path
+	 * expressions of this context, matching the current position in the XML
+	 * document being parsed. It is computed once per token, when first asked.
+	 * 
+	 * @return identifier of the expression, or {@link PathExpressions#NO_MATCH}.
+	 */
+	public int getCurrentPathId() {
+		if (mPathId == UNKNOWN_PATH_ID) mPathId = mPathExpressions == null ? PathExpressions.NO_MATCH : mPathExpressions.match(mStack, mDepth, getAttributeName());
+		return mPathId;
+	}
+
+	public PathExpressions getPathExpressions() {
+		return mPathExpressions;
+	}
+
+	/**
+	 * Sets the compiled expressions used by {@link #getCurrentPathId()} and
+	 * {@link #testExpression(int)}. Unmarshallers with their own expressions set
+	 * them on entry (and restore the previous ones on exit, if needed).
+	 * 
+	 * @param pPathExpressions path expressions
+	 */
+	public void setPathExpressions(PathExpressions pPathExpressions) {
+		mPathExpressions = pPathExpressions;
+		mPathId = UNKNOWN_PATH_ID;
+	}
+
+	private String getAttributeName() {
+		return mCurrentToken == XMLStreamConstants.ATTRIBUTE ? mReader.getAttributeLocalName(mAttributeIndex) : null;
+	}
+
+	/**
+	 * Same as <code>path.endsWith(pExpression)</code> (or
+	 * <code>path.endsWith("/" + pExpression)</code>) where path would be the
+	 * current path as built by {@link StaxUnmarshallerContext} (e.g.
+	 * "/a/b/@c"), without building it.
+	 */
+	private boolean pathEndsWith(String pExpression, boolean pAtSegmentStart) {
+		int oPos = pExpression.length();
+		if (oPos == 0) return !pAtSegmentStart;
+		int oLevel = mDepth;
+		boolean oAttribute = mCurrentToken == XMLStreamConstants.ATTRIBUTE;
+		while (true) {
+			String oName;
+			if (oAttribute) {
+				oName = mReader.getAttributeLocalName(mAttributeIndex);
+			} else {
+				if (oLevel == 0) return false;
+				oName = mStack[--oLevel];
+			}
+			for (int i = oName.length() - 1; i >= 0; i--) {
+				if (oPos == 0) return !pAtSegmentStart;
+				if (pExpression.charAt(--oPos) != oName.charAt(i)) return false;
+			}
+			if (oAttribute) {
+				if (oPos == 0) return !pAtSegmentStart;
+				if (pExpression.charAt(--oPos) != '@') return false;
+				oAttribute = false;
+			}
+			// segment fully matched: next char of the path is '/'
+			if (oPos == 0) return true;
+			if (pExpression.charAt(--oPos) != '/') return false;
+			if (oPos == 0) return !pAtSegmentStart;
+		}
+	}
+
+	/**
+	 * Returns any metadata collected through metadata expressions while this
+	 * context was reading the XML document.
+	 * 
+	 * @return A map of any metadata collected.
+	 */
+	public Map<String, String> getMetadata() {
+		return mMetadata;
+	}
+
+	/**
+	 * Registers an expression, which if matched, will cause the data for the
+	 * matching element to be stored in the metadata map under the specified
+	 * key.
+	 * 
+	 * @param pExpression
+	 *            The expression an element must match in order for it's data to
+	 *            be pulled out and stored in the metadata map.
+	 * @param pTargetDepth
+	 *            The depth in the XML document where the expression match must
+	 *            start.
+	 * @param pStorageKey
+	 *            The key under which to store the matching element's data.
+	 */
+	public void registerMetadataExpression(String pExpression, int pTargetDepth, String pStorageKey) {
+		mMetadataExpressions.add(new MetadataExpression(pExpression, pTargetDepth, pStorageKey));
+	}
+
+	public XMLStreamReader getReader() {
+		return mReader;
+	}
+
+	/**
+	 * Returns a view of this context for {@link Unmarshaller}s of
+	 * {@link StaxUnmarshallerContext}, sharing the same position in the
+	 * document. Such unmarshallers can then be migrated one by one.
+	 * 
+	 * @return StaxUnmarshallerContext view of this context.
+	 */
+	public StaxUnmarshallerContext asStaxUnmarshallerContext() {
+		if (mStaxUnmarshallerContext == null) mStaxUnmarshallerContext = new StaxCursorUnmarshallerContextBridge(this);
+		return mStaxUnmarshallerContext;
+	}
+
+	private void push(String pLocalName) {
+		if (mDepth == mStack.length) {
+			String[] oStack = new String[mDepth * 2];
+			System.arraycopy(mStack, 0, oStack, 0, mDepth);
+			mStack = oStack;
+		}
+		mStack[mDepth++] = pLocalName;
+	}
+
+	private String findMetadataKey() {
+		for (int i = 0; i < mMetadataExpressions.size(); i++) {
+			MetadataExpression oExpression = mMetadataExpressions.get(i);
+			if (testExpression(oExpression.mExpression, oExpression.mTargetDepth)) return oExpression.mKey;
+		}
+		return null;
+	}
+
+	/**
+	 * Simple container for the details of a metadata expression this
+	 * unmarshaller context is looking for.
+	 */
+	private static class MetadataExpression {
+		private final String	mExpression;
+		private final int		mTargetDepth;
+		private final String	mKey;
+
+		public MetadataExpression(String pExpression, int pTargetDepth, String pKey) {
+			mExpression = pExpression;
+			mTargetDepth = pTargetDepth;
+			mKey = pKey;
+		}
+	}
+}
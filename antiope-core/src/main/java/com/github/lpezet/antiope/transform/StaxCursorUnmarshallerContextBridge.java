@@ -0,0 +1,159 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.transform;
+
+import java.util.Map;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * {@link StaxUnmarshallerContext} backed by a {@link StaxCursorUnmarshallerContext},
+ * so that {@link Unmarshaller}s written against the event API keep working
+ * on top of the cursor API.
+ * <p>
+ * Events are created on demand from the current token of the cursor and only
+ * carry what unmarshallers look at (type, local name, value). The name
+ * stack of the cursor context is used for expressions, not
+ * {@link StaxUnmarshallerContext#mStack}.
+ * 
+ * @author luc
+ */
+class StaxCursorUnmarshallerContextBridge extends StaxUnmarshallerContext {
+
+	private final StaxCursorUnmarshallerContext	mCursorContext;
+	/** XMLEventFactory is not guaranteed to be thread-safe and costly to look up: one per thread. */
+	private static final ThreadLocal<XMLEventFactory>	EVENT_FACTORY	= new ThreadLocal<XMLEventFactory>() {
+		@Override
+		protected XMLEventFactory initialValue() {
+			return XMLEventFactory.newInstance();
+		}
+	};
+
+	private final XMLEventFactory				mEventFactory	= EVENT_FACTORY.get();
+
+	public StaxCursorUnmarshallerContextBridge(StaxCursorUnmarshallerContext pCursorContext) {
+		super(null);
+		mCursorContext = pCursorContext;
+	}
+
+	public StaxCursorUnmarshallerContext getCursorContext() {
+		return mCursorContext;
+	}
+
+	@Override
+	public String getHeader(String pHeader) {
+		return mCursorContext.getHeader(pHeader);
+	}
+
+	@Override
+	public String readText() throws XMLStreamException {
+		return mCursorContext.readText();
+	}
+
+	@Override
+	public int getCurrentDepth() {
+		return mCursorContext.getCurrentDepth();
+	}
+
+	@Override
+	public boolean testExpression(String pExpression) {
+		return mCursorContext.testExpression(pExpression);
+	}
+
+	@Override
+	public boolean testExpression(String pExpression, int pStartingStackDepth) {
+		return mCursorContext.testExpression(pExpression, pStartingStackDepth);
+	}
+
+	@Override
+	public boolean testExpression(int pExpressionId) {
+		return mCursorContext.testExpression(pExpressionId);
+	}
+
+	@Override
+	public int getCurrentPathId() {
+		return mCursorContext.getCurrentPathId();
+	}
+
+	@Override
+	public PathExpressions getPathExpressions() {
+		return mCursorContext.getPathExpressions();
+	}
+
+	@Override
+	public void setPathExpressions(PathExpressions pPathExpressions) {
+		mCursorContext.setPathExpressions(pPathExpressions);
+	}
+
+	@Override
+	public boolean isStartOfDocument() throws XMLStreamException {
+		return mCursorContext.isStartOfDocument();
+	}
+
+	@Override
+	public XMLEvent nextEvent() throws XMLStreamException {
+		int oToken = mCursorContext.nextToken();
+		switch (oToken) {
+			case XMLStreamConstants.START_ELEMENT:
+				return mEventFactory.createStartElement("", "", mCursorContext.getLocalName());
+			case XMLStreamConstants.END_ELEMENT:
+				return mEventFactory.createEndElement("", "", mCursorContext.getLocalName());
+			case XMLStreamConstants.ATTRIBUTE:
+				return mEventFactory.createAttribute(mCursorContext.getLocalName(), mCursorContext.readText());
+			case XMLStreamConstants.CHARACTERS:
+				return mEventFactory.createCharacters(mCursorContext.readText());
+			case XMLStreamConstants.START_DOCUMENT:
+				return mEventFactory.createStartDocument();
+			case XMLStreamConstants.END_DOCUMENT:
+				return mEventFactory.createEndDocument();
+			case XMLStreamConstants.DTD:
+				return mEventFactory.createDTD(mCursorContext.getReader().getText());
+			default:
+				return mEventFactory.createSpace("");
+		}
+	}
+
+	@Override
+	public Map<String, String> getMetadata() {
+		return mCursorContext.getMetadata();
+	}
+
+	@Override
+	public void registerMetadataExpression(String pExpression, int pTargetDepth, String pStorageKey) {
+		mCursorContext.registerMetadataExpression(pExpression, pTargetDepth, pStorageKey);
+	}
+
+	/**
+	 * There is no event reader behind this context.
+	 * 
+	 * @return null
+	 */
+	@Override
+	public XMLEventReader getEventReader() {
+		return null;
+	}
+}
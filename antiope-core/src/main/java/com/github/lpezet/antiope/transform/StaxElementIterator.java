@@ -0,0 +1,96 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.transform;
+
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Iterates over the elements matching an expression in a StAX response,
+ * each unmarshalled by the given unmarshaller when reached.
+ * <p>
+ * The element unmarshaller is called with the context on the start of the
+ * element, like any unmarshaller of a list member, and must read up to the
+ * end of that element.
+ * 
+ * @author luc
+ */
+public class StaxElementIterator<E> extends ElementIterator<E> {
+
+	private final StaxUnmarshallerContext			mContext;
+	private final String							mExpression;
+	private final int								mDepth;
+	private final Unmarshaller<E, StaxUnmarshallerContext>	mElementUnmarshaller;
+
+	/**
+	 * @param pContext
+	 *            context of the response.
+	 * @param pExpression
+	 *            expression of the elements (e.g. "results/place").
+	 * @param pDepth
+	 *            depth where the expression must start matching (as for
+	 *            {@link StaxUnmarshallerContext#testExpression(String, int)}),
+	 *            or -1 for any depth.
+	 * @param pElementUnmarshaller
+	 *            unmarshaller of one element.
+	 */
+	public StaxElementIterator(StaxUnmarshallerContext pContext, String pExpression, int pDepth, Unmarshaller<E, StaxUnmarshallerContext> pElementUnmarshaller) {
+		mContext = pContext;
+		mExpression = pExpression;
+		mDepth = pDepth;
+		mElementUnmarshaller = pElementUnmarshaller;
+	}
+
+	@Override
+	protected E fetch() throws Exception {
+		while (true) {
+			XMLEvent oEvent = mContext.nextEvent();
+			if (oEvent.isEndDocument()) return null;
+			if (oEvent.isStartElement() && (mDepth < 0 ? mContext.testExpression(mExpression) : mContext.testExpression(mExpression, mDepth))) {
+				return mElementUnmarshaller.unmarshall(mContext);
+			}
+		}
+	}
+
+	/**
+	 * Creates an unmarshaller returning a {@link StaxElementIterator}, to be
+	 * given to a response handler as is.
+	 * 
+	 * @param pExpression
+	 *            expression of the elements (e.g. "results/place").
+	 * @param pDepth
+	 *            depth where the expression must start matching (as for
+	 *            {@link StaxUnmarshallerContext#testExpression(String, int)}),
+	 *            or -1 for any depth.
+	 * @param pElementUnmarshaller
+	 *            unmarshaller of one element.
+	 * @return streaming unmarshaller.
+	 */
+	public static <E> StreamingUnmarshaller<E, StaxUnmarshallerContext> unmarshaller(final String pExpression, final int pDepth, final Unmarshaller<E, StaxUnmarshallerContext> pElementUnmarshaller) {
+		return new StreamingUnmarshaller<E, StaxUnmarshallerContext>() {
+			@Override
+			public ElementIterator<E> unmarshall(StaxUnmarshallerContext pContext) throws Exception {
+				return new StaxElementIterator<E>(pContext, pExpression, pDepth, pElementUnmarshaller);
+			}
+		};
+	}
+}
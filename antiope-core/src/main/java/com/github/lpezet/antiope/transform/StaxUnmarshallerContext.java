@@ -45,6 +45,17 @@ public class StaxUnmarshallerContext {
     private Iterator<?> mAttributeIterator;
     private final Map<String, String> mHeaders;
 
+    /** Names of the elements in mStack, for path expressions. */
+    private String[] mNames = new String[16];
+    /** Paths ("/a/b") of the elements in mStack, to restore mStackString on end elements. */
+    private String[] mPaths = new String[16];
+    /** Local name of the current attribute, if the current event is one. */
+    private String mAttributeName;
+
+    private static final int UNKNOWN_PATH_ID = -2;
+    private PathExpressions mPathExpressions;
+    private int mPathId = UNKNOWN_PATH_ID;
+
     /**
      * Constructs a new unmarshaller context using the specified source of XML events.
      *
@@ -167,6 +178,46 @@ public class StaxUnmarshallerContext {
                 && mStackString.endsWith("/" + pExpression));
     }
 
+    /**
+     * Tests a registered expression (see {@link #setPathExpressions(PathExpressions)})
+     * against the current position in the XML document being parsed.
+     *
+     * @param pExpressionId
+     *            identifier of the expression in the path expressions of this context.
+     * @return True if the expression matches the current document position,
+     *         otherwise false.
+     */
+    public boolean testExpression(int pExpressionId) {
+        return mPathExpressions.matches(pExpressionId, mNames, mStack.size(), mAttributeName);
+    }
+
+    /**
+     * Returns the identifier of the most specific expression, among the path
+     * expressions of this context, matching the current position in the XML
+     * document being parsed. It is computed once per event, when first asked.
+     *
+     * @return identifier of the expression, or {@link PathExpressions#NO_MATCH}.
+     */
+    public int getCurrentPathId() {
+        if (mPathId == UNKNOWN_PATH_ID) mPathId = mPathExpressions == null ? PathExpressions.NO_MATCH : mPathExpressions.match(mNames, mStack.size(), mAttributeName);
+        return mPathId;
+    }
+
+    public PathExpressions getPathExpressions() {
+        return mPathExpressions;
+    }
+
+    /**
+     * Sets the compiled expressions used by {@link #getCurrentPathId()} and
+     * {@link #testExpression(int)}.
+     *
+     * @param pPathExpressions path expressions
+     */
+    public void setPathExpressions(PathExpressions pPathExpressions) {
+        mPathExpressions = pPathExpressions;
+        mPathId = UNKNOWN_PATH_ID;
+    }
+
     /**
      * Returns true if this unmarshaller context is at the very beginning of a
      * source document (i.e. no data has been parsed from the document yet).
@@ -271,22 +322,32 @@ public class StaxUnmarshallerContext {
     private void updateContext(XMLEvent pEvent) {
         if (pEvent == null) return;
 
+        mPathId = UNKNOWN_PATH_ID;
+        mAttributeName = null;
         if (pEvent.isEndElement()) {
             mStack.pop();
-            mStackString = "";
-            for (String s : mStack) {
-                mStackString += "/" + s;
-            }
+            int oDepth = mStack.size();
+            mStackString = oDepth == 0 ? "" : mPaths[oDepth - 1];
         } else if (pEvent.isStartElement()) {
-            mStack.push(pEvent.asStartElement().getName().getLocalPart());
-            mStackString += "/" + pEvent.asStartElement().getName().getLocalPart();
+            String oName = pEvent.asStartElement().getName().getLocalPart();
+            int oDepth = mStack.size();
+            mStack.push(oName);
+            mStackString += "/" + oName;
+            if (oDepth == mNames.length) {
+                String[] oNames = new String[oDepth * 2];
+                System.arraycopy(mNames, 0, oNames, 0, oDepth);
+                mNames = oNames;
+                String[] oPaths = new String[oDepth * 2];
+                System.arraycopy(mPaths, 0, oPaths, 0, oDepth);
+                mPaths = oPaths;
+            }
+            mNames[oDepth] = oName;
+            mPaths[oDepth] = (oDepth == 0 ? "" : mPaths[oDepth - 1]) + "/" + oName;
         } else if (pEvent.isAttribute()) {
             Attribute attribute = (Attribute)pEvent;
-            mStackString = "";
-            for (String s : mStack) {
-                mStackString += "/" + s;
-            }
-            mStackString += "/@" + attribute.getName().getLocalPart();
+            mAttributeName = attribute.getName().getLocalPart();
+            int oDepth = mStack.size();
+            mStackString = (oDepth == 0 ? "" : mPaths[oDepth - 1]) + "/@" + mAttributeName;
         }
     }
 
@@ -0,0 +1,53 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory creating named daemon threads, so background work from
+ * the clients never prevents the JVM from exiting.
+ * 
+ * @author luc
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+	private final AtomicInteger	mCount	= new AtomicInteger();
+	private final String		mPrefix;
+
+	/**
+	 * @param pPrefix
+	 *            prefix of the name of the threads created.
+	 */
+	public DaemonThreadFactory(String pPrefix) {
+		mPrefix = pPrefix;
+	}
+
+	@Override
+	public Thread newThread(Runnable pRunnable) {
+		Thread oThread = new Thread(pRunnable, mPrefix + "-" + mCount.incrementAndGet());
+		oThread.setDaemon(true);
+		return oThread;
+	}
+}
@@ -15,12 +15,20 @@
 package com.github.lpezet.antiope.util;
 
 import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.SimpleTimeZone;
 
 /**
+ * Parses and formats the date formats used by APIs.
+ * <p>
+ * The common forms (UTC, 4-digit years after 1582, fields in range) are
+ * parsed and formatted by hand, without locking or exceptions. Anything else
+ * falls back to the original {@link SimpleDateFormat}s (lenient, locked), so
+ * results are the same as before. Instances are thread-safe.
+ * 
  * @author luc
  *
  */
@@ -40,6 +48,20 @@ public class DateUtils {
      */
     protected final SimpleDateFormat compressedIso8601DateFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
 
+    private static final String[] DAYS = { "Thu", "Fri", "Sat", "Sun", "Mon", "Tue", "Wed" }; // from 1970-01-01
+
+    private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /** 1583-01-01T00:00:00Z */
+    private static final long MIN_FORMATTABLE = daysFromCivil(1583, 1, 1) * MILLIS_PER_DAY;
+    /** 10000-01-01T00:00:00Z */
+    private static final long MAX_FORMATTABLE = daysFromCivil(10000, 1, 1) * MILLIS_PER_DAY;
+
+    /** Returned by the fast paths when the string has to go through SimpleDateFormat. */
+    private static final long NOT_PARSED = Long.MIN_VALUE;
+
     /**
      * Constructs a new DateUtils object, ready to parse/format dates.
      */
@@ -63,16 +85,18 @@ public class DateUtils {
      *             If the date string could not be parsed.
      */
     public Date parseIso8601Date(String dateString) throws ParseException {
-        try {
-            synchronized (iso8601DateFormat) {
-                return iso8601DateFormat.parse(dateString);
-            }
-        } catch (ParseException e) {
-            // If the first ISO 8601 parser didn't work, try the alternate
-            // version which doesn't include fractional seconds
-            synchronized (alternateIso8601DateFormat) {
-                return alternateIso8601DateFormat.parse(dateString);
-            }
+        long oTime = fastParseIso8601(dateString);
+        if (oTime != NOT_PARSED) return new Date(oTime);
+
+        Date oDate;
+        synchronized (iso8601DateFormat) {
+            oDate = iso8601DateFormat.parse(dateString, new ParsePosition(0));
+        }
+        if (oDate != null) return oDate;
+        // If the first ISO 8601 parser didn't work, try the alternate
+        // version which doesn't include fractional seconds
+        synchronized (alternateIso8601DateFormat) {
+            return alternateIso8601DateFormat.parse(dateString);
         }
     }
 
@@ -85,6 +109,19 @@ public class DateUtils {
      * @return The ISO 8601 string representing the specified date.
      */
     public String formatIso8601Date(Date date) {
+        long oTime = date.getTime();
+        if (isFormattable(oTime)) {
+            long oDays = floorDiv(oTime, MILLIS_PER_DAY);
+            int oMillisOfDay = (int) (oTime - oDays * MILLIS_PER_DAY);
+            char[] oChars = new char[24];
+            writeDate(oChars, 0, oDays);
+            oChars[10] = 'T';
+            writeTime(oChars, 11, oMillisOfDay);
+            oChars[19] = '.';
+            write(oChars, 20, oMillisOfDay % 1000, 3);
+            oChars[23] = 'Z';
+            return new String(oChars);
+        }
         synchronized (iso8601DateFormat) {
             return iso8601DateFormat.format(date);
         }
@@ -103,6 +140,8 @@ public class DateUtils {
      *             If the date string could not be parsed.
      */
     public Date parseRfc822Date(String dateString) throws ParseException {
+        long oTime = fastParseRfc822(dateString);
+        if (oTime != NOT_PARSED) return new Date(oTime);
         synchronized (rfc822DateFormat) {
             return rfc822DateFormat.parse(dateString);
         }
@@ -117,6 +156,26 @@ public class DateUtils {
      * @return The RFC 822 string representing the specified date.
      */
     public String formatRfc822Date(Date date) {
+        long oTime = date.getTime();
+        if (isFormattable(oTime)) {
+            long oDays = floorDiv(oTime, MILLIS_PER_DAY);
+            int oMillisOfDay = (int) (oTime - oDays * MILLIS_PER_DAY);
+            // EEE, dd MMM yyyy HH:mm:ss GMT
+            char[] oChars = new char[29];
+            DAYS[(int) floorMod(oDays, 7)].getChars(0, 3, oChars, 0);
+            oChars[3] = ',';
+            oChars[4] = ' ';
+            int[] oYMD = civilFromDays(oDays);
+            write(oChars, 5, oYMD[2], 2);
+            oChars[7] = ' ';
+            MONTHS[oYMD[1] - 1].getChars(0, 3, oChars, 8);
+            oChars[11] = ' ';
+            write(oChars, 12, oYMD[0], 4);
+            oChars[16] = ' ';
+            writeTime(oChars, 17, oMillisOfDay);
+            " GMT".getChars(0, 4, oChars, 25);
+            return new String(oChars);
+        }
         synchronized (rfc822DateFormat) {
             return rfc822DateFormat.format(date);
         }
@@ -135,9 +194,186 @@ public class DateUtils {
      *             If the date string could not be parsed.
      */
     public Date parseCompressedIso8601Date(String dateString) throws ParseException {
+        long oTime = fastParseCompressedIso8601(dateString);
+        if (oTime != NOT_PARSED) return new Date(oTime);
         synchronized (compressedIso8601DateFormat) {
             return compressedIso8601DateFormat.parse(dateString);
         }
     }
 
+    /**
+     * yyyy-MM-dd'T'HH:mm:ss'Z' or yyyy-MM-dd'T'HH:mm:ss.SSS'Z'
+     */
+    private static long fastParseIso8601(String s) {
+        int oLength = s.length();
+        if (oLength != 20 && oLength != 24) return NOT_PARSED;
+        if (s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T' || s.charAt(13) != ':' || s.charAt(16) != ':' || s.charAt(oLength - 1) != 'Z') return NOT_PARSED;
+        int oMillis = 0;
+        if (oLength == 24) {
+            if (s.charAt(19) != '.') return NOT_PARSED;
+            oMillis = digits(s, 20, 3);
+        }
+        return toEpochMillis(digits(s, 0, 4), digits(s, 5, 2), digits(s, 8, 2), digits(s, 11, 2), digits(s, 14, 2), digits(s, 17, 2), oMillis);
+    }
+
+    /**
+     * yyyyMMdd'T'HHmmss'Z'
+     */
+    private static long fastParseCompressedIso8601(String s) {
+        if (s.length() != 16 || s.charAt(8) != 'T' || s.charAt(15) != 'Z') return NOT_PARSED;
+        return toEpochMillis(digits(s, 0, 4), digits(s, 4, 2), digits(s, 6, 2), digits(s, 9, 2), digits(s, 11, 2), digits(s, 13, 2), 0);
+    }
+
+    /**
+     * EEE, d[d] MMM yyyy HH:mm:ss (GMT|UTC|+hhmm|-hhmm)
+     */
+    private static long fastParseRfc822(String s) {
+        int oLength = s.length();
+        if (oLength < 28 || s.charAt(3) != ',' || s.charAt(4) != ' ' || indexOf(DAYS, s, 0) < 0) return NOT_PARSED;
+        int i;
+        int oDay;
+        if (s.charAt(6) == ' ') {
+            oDay = digits(s, 5, 1);
+            i = 7;
+        } else {
+            if (s.charAt(7) != ' ') return NOT_PARSED;
+            oDay = digits(s, 5, 2);
+            i = 8;
+        }
+        if (oLength - i != 21 && oLength - i != 23) return NOT_PARSED;
+        int oMonth = indexOf(MONTHS, s, i) + 1;
+        if (oMonth == 0 || s.charAt(i + 3) != ' ' || s.charAt(i + 8) != ' ' || s.charAt(i + 11) != ':' || s.charAt(i + 14) != ':' || s.charAt(i + 17) != ' ') return NOT_PARSED;
+        int oOffsetMinutes;
+        if (oLength - i == 21) {
+            if (!s.regionMatches(i + 18, "GMT", 0, 3) && !s.regionMatches(i + 18, "UTC", 0, 3)) return NOT_PARSED;
+            oOffsetMinutes = 0;
+        } else {
+            char oSign = s.charAt(i + 18);
+            if (oSign != '+' && oSign != '-') return NOT_PARSED;
+            int oHours = digits(s, i + 19, 2);
+            int oMinutes = digits(s, i + 21, 2);
+            if (oHours < 0 || oMinutes < 0 || oHours > 23 || oMinutes > 59) return NOT_PARSED;
+            oOffsetMinutes = (oHours * 60 + oMinutes) * (oSign == '-' ? -1 : 1);
+        }
+        long oTime = toEpochMillis(digits(s, i + 4, 4), oMonth, oDay, digits(s, i + 9, 2), digits(s, i + 12, 2), digits(s, i + 15, 2), 0);
+        if (oTime == NOT_PARSED) return NOT_PARSED;
+        return oTime - oOffsetMinutes * 60000L;
+    }
+
+    /**
+     * @return milliseconds since epoch, or NOT_PARSED if a field is missing
+     *         (negative) or out of range (left to lenient SimpleDateFormat).
+     */
+    private static long toEpochMillis(int pYear, int pMonth, int pDay, int pHour, int pMinute, int pSecond, int pMillis) {
+        // Before the Gregorian cutover, GregorianCalendar uses the Julian calendar
+        if (pYear < 1583 || pMonth < 1 || pMonth > 12 || pDay < 1 || pDay > daysInMonth(pYear, pMonth)) return NOT_PARSED;
+        if (pHour < 0 || pHour > 23 || pMinute < 0 || pMinute > 59 || pSecond < 0 || pSecond > 59 || pMillis < 0) return NOT_PARSED;
+        long oDays = daysFromCivil(pYear, pMonth, pDay);
+        return oDays * MILLIS_PER_DAY + ((pHour * 60 + pMinute) * 60 + pSecond) * 1000L + pMillis;
+    }
+
+    /**
+     * @return the number made of the given digits, or -1 if not all digits.
+     */
+    private static int digits(String s, int pStart, int pCount) {
+        int oValue = 0;
+        for (int i = pStart; i < pStart + pCount; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            oValue = oValue * 10 + (c - '0');
+        }
+        return oValue;
+    }
+
+    private static int indexOf(String[] pNames, String s, int pStart) {
+        for (int i = 0; i < pNames.length; i++) {
+            if (s.regionMatches(pStart, pNames[i], 0, 3)) return i;
+        }
+        return -1;
+    }
+
+    private static int daysInMonth(int pYear, int pMonth) {
+        switch (pMonth) {
+            case 2:
+                return (pYear % 4 == 0 && (pYear % 100 != 0 || pYear % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Days since 1970-01-01 in the proleptic Gregorian calendar
+     * (http://howardhinnant.github.io/date_algorithms.html).
+     */
+    private static long daysFromCivil(int pYear, int pMonth, int pDay) {
+        int y = pMonth <= 2 ? pYear - 1 : pYear;
+        int oEra = (y >= 0 ? y : y - 399) / 400;
+        int oYearOfEra = y - oEra * 400;
+        int oDayOfYear = (153 * (pMonth + (pMonth > 2 ? -3 : 9)) + 2) / 5 + pDay - 1;
+        int oDayOfEra = oYearOfEra * 365 + oYearOfEra / 4 - oYearOfEra / 100 + oDayOfYear;
+        return oEra * 146097L + oDayOfEra - 719468;
+    }
+
+    /**
+     * @return { year, month, day } of the given number of days since 1970-01-01.
+     */
+    private static int[] civilFromDays(long pDays) {
+        long z = pDays + 719468;
+        long oEra = (z >= 0 ? z : z - 146096) / 146097;
+        int oDayOfEra = (int) (z - oEra * 146097);
+        int oYearOfEra = (oDayOfEra - oDayOfEra / 1460 + oDayOfEra / 36524 - oDayOfEra / 146096) / 365;
+        int oDayOfYear = oDayOfEra - (365 * oYearOfEra + oYearOfEra / 4 - oYearOfEra / 100);
+        int oMP = (5 * oDayOfYear + 2) / 153;
+        int oDay = oDayOfYear - (153 * oMP + 2) / 5 + 1;
+        int oMonth = oMP < 10 ? oMP + 3 : oMP - 9;
+        int oYear = (int) (oYearOfEra + oEra * 400) + (oMonth <= 2 ? 1 : 0);
+        return new int[] { oYear, oMonth, oDay };
+    }
+
+    private static boolean isFormattable(long pTime) {
+        return pTime >= MIN_FORMATTABLE && pTime < MAX_FORMATTABLE;
+    }
+
+    /** yyyy-MM-dd */
+    private static void writeDate(char[] pChars, int pStart, long pDays) {
+        int[] oYMD = civilFromDays(pDays);
+        write(pChars, pStart, oYMD[0], 4);
+        pChars[pStart + 4] = '-';
+        write(pChars, pStart + 5, oYMD[1], 2);
+        pChars[pStart + 7] = '-';
+        write(pChars, pStart + 8, oYMD[2], 2);
+    }
+
+    /** HH:mm:ss */
+    private static void writeTime(char[] pChars, int pStart, int pMillisOfDay) {
+        int oSeconds = pMillisOfDay / 1000;
+        write(pChars, pStart, oSeconds / 3600, 2);
+        pChars[pStart + 2] = ':';
+        write(pChars, pStart + 3, (oSeconds / 60) % 60, 2);
+        pChars[pStart + 5] = ':';
+        write(pChars, pStart + 6, oSeconds % 60, 2);
+    }
+
+    private static void write(char[] pChars, int pStart, int pValue, int pDigits) {
+        for (int i = pStart + pDigits - 1; i >= pStart; i--) {
+            pChars[i] = (char) ('0' + pValue % 10);
+            pValue /= 10;
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) q--;
+        return q;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+
 }
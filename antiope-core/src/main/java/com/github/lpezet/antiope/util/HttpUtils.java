@@ -14,19 +14,9 @@
  */
 package com.github.lpezet.antiope.util;
 
-import java.io.UnsupportedEncodingException;
 import java.net.URI;
-import java.net.URLEncoder;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import org.apache.http.NameValuePair;
-import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.message.BasicNameValuePair;
 
 import com.github.lpezet.antiope.dao.HttpMethodName;
 import com.github.lpezet.antiope.dao.Request;
@@ -37,72 +27,17 @@ import com.github.lpezet.antiope.dao.Request;
  */
 public class HttpUtils {
 
-	private static final String DEFAULT_ENCODING = "UTF-8";
-
-    /**
-     * Regex which matches any of the sequences that we need to fix up after
-     * URLEncoder.encode().
-     */
-    private static final Pattern ENCODED_CHARACTERS_PATTERN;
-    static {
-        StringBuilder pattern = new StringBuilder();
-
-        pattern
-            .append(Pattern.quote("+"))
-            .append("|")
-            .append(Pattern.quote("*"))
-            .append("|")
-            .append(Pattern.quote("%7E"))
-            .append("|")
-            .append(Pattern.quote("%2F"));
-
-        ENCODED_CHARACTERS_PATTERN = Pattern.compile(pattern.toString());
-    }
-
     /**
-     * Encode a string for use in the path of a URL; uses URLEncoder.encode,
-     * (which encodes a string for use in the query portion of a URL), then
-     * applies some postfilters to fix things up per the RFC. Can optionally
-     * handle strings which are meant to encode a path (ie include '/'es
-     * which should NOT be escaped).
+     * Encode a string for use in the path of a URL, per RFC 3986 (see
+     * {@link UrlEncoder}). Can optionally handle strings which are meant to
+     * encode a path (ie include '/'es which should NOT be escaped).
      *
      * @param value the value to encode
      * @param path true if the value is intended to represent a path
      * @return the encoded value
      */
     public static String urlEncode(final String value, final boolean path) {
-        if (value == null) {
-            return "";
-        }
-
-        try {
-            String encoded = URLEncoder.encode(value, DEFAULT_ENCODING);
-
-            Matcher matcher = ENCODED_CHARACTERS_PATTERN.matcher(encoded);
-            StringBuffer buffer = new StringBuffer(encoded.length());
-
-            while (matcher.find()) {
-                String replacement = matcher.group(0);
-
-                if ("+".equals(replacement)) {
-                    replacement = "%20";
-                } else if ("*".equals(replacement)) {
-                    replacement = "%2A";
-                } else if ("%7E".equals(replacement)) {
-                    replacement = "~";
-                } else if (path && "%2F".equals(replacement)) {
-                    replacement = "/";
-                }
-
-                matcher.appendReplacement(buffer, replacement);
-            }
-
-            matcher.appendTail(buffer);
-            return buffer.toString();
-
-        } catch (UnsupportedEncodingException ex) {
-            throw new RuntimeException(ex);
-        }
+        return UrlEncoder.encode(value, path);
     }
 
     /**
@@ -148,20 +83,32 @@ public class HttpUtils {
     }
     
     public static String encodeParameters(Map<String, String> pParameters) {
-    	List<NameValuePair> nameValuePairs = null;
-        if (pParameters.size() > 0) {
-            nameValuePairs = new ArrayList<NameValuePair>(pParameters.size());
-            for (Entry<String, String> entry : pParameters.entrySet()) {
-                nameValuePairs.add(new BasicNameValuePair(entry.getKey(), entry.getValue()));
-            }
-        }
+        if (pParameters.isEmpty()) return null;
+        return encodeParameters(new StringBuilder(pParameters.size() * 32), pParameters).toString();
+    }
 
-        String encodedParams = null;
-        if (nameValuePairs != null) {
-            encodedParams = URLEncodedUtils.format(nameValuePairs, DEFAULT_ENCODING);
+    /**
+     * Appends the parameters as an application/x-www-form-urlencoded query
+     * string (as <code>URLEncodedUtils.format()</code> would).
+     *
+     * @param to
+     *            where to append.
+     * @param pParameters
+     *            parameters to encode.
+     * @return to
+     */
+    public static StringBuilder encodeParameters(StringBuilder to, Map<String, String> pParameters) {
+        boolean first = true;
+        for (Entry<String, String> entry : pParameters.entrySet()) {
+            if (!first) to.append('&');
+            first = false;
+            UrlEncoder.encodeForm(to, entry.getKey());
+            if (entry.getValue() != null) {
+                to.append('=');
+                UrlEncoder.encodeForm(to, entry.getValue());
+            }
         }
-
-        return encodedParams;
+        return to;
     }
 
     /**
@@ -189,26 +136,40 @@ public class HttpUtils {
      * @return The baseUri with the (encoded) path appended
      */
     public static String appendUri(final String baseUri, String path, final boolean escapeDoubleSlash ) {
-        String resultUri = baseUri;
+        return appendUri(new StringBuilder(baseUri.length() + (path == null ? 1 : path.length() + 16)), baseUri, path, escapeDoubleSlash).toString();
+    }
+
+    /**
+     * Same as {@link #appendUri(String, String, boolean)}, appending to the
+     * given builder.
+     *
+     * @param to Where to append the result
+     * @param baseUri The URI to append to (required, may be relative)
+     * @param path The path to append (may be null or empty)
+     * @param escapeDoubleSlash Whether double-slash in the path should be escaped to "/%2F"
+     * @return to
+     */
+    public static StringBuilder appendUri(StringBuilder to, final String baseUri, String path, final boolean escapeDoubleSlash ) {
+        to.append(baseUri);
+        boolean endsWithSlash = baseUri.endsWith("/");
         if (path != null && path.length() > 0) {
             if (path.startsWith("/")) {
                 // trim the trailing slash in baseUri, since the path already starts with a slash
-                if (resultUri.endsWith("/")) {
-                    resultUri = resultUri.substring(0, resultUri.length() - 1);
-                }
-            } else if (!resultUri.endsWith("/")) {
-                resultUri += "/";
+                if (endsWithSlash) to.setLength(to.length() - 1);
+            } else if (!endsWithSlash) {
+                to.append('/');
             }
-            String encodedPath = HttpUtils.urlEncode(path, true);
+            int start = to.length();
+            UrlEncoder.encode(to, path, true);
             if (escapeDoubleSlash) {
-                encodedPath = encodedPath.replace("//", "/%2F");
+                for (int i = to.indexOf("//", start); i >= 0; i = to.indexOf("//", i + 4)) {
+                    to.replace(i, i + 2, "/%2F");
+                }
             }
-            resultUri += encodedPath;
-        } else if (!resultUri.endsWith("/")) {
-            resultUri += "/";
+        } else if (!endsWithSlash) {
+            to.append('/');
         }
-
-        return resultUri;
+        return to;
     }
 
 }
@@ -57,6 +57,9 @@ public class NamespaceRemovingInputStream extends FilterInputStream {
             int bytesRead = in.read(lookAheadData, 1, lookAheadData.length - 1);
             in.reset();
 
+            // cheap check before building a string
+            if (bytesRead < 4 || lookAheadData[1] != 'm' || lookAheadData[2] != 'l' || lookAheadData[3] != 'n' || lookAheadData[4] != 's') return b;
+
             String string = new String(lookAheadData, 0, bytesRead + 1);
 
             int numberCharsMatched = matchXmlNamespaceAttribute(string);
@@ -77,6 +80,9 @@ public class NamespaceRemovingInputStream extends FilterInputStream {
      */
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
+        // Nothing left to remove: no need to look at each byte anymore
+        if (hasRemovedNamespace) return in.read(b, off, len);
+
         for (int i = 0; i < len; i++) {
             int j = this.read();
             if (j == -1) {
@@ -0,0 +1,98 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.github.lpezet.antiope.APIClientException;
+import com.github.lpezet.antiope.APIServiceException;
+
+/**
+ * Classification of errors into retryable and throttling errors.
+ * 
+ * @author luc
+ */
+public class RetryUtils {
+
+	private static final int			SC_TOO_MANY_REQUESTS	= 429;
+
+	/**
+	 * Error codes commonly returned by services when throttling a caller.
+	 */
+	private static final Set<String>	THROTTLING_ERROR_CODES	= new HashSet<String>(Arrays.asList(
+			"Throttling",
+			"ThrottlingException",
+			"ThrottledException",
+			"RequestThrottled",
+			"RequestLimitExceeded",
+			"TooManyRequestsException",
+			"ProvisionedThroughputExceededException",
+			"SlowDown"));
+
+	/**
+	 * Returns true if the specified exception is a throttling error, either
+	 * through a well-known throttling error code or a 429 status code.
+	 * 
+	 * @param pException
+	 *            The exception to test.
+	 * @return True if the exception resulted from a throttling error message
+	 *         from a service, otherwise false.
+	 */
+	public static boolean isThrottlingException(APIClientException pException) {
+		if (!(pException instanceof APIServiceException)) return false;
+		APIServiceException oASE = (APIServiceException) pException;
+		return oASE.getStatusCode() == SC_TOO_MANY_REQUESTS || THROTTLING_ERROR_CODES.contains(oASE.getErrorCode());
+	}
+
+	/**
+	 * Returns true if the specified exception is a retryable service side
+	 * error: a throttling error, a 500, 502, 503 or 504 status code.
+	 * 
+	 * @param pException
+	 *            The exception to test.
+	 * @return True if the exception resulted from a retryable service error,
+	 *         otherwise false.
+	 */
+	public static boolean isRetryableServiceException(APIClientException pException) {
+		if (!(pException instanceof APIServiceException)) return false;
+		if (isThrottlingException(pException)) return true;
+		int oStatus = ((APIServiceException) pException).getStatusCode();
+		return oStatus == 500 || oStatus == 502 || oStatus == 503 || oStatus == 504;
+	}
+
+	/**
+	 * Returns true if the specified exception was caused by an I/O error
+	 * while sending the request or reading the response (socket reset,
+	 * connect timeout, etc.).
+	 * 
+	 * @param pException
+	 *            The exception to test.
+	 * @return True if the exception was caused by an IOException.
+	 */
+	public static boolean isIOException(APIClientException pException) {
+		return !(pException instanceof APIServiceException) && pException.getCause() instanceof IOException;
+	}
+}
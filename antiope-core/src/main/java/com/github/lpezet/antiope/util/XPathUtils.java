@@ -22,11 +22,15 @@ import java.net.URL;
 import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
@@ -46,9 +50,28 @@ import com.github.lpezet.antiope.APIClientException;
  */
 public class XPathUtils {
 
-	private static XPathFactory xpathFactory = XPathFactory.newInstance();
+    /** Maximum number of compiled expressions cached per thread. */
+    private static final int MAX_CACHED_EXPRESSIONS = 512;
 
-    private static XPath xpath = xpathFactory.newXPath();
+    /**
+     * XPath, XPathExpression and DocumentBuilder objects are not thread-safe:
+     * they are kept per thread instead of being shared.
+     */
+    private static final ThreadLocal<XPath> xpath = new ThreadLocal<XPath>() {
+        @Override
+        protected XPath initialValue() {
+            return XPathFactory.newInstance().newXPath();
+        }
+    };
+
+    private static final ThreadLocal<Map<String, XPathExpression>> expressions = new ThreadLocal<Map<String, XPathExpression>>() {
+        @Override
+        protected Map<String, XPathExpression> initialValue() {
+            return new HashMap<String, XPathExpression>();
+        }
+    };
+
+    private static final ThreadLocal<DocumentBuilder> documentBuilder = new ThreadLocal<DocumentBuilder>();
 
     /** Shared DateUtils object for parsing and formatting dates */
     private static DateUtils dateUtils = new DateUtils();
@@ -63,11 +86,45 @@ public class XPathUtils {
             throws SAXException, IOException, ParserConfigurationException {
 
         is = new NamespaceRemovingInputStream(is);
-        Document doc = factory.newDocumentBuilder().parse(is);
+        Document doc = getDocumentBuilder().parse(is);
         is.close();
         return doc;
     }
 
+    private static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = documentBuilder.get();
+        if (builder == null) {
+            synchronized (factory) {
+                builder = factory.newDocumentBuilder();
+            }
+            documentBuilder.set(builder);
+        } else {
+            builder.reset();
+        }
+        return builder;
+    }
+
+    /**
+     * Returns the compiled form of the specified expression for the current
+     * thread. Expressions are compiled once per thread and cached.
+     *
+     * @param expression
+     *            The XPath expression to compile.
+     * @return The compiled expression, only to be used by the current thread.
+     * @throws XPathExpressionException
+     *             If the expression is not valid.
+     */
+    public static XPathExpression compile(String expression) throws XPathExpressionException {
+        Map<String, XPathExpression> cache = expressions.get();
+        XPathExpression compiled = cache.get(expression);
+        if (compiled == null) {
+            if (cache.size() >= MAX_CACHED_EXPRESSIONS) cache.clear();
+            compiled = xpath.get().compile(expression);
+            cache.put(expression, compiled);
+        }
+        return compiled;
+    }
+
     public static Document documentFrom(String xml) throws SAXException,
             IOException, ParserConfigurationException {
         return documentFrom(new ByteArrayInputStream(xml.getBytes()));
@@ -315,7 +372,7 @@ public class XPathUtils {
     public static Node asNode(String nodeName, Node node)
             throws XPathExpressionException {
         if (node == null) return null;
-        return (Node) xpath.evaluate(nodeName, node, XPathConstants.NODE);
+        return (Node) compile(nodeName).evaluate(node, XPathConstants.NODE);
     }
 
     /**
@@ -348,6 +405,7 @@ public class XPathUtils {
     private static String evaluateAsString(String expression, Node node) throws XPathExpressionException {
         if (isEmpty(node)) return null;
 
+        String s;
         if (!expression.equals(".")) {
             /*
              * If the expression being evaluated doesn't select a node, we want
@@ -359,11 +417,14 @@ public class XPathUtils {
              * We skip this test if the expression is "." since we've already
              * checked that the node exists.
              */
-            if (asNode(expression, node) == null) return null;
+            Node selected = asNode(expression, node);
+            if (selected == null) return null;
+            // string-value of the first node selected, without evaluating the expression again
+            s = selected.getNodeType() == Node.DOCUMENT_NODE ? compile(expression).evaluate(node) : selected.getTextContent();
+        } else {
+            s = compile(expression).evaluate(node);
         }
 
-        String s = xpath.evaluate(expression, node);
-
         return s.trim();
     }
 
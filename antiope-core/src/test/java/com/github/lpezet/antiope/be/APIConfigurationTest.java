@@ -0,0 +1,31 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.be;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class APIConfigurationTest {
+	
+	@Test
+	public void maxConnectionsPerRouteDefaultsToPoolSize() throws Exception {
+		APIConfiguration oConfig = new APIConfiguration();
+		assertEquals(APIConfiguration.DEFAULT_MAX_CONNECTIONS, oConfig.getMaxConnectionsPerRoute());
+		oConfig.setMaxConnections(200);
+		assertEquals(200, oConfig.getMaxConnectionsPerRoute());
+		assertEquals(200, oConfig.getMaxConnectionsForEndpoint(URI.create("https://api.example.com")));
+		
+		oConfig.setMaxConnectionsPerRoute(80);
+		oConfig.setMaxConnections(300);
+		assertEquals(80, oConfig.getMaxConnectionsPerRoute());
+		assertEquals(80, oConfig.getMaxConnectionsForEndpoint(URI.create("https://api.example.com")));
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.be;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.github.lpezet.antiope.APIClientException;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class CachingCredentialsProviderTest {
+	
+	private static class ExpiringCredentials extends BasicAPICredentials implements IAPIExpiringCredentials {
+		private final Date mExpiration;
+		
+		public ExpiringCredentials(String pAccessKey, Date pExpiration) {
+			super(pAccessKey, "secret");
+			mExpiration = pExpiration;
+		}
+		
+		@Override
+		public Date getExpiration() {
+			return mExpiration;
+		}
+	}
+	
+	/**
+	 * Hands out new credentials on every call, expiring after the given time, or fails when told to.
+	 */
+	private static class CountingProvider implements IAPICredentialsProvider {
+		private final AtomicInteger mCalls = new AtomicInteger();
+		private final long mLifetimeMillis;
+		private volatile boolean mFailing;
+		
+		public CountingProvider(long pLifetimeMillis) {
+			mLifetimeMillis = pLifetimeMillis;
+		}
+		
+		@Override
+		public IAPICredentials getCredentials() {
+			int oCall = mCalls.incrementAndGet();
+			if (mFailing) throw new APIClientException("Source unavailable");
+			return new ExpiringCredentials("key" + oCall, new Date(System.currentTimeMillis() + mLifetimeMillis));
+		}
+		
+		@Override
+		public void refresh() {
+		}
+	}
+	
+	/** Runs refreshes when told to. */
+	private static class ManualExecutor implements Executor {
+		private final List<Runnable> mTasks = new ArrayList<Runnable>();
+		
+		@Override
+		public synchronized void execute(Runnable pTask) {
+			mTasks.add(pTask);
+		}
+		
+		public synchronized int runAll() {
+			int oCount = mTasks.size();
+			for (Runnable oTask : mTasks) oTask.run();
+			mTasks.clear();
+			return oCount;
+		}
+	}
+
+	@Test
+	public void servedFromMemory() throws Exception {
+		CountingProvider oDelegate = new CountingProvider(60 * 60 * 1000);
+		ManualExecutor oExecutor = new ManualExecutor();
+		CachingCredentialsProvider oProvider = new CachingCredentialsProvider(oDelegate, 1000, 1000, oExecutor);
+		IAPICredentials oFirst = oProvider.getCredentials();
+		for (int i = 0; i < 1000; i++) {
+			assertSame(oFirst, oProvider.getCredentials());
+		}
+		assertEquals(1, oDelegate.mCalls.get());
+		assertEquals(0, oExecutor.runAll());
+	}
+	
+	@Test
+	public void refreshedAheadOfExpiry() throws Exception {
+		// Expires in 1s, refreshed from 2s before: due right away.
+		CountingProvider oDelegate = new CountingProvider(1000);
+		ManualExecutor oExecutor = new ManualExecutor();
+		CachingCredentialsProvider oProvider = new CachingCredentialsProvider(oDelegate, 60 * 1000, 2000, oExecutor);
+		assertEquals("key1", oProvider.getCredentials().getAccessKey());
+		// Current credentials while refreshing, a single refresh at a time.
+		assertEquals("key1", oProvider.getCredentials().getAccessKey());
+		assertEquals("key1", oProvider.getCredentials().getAccessKey());
+		assertEquals(1, oExecutor.runAll());
+		assertEquals("key2", oProvider.getCredentials().getAccessKey());
+	}
+	
+	@Test
+	public void staleKeptOnFailure() throws Exception {
+		CountingProvider oDelegate = new CountingProvider(1000);
+		ManualExecutor oExecutor = new ManualExecutor();
+		CachingCredentialsProvider oProvider = new CachingCredentialsProvider(oDelegate, 60 * 1000, 2000, oExecutor);
+		assertEquals("key1", oProvider.getCredentials().getAccessKey());
+		oDelegate.mFailing = true;
+		assertEquals("key1", oProvider.getCredentials().getAccessKey());
+		assertEquals(1, oExecutor.runAll());
+		assertEquals("key1", oProvider.getCredentials().getAccessKey());
+		// Not tried again right away.
+		assertEquals(0, oExecutor.runAll());
+		oProvider.refresh();
+		assertEquals("key1", oProvider.getCredentials().getAccessKey());
+		oDelegate.mFailing = false;
+		oProvider.refresh();
+		assertEquals("key4", oProvider.getCredentials().getAccessKey());
+	}
+	
+	@Test(expected=APIClientException.class)
+	public void nothingToServe() throws Exception {
+		CountingProvider oDelegate = new CountingProvider(1000);
+		oDelegate.mFailing = true;
+		new CachingCredentialsProvider(oDelegate).getCredentials();
+	}
+	
+	@Test(timeout=10000)
+	public void loadedOnce() throws Exception {
+		final CountingProvider oDelegate = new CountingProvider(60 * 60 * 1000);
+		final CachingCredentialsProvider oProvider = new CachingCredentialsProvider(oDelegate);
+		final CountDownLatch oStart = new CountDownLatch(1);
+		List<Thread> oThreads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread oThread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						oStart.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					oProvider.getCredentials();
+				}
+			};
+			oThread.start();
+			oThreads.add(oThread);
+		}
+		oStart.countDown();
+		for (Thread oThread : oThreads) oThread.join();
+		assertEquals(1, oDelegate.mCalls.get());
+	}
+}
@@ -3,8 +3,22 @@
  */
 package com.github.lpezet.antiope.bo;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -13,6 +27,8 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.client.HttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.client.HttpAsyncClient;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.junit.After;
@@ -25,6 +41,8 @@ import com.github.lpezet.antiope.be.APIConfiguration;
 import com.github.lpezet.antiope.be.APIWebServiceRequest;
 import com.github.lpezet.antiope.be.APIWebServiceResponse;
 import com.github.lpezet.antiope.be.BasicAPICredentials;
+import com.github.lpezet.antiope.be.RetryPolicy;
+import com.github.lpezet.antiope.dao.DefaultHttpAsyncClientFactory;
 import com.github.lpezet.antiope.dao.DefaultHttpClientFactory;
 import com.github.lpezet.antiope.dao.DefaultHttpRequestFactory;
 import com.github.lpezet.antiope.dao.DefaultRequest;
@@ -36,6 +54,7 @@ import com.github.lpezet.antiope.dao.Request;
 import com.github.lpezet.antiope.dao.Response;
 import com.github.lpezet.antiope.metrics.APIRequestMetrics;
 import com.github.lpezet.antiope.metrics.IMetrics;
+import com.github.lpezet.antiope.metrics.TimingInfo;
 import com.github.lpezet.antiope.transform.Unmarshaller;
 
 /**
@@ -62,7 +81,24 @@ public class AdvancedAPIClientTest {
 		
 	}
 	
+	/**
+	 * Buffered body left open by the request entity, as a caller closing it
+	 * itself.
+	 */
+	private static class UnclosedInputStream extends BufferedInputStream {
+		
+		public UnclosedInputStream(int pLength) {
+			super(new ByteArrayInputStream(new byte[pLength]), 256);
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+	
 	private static class AdvancedAPIClientImpl extends AdvancedAPIClient {
+		private IMetrics mLastMetrics;
+		
 		public AdvancedAPIClientImpl(APIConfiguration pConfiguration, HttpClient pHttpClient, int pPort) {
 			super(pConfiguration, new BasicAPICredentials("", ""), pHttpClient);
 			setEndpoint("http://localhost:" + pPort);
@@ -72,6 +108,7 @@ public class AdvancedAPIClientTest {
 		public String getSimpleGeoIP() {
 			ExecutionContext oContext = createExecutionContext((APIWebServiceRequest) null);
 			IMetrics oMetrics = oContext.getMetrics();
+			mLastMetrics = oMetrics;
 			Request oRequest = null;
 			Response<String> oResponse = null;
 			oMetrics.startEvent(APIRequestMetrics.ClientExecuteTime);
@@ -96,6 +133,35 @@ public class AdvancedAPIClientTest {
 			}
 		}
 
+		public String putContent(InputStream pContent, int pLength) {
+			ExecutionContext oContext = createExecutionContext((APIWebServiceRequest) null);
+			mLastMetrics = oContext.getMetrics();
+			Request oRequest = new DefaultRequest(null, "FreeGeoIP");
+			oRequest.setHttpMethod(HttpMethodName.PUT);
+			oRequest.setResourcePath("/json/");
+			oRequest.addHeader("Content-Length", String.valueOf(pLength));
+			oRequest.setContent(pContent);
+			oRequest.setMetrics(mLastMetrics);
+			Response<String> oResponse = invoke(oRequest, null, oContext);
+			return oResponse.getAPIResponse();
+		}
+
+		public Future<Response<String>> getSimpleGeoIPAsync() {
+			ExecutionContext oContext = createExecutionContext((APIWebServiceRequest) null);
+			IMetrics oMetrics = oContext.getMetrics();
+			mLastMetrics = oMetrics;
+			oMetrics.startEvent(APIRequestMetrics.ClientExecuteTime);
+			Request oRequest = new DefaultRequest(null, "FreeGeoIP");
+			oRequest.setHttpMethod(HttpMethodName.GET);
+			oRequest.setResourcePath("/json/");
+			oRequest.setMetrics(oMetrics);
+			return invokeAsync(oRequest, null, oContext, null);
+		}
+
+		public IMetrics getLastMetrics() {
+			return mLastMetrics;
+		}
+
 		@Override
 		protected HttpResponseHandler createResponseHandler(ExecutionContext pContext, Unmarshaller pUnmarshaller) {
 			return new SimpleResponseHandler();
@@ -105,6 +171,16 @@ public class AdvancedAPIClientTest {
 	
 	private Server mServer;
 	private int mPort;
+	private final AtomicInteger mFailuresLeft = new AtomicInteger();
+	private final AtomicInteger mRequestsReceived = new AtomicInteger();
+	private final AtomicInteger mMaxAge = new AtomicInteger();
+	private final AtomicInteger mDelay = new AtomicInteger();
+	private volatile String mBody = "<h1>Hello World</h1>";
+	private volatile boolean mGzipResponses;
+	private volatile String mAcceptEncoding;
+	private volatile String mRetryAfter;
+	private volatile boolean mCorruptErrors;
+	private volatile boolean mNoStore;
 	
 	@Before
 	public void setup() throws Exception {
@@ -116,10 +192,43 @@ public class AdvancedAPIClientTest {
 					org.eclipse.jetty.server.Request baseRequest,
 					HttpServletRequest request, HttpServletResponse response)
 					throws IOException, ServletException {
+				mRequestsReceived.incrementAndGet();
+				if (mDelay.get() > 0) {
+					try {
+						Thread.sleep(mDelay.get());
+					} catch (InterruptedException e) {
+						throw new ServletException(e);
+					}
+				}
+				if (mFailuresLeft.getAndDecrement() > 0) {
+					response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+					if (mRetryAfter != null) response.setHeader("Retry-After", mRetryAfter);
+					if (mCorruptErrors) {
+						response.setHeader("Content-Encoding", "gzip");
+						response.getWriter().println("not gzip");
+					}
+					baseRequest.setHandled(true);
+					return;
+				}
+				response.setHeader("ETag", "\"v1\"");
+				response.setHeader("Cache-Control", mNoStore ? "no-store" : "max-age=" + mMaxAge.get());
+				if ("\"v1\"".equals(request.getHeader("If-None-Match"))) {
+					response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					baseRequest.setHandled(true);
+					return;
+				}
 				response.setContentType("text/html;charset=utf-8");
 		        response.setStatus(HttpServletResponse.SC_OK);
 		        baseRequest.setHandled(true);
-		        response.getWriter().println("<h1>Hello World</h1>");
+		        mAcceptEncoding = request.getHeader("Accept-Encoding");
+		        if (mGzipResponses && mAcceptEncoding != null && mAcceptEncoding.contains("gzip")) {
+		        	response.setHeader("Content-Encoding", "gzip");
+		        	GZIPOutputStream oGzip = new GZIPOutputStream(response.getOutputStream());
+		        	oGzip.write((mBody + "\n").getBytes("UTF-8"));
+		        	oGzip.finish();
+		        	return;
+		        }
+		        response.getWriter().println(mBody);
 			}
 		});
 		mServer.start();
@@ -154,4 +263,420 @@ public class AdvancedAPIClientTest {
 			oClient.getSimpleGeoIP();
 		}
 	}
+	
+	@Test(timeout=10000)
+	public void retryOnServiceUnavailable() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setProfilingEnabled(true);
+		oAPIConfig.setRetryPolicy(new RetryPolicy(null, RetryPolicy.BackoffStrategy.NO_DELAY, 3, true));
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		mFailuresLeft.set(2);
+		oClient.getSimpleGeoIP();
+		assertEquals(3, mRequestsReceived.get());
+		assertEquals(2, oClient.getLastMetrics().getTimingInfo().getCounter(APIRequestMetrics.RetryCount.name()).intValue());
+		assertEquals(3, oClient.getLastMetrics().getTimingInfo().getCounter(APIRequestMetrics.RequestCount.name()).intValue());
+		// ended by failed attempts too
+		assertEquals(3, oClient.getLastMetrics().getTimingInfo().getAllSubMeasurements(APIRequestMetrics.TimeToFirstByte.name()).size());
+		assertEquals(3, oClient.getLastMetrics().getTimingInfo().getAllSubMeasurements(APIRequestMetrics.TimeToLastByte.name()).size());
+	}
+	
+	@Test(timeout=10000)
+	public void retryOnlyWithinStreamReadLimit() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setRetryPolicy(new RetryPolicy(null, RetryPolicy.BackoffStrategy.NO_DELAY, 3, true));
+		oAPIConfig.setStreamReadLimit(1024);
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		mFailuresLeft.set(1);
+		oClient.putContent(new UnclosedInputStream(512), 512);
+		assertEquals(2, mRequestsReceived.get());
+		
+		// read past the limit: can't be reset, so not retried (nor buffered)
+		mRequestsReceived.set(0);
+		mFailuresLeft.set(1);
+		try {
+			oClient.putContent(new UnclosedInputStream(64 * 1024), 64 * 1024);
+			fail("Expected service exception.");
+		} catch (APIServiceException e) {
+			assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getStatusCode());
+		}
+		assertEquals(1, mRequestsReceived.get());
+	}
+	
+	@Test(timeout=10000)
+	public void byteMetrics() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setProfilingEnabled(true);
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		String oBody = oClient.getSimpleGeoIP();
+		TimingInfo oTimingInfo = oClient.getLastMetrics().getTimingInfo();
+		assertEquals(oBody.length(), oTimingInfo.getCounter(APIRequestMetrics.ResponseBytes.name()).intValue());
+		assertTrue(oTimingInfo.getCounter(APIRequestMetrics.DownloadThroughput.name()).longValue() > 0);
+		TimingInfo oFirstByte = oTimingInfo.getSubMeasurement(APIRequestMetrics.TimeToFirstByte.name());
+		TimingInfo oLastByte = oTimingInfo.getSubMeasurement(APIRequestMetrics.TimeToLastByte.name());
+		assertTrue(oFirstByte.getEndTimeNano() <= oLastByte.getEndTimeNano());
+		assertTrue(oTimingInfo.getSubMeasurement(APIRequestMetrics.HttpRequestTime.name()).getEndTimeNano() <= oFirstByte.getEndTimeNano());
+	}
+	
+	@Test(timeout=10000)
+	public void gzipResponses() throws Exception {
+		StringBuilder oBody = new StringBuilder();
+		for (int i = 0; i < 1000; i++) oBody.append("<h1>Hello World</h1>");
+		mBody = oBody.toString();
+		mGzipResponses = true;
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setProfilingEnabled(true);
+		oAPIConfig.setUseGzip(true);
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		assertEquals(mBody + "\n", oClient.getSimpleGeoIP());
+		assertEquals("gzip,deflate", mAcceptEncoding);
+		TimingInfo oTimingInfo = oClient.getLastMetrics().getTimingInfo();
+		long oWireBytes = oTimingInfo.getCounter(APIRequestMetrics.ResponseBytes.name()).longValue();
+		assertEquals(mBody.length() + 1, oTimingInfo.getCounter(APIRequestMetrics.BytesProcessed.name()).intValue());
+		assertTrue(oWireBytes > 0 && oWireBytes < mBody.length() / 10);
+		assertTrue(oTimingInfo.getCounter(APIRequestMetrics.ResponseDecompressionTime.name()).longValue() >= 0);
+		
+		HttpAsyncClient oHttpAsyncClient = new DefaultHttpAsyncClientFactory().createHttpAsyncClient(oAPIConfig);
+		try {
+			oClient.setHttpAsyncClient(oHttpAsyncClient);
+			assertEquals(mBody + "\n", oClient.getSimpleGeoIPAsync().get().getAPIResponse());
+		} finally {
+			((CloseableHttpAsyncClient) oHttpAsyncClient).close();
+		}
+		
+		oAPIConfig.setUseGzip(false);
+		assertEquals(mBody + "\n", oClient.getSimpleGeoIP());
+		assertEquals(null, mAcceptEncoding);
+	}
+	
+	@Test(timeout=10000)
+	public void connectionPoolMetrics() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setProfilingEnabled(true);
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		oClient.getSimpleGeoIP();
+		oClient.getSimpleGeoIP();
+		// sampled before sending the second request: the first connection is back in the pool
+		assertEquals(1, oClient.getLastMetrics().getTimingInfo().getCounter(APIRequestMetrics.HttpClientPoolAvailableCount.name()).intValue());
+		assertEquals(0, oClient.getLastMetrics().getTimingInfo().getCounter(APIRequestMetrics.HttpClientPoolLeasedCount.name()).intValue());
+		assertEquals(0, oClient.getLastMetrics().getTimingInfo().getCounter(APIRequestMetrics.HttpClientPoolPendingCount.name()).intValue());
+	}
+	
+	@Test(timeout=10000)
+	public void retryBudgetExhausted() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setRetryPolicy(new RetryPolicy(null, RetryPolicy.BackoffStrategy.NO_DELAY, 3, true));
+		oAPIConfig.setRetryBudgetCapacity(RetryBudget.RETRY_COST);
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		mFailuresLeft.set(10);
+		try {
+			oClient.getSimpleGeoIP();
+			fail("Expected service exception.");
+		} catch (APIServiceException e) {
+			assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getStatusCode());
+		}
+		// first attempt + one retry paid by the budget
+		assertEquals(2, mRequestsReceived.get());
+	}
+	
+	@Test(timeout=10000)
+	public void invokeAsync() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setMaxAsyncRequests(4);
+		HttpAsyncClient oHttpAsyncClient = new DefaultHttpAsyncClientFactory().createHttpAsyncClient(oAPIConfig);
+		try {
+			AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, null, mPort);
+			oClient.setHttpAsyncClient(oHttpAsyncClient);
+			List<Future<Response<String>>> oFutures = new ArrayList<Future<Response<String>>>();
+			for (int i = 0; i < 20; i++) {
+				oFutures.add(oClient.getSimpleGeoIPAsync());
+			}
+			for (Future<Response<String>> oFuture : oFutures) {
+				assertTrue(oFuture.get().getAPIResponse().contains("Hello World"));
+			}
+			assertEquals(20, mRequestsReceived.get());
+		} finally {
+			((CloseableHttpAsyncClient) oHttpAsyncClient).close();
+		}
+	}
+	
+	@Test(timeout=10000)
+	public void invokeAsyncReleasesPooledMetrics() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setProfilingEnabled(true);
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		HttpAsyncClient oHttpAsyncClient = new DefaultHttpAsyncClientFactory().createHttpAsyncClient(oAPIConfig);
+		try {
+			AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+			oClient.setHttpAsyncClient(oHttpAsyncClient);
+			oClient.getSimpleGeoIP();
+			IMetrics oPooled = oClient.getLastMetrics();
+			oClient.getSimpleGeoIPAsync().get();
+			assertSame(oPooled, oClient.getLastMetrics());
+			// released on completion: the next call on this thread reuses it
+			oClient.getSimpleGeoIP();
+			assertSame(oPooled, oClient.getLastMetrics());
+		} finally {
+			((CloseableHttpAsyncClient) oHttpAsyncClient).close();
+		}
+	}
+	
+	@Test(timeout=10000)
+	public void invokeAsyncRetryOnServiceUnavailable() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setProfilingEnabled(true);
+		oAPIConfig.setRetryPolicy(new RetryPolicy(null, new RetryPolicy.BackoffStrategy() {
+			@Override
+			public long delayBeforeNextRetry(APIWebServiceRequest pOriginalRequest, APIClientException pException, int pRetries) {
+				return 10;
+			}
+		}, 3, true));
+		HttpAsyncClient oHttpAsyncClient = new DefaultHttpAsyncClientFactory().createHttpAsyncClient(oAPIConfig);
+		try {
+			AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, null, mPort);
+			oClient.setHttpAsyncClient(oHttpAsyncClient);
+			mFailuresLeft.set(2);
+			assertTrue(oClient.getSimpleGeoIPAsync().get().getAPIResponse().contains("Hello World"));
+			assertEquals(3, mRequestsReceived.get());
+			assertEquals(2, oClient.getLastMetrics().getTimingInfo().getCounter(APIRequestMetrics.RetryCount.name()).intValue());
+			// execution ended before the Future completed
+			assertTrue(oClient.getLastMetrics().getTimingInfo().isEndTimeKnown());
+			assertTrue(oClient.getLastMetrics().getTimingInfo().getSubMeasurement(APIRequestMetrics.ClientExecuteTime.name()).isEndTimeKnown());
+			
+			mFailuresLeft.set(10);
+			mRequestsReceived.set(0);
+			try {
+				oClient.getSimpleGeoIPAsync().get();
+				fail("Expected service exception.");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof APIServiceException);
+			}
+			assertEquals(4, mRequestsReceived.get());
+		} finally {
+			((CloseableHttpAsyncClient) oHttpAsyncClient).close();
+		}
+	}
+	
+	@Test(timeout=10000)
+	public void responseCacheHit() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setProfilingEnabled(true);
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		ResponseCache oCache = new ResponseCache(10);
+		oClient.setResponseCache(oCache);
+		mMaxAge.set(60);
+		String oFirst = oClient.getSimpleGeoIP();
+		assertEquals(1, oClient.getLastMetrics().getTimingInfo().getCounter(APIRequestMetrics.ResponseCacheMiss.name()).intValue());
+		String oSecond = oClient.getSimpleGeoIP();
+		assertTrue(oFirst == oSecond);
+		assertEquals(1, mRequestsReceived.get());
+		assertEquals(1, oClient.getLastMetrics().getTimingInfo().getCounter(APIRequestMetrics.ResponseCacheHit.name()).intValue());
+		assertEquals(1, oCache.getHitCount());
+		assertEquals(1, oCache.getMissCount());
+	}
+	
+	@Test(timeout=10000)
+	public void responseCacheSkipsNoStore() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setProfilingEnabled(true);
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		ResponseCache oCache = new ResponseCache(10);
+		oClient.setResponseCache(oCache);
+		mNoStore = true;
+		oClient.getSimpleGeoIP();
+		oClient.getSimpleGeoIP();
+		assertEquals(2, mRequestsReceived.get());
+		// not cacheable: not a miss
+		assertEquals(null, oClient.getLastMetrics().getTimingInfo().getCounter(APIRequestMetrics.ResponseCacheMiss.name()));
+		assertEquals(0, oCache.getMissCount());
+		assertEquals(0, oCache.size());
+	}
+	
+	@Test(timeout=10000)
+	public void responseCacheRevalidation() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setProfilingEnabled(true);
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		ResponseCache oCache = new ResponseCache(10);
+		oClient.setResponseCache(oCache);
+		mMaxAge.set(0);
+		String oFirst = oClient.getSimpleGeoIP();
+		String oSecond = oClient.getSimpleGeoIP();
+		// stale right away: revalidated, the service answering 304
+		assertTrue(oFirst == oSecond);
+		assertEquals(2, mRequestsReceived.get());
+		assertEquals(1, oClient.getLastMetrics().getTimingInfo().getCounter(APIRequestMetrics.ResponseCacheRevalidation.name()).intValue());
+		assertEquals(0, oCache.getHitCount());
+		assertEquals(1, oCache.getRevalidationCount());
+	}
+	
+	@Test(timeout=10000)
+	public void coalesceIdenticalRequests() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		final AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		RequestCoalescer oCoalescer = new RequestCoalescer();
+		oClient.setRequestCoalescer(oCoalescer);
+		mDelay.set(500);
+		final List<String> oResults = new CopyOnWriteArrayList<String>();
+		List<Thread> oThreads = new ArrayList<Thread>();
+		for (int i = 0; i < 5; i++) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					oResults.add(oClient.getSimpleGeoIP());
+				}
+			};
+			oThreads.add(t);
+			t.start();
+		}
+		for (Thread t : oThreads) t.join();
+		assertEquals(5, oResults.size());
+		for (String oResult : oResults) {
+			assertTrue(oResult == oResults.get(0));
+		}
+		assertEquals(1, mRequestsReceived.get());
+		assertEquals(4, oCoalescer.getCoalescedCount());
+	}
+	
+	@Test(timeout=10000)
+	public void invokeAll() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setMaxConnectionsForEndpoint("http://localhost:" + mPort, 3);
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		final AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		List<Integer> oRequests = new ArrayList<Integer>();
+		for (int i = 0; i < 20; i++) oRequests.add(i);
+		final List<Integer> oCompleted = new CopyOnWriteArrayList<Integer>();
+		final AtomicInteger oFailed = new AtomicInteger();
+		BatchResult<String> oResult = oClient.invokeAll(oRequests, new BaseAPIClient.Operation<Integer, String>() {
+			@Override
+			public String invoke(Integer pRequest) throws Exception {
+				if (pRequest % 5 == 0) throw new IOException("Failure #" + pRequest);
+				return pRequest + ":" + oClient.getSimpleGeoIP();
+			}
+		}, 10, new BaseAPIClient.BatchListener<Integer, String>() {
+			@Override
+			public void completed(int pIndex, Integer pRequest, String pResult) {
+				oCompleted.add(pIndex);
+			}
+			
+			@Override
+			public void failed(int pIndex, Integer pRequest, Exception pException) {
+				oFailed.incrementAndGet();
+			}
+		});
+		// capped to the connections to the endpoint
+		assertEquals(3, oResult.getConcurrency());
+		assertEquals(20, oResult.size());
+		assertEquals(4, oResult.getFailureCount());
+		assertEquals(4, oFailed.get());
+		assertEquals(16, oCompleted.size());
+		assertEquals(16, mRequestsReceived.get());
+		for (int i = 0; i < 20; i++) {
+			if (i % 5 == 0) {
+				assertTrue(oResult.getFailure(i).getMessage().equals("Failure #" + i));
+				assertEquals(null, oResult.getResults().get(i));
+			} else {
+				assertTrue(oResult.getResult(i).startsWith(i + ":"));
+				assertTrue(oResult.getResult(i).contains("Hello World"));
+			}
+		}
+		assertEquals(20, oResult.getLatencies().getCount());
+		assertTrue(oResult.getThroughput() > 0);
+	}
+	
+	@Test(timeout=10000)
+	public void rateLimiterHonorsRetryAfter() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setProfilingEnabled(true);
+		oAPIConfig.setMaxRequestsPerSecond(20);
+		oAPIConfig.setRequestBurst(1);
+		oAPIConfig.setRetryPolicy(new RetryPolicy(null, RetryPolicy.BackoffStrategy.NO_DELAY, 3, true));
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		mFailuresLeft.set(1);
+		mRetryAfter = "1";
+		long oStart = System.currentTimeMillis();
+		oClient.getSimpleGeoIP();
+		assertTrue(System.currentTimeMillis() - oStart >= 900);
+		assertEquals(2, mRequestsReceived.get());
+		TimingInfo oWait = oClient.getLastMetrics().getTimingInfo().getSubMeasurement(APIRequestMetrics.RateLimiterWaitTime.name());
+		assertTrue(oWait.getTimeTakenMillis() >= 900);
+	}
+	
+	@Test(timeout=10000)
+	public void circuitBreakerShortCircuits() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setProfilingEnabled(true);
+		oAPIConfig.setRetryPolicy(new RetryPolicy(null, RetryPolicy.BackoffStrategy.NO_DELAY, 0, true));
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+		CircuitBreaker oCircuitBreaker = new CircuitBreaker();
+		oCircuitBreaker.setMinimumCalls(2);
+		oClient.setCircuitBreaker(oCircuitBreaker);
+		mFailuresLeft.set(10);
+		for (int i = 0; i < 2; i++) {
+			try {
+				oClient.getSimpleGeoIP();
+				fail("Expected service exception.");
+			} catch (APIServiceException e) {
+				// expected
+			}
+		}
+		assertTrue(oClient.getLastMetrics().getProperty(APIRequestMetrics.CircuitBreakerState).contains(CircuitBreaker.State.OPEN.name()));
+		try {
+			oClient.getSimpleGeoIP();
+			fail("Expected circuit breaker to be open.");
+		} catch (APIClientException e) {
+			// wrapped by the client
+			assertTrue(e.getCause() instanceof CircuitBreakerOpenException);
+		}
+		assertEquals(2, mRequestsReceived.get());
+		assertEquals(1, oCircuitBreaker.getRejectedCount());
+		assertEquals(1, oClient.getLastMetrics().getTimingInfo().getCounter(APIRequestMetrics.CircuitBreakerRejected.name()).intValue());
+	}
+	
+	@Test(timeout=10000)
+	public void circuitBreakerCountsUnreadableServerErrors() throws Exception {
+		APIConfiguration oAPIConfig = new APIConfiguration();
+		oAPIConfig.setProfilingEnabled(true);
+		oAPIConfig.setRetryPolicy(new RetryPolicy(null, RetryPolicy.BackoffStrategy.NO_DELAY, 0, true));
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oAPIConfig);
+		HttpAsyncClient oHttpAsyncClient = new DefaultHttpAsyncClientFactory().createHttpAsyncClient(oAPIConfig);
+		try {
+			AdvancedAPIClientImpl oClient = new AdvancedAPIClientImpl(oAPIConfig, oHttpClient, mPort);
+			oClient.setHttpAsyncClient(oHttpAsyncClient);
+			CircuitBreaker oCircuitBreaker = new CircuitBreaker();
+			oCircuitBreaker.setMinimumCalls(2);
+			oClient.setCircuitBreaker(oCircuitBreaker);
+			mCorruptErrors = true;
+			mFailuresLeft.set(10);
+			try {
+				oClient.getSimpleGeoIP();
+				fail("Expected service exception.");
+			} catch (APIServiceException e) {
+				// error response not readable: still a server error
+				assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getStatusCode());
+			}
+			try {
+				oClient.getSimpleGeoIPAsync().get();
+				fail("Expected service exception.");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof APIServiceException);
+			}
+			// both counted: opened
+			assertEquals(1, oCircuitBreaker.getTransitionCount());
+		} finally {
+			((CloseableHttpAsyncClient) oHttpAsyncClient).close();
+		}
+	}
 }
@@ -0,0 +1,141 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.bo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.lpezet.antiope.APIClientException;
+import com.github.lpezet.antiope.APIServiceException;
+import com.github.lpezet.antiope.be.APIWebServiceRequest;
+import com.github.lpezet.antiope.dao.DefaultRequest;
+import com.github.lpezet.antiope.dao.HttpMethodName;
+import com.github.lpezet.antiope.dao.Request;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class CircuitBreakerTest {
+	
+	private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	private static Request<?> newRequest(HttpMethodName pMethod) {
+		Request<?> oRequest = new DefaultRequest<APIWebServiceRequest>(null, "Dummy");
+		oRequest.setEndpoint(URI.create("http://localhost:8080"));
+		oRequest.setHttpMethod(pMethod);
+		return oRequest;
+	}
+	
+	private static CircuitBreaker newCircuitBreaker() {
+		CircuitBreaker oBreaker = new CircuitBreaker();
+		oBreaker.setWindowSize(10);
+		oBreaker.setMinimumCalls(4);
+		oBreaker.setOpenMillis(1000);
+		oBreaker.setHalfOpenProbes(2);
+		oBreaker.setSlowCallMillis(100);
+		return oBreaker;
+	}
+	
+	@Test
+	public void opensOnFailureRate() throws Exception {
+		CircuitBreaker oBreaker = newCircuitBreaker();
+		Request<?> oGet = newRequest(HttpMethodName.GET);
+		long oNow = System.nanoTime();
+		assertNull(oBreaker.tryAcquire(oGet, oNow).record(false, MILLI, oNow));
+		assertNull(oBreaker.tryAcquire(oGet, oNow).record(true, MILLI, oNow));
+		assertNull(oBreaker.tryAcquire(oGet, oNow).record(false, MILLI, oNow));
+		// 2 failures out of 4 calls: 50%
+		assertEquals(CircuitBreaker.State.OPEN, oBreaker.tryAcquire(oGet, oNow).record(true, MILLI, oNow));
+		assertNull(oBreaker.tryAcquire(oGet, oNow + 10 * MILLI));
+		assertEquals(1, oBreaker.getRejectedCount());
+		// other operations have their own circuit
+		assertNotNull(oBreaker.tryAcquire(newRequest(HttpMethodName.POST), oNow));
+	}
+	
+	@Test
+	public void opensOnSlowCallRate() throws Exception {
+		CircuitBreaker oBreaker = newCircuitBreaker();
+		oBreaker.setSlowCallRateThreshold(75);
+		Request<?> oGet = newRequest(HttpMethodName.GET);
+		long oNow = System.nanoTime();
+		assertNull(oBreaker.tryAcquire(oGet, oNow).record(false, MILLI, oNow));
+		assertNull(oBreaker.tryAcquire(oGet, oNow).record(false, 200 * MILLI, oNow));
+		assertNull(oBreaker.tryAcquire(oGet, oNow).record(false, 200 * MILLI, oNow));
+		assertEquals(CircuitBreaker.State.OPEN, oBreaker.tryAcquire(oGet, oNow).record(false, 200 * MILLI, oNow));
+	}
+	
+	@Test
+	public void halfOpenProbes() throws Exception {
+		CircuitBreaker oBreaker = newCircuitBreaker();
+		oBreaker.setMinimumCalls(1);
+		Request<?> oGet = newRequest(HttpMethodName.GET);
+		long oNow = System.nanoTime();
+		assertEquals(CircuitBreaker.State.OPEN, oBreaker.tryAcquire(oGet, oNow).record(true, MILLI, oNow));
+		
+		// open time over: 2 probes let through, then rejected
+		oNow += 1000 * MILLI;
+		CircuitBreaker.Circuit oProbe1 = oBreaker.tryAcquire(oGet, oNow);
+		CircuitBreaker.Circuit oProbe2 = oBreaker.tryAcquire(oGet, oNow);
+		assertNotNull(oProbe1);
+		assertNotNull(oProbe2);
+		assertNull(oBreaker.tryAcquire(oGet, oNow));
+		assertEquals(CircuitBreaker.State.HALF_OPEN, oProbe1.getState());
+		// a failed probe opens it again
+		assertEquals(CircuitBreaker.State.OPEN, oProbe1.record(true, MILLI, oNow));
+		assertNull(oProbe2.record(false, MILLI, oNow));
+		assertNull(oBreaker.tryAcquire(oGet, oNow + 500 * MILLI));
+		
+		// all probes succeeding close it
+		oNow += 1000 * MILLI;
+		oProbe1 = oBreaker.tryAcquire(oGet, oNow);
+		oProbe2 = oBreaker.tryAcquire(oGet, oNow);
+		assertNull(oProbe1.record(false, MILLI, oNow));
+		assertEquals(CircuitBreaker.State.CLOSED, oProbe2.record(false, MILLI, oNow));
+		assertNotNull(oBreaker.tryAcquire(oGet, oNow));
+		assertEquals(5, oBreaker.getTransitionCount());
+	}
+	
+	@Test
+	public void releasedProbePermits() throws Exception {
+		CircuitBreaker oBreaker = newCircuitBreaker();
+		oBreaker.setMinimumCalls(1);
+		Request<?> oGet = newRequest(HttpMethodName.GET);
+		long oNow = System.nanoTime();
+		assertEquals(CircuitBreaker.State.OPEN, oBreaker.tryAcquire(oGet, oNow).record(true, MILLI, oNow));
+		
+		oNow += 1000 * MILLI;
+		CircuitBreaker.Circuit oProbe1 = oBreaker.tryAcquire(oGet, oNow);
+		assertNotNull(oBreaker.tryAcquire(oGet, oNow));
+		// rejected attempts don't use up permits given back later
+		assertNull(oBreaker.tryAcquire(oGet, oNow));
+		assertNull(oBreaker.tryAcquire(oGet, oNow));
+		// probe not sent: its permit goes to the next one
+		oProbe1.release();
+		assertNotNull(oBreaker.tryAcquire(oGet, oNow));
+		assertNull(oBreaker.tryAcquire(oGet, oNow));
+	}
+	
+	@Test
+	public void isFailure() throws Exception {
+		APIServiceException oUnavailable = new APIServiceException("Unavailable");
+		oUnavailable.setStatusCode(503);
+		APIServiceException oThrottled = new APIServiceException("Slow down");
+		oThrottled.setStatusCode(503);
+		oThrottled.setErrorCode("SlowDown");
+		APIServiceException oNotFound = new APIServiceException("Not found");
+		oNotFound.setStatusCode(404);
+		assertEquals(true, CircuitBreaker.isFailure(oUnavailable));
+		assertEquals(false, CircuitBreaker.isFailure(oThrottled));
+		assertEquals(false, CircuitBreaker.isFailure(oNotFound));
+		assertEquals(true, CircuitBreaker.isFailure(new APIClientException("Timeout", new IOException("Read timed out"))));
+	}
+}
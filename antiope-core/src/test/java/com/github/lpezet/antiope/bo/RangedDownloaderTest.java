@@ -0,0 +1,202 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.bo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.lpezet.antiope.APIClientException;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class RangedDownloaderTest {
+	
+	private static final int SIZE = 1000 * 1000 + 17;
+	private static final int RANGE_SIZE = 64 * 1024;
+	
+	private Server mServer;
+	private URI mUri;
+	private byte[] mContent;
+	private volatile boolean mRangesSupported = true;
+	private volatile String mETag = "\"v1\"";
+	/** Number of range requests to cut half way. */
+	private final AtomicInteger mCutsLeft = new AtomicInteger();
+	private final List<String> mRanges = new CopyOnWriteArrayList<String>();
+	private CloseableHttpClient mHttpClient;
+	private ExecutorService mExecutor;
+	private File mFile;
+	
+	@Before
+	public void setup() throws Exception {
+		mContent = new byte[SIZE];
+		new Random(1).nextBytes(mContent);
+		mServer = new Server(0);
+		mServer.setHandler(new AbstractHandler() {
+			@Override
+			public void handle(String target, 
+					org.eclipse.jetty.server.Request baseRequest,
+					HttpServletRequest request, HttpServletResponse response)
+					throws IOException, ServletException {
+				baseRequest.setHandled(true);
+				response.setHeader("ETag", mETag);
+				String oRange = request.getHeader("Range");
+				String oIfRange = request.getHeader("If-Range");
+				if (!mRangesSupported || oRange == null || (oIfRange != null && !oIfRange.equals(mETag))) {
+					response.setStatus(HttpServletResponse.SC_OK);
+					response.setContentLength(mContent.length);
+					response.getOutputStream().write(mContent);
+					return;
+				}
+				mRanges.add(oRange);
+				String[] oBounds = oRange.substring("bytes=".length()).split("-");
+				int oStart = Integer.parseInt(oBounds[0]);
+				int oEnd = Math.min(Integer.parseInt(oBounds[1]), mContent.length - 1);
+				if (oStart >= mContent.length) {
+					response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+					return;
+				}
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Accept-Ranges", "bytes");
+				response.setHeader("Content-Range", "bytes " + oStart + "-" + oEnd + "/" + mContent.length);
+				int oLength = oEnd - oStart + 1;
+				response.setContentLength(oLength);
+				if (mCutsLeft.getAndDecrement() > 0) {
+					// Sends half of it and drops the connection.
+					response.getOutputStream().write(mContent, oStart, oLength / 2);
+					response.flushBuffer();
+					baseRequest.getConnection().getEndPoint().close();
+					return;
+				}
+				response.getOutputStream().write(mContent, oStart, oLength);
+			}
+		});
+		mServer.start();
+		mUri = URI.create("http://localhost:" + mServer.getConnectors()[0].getLocalPort() + "/big.bin");
+		mHttpClient = HttpClients.custom().setMaxConnPerRoute(4).setMaxConnTotal(4).build();
+		mExecutor = Executors.newFixedThreadPool(4);
+		mFile = File.createTempFile("antiope", ".bin");
+		mFile.deleteOnExit();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		mExecutor.shutdownNow();
+		mHttpClient.close();
+		mServer.stop();
+		mServer.destroy();
+		mFile.delete();
+	}
+	
+	private RangedDownloader newDownloader() {
+		RangedDownloader oDownloader = new RangedDownloader(mHttpClient, mExecutor);
+		oDownloader.setRangeSize(RANGE_SIZE);
+		return oDownloader;
+	}
+	
+	@Test(timeout=20000)
+	public void parallelRanges() throws Exception {
+		// Longer than the resource: truncated.
+		FileUtils.writeByteArrayToFile(mFile, new byte[SIZE * 2]);
+		long oLength = newDownloader().download(mUri, Collections.singletonMap("X-Test", "1"), mFile);
+		assertEquals(SIZE, oLength);
+		assertArrayEquals(mContent, FileUtils.readFileToByteArray(mFile));
+		assertEquals((SIZE + RANGE_SIZE - 1) / RANGE_SIZE, mRanges.size());
+	}
+	
+	@Test(timeout=20000)
+	public void smallerThanRange() throws Exception {
+		mContent = new byte[] { 1, 2, 3 };
+		assertEquals(3, newDownloader().download(mUri, null, mFile));
+		assertArrayEquals(mContent, FileUtils.readFileToByteArray(mFile));
+		assertEquals(1, mRanges.size());
+	}
+	
+	@Test(timeout=20000)
+	public void rangesNotSupported() throws Exception {
+		mRangesSupported = false;
+		assertEquals(SIZE, newDownloader().download(mUri, null, mFile));
+		assertArrayEquals(mContent, FileUtils.readFileToByteArray(mFile));
+	}
+	
+	@Test(timeout=20000)
+	public void failedRangesResume() throws Exception {
+		mCutsLeft.set(3);
+		assertEquals(SIZE, newDownloader().download(mUri, null, mFile));
+		assertArrayEquals(mContent, FileUtils.readFileToByteArray(mFile));
+		int oRanges = (SIZE + RANGE_SIZE - 1) / RANGE_SIZE;
+		assertEquals(oRanges + 3, mRanges.size());
+		// Resumed where they were cut, not from the start of the range.
+		int oResumed = 0;
+		for (String oRange : mRanges) {
+			long oStart = Long.parseLong(oRange.substring("bytes=".length(), oRange.indexOf('-')));
+			if (oStart % RANGE_SIZE != 0) oResumed++;
+		}
+		assertEquals(3, oResumed);
+	}
+	
+	@Test(timeout=20000)
+	public void givesUpAfterRetries() throws Exception {
+		mCutsLeft.set(Integer.MAX_VALUE);
+		RangedDownloader oDownloader = newDownloader();
+		oDownloader.setMaxRangeRetries(2);
+		try {
+			oDownloader.download(mUri, null, mFile);
+			fail("Expected APIClientException");
+		} catch (APIClientException e) {
+			// expected
+		}
+	}
+	
+	@Test(timeout=20000)
+	public void changedDuringDownload() throws Exception {
+		RangedDownloader oDownloader = new RangedDownloader(mHttpClient, null);
+		oDownloader.setRangeSize(RANGE_SIZE);
+		RandomAccessFile oFile = new RandomAccessFile(mFile, "rw");
+		try {
+			// Changing the resource once the probe is done.
+			new Thread() {
+				@Override
+				public void run() {
+					while (mRanges.isEmpty()) Thread.yield();
+					mETag = "\"v2\"";
+				}
+			}.start();
+			oDownloader.download(mUri, null, oFile.getChannel());
+			fail("Expected APIClientException");
+		} catch (APIClientException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("changed"));
+		} finally {
+			oFile.close();
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.bo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.lpezet.antiope.be.APIWebServiceRequest;
+import com.github.lpezet.antiope.dao.DefaultRequest;
+import com.github.lpezet.antiope.dao.HttpMethodName;
+import com.github.lpezet.antiope.dao.Request;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class RateLimiterTest {
+	
+	private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	private static class ListRequest extends APIWebServiceRequest {
+		
+	}
+	
+	private static class PutRequest extends APIWebServiceRequest {
+		
+	}
+	
+	private static Request<?> newRequest(APIWebServiceRequest pOriginalRequest, String pEndpoint) {
+		Request<APIWebServiceRequest> oRequest = new DefaultRequest<APIWebServiceRequest>(pOriginalRequest, "Dummy");
+		oRequest.setEndpoint(URI.create(pEndpoint));
+		oRequest.setHttpMethod(HttpMethodName.GET);
+		return oRequest;
+	}
+	
+	@Test
+	public void burstThenRate() throws Exception {
+		RateLimiter oLimiter = new RateLimiter(10, 3);
+		Request<?> oRequest = newRequest(new ListRequest(), "http://localhost:8080");
+		long oNow = System.nanoTime();
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0, oLimiter.reserve(oRequest, oNow));
+		}
+		// queued up: 100ms, then 200ms
+		assertEquals(100, oLimiter.reserve(oRequest, oNow) / MILLI);
+		assertEquals(200, oLimiter.reserve(oRequest, oNow) / MILLI);
+		// 300ms later, both reservations are paid for and a token is back
+		assertEquals(0, oLimiter.reserve(oRequest, oNow + 300 * MILLI));
+	}
+	
+	@Test
+	public void bucketsPerEndpointAndOperation() throws Exception {
+		RateLimiter oLimiter = new RateLimiter(10, 1);
+		oLimiter.setLimit("PutRequest", 1, 1);
+		long oNow = System.nanoTime();
+		Request<?> oList = newRequest(new ListRequest(), "http://localhost:8080");
+		Request<?> oPut = newRequest(new PutRequest(), "http://localhost:8080");
+		Request<?> oOtherList = newRequest(new ListRequest(), "http://localhost:9090");
+		assertEquals(0, oLimiter.reserve(oList, oNow));
+		assertEquals(0, oLimiter.reserve(oPut, oNow));
+		assertEquals(0, oLimiter.reserve(oOtherList, oNow));
+		assertEquals(100, oLimiter.reserve(oList, oNow) / MILLI);
+		assertEquals(1000, oLimiter.reserve(oPut, oNow) / MILLI);
+	}
+	
+	@Test
+	public void throttledSlowsDownThenRecovers() throws Exception {
+		RateLimiter oLimiter = new RateLimiter(10, 1);
+		oLimiter.setRecoveryMillis(1000);
+		Request<?> oRequest = newRequest(new ListRequest(), "http://localhost:8080");
+		long oNow = System.nanoTime();
+		oLimiter.reserve(oRequest, oNow);
+		oLimiter.throttled(oRequest, -1, oNow);
+		assertEquals(5, oLimiter.getRate(oRequest), 0.01);
+		// decreased at most once per second
+		oLimiter.throttled(oRequest, -1, oNow + 10 * MILLI);
+		assertEquals(5, oLimiter.getRate(oRequest), 0.1);
+		// climbs back by 10/s per second
+		oLimiter.reserve(oRequest, oNow + 250 * MILLI);
+		assertEquals(7.5, oLimiter.getRate(oRequest), 0.1);
+		oLimiter.reserve(oRequest, oNow + 2000 * MILLI);
+		assertEquals(10, oLimiter.getRate(oRequest), 0.01);
+	}
+	
+	@Test
+	public void retryAfterPauses() throws Exception {
+		RateLimiter oLimiter = new RateLimiter(100, 10);
+		Request<?> oRequest = newRequest(new ListRequest(), "http://localhost:8080");
+		long oNow = System.nanoTime();
+		oLimiter.reserve(oRequest, oNow);
+		oLimiter.throttled(oRequest, 2000, oNow);
+		assertEquals(2000, oLimiter.reserve(oRequest, oNow) / MILLI);
+		assertTrue(oLimiter.reserve(oRequest, oNow + 2000 * MILLI) < 50 * MILLI);
+	}
+	
+	@Test
+	public void parseRetryAfter() throws Exception {
+		assertEquals(120000, RateLimiter.parseRetryAfter(" 120 ", 0));
+		assertEquals(-1, RateLimiter.parseRetryAfter("soon", 0));
+		assertEquals(-1, RateLimiter.parseRetryAfter(null, 0));
+		// Wed, 21 Oct 2015 07:28:00 GMT
+		assertEquals(30000, RateLimiter.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT", 1445412450000L));
+	}
+}
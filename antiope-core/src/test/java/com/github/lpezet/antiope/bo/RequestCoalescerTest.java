@@ -0,0 +1,79 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.bo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+import com.github.lpezet.antiope.be.APIWebServiceRequest;
+import com.github.lpezet.antiope.dao.DefaultRequest;
+import com.github.lpezet.antiope.dao.HttpMethodName;
+import com.github.lpezet.antiope.dao.Request;
+import com.github.lpezet.antiope.transform.ElementIterator;
+import com.github.lpezet.antiope.transform.StreamingUnmarshaller;
+import com.github.lpezet.antiope.transform.Unmarshaller;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class RequestCoalescerTest {
+	
+	private static class StringUnmarshaller implements Unmarshaller<String, Object> {
+		@Override
+		public String unmarshall(Object pIn) throws Exception {
+			return null;
+		}
+	}
+	
+	private static class IntegerUnmarshaller implements Unmarshaller<Integer, Object> {
+		@Override
+		public Integer unmarshall(Object pIn) throws Exception {
+			return null;
+		}
+	}
+	
+	private static class ItemsUnmarshaller implements StreamingUnmarshaller<String, Object> {
+		@Override
+		public ElementIterator<String> unmarshall(Object pIn) throws Exception {
+			return null;
+		}
+	}
+	
+	private static Request<?> newRequest(String... pHeaders) {
+		Request<APIWebServiceRequest> oRequest = new DefaultRequest<APIWebServiceRequest>(null, "Dummy");
+		oRequest.setEndpoint(URI.create("http://localhost:8080"));
+		oRequest.setHttpMethod(HttpMethodName.GET);
+		oRequest.setResourcePath("/items");
+		for (int i = 0; i < pHeaders.length; i += 2) {
+			oRequest.addHeader(pHeaders[i], pHeaders[i + 1]);
+		}
+		return oRequest;
+	}
+	
+	@Test
+	public void keyIncludesHeaders() throws Exception {
+		RequestCoalescer oCoalescer = new RequestCoalescer();
+		StringUnmarshaller oUnmarshaller = new StringUnmarshaller();
+		assertEquals(oCoalescer.getKey(newRequest("Range", "bytes=0-9"), oUnmarshaller, null), oCoalescer.getKey(newRequest("Range", "bytes=0-9"), oUnmarshaller, null));
+		assertNotEquals(oCoalescer.getKey(newRequest("Range", "bytes=0-9"), oUnmarshaller, null), oCoalescer.getKey(newRequest("Range", "bytes=10-19"), oUnmarshaller, null));
+		assertNotEquals(oCoalescer.getKey(newRequest(), oUnmarshaller, null), oCoalescer.getKey(newRequest("Accept", "application/json"), oUnmarshaller, null));
+	}
+	
+	@Test
+	public void keyIncludesUnmarshaller() throws Exception {
+		RequestCoalescer oCoalescer = new RequestCoalescer();
+		assertNotEquals(oCoalescer.getKey(newRequest(), new StringUnmarshaller(), null), oCoalescer.getKey(newRequest(), new IntegerUnmarshaller(), null));
+	}
+	
+	@Test
+	public void streamingNotCoalesced() throws Exception {
+		assertNull(new RequestCoalescer().getKey(newRequest(), new ItemsUnmarshaller(), null));
+	}
+}
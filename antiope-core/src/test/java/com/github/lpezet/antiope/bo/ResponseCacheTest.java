@@ -0,0 +1,101 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.bo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import com.github.lpezet.antiope.be.APIWebServiceRequest;
+import com.github.lpezet.antiope.dao.DefaultRequest;
+import com.github.lpezet.antiope.dao.HttpMethodName;
+import com.github.lpezet.antiope.dao.HttpResponse;
+import com.github.lpezet.antiope.dao.Request;
+import com.github.lpezet.antiope.transform.Unmarshaller;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class ResponseCacheTest {
+	
+	private static class StringUnmarshaller implements Unmarshaller<String, Object> {
+		@Override
+		public String unmarshall(Object pIn) throws Exception {
+			return null;
+		}
+	}
+	
+	private static class IntegerUnmarshaller implements Unmarshaller<Integer, Object> {
+		@Override
+		public Integer unmarshall(Object pIn) throws Exception {
+			return null;
+		}
+	}
+	
+	private static Request<?> newRequest(String... pParameters) {
+		Request<APIWebServiceRequest> oRequest = new DefaultRequest<APIWebServiceRequest>(null, "Dummy");
+		oRequest.setEndpoint(URI.create("http://localhost:8080"));
+		oRequest.setHttpMethod(HttpMethodName.GET);
+		oRequest.setResourcePath("/list");
+		for (int i = 0; i < pParameters.length; i += 2) {
+			oRequest.addParameter(pParameters[i], pParameters[i + 1]);
+		}
+		return oRequest;
+	}
+	
+	private static BasicHttpResponse newResponse(String pVary) {
+		BasicHttpResponse oResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		oResponse.setHeader("Cache-Control", "max-age=60");
+		if (pVary != null) oResponse.setHeader("Vary", pVary);
+		return oResponse;
+	}
+	
+	@Test
+	public void varyOnKeyHeaders() throws Exception {
+		ResponseCache oCache = new ResponseCache(10);
+		assertTrue(oCache.put("a", "A", new HttpResponse(null), newResponse(null)));
+		assertTrue(oCache.put("b", "B", new HttpResponse(null), newResponse("accept-encoding, Accept")));
+		assertEquals(2, oCache.size());
+	}
+	
+	@Test
+	public void varyOnOtherHeaders() throws Exception {
+		ResponseCache oCache = new ResponseCache(10);
+		assertFalse(oCache.put("a", "A", new HttpResponse(null), newResponse("Accept-Encoding, User-Agent")));
+		assertFalse(oCache.put("b", "B", new HttpResponse(null), newResponse("*")));
+		assertEquals(0, oCache.size());
+	}
+	
+	@Test
+	public void expiresRelativeToServerDate() throws Exception {
+		ResponseCache oCache = new ResponseCache(10);
+		BasicHttpResponse oResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		oResponse.setHeader("Date", "Thu, 01 Jan 2004 00:00:00 GMT");
+		oResponse.setHeader("Expires", "Thu, 01 Jan 2004 00:01:00 GMT");
+		assertTrue(oCache.put("a", "A", new HttpResponse(null), oResponse));
+		assertTrue(oCache.get("a").isFresh());
+	}
+	
+	@Test
+	public void keyEncodesParameters() throws Exception {
+		ResponseCache oCache = new ResponseCache(10);
+		StringUnmarshaller oUnmarshaller = new StringUnmarshaller();
+		assertNotEquals(oCache.getKey(newRequest("a", "b&c=d"), oUnmarshaller, null), oCache.getKey(newRequest("a", "b", "c", "d"), oUnmarshaller, null));
+		assertEquals(oCache.getKey(newRequest("a", "b", "c", "d"), oUnmarshaller, null), oCache.getKey(newRequest("c", "d", "a", "b"), new StringUnmarshaller(), null));
+	}
+	
+	@Test
+	public void keyIncludesUnmarshaller() throws Exception {
+		ResponseCache oCache = new ResponseCache(10);
+		assertNotEquals(oCache.getKey(newRequest(), new StringUnmarshaller(), null), oCache.getKey(newRequest(), new IntegerUnmarshaller(), null));
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.pool.ConnPoolControl;
+import org.junit.Test;
+
+import com.github.lpezet.antiope.be.APIConfiguration;
+
+/**
+ * @author lucpezet
+ *
+ */
+public class DefaultHttpClientFactoryTest {
+
+	@Test
+	public void poolSizedFromConfiguration() throws Exception {
+		APIConfiguration oConfig = new APIConfiguration();
+		oConfig.setMaxConnections(200);
+		oConfig.setMaxConnectionsPerRoute(80);
+		oConfig.setMaxConnectionsForEndpoint("https://api.example.com", 120);
+		HttpClient oHttpClient = new DefaultHttpClientFactory().createHttpClient(oConfig);
+		assertTrue(oHttpClient instanceof PoolingHttpClient);
+		ConnPoolControl<HttpRoute> oPool = ((PoolingHttpClient) oHttpClient).getConnPoolControl();
+		assertEquals(200, oPool.getMaxTotal());
+		assertEquals(80, oPool.getDefaultMaxPerRoute());
+		assertEquals(120, oPool.getMaxPerRoute(new HttpRoute(new HttpHost("api.example.com", 443, "https"), null, true)));
+		assertEquals(80, oPool.getMaxPerRoute(new HttpRoute(new HttpHost("other.example.com", 443, "https"), null, true)));
+		((PoolingHttpClient) oHttpClient).close();
+	}
+	
+	@Test
+	public void routeThroughProxy() throws Exception {
+		APIConfiguration oConfig = new APIConfiguration();
+		oConfig.setProxyHost("proxy");
+		oConfig.setProxyPort(3128);
+		HttpRoute oRoute = DefaultHttpClientFactory.toRoute("http://localhost:8080", oConfig);
+		assertEquals(new HttpHost("localhost", 8080, "http"), oRoute.getTargetHost());
+		assertEquals(new HttpHost("proxy", 3128), oRoute.getProxyHost());
+	}
+	
+	@Test
+	public void reaperRegisteredUntilClosed() throws Exception {
+		APIConfiguration oConfig = new APIConfiguration();
+		int oRegistered = IdleConnectionReaper.size();
+		PoolingHttpClient oHttpClient = (PoolingHttpClient) new DefaultHttpClientFactory().createHttpClient(oConfig);
+		assertEquals(oRegistered + 1, IdleConnectionReaper.size());
+		oHttpClient.close();
+		assertEquals(oRegistered, IdleConnectionReaper.size());
+		
+		oConfig.setUseReaper(false);
+		oHttpClient = (PoolingHttpClient) new DefaultHttpClientFactory().createHttpClient(oConfig);
+		assertEquals(oRegistered, IdleConnectionReaper.size());
+		oHttpClient.close();
+	}
+}
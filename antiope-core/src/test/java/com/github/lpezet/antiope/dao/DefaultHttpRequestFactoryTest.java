@@ -3,21 +3,33 @@
  */
 package com.github.lpezet.antiope.dao;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.net.URI;
+import java.util.Random;
 
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.junit.Test;
 
 import com.github.lpezet.antiope.be.APIConfiguration;
 import com.github.lpezet.antiope.be.APIWebServiceRequest;
+import com.github.lpezet.antiope.metrics.APIRequestMetrics;
+import com.github.lpezet.antiope.metrics.ArrayMetrics;
 
 /**
  * @author lucpezet
@@ -53,4 +65,127 @@ public class DefaultHttpRequestFactoryTest {
 		RepeatableInputStreamRequestEntity oEntity = (RepeatableInputStreamRequestEntity) oPost.getEntity();
 		assertEquals(oContent.length, oEntity.getContentLength());
 	}
+	
+	@Test
+	public void requestBytesMetrics() throws Exception {
+		Request<DummyRequest> oRequest = new DefaultRequest<DummyRequest>(new DummyRequest(), "Dummy");
+		oRequest.setEndpoint(URI.create("http://dummy.com"));
+		byte[] oContent = new byte[100000];
+		oRequest.setContent(new ByteArrayInputStream(oContent));
+		oRequest.addHeader("Content-Length", Integer.toString(oContent.length));
+		ArrayMetrics oMetrics = new ArrayMetrics();
+		oRequest.setMetrics(oMetrics);
+		
+		HttpPost oPost = (HttpPost) new DefaultHttpRequestFactory().createHttpRequest(oRequest, new APIConfiguration(), new BasicHttpContext(), new ExecutionContext());
+		ByteArrayOutputStream oOutput = new ByteArrayOutputStream();
+		oPost.getEntity().writeTo(oOutput);
+		assertEquals(oContent.length, oOutput.size());
+		assertEquals(oContent.length, oMetrics.getTimingInfo().getCounter(APIRequestMetrics.RequestBytes.name()).intValue());
+		assertTrue(oMetrics.getTimingInfo().getCounter(APIRequestMetrics.UploadThroughput.name()).longValue() > 0);
+	}
+	
+	@Test
+	public void putFileStreamsFromChannel() throws Exception {
+		byte[] oContent = new byte[200000];
+		new Random(1).nextBytes(oContent);
+		File oFile = File.createTempFile("antiope", ".bin");
+		oFile.deleteOnExit();
+		FileOutputStream oFileOutput = new FileOutputStream(oFile);
+		oFileOutput.write(oContent);
+		oFileOutput.close();
+		
+		FileInputStream oFileInput = new FileInputStream(oFile);
+		try {
+			// Content starts where the stream is.
+			oFileInput.skip(1000);
+			Request<DummyRequest> oRequest = new DefaultRequest<DummyRequest>(new DummyRequest(), "Dummy");
+			oRequest.setEndpoint(URI.create("http://dummy.com"));
+			oRequest.setHttpMethod(HttpMethodName.PUT);
+			oRequest.setContent(oFileInput);
+			ArrayMetrics oMetrics = new ArrayMetrics();
+			oRequest.setMetrics(oMetrics);
+			
+			HttpPut oPut = (HttpPut) new DefaultHttpRequestFactory().createHttpRequest(oRequest, new APIConfiguration(), new BasicHttpContext(), new ExecutionContext());
+			assertTrue(oPut.getEntity() instanceof FileChannelEntity);
+			assertEquals(oContent.length - 1000, oPut.getEntity().getContentLength());
+			assertTrue(oPut.getEntity().isRepeatable());
+			assertFalse(oPut.getEntity().isChunked());
+			// Below the default threshold
+			assertNull(oPut.getFirstHeader(HTTP.EXPECT_DIRECTIVE));
+			
+			byte[] oExpected = new byte[oContent.length - 1000];
+			System.arraycopy(oContent, 1000, oExpected, 0, oExpected.length);
+			for (int i = 0; i < 2; i++) {
+				ByteArrayOutputStream oOutput = new ByteArrayOutputStream();
+				oPut.getEntity().writeTo(oOutput);
+				assertArrayEquals(oExpected, oOutput.toByteArray());
+			}
+			assertEquals(oExpected.length, oMetrics.getTimingInfo().getCounter(APIRequestMetrics.RequestBytes.name()).intValue());
+			// Positional reads: the stream itself did not move.
+			assertEquals(1000, oFileInput.getChannel().position());
+		} finally {
+			oFileInput.close();
+		}
+	}
+	
+	@Test
+	public void expectContinueAboveThreshold() throws Exception {
+		APIConfiguration oConfiguration = new APIConfiguration();
+		oConfiguration.setExpectContinueThreshold(1000);
+		
+		HttpRequestBase oSmall = newPut(new byte[1000], true, oConfiguration);
+		assertNull(oSmall.getFirstHeader(HTTP.EXPECT_DIRECTIVE));
+		
+		HttpRequestBase oLarge = newPut(new byte[1001], true, oConfiguration);
+		assertEquals(HTTP.EXPECT_CONTINUE, oLarge.getFirstHeader(HTTP.EXPECT_DIRECTIVE).getValue());
+		
+		HttpRequestBase oUnknown = newPut(new byte[10], false, oConfiguration);
+		assertNotNull(oUnknown.getFirstHeader(HTTP.EXPECT_DIRECTIVE));
+		
+		oConfiguration.setExpectContinueThreshold(-1);
+		HttpRequestBase oDisabled = newPut(new byte[1001], true, oConfiguration);
+		assertNull(oDisabled.getFirstHeader(HTTP.EXPECT_DIRECTIVE));
+	}
+	
+	@Test
+	public void putUnknownLengthIsChunked() throws Exception {
+		byte[] oContent = "{toto:{}}".getBytes();
+		HttpPut oPut = (HttpPut) newPut(oContent, false, new APIConfiguration());
+		assertTrue(oPut.getEntity() instanceof RepeatableInputStreamRequestEntity);
+		assertTrue(oPut.getEntity().isChunked());
+		assertEquals(-1, oPut.getEntity().getContentLength());
+		ByteArrayOutputStream oOutput = new ByteArrayOutputStream();
+		oPut.getEntity().writeTo(oOutput);
+		assertArrayEquals(oContent, oOutput.toByteArray());
+	}
+	
+	private HttpRequestBase newPut(byte[] pContent, boolean pWithLength, APIConfiguration pConfiguration) {
+		Request<DummyRequest> oRequest = new DefaultRequest<DummyRequest>(new DummyRequest(), "Dummy");
+		oRequest.setEndpoint(URI.create("http://dummy.com"));
+		oRequest.setHttpMethod(HttpMethodName.PUT);
+		oRequest.setContent(new ByteArrayInputStream(pContent));
+		if (pWithLength) oRequest.addHeader("Content-Length", Integer.toString(pContent.length));
+		return new DefaultHttpRequestFactory().createHttpRequest(oRequest, pConfiguration, new BasicHttpContext(), new ExecutionContext());
+	}
+	
+	@Test
+	public void compressAboveThreshold() throws Exception {
+		APIConfiguration oConfiguration = new APIConfiguration();
+		oConfiguration.setUseGzip(true);
+		oConfiguration.setRequestCompressionThreshold(1000);
+		
+		HttpPut oSmall = (HttpPut) newPut(new byte[1000], true, oConfiguration);
+		assertTrue(oSmall.getEntity() instanceof RepeatableInputStreamRequestEntity);
+		assertEquals("gzip,deflate", oSmall.getFirstHeader("Accept-Encoding").getValue());
+		
+		HttpPut oLarge = (HttpPut) newPut(new byte[1001], true, oConfiguration);
+		assertTrue(oLarge.getEntity() instanceof GzipCompressingEntity);
+		assertTrue(oLarge.getEntity().isChunked());
+		
+		oConfiguration.setUseGzip(false);
+		oConfiguration.setRequestCompressionThreshold(-1);
+		HttpPut oDisabled = (HttpPut) newPut(new byte[1001], true, oConfiguration);
+		assertTrue(oDisabled.getEntity() instanceof RepeatableInputStreamRequestEntity);
+		assertNull(oDisabled.getFirstHeader("Accept-Encoding"));
+	}
 }
@@ -0,0 +1,168 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import com.github.lpezet.antiope.APIClientException;
+import com.github.lpezet.antiope.be.APIWebServiceRequest;
+import com.github.lpezet.antiope.be.BasicAPICredentials;
+import com.github.lpezet.antiope.be.IAPICredentials;
+
+/**
+ * Test vectors from the AWS Signature Version 4 test suite.
+ * 
+ * @author Luc Pezet
+ *
+ */
+public class HmacSHA256SignerTest {
+	
+	private static class DummyRequest extends APIWebServiceRequest {
+		
+	}
+	
+	private static final IAPICredentials CREDENTIALS = new BasicAPICredentials("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+	private static final String EMPTY_HASH = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+	
+	private static long time() throws Exception {
+		SimpleDateFormat oFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+		oFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return oFormat.parse("20150830T123600Z").getTime();
+	}
+	
+	private static Request<DummyRequest> newRequest(HttpMethodName pMethod, String pPath) {
+		Request<DummyRequest> oRequest = new DefaultRequest<DummyRequest>(new DummyRequest(), "Dummy");
+		oRequest.setEndpoint(URI.create("https://example.amazonaws.com"));
+		oRequest.setHttpMethod(pMethod);
+		oRequest.setResourcePath(pPath);
+		return oRequest;
+	}
+
+	@Test
+	public void getVanilla() throws Exception {
+		Request<DummyRequest> oRequest = newRequest(HttpMethodName.GET, "/");
+		new HmacSHA256Signer("service", "us-east-1").sign(oRequest, CREDENTIALS, time());
+		assertEquals("20150830T123600Z", oRequest.getHeaders().get(HmacSHA256Signer.DATE_HEADER));
+		assertEquals("AWS4-HMAC-SHA256 Credential=AKIDEXAMPLE/20150830/us-east-1/service/aws4_request, SignedHeaders=host;x-amz-date, Signature=5fa00fa31553b73ebf1942676e86291e8372ff2a2260956d9b8aae1d763fbf31", 
+				oRequest.getHeaders().get(HmacSHA256Signer.AUTHORIZATION_HEADER));
+	}
+	
+	@Test
+	public void getQueryOrder() throws Exception {
+		Request<DummyRequest> oRequest = newRequest(HttpMethodName.GET, "/");
+		oRequest.addParameter("Param2", "value2");
+		oRequest.addParameter("Param1", "value1");
+		new HmacSHA256Signer("service", "us-east-1").sign(oRequest, CREDENTIALS, time());
+		assertTrue(oRequest.getHeaders().get(HmacSHA256Signer.AUTHORIZATION_HEADER).endsWith("Signature=b97d918cfa904a5beff61c982a1b6f458b799221646efd99d3219ec94cdf2500"));
+	}
+	
+	@Test
+	public void resignReplacesPreviousSignature() throws Exception {
+		HmacSHA256Signer oSigner = new HmacSHA256Signer("service", "us-east-1");
+		Request<DummyRequest> oRequest = newRequest(HttpMethodName.GET, "/");
+		oSigner.sign(oRequest, CREDENTIALS, time() - 3600 * 1000L);
+		oSigner.sign(oRequest, CREDENTIALS, time());
+		assertEquals(2, oRequest.getHeaders().size());
+		assertTrue(oRequest.getHeaders().get(HmacSHA256Signer.AUTHORIZATION_HEADER).endsWith("Signature=5fa00fa31553b73ebf1942676e86291e8372ff2a2260956d9b8aae1d763fbf31"));
+	}
+	
+	@Test
+	public void streamedPayloadIsLeftReadable() throws Exception {
+		byte[] oContent = "Param1=value1".getBytes("UTF-8");
+		Request<DummyRequest> oRequest = newRequest(HttpMethodName.POST, "/");
+		oRequest.setContent(new ByteArrayInputStream(oContent));
+		oRequest.addHeader("Content-Type", "application/x-www-form-urlencoded");
+		HmacSHA256Signer oSigner = new HmacSHA256Signer("service", "us-east-1");
+		oSigner.sign(oRequest, CREDENTIALS, time());
+		String oStreamed = oRequest.getHeaders().get(HmacSHA256Signer.AUTHORIZATION_HEADER);
+		assertTrue(oStreamed.endsWith("Signature=ff11897932ad3f4e8b18135d722051e5ac45fc38421b1da7b9d196a0fe09473a"));
+		InputStream oStream = oRequest.getContent();
+		for (byte b : oContent) assertEquals(b, (byte) oStream.read());
+		assertEquals(-1, oStream.read());
+		
+		// Same body, from a file, read from where the stream is positioned.
+		File oFile = File.createTempFile("signer", ".txt");
+		oFile.deleteOnExit();
+		FileOutputStream oOut = new FileOutputStream(oFile);
+		oOut.write("skip".getBytes("UTF-8"));
+		oOut.write(oContent);
+		oOut.close();
+		FileInputStream oIn = new FileInputStream(oFile);
+		try {
+			assertEquals(4, oIn.skip(4));
+			oRequest.setContent(oIn);
+			oSigner.sign(oRequest, CREDENTIALS, time());
+			assertEquals(oStreamed, oRequest.getHeaders().get(HmacSHA256Signer.AUTHORIZATION_HEADER));
+			assertEquals(4, oIn.getChannel().position());
+		} finally {
+			oIn.close();
+		}
+	}
+	
+	@Test
+	public void presetOrUnsignedPayloadIsNotRead() throws Exception {
+		InputStream oUnreadable = new InputStream() {
+			@Override
+			public int read() {
+				throw new AssertionError("Payload should not be read.");
+			}
+		};
+		Request<DummyRequest> oRequest = newRequest(HttpMethodName.PUT, "/");
+		oRequest.setContent(oUnreadable);
+		oRequest.addHeader(HmacSHA256Signer.CONTENT_SHA256_HEADER, EMPTY_HASH);
+		new HmacSHA256Signer("service", "us-east-1").sign(oRequest, CREDENTIALS, time());
+		assertTrue(oRequest.getHeaders().get(HmacSHA256Signer.AUTHORIZATION_HEADER).contains("SignedHeaders=host;x-amz-content-sha256;x-amz-date,"));
+		
+		oRequest = newRequest(HttpMethodName.PUT, "/");
+		oRequest.setContent(oUnreadable);
+		HmacSHA256Signer oSigner = new HmacSHA256Signer("service", "us-east-1");
+		try {
+			oSigner.sign(oRequest, CREDENTIALS, time());
+			throw new AssertionError("Expected exception.");
+		} catch (APIClientException e) {
+			// expected
+		}
+		oSigner.setUnsignedPayload(true);
+		oSigner.sign(oRequest, CREDENTIALS, time());
+		assertEquals(HmacSHA256Signer.UNSIGNED_PAYLOAD, oRequest.getHeaders().get(HmacSHA256Signer.CONTENT_SHA256_HEADER));
+	}
+	
+	@Test
+	public void payloadPastReadLimitIsNotBuffered() throws Exception {
+		Request<DummyRequest> oRequest = newRequest(HttpMethodName.PUT, "/");
+		oRequest.setContent(new BufferedInputStream(new ByteArrayInputStream(new byte[64 * 1024]), 1024));
+		HmacSHA256Signer oSigner = new HmacSHA256Signer("service", "us-east-1");
+		oSigner.setStreamReadLimit(1024);
+		try {
+			oSigner.sign(oRequest, CREDENTIALS, time());
+			throw new AssertionError("Expected exception.");
+		} catch (APIClientException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void derivedKeyFollowsSecretKey() throws Exception {
+		HmacSHA256Signer oSigner = new HmacSHA256Signer("service", "us-east-1");
+		Request<DummyRequest> oRequest = newRequest(HttpMethodName.GET, "/");
+		oSigner.sign(oRequest, new BasicAPICredentials("AKIDEXAMPLE", "other"), time());
+		String oOther = oRequest.getHeaders().get(HmacSHA256Signer.AUTHORIZATION_HEADER);
+		oSigner.sign(oRequest, CREDENTIALS, time());
+		assertTrue(oRequest.getHeaders().get(HmacSHA256Signer.AUTHORIZATION_HEADER).endsWith("Signature=5fa00fa31553b73ebf1942676e86291e8372ff2a2260956d9b8aae1d763fbf31"));
+		assertTrue(!oOther.equals(oRequest.getHeaders().get(HmacSHA256Signer.AUTHORIZATION_HEADER)));
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.Test;
+
+import com.github.lpezet.antiope.metrics.APIRequestMetrics;
+import com.github.lpezet.antiope.metrics.ArrayMetrics;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class InflatingInputStreamTest {
+	
+	private static byte[] content() {
+		// Compressible, but not trivially.
+		byte[] oContent = new byte[100000];
+		Random oRandom = new Random(1);
+		for (int i = 0; i < oContent.length; i++) oContent[i] = (byte) ('a' + oRandom.nextInt(8));
+		return oContent;
+	}
+	
+	private static byte[] gzip(byte[] pContent) throws IOException {
+		ByteArrayOutputStream oOut = new ByteArrayOutputStream();
+		GZIPOutputStream oGzip = new GZIPOutputStream(oOut);
+		oGzip.write(pContent);
+		oGzip.close();
+		return oOut.toByteArray();
+	}
+	
+	private static byte[] deflate(byte[] pContent, boolean pNoWrap) throws IOException {
+		ByteArrayOutputStream oOut = new ByteArrayOutputStream();
+		DeflaterOutputStream oDeflate = new DeflaterOutputStream(oOut, new Deflater(Deflater.DEFAULT_COMPRESSION, pNoWrap));
+		oDeflate.write(pContent);
+		oDeflate.close();
+		return oOut.toByteArray();
+	}
+	
+	/**
+	 * Hands out at most a few bytes per read, as a slow connection would.
+	 */
+	private static InputStream trickle(byte[] pContent) {
+		return new FilterInputStream(new ByteArrayInputStream(pContent)) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 3));
+			}
+		};
+	}
+	
+	private static byte[] inflate(InputStream pIn, String pEncoding) throws IOException {
+		InflatingInputStream oIn = InflatingInputStream.forEncoding(pIn, pEncoding);
+		try {
+			return IOUtils.toByteArray(oIn);
+		} finally {
+			oIn.close();
+		}
+	}
+
+	@Test
+	public void gzip() throws Exception {
+		byte[] oContent = content();
+		byte[] oGzipped = gzip(oContent);
+		InflatingInputStream oIn = InflatingInputStream.forEncoding(new ByteArrayInputStream(oGzipped), "gzip");
+		assertArrayEquals(oContent, IOUtils.toByteArray(oIn));
+		assertEquals(oContent.length, oIn.getBytesInflated());
+		assertTrue(oIn.getInflateTimeNano() > 0);
+		oIn.close();
+		// Pooled inflater reused
+		assertArrayEquals(oContent, inflate(trickle(oGzipped), "GZIP"));
+		assertArrayEquals(new byte[0], inflate(new ByteArrayInputStream(gzip(new byte[0])), "gzip"));
+	}
+	
+	@Test
+	public void gzipMembers() throws Exception {
+		byte[] oContent = content();
+		ByteArrayOutputStream oMembers = new ByteArrayOutputStream();
+		oMembers.write(gzip(oContent));
+		oMembers.write(gzip(oContent));
+		ByteArrayOutputStream oExpected = new ByteArrayOutputStream();
+		oExpected.write(oContent);
+		oExpected.write(oContent);
+		assertArrayEquals(oExpected.toByteArray(), inflate(trickle(oMembers.toByteArray()), "gzip"));
+	}
+	
+	@Test
+	public void deflate() throws Exception {
+		byte[] oContent = content();
+		assertArrayEquals(oContent, inflate(new ByteArrayInputStream(deflate(oContent, false)), "deflate"));
+		assertArrayEquals(oContent, inflate(trickle(deflate(oContent, false)), "deflate"));
+		// Raw deflate, as some servers send it.
+		assertArrayEquals(oContent, inflate(trickle(deflate(oContent, true)), "deflate"));
+	}
+	
+	@Test
+	public void notEncoded() throws Exception {
+		assertNull(InflatingInputStream.forEncoding(new ByteArrayInputStream(new byte[0]), null));
+		assertNull(InflatingInputStream.forEncoding(new ByteArrayInputStream(new byte[0]), "identity"));
+		assertNull(InflatingInputStream.forEncoding(new ByteArrayInputStream(new byte[0]), "br"));
+	}
+	
+	@Test
+	public void corrupt() throws Exception {
+		byte[] oGzipped = gzip(content());
+		// CRC
+		oGzipped[oGzipped.length - 6]++;
+		try {
+			inflate(new ByteArrayInputStream(oGzipped), "gzip");
+			fail("Expected ZipException");
+		} catch (ZipException e) {
+			// expected
+		}
+		byte[] oTruncated = new byte[gzip(content()).length / 2];
+		System.arraycopy(gzip(content()), 0, oTruncated, 0, oTruncated.length);
+		try {
+			inflate(new ByteArrayInputStream(oTruncated), "gzip");
+			fail("Expected IOException");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void compressingEntity() throws Exception {
+		byte[] oContent = content();
+		ArrayMetrics oMetrics = new ArrayMetrics();
+		GzipCompressingEntity oEntity = new GzipCompressingEntity(new ByteArrayEntity(oContent), oMetrics);
+		assertEquals(-1, oEntity.getContentLength());
+		assertEquals("gzip", oEntity.getContentEncoding().getValue());
+		for (int i = 0; i < 2; i++) {
+			ByteArrayOutputStream oOut = new ByteArrayOutputStream();
+			oEntity.writeTo(oOut);
+			assertArrayEquals(oContent, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(oOut.toByteArray()))));
+			assertEquals(oOut.size(), oMetrics.getTimingInfo().getCounter(APIRequestMetrics.RequestBytes.name()).intValue());
+		}
+		assertEquals(oContent.length, oMetrics.getTimingInfo().getCounter(APIRequestMetrics.RequestUncompressedBytes.name()).intValue());
+		assertTrue(oMetrics.getTimingInfo().getCounter(APIRequestMetrics.RequestCompressionTime.name()).longValue() >= 0);
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonToken;
+import com.github.lpezet.antiope.be.APIWebServiceResponse;
+import com.github.lpezet.antiope.metrics.APIRequestMetrics;
+import com.github.lpezet.antiope.metrics.BaseMetrics;
+import com.github.lpezet.antiope.transform.JsonUnmarshallerContext;
+import com.github.lpezet.antiope.transform.Unmarshaller;
+
+/**
+ * @author lucpezet
+ *
+ */
+public class JsonResponseHandlerTest {
+
+	private static final String	JSON	= "{\"Item\":{\"Name\":\"hello\",\"Tags\":[\"a\",\"b\"]},\"ResponseMetadata\":{\"RequestId\":\"abc-123\"}}";
+
+	/** Reads the first "Name" and stops there. */
+	private static class NameUnmarshaller implements Unmarshaller<String, JsonUnmarshallerContext> {
+		@Override
+		public String unmarshall(JsonUnmarshallerContext pContext) throws Exception {
+			JsonToken oToken;
+			while ((oToken = pContext.nextToken()) != null) {
+				if (oToken == JsonToken.VALUE_STRING && pContext.testExpression("Name", 2)) return pContext.readText();
+			}
+			return null;
+		}
+	}
+
+	private HttpResponse newResponse(String pContent) {
+		HttpResponse oResponse = new HttpResponse(new HttpGet("http://localhost/"));
+		oResponse.setStatusCode(200);
+		if (pContent != null) oResponse.setContent(new ByteArrayInputStream(pContent.getBytes()));
+		return oResponse;
+	}
+
+	@Test
+	public void handle() throws Exception {
+		HttpResponse oResponse = newResponse(JSON);
+		final Map<String, Long> oCounters = new HashMap<String, Long>();
+		oResponse.setMetrics(new BaseMetrics() {
+			@Override
+			public void setCounter(String pCounterName, long pCount) {
+				oCounters.put(pCounterName, pCount);
+			}
+		});
+		APIWebServiceResponse<String> oResult = new JsonResponseHandler<String>(new NameUnmarshaller()).handle(oResponse);
+		assertEquals("hello", oResult.getResult());
+		// read past what the unmarshaller needed
+		assertEquals("abc-123", oResult.getRequestId());
+		assertEquals(JSON.length(), oCounters.get(APIRequestMetrics.BytesProcessed.name()).intValue());
+	}
+
+	@Test
+	public void noContent() throws Exception {
+		APIWebServiceResponse<String> oResult = new JsonResponseHandler<String>(null).handle(newResponse(null));
+		assertNull(oResult.getResult());
+		assertNull(oResult.getRequestId());
+	}
+
+	@Test
+	public void lowerCaseRequestId() throws Exception {
+		APIWebServiceResponse<String> oResult = new JsonResponseHandler<String>(null).handle(newResponse("{\"requestId\":\"xyz\",\"data\":{\"requestId\":\"no\"}}"));
+		assertEquals("xyz", oResult.getRequestId());
+	}
+}
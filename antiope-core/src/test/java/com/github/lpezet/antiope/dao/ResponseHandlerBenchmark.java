@@ -0,0 +1,137 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.dao;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.http.client.methods.HttpGet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.core.JsonToken;
+import com.github.lpezet.antiope.transform.JsonUnmarshallerContext;
+import com.github.lpezet.antiope.transform.StaxUnmarshallerContext;
+import com.github.lpezet.antiope.transform.Unmarshaller;
+
+/**
+ * The same list of places, as XML and as JSON, unmarshalled (names and
+ * latitudes) through {@link StaxResponseHandler},
+ * {@link StaxCursorResponseHandler} and {@link JsonResponseHandler}.
+ * <p>
+ * Run with <code>main()</code> from the test classpath, add
+ * <code>-prof gc</code> through JMH options to see allocations.
+ * 
+ * @author Luc Pezet
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseHandlerBenchmark {
+
+	private static class StaxPlacesUnmarshaller implements Unmarshaller<Integer, StaxUnmarshallerContext> {
+		@Override
+		public Integer unmarshall(StaxUnmarshallerContext pContext) throws Exception {
+			int oCount = 0;
+			while (true) {
+				XMLEvent oEvent = pContext.nextEvent();
+				if (oEvent.isEndDocument()) return oCount;
+				if (oEvent.isStartElement() && (pContext.testExpression("place/name") || pContext.testExpression("centroid/latitude"))) {
+					oCount += pContext.readText().length();
+				}
+			}
+		}
+	}
+
+	private static class JsonPlacesUnmarshaller implements Unmarshaller<Integer, JsonUnmarshallerContext> {
+		@Override
+		public Integer unmarshall(JsonUnmarshallerContext pContext) throws Exception {
+			int oCount = 0;
+			JsonToken oToken;
+			while ((oToken = pContext.nextToken()) != null) {
+				if (oToken.isScalarValue() && (pContext.testExpression("name", 3) || pContext.testExpression("latitude", 4))) {
+					oCount += pContext.readText().length();
+				}
+			}
+			return oCount;
+		}
+	}
+
+	@Param({ "10", "1000" })
+	private int									mItems;
+
+	private byte[]								mXML;
+	private byte[]								mJson;
+	private StaxResponseHandler<Integer>		mStaxHandler;
+	private StaxCursorResponseHandler<Integer>	mStaxCursorHandler;
+	private JsonResponseHandler<Integer>		mJsonHandler;
+
+	@Setup
+	public void setup() {
+		StringBuilder oXML = new StringBuilder("<query><results>");
+		StringBuilder oJson = new StringBuilder("{\"query\":{\"results\":[");
+		for (int i = 0; i < mItems; i++) {
+			oXML.append("<place lang=\"en-US\" uri=\"http://where.yahooapis.com/v1/place/").append(i).append("\">");
+			oXML.append("<woeid>").append(i).append("</woeid><name>Place ").append(i).append("</name>");
+			oXML.append("<centroid><latitude>37.77</latitude><longitude>-122.41</longitude></centroid>");
+			oXML.append("</place>");
+			if (i > 0) oJson.append(',');
+			oJson.append("{\"lang\":\"en-US\",\"uri\":\"http://where.yahooapis.com/v1/place/").append(i).append("\",");
+			oJson.append("\"woeid\":").append(i).append(",\"name\":\"Place ").append(i).append("\",");
+			oJson.append("\"centroid\":{\"latitude\":37.77,\"longitude\":-122.41}}");
+		}
+		oXML.append("</results><ResponseMetadata><RequestId>abc</RequestId></ResponseMetadata></query>");
+		oJson.append("]},\"ResponseMetadata\":{\"RequestId\":\"abc\"}}");
+		mXML = oXML.toString().getBytes();
+		mJson = oJson.toString().getBytes();
+		mStaxHandler = new StaxResponseHandler<Integer>(new StaxPlacesUnmarshaller());
+		mStaxCursorHandler = StaxCursorResponseHandler.of(new StaxPlacesUnmarshaller());
+		mJsonHandler = new JsonResponseHandler<Integer>(new JsonPlacesUnmarshaller());
+	}
+
+	private static HttpResponse newResponse(byte[] pContent) {
+		HttpResponse oResponse = new HttpResponse(new HttpGet("http://localhost/"));
+		oResponse.setStatusCode(200);
+		oResponse.setContent(new ByteArrayInputStream(pContent));
+		return oResponse;
+	}
+
+	@Benchmark
+	public int xmlEvent() throws Exception {
+		return mStaxHandler.handle(newResponse(mXML)).getResult();
+	}
+
+	@Benchmark
+	public int xmlCursor() throws Exception {
+		return mStaxCursorHandler.handle(newResponse(mXML)).getResult();
+	}
+
+	@Benchmark
+	public int json() throws Exception {
+		return mJsonHandler.handle(newResponse(mJson)).getResult();
+	}
+
+	public static void main(String[] pArgs) throws Exception {
+		Options oOptions = new OptionsBuilder().include(ResponseHandlerBenchmark.class.getSimpleName()).build();
+		new Runner(oOptions).run();
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.lpezet.antiope.APIServiceException;
+import com.github.lpezet.antiope.APIServiceException.ErrorType;
+
+/**
+ * @author lucpezet
+ *
+ */
+public class StaxErrorResponseHandlerTest {
+
+	private HttpResponse newResponse(int pStatusCode, String pStatusText, String pContent) {
+		HttpResponse oResponse = new HttpResponse(new HttpGet("http://localhost/"));
+		oResponse.setStatusCode(pStatusCode);
+		oResponse.setStatusText(pStatusText);
+		if (pContent != null) oResponse.setContent(new ByteArrayInputStream(pContent.getBytes()));
+		return oResponse;
+	}
+
+	@After
+	public void tearDown() {
+		APIServiceException.setStackless(false);
+	}
+
+	@Test
+	public void error() throws Exception {
+		String oXML = "<ErrorResponse xmlns=\"http://api.example.com/doc/2014-01-01/\"><Error><Type>Sender</Type><Code>Throttling</Code><Message>Rate exceeded</Message></Error><RequestId>abc-123</RequestId></ErrorResponse>";
+		APIServiceException oException = new StaxErrorResponseHandler().handle(newResponse(400, "Bad Request", oXML));
+		assertEquals("Throttling", oException.getErrorCode());
+		assertTrue(oException.getMessage().endsWith("Rate exceeded"));
+		assertEquals("abc-123", oException.getRequestId());
+		assertEquals(400, oException.getStatusCode());
+		assertEquals(ErrorType.Client, oException.getErrorType());
+	}
+
+	@Test
+	public void errors() throws Exception {
+		String oXML = "<Response><Errors><Error><Code>InternalError</Code><Message>Oops</Message></Error></Errors><RequestID>r1</RequestID></Response>";
+		APIServiceException oException = new StaxErrorResponseHandler().handle(newResponse(500, "Internal Server Error", oXML));
+		assertEquals("InternalError", oException.getErrorCode());
+		assertEquals("r1", oException.getRequestId());
+		assertEquals(ErrorType.Service, oException.getErrorType());
+	}
+
+	@Test
+	public void notXml() throws Exception {
+		APIServiceException oException = new StaxErrorResponseHandler().handle(newResponse(503, "Service Unavailable", "<html><body>busy"));
+		assertEquals("503 Service Unavailable", oException.getErrorCode());
+		assertNull(oException.getRequestId());
+		oException = new StaxErrorResponseHandler().handle(newResponse(502, "Bad Gateway", null));
+		assertEquals("502 Bad Gateway", oException.getErrorCode());
+	}
+
+	@Test
+	public void stackless() throws Exception {
+		String oXML = "<Error><Code>Throttling</Code></Error>";
+		APIServiceException oException = new StaxErrorResponseHandler().handle(newResponse(400, "Bad Request", oXML));
+		assertTrue(oException.getStackTrace().length > 0);
+		APIServiceException.setStackless(true);
+		oException = new StaxErrorResponseHandler().handle(newResponse(400, "Bad Request", oXML));
+		assertEquals(0, oException.getStackTrace().length);
+		oException.fillInStackTrace();
+		assertEquals(0, oException.getStackTrace().length);
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class ArrayMetricsTest {
+	
+	private static final MetricType CUSTOM = new MetricType() {
+		@Override
+		public String name() {
+			return "Custom";
+		}
+	};
+	
+	private static void record(IMetrics pMetrics) {
+		pMetrics.startEvent(APIRequestMetrics.ClientExecuteTime);
+		pMetrics.addProperty(APIRequestMetrics.ServiceName, "MyService");
+		for (int i = 1; i <= 3; i++) {
+			pMetrics.setCounter(APIRequestMetrics.RequestCount, i);
+			pMetrics.startEvent(APIRequestMetrics.HttpRequestTime);
+			pMetrics.endEvent(APIRequestMetrics.HttpRequestTime);
+			pMetrics.addProperty(APIRequestMetrics.StatusCode, 500 + i);
+		}
+		pMetrics.incrementCounter(APIRequestMetrics.ThrottleException);
+		pMetrics.incrementCounter(APIRequestMetrics.ThrottleException.name());
+		pMetrics.incrementCounter(CUSTOM);
+		pMetrics.startEvent("Other");
+		pMetrics.endEvent("Other");
+		pMetrics.addProperty(CUSTOM, "value");
+		pMetrics.endEvent(APIRequestMetrics.ClientExecuteTime);
+		pMetrics.getTimingInfo().endTiming();
+	}
+
+	@Test
+	public void sameAsBaseMetrics() throws Exception {
+		IMetrics oExpected = new BaseMetrics();
+		IMetrics oActual = new ArrayMetrics();
+		record(oExpected);
+		record(oActual);
+		TimingInfo e = oExpected.getTimingInfo();
+		TimingInfo a = oActual.getTimingInfo();
+		assertTrue(a.isEndTimeKnown());
+		for (String oName : Arrays.asList("RequestCount", "ThrottleException", "Custom", "RetryCount")) {
+			assertEquals(oName, e.getCounter(oName) == null ? null : e.getCounter(oName).longValue(), 
+					a.getCounter(oName) == null ? null : a.getCounter(oName).longValue());
+		}
+		assertEquals(e.getAllCounters().keySet(), a.getAllCounters().keySet());
+		assertEquals(e.getSubMeasurementsByName().keySet(), a.getSubMeasurementsByName().keySet());
+		assertEquals(3, a.getAllSubMeasurements("HttpRequestTime").size());
+		assertEquals(1, a.getAllSubMeasurements("Other").size());
+		assertNull(a.getAllSubMeasurements("RequestSigningTime"));
+		assertNull(a.getSubMeasurement("HttpRequestTime", 3));
+		assertTrue(a.getLastSubMeasurement("HttpRequestTime").isEndTimeKnown());
+		assertEquals(oExpected.getProperty(APIRequestMetrics.StatusCode), oActual.getProperty(APIRequestMetrics.StatusCode));
+		assertEquals(oExpected.getProperty("ServiceName"), oActual.getProperty("ServiceName"));
+		assertEquals(oExpected.getProperty(CUSTOM), oActual.getProperty(CUSTOM));
+		assertNull(oActual.getProperty(APIRequestMetrics.APIErrorCode));
+		oActual.log();
+	}
+	
+	@Test
+	public void grows() throws Exception {
+		ArrayMetrics oMetrics = new ArrayMetrics();
+		for (int i = 0; i < 100; i++) {
+			oMetrics.startEvent(APIRequestMetrics.RetryPauseTime);
+			oMetrics.endEvent(APIRequestMetrics.RetryPauseTime);
+			oMetrics.addProperty(APIRequestMetrics.Exception, "e" + i);
+		}
+		assertEquals(100, oMetrics.getTimingInfo().getAllSubMeasurements(APIRequestMetrics.RetryPauseTime.name()).size());
+		assertEquals("e99", oMetrics.getProperty(APIRequestMetrics.Exception).get(99));
+	}
+	
+	@Test
+	public void endWithoutStart() throws Exception {
+		ArrayMetrics oMetrics = new ArrayMetrics();
+		oMetrics.endEvent(APIRequestMetrics.HttpRequestTime);
+		assertNull(oMetrics.getTimingInfo().getSubMeasurement(APIRequestMetrics.HttpRequestTime.name()));
+	}
+	
+	@Test
+	public void pooledPerThread() throws Exception {
+		ArrayMetrics oFirst = ArrayMetrics.acquire();
+		record(oFirst);
+		// not released yet: a fresh instance
+		ArrayMetrics oSecond = ArrayMetrics.acquire();
+		assertNotSame(oFirst, oSecond);
+		oFirst.release();
+		ArrayMetrics oThird = ArrayMetrics.acquire();
+		assertSame(oFirst, oThird);
+		assertFalse(oThird.getTimingInfo().isEndTimeKnown());
+		assertNull(oThird.getTimingInfo().getCounter(APIRequestMetrics.RequestCount.name()));
+		assertNull(oThird.getTimingInfo().getAllSubMeasurements(APIRequestMetrics.HttpRequestTime.name()));
+		assertNull(oThird.getProperty(APIRequestMetrics.StatusCode));
+		assertNull(oThird.getProperty(CUSTOM));
+		assertTrue(oThird.getTimingInfo().getAllCounters().isEmpty());
+		oThird.release();
+	}
+	
+	@Test
+	public void discarded() throws Exception {
+		ArrayMetrics oFirst = ArrayMetrics.acquire();
+		oFirst.discard();
+		oFirst.release();
+		ArrayMetrics oSecond = ArrayMetrics.acquire();
+		assertNotSame(oFirst, oSecond);
+		oSecond.release();
+		assertSame(oSecond, ArrayMetrics.acquire());
+		oSecond.release();
+	}
+
+}
@@ -0,0 +1,112 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.github.lpezet.antiope.be.APIWebServiceRequest;
+import com.github.lpezet.antiope.dao.DefaultRequest;
+import com.github.lpezet.antiope.dao.HttpMethodName;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class LatencyHistogramTest {
+	
+	private static class GetItemsRequest extends APIWebServiceRequest {
+	}
+
+	@Test
+	public void buckets() throws Exception {
+		int oPrevious = -1;
+		for (long v = 0; v < LatencyHistogram.MAX_VALUE; v = v < 1000 ? v + 1 : v + v / 7) {
+			int i = LatencyHistogram.indexOf(v);
+			assertTrue(i >= oPrevious);
+			assertTrue(i < LatencyHistogram.BUCKET_COUNT);
+			assertTrue(LatencyHistogram.lowestValueOf(i) <= v);
+			assertTrue(LatencyHistogram.highestValueOf(i) >= v);
+			assertTrue(LatencyHistogram.highestValueOf(i) - v <= v / 64);
+			oPrevious = i;
+		}
+		assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE));
+	}
+	
+	@Test
+	public void percentiles() throws Exception {
+		LatencyHistogram oHistogram = new LatencyHistogram();
+		for (int i = 1; i <= 10000; i++) {
+			oHistogram.record(i * 10); // 10us to 100ms
+		}
+		oHistogram.recordNanos(TimeUnit.SECONDS.toNanos(2));
+		LatencyHistogram.Snapshot oSnapshot = oHistogram.snapshot();
+		assertEquals(10001, oSnapshot.getCount());
+		assertEquals(50, oSnapshot.getP50(), 50 * 0.016);
+		assertEquals(90, oSnapshot.getP90(), 90 * 0.016);
+		assertEquals(99, oSnapshot.getP99(), 99 * 0.016);
+		assertEquals(99.9, oSnapshot.getP999(), 99.9 * 0.016);
+		assertEquals(2000, oSnapshot.getMax(), 0);
+		assertEquals(2000, oSnapshot.getValueAtPercentile(100), 0);
+		assertEquals((50005000L * 10 + 2000000) / 10001.0 / 1000, oSnapshot.getMean(), 0.001);
+		// interval: reset
+		assertEquals(0, oHistogram.snapshot().getCount());
+		assertEquals(0, oHistogram.snapshot().getP99(), 0);
+	}
+	
+	@Test
+	public void concurrentRecording() throws Exception {
+		final LatencyHistogram oHistogram = new LatencyHistogram();
+		List<Thread> oThreads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			Thread oThread = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 100000; i++) oHistogram.record(i % 5000);
+				}
+			};
+			oThreads.add(oThread);
+			oThread.start();
+		}
+		long oCount = 0;
+		for (Thread t : oThreads) {
+			oCount += oHistogram.snapshot().getCount();
+			t.join();
+		}
+		oCount += oHistogram.snapshot().getCount();
+		assertEquals(400000, oCount);
+	}
+	
+	@Test
+	public void collector() throws Exception {
+		HistogramMetricsCollector oCollector = new HistogramMetricsCollector();
+		for (int i = 0; i < 5; i++) {
+			ArrayMetrics oMetrics = new ArrayMetrics();
+			oMetrics.startEvent(APIRequestMetrics.HttpRequestTime);
+			oMetrics.endEvent(APIRequestMetrics.HttpRequestTime);
+			oMetrics.startEvent(APIRequestMetrics.HttpRequestTime);
+			oMetrics.endEvent(APIRequestMetrics.HttpRequestTime);
+			oMetrics.getTimingInfo().endTiming();
+			DefaultRequest<GetItemsRequest> oRequest = new DefaultRequest<GetItemsRequest>(i == 0 ? new GetItemsRequest() : null, "MyService");
+			oRequest.setHttpMethod(HttpMethodName.GET);
+			oRequest.setMetrics(oMetrics);
+			oCollector.collectMetrics(oRequest, null);
+		}
+		Map<String, LatencyHistogram.Snapshot> oSnapshots = oCollector.snapshot();
+		assertEquals(4, oSnapshots.size());
+		assertEquals(1, oSnapshots.get("MyService/GetItemsRequest/ClientExecuteTime").getCount());
+		assertEquals(2, oSnapshots.get("MyService/GetItemsRequest/HttpRequestTime").getCount());
+		assertEquals(4, oSnapshots.get("MyService/GET/ClientExecuteTime").getCount());
+		assertEquals(8, oSnapshots.get("MyService/GET/HttpRequestTime").getCount());
+		assertTrue(oCollector.snapshot().isEmpty());
+	}
+
+}
@@ -0,0 +1,96 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Metrics recorded by a profiled request (as in AdvancedAPIClient, one retry)
+ * with BaseMetrics, pooled ArrayMetrics and profiling off (StubMetrics), and
+ * the cost of recording a latency in a LatencyHistogram shared by all the
+ * threads. Run with "-prof gc" to compare the allocation rates.
+ * 
+ * @author Luc Pezet
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+	private static final LatencyHistogram	HISTOGRAM	= new LatencyHistogram();
+	private long							mLatency;
+
+	private static long record(IMetrics pMetrics) {
+		pMetrics.startEvent(APIRequestMetrics.ClientExecuteTime);
+		pMetrics.startEvent(APIRequestMetrics.RequestMarshallTime);
+		pMetrics.endEvent(APIRequestMetrics.RequestMarshallTime);
+		pMetrics.addProperty(APIRequestMetrics.ServiceName, "MyService");
+		pMetrics.addProperty(APIRequestMetrics.ServiceEndpoint, "https://api.example.com");
+		for (int i = 1; i <= 2; i++) {
+			pMetrics.setCounter(APIRequestMetrics.RequestCount, i);
+			if (i > 1) {
+				pMetrics.setCounter(APIRequestMetrics.RetryCount, i - 1);
+				pMetrics.startEvent(APIRequestMetrics.RetryPauseTime);
+				pMetrics.endEvent(APIRequestMetrics.RetryPauseTime);
+			}
+			pMetrics.startEvent(APIRequestMetrics.RequestSigningTime);
+			pMetrics.endEvent(APIRequestMetrics.RequestSigningTime);
+			pMetrics.startEvent(APIRequestMetrics.HttpRequestTime);
+			pMetrics.endEvent(APIRequestMetrics.HttpRequestTime);
+			pMetrics.addProperty(APIRequestMetrics.StatusCode, i == 1 ? 503 : 200);
+		}
+		pMetrics.startEvent(APIRequestMetrics.ResponseProcessingTime);
+		pMetrics.endEvent(APIRequestMetrics.ResponseProcessingTime);
+		pMetrics.setCounter(APIRequestMetrics.BytesProcessed, 1024);
+		pMetrics.endEvent(APIRequestMetrics.ClientExecuteTime);
+		return pMetrics.getTimingInfo().endTiming().getEndTimeNano();
+	}
+
+	@Benchmark
+	public long baseMetrics() {
+		return record(new BaseMetrics());
+	}
+
+	@Benchmark
+	public long arrayMetrics() {
+		ArrayMetrics oMetrics = ArrayMetrics.acquire();
+		try {
+			return record(oMetrics);
+		} finally {
+			oMetrics.release();
+		}
+	}
+
+	@Benchmark
+	public long profilingOff() {
+		return record(StubMetrics.getInstance());
+	}
+
+	@Benchmark
+	public void histogramRecord() {
+		HISTOGRAM.record(mLatency++ & 0xFFFFF);
+	}
+
+	public static void main(String[] pArgs) throws Exception {
+		Options oOptions = new OptionsBuilder().include(MetricsBenchmark.class.getSimpleName()).build();
+		new Runner(oOptions).run();
+	}
+}
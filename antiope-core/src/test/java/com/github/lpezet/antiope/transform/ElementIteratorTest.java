@@ -0,0 +1,197 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.events.XMLEvent;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonToken;
+import com.github.lpezet.antiope.APIClientException;
+import com.github.lpezet.antiope.be.APIWebServiceResponse;
+import com.github.lpezet.antiope.dao.HttpResponse;
+import com.github.lpezet.antiope.dao.JsonResponseHandler;
+import com.github.lpezet.antiope.dao.StaxCursorResponseHandler;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class ElementIteratorTest {
+
+	private static class CountingCloseable implements Closeable {
+		private final AtomicInteger	mCloses	= new AtomicInteger();
+
+		@Override
+		public void close() throws IOException {
+			mCloses.incrementAndGet();
+		}
+	}
+
+	/** Reads the "name" of a place, up to the end of it. */
+	private static class StaxPlaceUnmarshaller implements Unmarshaller<String, StaxUnmarshallerContext> {
+		@Override
+		public String unmarshall(StaxUnmarshallerContext pContext) throws Exception {
+			int oOriginalDepth = pContext.getCurrentDepth();
+			String oName = null;
+			while (true) {
+				XMLEvent oEvent = pContext.nextEvent();
+				if (oEvent.isEndDocument()) return oName;
+				if (oEvent.isStartElement() && pContext.testExpression("name", oOriginalDepth + 1)) {
+					oName = pContext.readText();
+				} else if (oEvent.isEndElement() && pContext.getCurrentDepth() < oOriginalDepth) {
+					return oName;
+				}
+			}
+		}
+	}
+
+	/** Reads the "name" of an item object, up to its END_OBJECT. */
+	private static class JsonItemUnmarshaller implements Unmarshaller<String, JsonUnmarshallerContext> {
+		@Override
+		public String unmarshall(JsonUnmarshallerContext pContext) throws Exception {
+			int oOriginalDepth = pContext.getCurrentDepth();
+			String oParentElement = pContext.getCurrentParentElement();
+			String oName = null;
+			JsonToken oToken;
+			while ((oToken = pContext.nextToken()) != null) {
+				if (oToken.isScalarValue() && pContext.testExpression("name", oOriginalDepth + 1)) {
+					oName = pContext.readText();
+				} else if (oToken == JsonToken.END_ARRAY || oToken == JsonToken.END_OBJECT) {
+					String oLastParsed = pContext.getLastParsedParentElement();
+					if ((oLastParsed == null || oLastParsed.equals(oParentElement)) && pContext.getCurrentDepth() <= oOriginalDepth) break;
+				}
+			}
+			return oName;
+		}
+	}
+
+	private static final String	XML		= "<query><results><place><name>a</name><centroid><name>no</name></centroid></place><place><name>b</name></place></results></query>";
+	private static final String	JSON	= "{\"Count\":2,\"Items\":[{\"name\":\"a\",\"sub\":{\"name\":\"no\"},\"tags\":[1,2]},{\"name\":\"b\"}],\"Other\":[{\"name\":\"no\"}]}";
+
+	private static List<String> toList(ElementIterator<String> pIterator) {
+		List<String> oResult = new ArrayList<String>();
+		while (pIterator.hasNext()) oResult.add(pIterator.next());
+		return oResult;
+	}
+
+	@Test
+	public void stax() throws Exception {
+		StaxUnmarshallerContext oContext = new StaxUnmarshallerContext(XMLInputFactory.newInstance().createXMLEventReader(new ByteArrayInputStream(XML.getBytes())));
+		ElementIterator<String> oIterator = StaxElementIterator.unmarshaller("results/place", 2, new StaxPlaceUnmarshaller()).unmarshall(oContext);
+		CountingCloseable oResource = new CountingCloseable();
+		oIterator.addResource(oResource);
+		assertEquals("[a, b]", toList(oIterator).toString());
+		// released as soon as the end is reached
+		assertTrue(oIterator.isClosed());
+		assertEquals(1, oResource.mCloses.get());
+		oIterator.close();
+		assertEquals(1, oResource.mCloses.get());
+		try {
+			oIterator.next();
+			fail("Expected NoSuchElementException.");
+		} catch (NoSuchElementException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void json() throws Exception {
+		JsonUnmarshallerContext oContext = new JsonUnmarshallerContext(new JsonFactory().createJsonParser(JSON));
+		ElementIterator<String> oIterator = JsonElementIterator.unmarshaller("Items", new JsonItemUnmarshaller()).unmarshall(oContext);
+		assertEquals("[a, b]", toList(oIterator).toString());
+		assertTrue(oIterator.isClosed());
+	}
+
+	@Test
+	public void jsonTopLevelArray() throws Exception {
+		JsonUnmarshallerContext oContext = new JsonUnmarshallerContext(new JsonFactory().createJsonParser("[{\"name\":\"a\"},{\"name\":\"b\"}]"));
+		assertEquals("[a, b]", toList(new JsonElementIterator<String>(oContext, ".", new JsonItemUnmarshaller())).toString());
+	}
+
+	@Test
+	public void closeEarly() throws Exception {
+		JsonUnmarshallerContext oContext = new JsonUnmarshallerContext(new JsonFactory().createJsonParser(JSON));
+		ElementIterator<String> oIterator = new JsonElementIterator<String>(oContext, "Items", new JsonItemUnmarshaller());
+		CountingCloseable oFirst = new CountingCloseable();
+		CountingCloseable oSecond = new CountingCloseable();
+		oIterator.addResource(oFirst);
+		oIterator.addResource(oSecond);
+		assertEquals("a", oIterator.next());
+		oIterator.close();
+		assertFalse(oIterator.hasNext());
+		assertEquals(1, oFirst.mCloses.get());
+		assertEquals(1, oSecond.mCloses.get());
+		// added after closing: closed right away
+		CountingCloseable oLate = new CountingCloseable();
+		oIterator.addResource(oLate);
+		assertEquals(1, oLate.mCloses.get());
+	}
+
+	@Test
+	public void failureReleases() throws Exception {
+		JsonUnmarshallerContext oContext = new JsonUnmarshallerContext(new JsonFactory().createJsonParser("{\"Items\":[{\"name\":\"a\"}, {\"name\": }]}"));
+		ElementIterator<String> oIterator = new JsonElementIterator<String>(oContext, "Items", new JsonItemUnmarshaller());
+		CountingCloseable oResource = new CountingCloseable();
+		oIterator.addResource(oResource);
+		assertEquals("a", oIterator.next());
+		try {
+			oIterator.hasNext();
+			fail("Expected APIClientException.");
+		} catch (APIClientException e) {
+			// expected
+		}
+		assertTrue(oIterator.isClosed());
+		assertEquals(1, oResource.mCloses.get());
+	}
+
+	@Test
+	public void responseHandlers() throws Exception {
+		StaxCursorResponseHandler<ElementIterator<String>> oStaxHandler = StaxCursorResponseHandler.of(StaxElementIterator.unmarshaller("place", -1, new StaxPlaceUnmarshaller()));
+		assertTrue(oStaxHandler.needsConnectionLeftOpen());
+		CountingCloseable oContent = new CountingCloseable();
+		HttpResponse oResponse = newResponse(XML, oContent);
+		APIWebServiceResponse<ElementIterator<String>> oStaxResult = oStaxHandler.handle(oResponse);
+		assertEquals(0, oContent.mCloses.get());
+		assertEquals("[a, b]", toList(oStaxResult.getResult()).toString());
+		// (the XML parser may close it too on reaching the end)
+		assertTrue(oContent.mCloses.get() > 0);
+
+		JsonResponseHandler<ElementIterator<String>> oJsonHandler = new JsonResponseHandler<ElementIterator<String>>(JsonElementIterator.unmarshaller("Items", new JsonItemUnmarshaller()));
+		assertTrue(oJsonHandler.needsConnectionLeftOpen());
+		assertFalse(new JsonResponseHandler<String>(null).needsConnectionLeftOpen());
+		oContent = new CountingCloseable();
+		APIWebServiceResponse<ElementIterator<String>> oJsonResult = oJsonHandler.handle(newResponse(JSON, oContent));
+		assertEquals("a", oJsonResult.getResult().next());
+		assertEquals(0, oContent.mCloses.get());
+		oJsonResult.getResult().close();
+		assertEquals(1, oContent.mCloses.get());
+	}
+
+	private static HttpResponse newResponse(String pContent, final CountingCloseable pCloses) {
+		HttpResponse oResponse = new HttpResponse(null);
+		oResponse.setContent(new ByteArrayInputStream(pContent.getBytes()) {
+			@Override
+			public void close() throws IOException {
+				pCloses.close();
+			}
+		});
+		return oResponse;
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.transform;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Unmarshalling of a large, nested JSON document (DynamoDB-like items) with
+ * {@link JsonUnmarshallerContext}, testing field names as strings or by
+ * expression identifiers, against the bare Jackson parser.
+ * <p>
+ * Run with <code>main()</code> from the test classpath, add
+ * <code>-prof gc</code> through JMH options to see allocations.
+ * 
+ * @author Luc Pezet
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonUnmarshallerBenchmark {
+
+	@Param({ "10", "1000" })
+	private int			mItems;
+
+	private byte[]		mJson;
+	private JsonFactory	mFactory;
+
+	@Setup
+	public void setup() {
+		StringBuilder oSB = new StringBuilder("{\"Count\":").append(mItems).append(",\"Items\":[");
+		for (int i = 0; i < mItems; i++) {
+			if (i > 0) oSB.append(',');
+			oSB.append("{\"Id\":{\"S\":\"item-").append(i).append("\"},");
+			oSB.append("\"Name\":{\"S\":\"Item ").append(i).append("\"},");
+			oSB.append("\"Size\":{\"N\":\"").append(i * 7).append("\"},");
+			oSB.append("\"Tags\":{\"SS\":[\"a\",\"b\",\"c\"]},");
+			oSB.append("\"Location\":{\"M\":{\"Centroid\":{\"M\":{\"Latitude\":{\"N\":\"37.77\"},\"Longitude\":{\"N\":\"-122.41\"}}}}}}");
+		}
+		oSB.append("],\"ResponseMetadata\":{\"RequestId\":\"abc\"}}");
+		mJson = oSB.toString().getBytes();
+		mFactory = new JsonFactory();
+	}
+
+	@Benchmark
+	public int parser() throws Exception {
+		JsonParser oParser = mFactory.createJsonParser(mJson);
+		int oCount = 0;
+		JsonToken oToken;
+		while ((oToken = oParser.nextToken()) != null) {
+			if (oToken == JsonToken.VALUE_STRING) oCount += oParser.getText().length();
+		}
+		oParser.close();
+		return oCount;
+	}
+
+	@Benchmark
+	public int testExpressions() throws Exception {
+		JsonParser oParser = mFactory.createJsonParser(mJson);
+		JsonUnmarshallerContext oCtxt = new JsonUnmarshallerContext(oParser);
+		oCtxt.registerMetadataExpression("RequestId", 2, "id");
+		int oCount = 0;
+		JsonToken oToken;
+		while ((oToken = oCtxt.nextToken()) != null) {
+			if (oToken == JsonToken.VALUE_STRING) {
+				if (oCtxt.testExpression("S", 3) || oCtxt.testExpression("N") || oCtxt.testExpression("Latitude")) oCount += oCtxt.readText().length();
+			}
+		}
+		oParser.close();
+		return oCount;
+	}
+
+	private static final PathExpressions	PATHS	= new PathExpressions("Items/Id/S", "Name/S", "N", "Latitude/N");
+
+	@Benchmark
+	public int pathIds() throws Exception {
+		JsonParser oParser = mFactory.createJsonParser(mJson);
+		JsonUnmarshallerContext oCtxt = new JsonUnmarshallerContext(oParser);
+		oCtxt.registerMetadataExpression("RequestId", 2, "id");
+		oCtxt.setPathExpressions(PATHS);
+		int oCount = 0;
+		JsonToken oToken;
+		while ((oToken = oCtxt.nextToken()) != null) {
+			if (oToken == JsonToken.VALUE_STRING) {
+				switch (oCtxt.getCurrentPathId()) {
+					case 0:
+					case 1:
+					case 2:
+					case 3:
+						oCount += oCtxt.readText().length();
+						break;
+					default:
+						break;
+				}
+			}
+		}
+		oParser.close();
+		return oCount;
+	}
+
+	public static void main(String[] pArgs) throws Exception {
+		Options oOptions = new OptionsBuilder().include(JsonUnmarshallerBenchmark.class.getSimpleName()).build();
+		new Runner(oOptions).run();
+	}
+}
@@ -4,6 +4,8 @@
 package com.github.lpezet.antiope.transform;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -61,4 +63,76 @@ public class JsonUnmarshallerContextTest {
 		oCtxt.nextToken();
 		assertTrue( oCtxt.testExpression("c") );
 	}
+	
+	@Test
+	public void arrays() throws Exception {
+		String oJson = "{ \"a\": [ { \"b\": 1 }, { \"b\": 2 } ], \"c\": true }";
+		JsonUnmarshallerContext oCtxt = new JsonUnmarshallerContext( new JsonFactory().createJsonParser(oJson) );
+		oCtxt.nextToken(); // {
+		oCtxt.nextToken(); // a
+		assertEquals(JsonToken.START_ARRAY, oCtxt.nextToken());
+		assertEquals(1, oCtxt.getCurrentDepth());
+		assertEquals("a", oCtxt.getCurrentParentElement());
+		oCtxt.nextToken(); // {
+		oCtxt.nextToken(); // b
+		assertEquals("/a/b", oCtxt.toString());
+		assertEquals(JsonToken.VALUE_NUMBER_INT, oCtxt.nextToken());
+		assertEquals("1", oCtxt.readText());
+		assertTrue( oCtxt.testExpression("b", 2) );
+		assertEquals(JsonToken.END_OBJECT, oCtxt.nextToken());
+		// closing an object in an array does not pop the array field
+		assertNull(oCtxt.getLastParsedParentElement());
+		assertEquals("/a", oCtxt.toString());
+		oCtxt.nextToken(); // {
+		oCtxt.nextToken(); // b
+		oCtxt.nextToken(); // 2
+		oCtxt.nextToken(); // }
+		assertEquals(JsonToken.END_ARRAY, oCtxt.nextToken());
+		assertEquals("a", oCtxt.getLastParsedParentElement());
+		assertEquals(0, oCtxt.getCurrentDepth());
+		assertEquals("/", oCtxt.toString());
+		assertFalse( oCtxt.testExpression("a") );
+		oCtxt.nextToken(); // c
+		assertTrue( oCtxt.testExpression("c", 1) );
+	}
+	
+	@Test
+	public void deepNesting() throws Exception {
+		StringBuilder oJson = new StringBuilder();
+		for (int i = 0; i < 40; i++) oJson.append("{\"f").append(i).append("\":");
+		oJson.append("\"x\"");
+		for (int i = 0; i < 40; i++) oJson.append("}");
+		JsonUnmarshallerContext oCtxt = new JsonUnmarshallerContext( new JsonFactory().createJsonParser(oJson.toString()) );
+		while (oCtxt.nextToken() != JsonToken.VALUE_STRING) {}
+		assertEquals(40, oCtxt.getCurrentDepth());
+		assertTrue( oCtxt.testExpression("f39", 40) );
+		for (int i = 0; i < 39; i++) oCtxt.nextToken();
+		assertEquals("f0", oCtxt.getLastParsedParentElement());
+		assertEquals(0, oCtxt.getCurrentDepth());
+	}
+	
+	@Test
+	public void pathExpressions() throws Exception {
+		String oJson = "{ \"Items\": [ { \"Name\": { \"S\": \"n\" }, \"Size\": { \"N\": \"1\" } } ], \"Name\": \"top\" }";
+		PathExpressions oPaths = new PathExpressions("Name", "Items/Name/S", "N");
+		JsonUnmarshallerContext oCtxt = new JsonUnmarshallerContext( new JsonFactory().createJsonParser(oJson) );
+		oCtxt.setPathExpressions(oPaths);
+		StringBuilder oMatches = new StringBuilder();
+		JsonToken oToken;
+		while ((oToken = oCtxt.nextToken()) != null) {
+			if (oToken.isScalarValue()) {
+				oMatches.append(oCtxt.getCurrentPathId()).append(':').append(oCtxt.readText()).append(' ');
+			}
+		}
+		assertEquals("1:n 2:1 0:top ", oMatches.toString());
+	}
+	
+	@Test
+	public void metadata() throws Exception {
+		String oJson = "{ \"Items\": [ { \"RequestId\": \"no\" } ], \"ResponseMetadata\": { \"RequestId\": \"abc\" } }";
+		JsonUnmarshallerContext oCtxt = new JsonUnmarshallerContext( new JsonFactory().createJsonParser(oJson) );
+		oCtxt.registerMetadataExpression("RequestId", 2, "id");
+		while (oCtxt.nextToken() != null) {}
+		assertEquals("abc", oCtxt.getMetadata().get("id"));
+	}
 }
@@ -0,0 +1,63 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class PathExpressionsTest {
+
+	private static final String[] PATH = { "rss", "channel", "item", "forecast" };
+
+	@Test
+	public void identifiers() throws Exception {
+		PathExpressions oPaths = new PathExpressions("forecast", "item/forecast", "@day");
+		assertEquals(0, oPaths.register("forecast"));
+		assertEquals(3, oPaths.register("day"));
+		assertEquals(4, oPaths.size());
+		assertEquals("item/forecast", oPaths.getExpression(1));
+	}
+
+	@Test
+	public void match() throws Exception {
+		PathExpressions oPaths = new PathExpressions("forecast", "item/forecast", "@day", "date", "channel");
+		// most specific
+		assertEquals(1, oPaths.match(PATH, 4, null));
+		assertEquals(4, oPaths.match(PATH, 2, null));
+		assertEquals(PathExpressions.NO_MATCH, oPaths.match(PATH, 3, null));
+		// attributes
+		assertEquals(2, oPaths.match(PATH, 4, "day"));
+		assertEquals(3, oPaths.match(PATH, 4, "date"));
+		assertEquals(PathExpressions.NO_MATCH, oPaths.match(PATH, 4, "high"));
+		// no partial segment
+		assertEquals(PathExpressions.NO_MATCH, new PathExpressions("cast").match(PATH, 4, null));
+	}
+
+	@Test
+	public void any() throws Exception {
+		PathExpressions oPaths = new PathExpressions(".", "item");
+		assertEquals(1, oPaths.match(PATH, 3, null));
+		assertEquals(0, oPaths.match(PATH, 4, null));
+		assertTrue(oPaths.matches(0, PATH, 4, "day"));
+	}
+
+	@Test
+	public void matches() throws Exception {
+		PathExpressions oPaths = new PathExpressions("forecast", "item/forecast", "forecast/@day", "day");
+		assertTrue(oPaths.matches(0, PATH, 4, null));
+		assertTrue(oPaths.matches(1, PATH, 4, null));
+		assertFalse(oPaths.matches(1, PATH, 3, null));
+		assertTrue(oPaths.matches(2, PATH, 4, "day"));
+		assertTrue(oPaths.matches(3, PATH, 4, "day"));
+		assertFalse(oPaths.matches(2, PATH, 4, "date"));
+		assertFalse(oPaths.matches(0, PATH, 4, "day"));
+	}
+}
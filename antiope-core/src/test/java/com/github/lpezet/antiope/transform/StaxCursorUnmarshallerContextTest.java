@@ -0,0 +1,168 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.transform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
+
+import org.junit.Test;
+
+/**
+ * @author Luc Pezet
+ *
+ */
+public class StaxCursorUnmarshallerContextTest {
+
+	private XMLInputFactory mXMLInputFactory = XMLInputFactory.newInstance();
+
+	private StaxCursorUnmarshallerContext newContext(String pXML) throws Exception {
+		XMLStreamReader oReader = mXMLInputFactory.createXMLStreamReader(new StringReader(pXML));
+		return new StaxCursorUnmarshallerContext(oReader);
+	}
+
+	@Test
+	public void walkthrough() throws Exception {
+		StaxCursorUnmarshallerContext oCtxt = newContext("<a><b><c>Hello World</c></b></a>");
+
+		assertTrue(oCtxt.isStartOfDocument());
+		assertEquals(0, oCtxt.getCurrentDepth());
+		assertEquals(XMLStreamConstants.START_DOCUMENT, oCtxt.nextToken());
+		assertFalse(oCtxt.isStartOfDocument());
+		assertEquals(XMLStreamConstants.START_ELEMENT, oCtxt.nextToken()); // a
+		assertEquals(XMLStreamConstants.START_ELEMENT, oCtxt.nextToken()); // b
+		assertEquals(XMLStreamConstants.START_ELEMENT, oCtxt.nextToken()); // c
+		assertEquals(3, oCtxt.getCurrentDepth());
+		assertTrue(oCtxt.testExpression("b/c"));
+		assertTrue(oCtxt.testExpression("c", 3));
+		assertTrue(oCtxt.testExpression("b/c", 2));
+		assertFalse(oCtxt.testExpression("b/c", 3));
+		assertEquals("Hello World", oCtxt.readText());
+		assertEquals(XMLStreamConstants.END_ELEMENT, oCtxt.nextToken()); // c
+		assertEquals("c", oCtxt.getLocalName());
+		assertEquals(2, oCtxt.getCurrentDepth());
+		assertEquals(XMLStreamConstants.END_ELEMENT, oCtxt.nextToken()); // b
+		assertEquals(XMLStreamConstants.END_ELEMENT, oCtxt.nextToken()); // a
+		assertEquals(0, oCtxt.getCurrentDepth());
+		assertEquals(XMLStreamConstants.END_DOCUMENT, oCtxt.nextToken());
+	}
+
+	@Test
+	public void attributes() throws Exception {
+		StaxCursorUnmarshallerContext oCtxt = newContext("<a><item id=\"1\" name=\"x\"><v>hi</v></item></a>");
+		oCtxt.nextToken(); // start document
+		oCtxt.nextToken(); // a
+		assertEquals(XMLStreamConstants.START_ELEMENT, oCtxt.nextToken());
+		assertEquals(XMLStreamConstants.ATTRIBUTE, oCtxt.nextToken());
+		assertTrue(oCtxt.testExpression("item/@id"));
+		assertTrue(oCtxt.testExpression("@id", 2));
+		assertFalse(oCtxt.testExpression("item"));
+		assertEquals("1", oCtxt.readText());
+		assertEquals(XMLStreamConstants.ATTRIBUTE, oCtxt.nextToken());
+		assertEquals("name", oCtxt.getLocalName());
+		assertEquals("x", oCtxt.readText());
+		assertEquals(XMLStreamConstants.START_ELEMENT, oCtxt.nextToken());
+		assertTrue(oCtxt.testExpression("item/v"));
+		// plain suffix, as with StaxUnmarshallerContext
+		assertTrue(oCtxt.testExpression("tem/v"));
+		assertFalse(oCtxt.testExpression("item/x"));
+		assertEquals("hi", oCtxt.readText());
+	}
+
+	@Test
+	public void metadata() throws Exception {
+		StaxCursorUnmarshallerContext oCtxt = newContext("<r><ResponseMetadata><RequestId>abc</RequestId></ResponseMetadata><RequestId>nope</RequestId></r>");
+		oCtxt.registerMetadataExpression("ResponseMetadata/RequestId", 2, "id");
+		while (oCtxt.nextToken() != XMLStreamConstants.END_DOCUMENT);
+		assertEquals("abc", oCtxt.getMetadata().get("id"));
+		assertNull(oCtxt.getHeader("anything"));
+	}
+
+	@Test
+	public void bridge() throws Exception {
+		StaxCursorUnmarshallerContext oCtxt = newContext("<a><b id=\"7\">Hello</b></a>");
+		StaxUnmarshallerContext oBridge = oCtxt.asStaxUnmarshallerContext();
+		assertTrue(oBridge.isStartOfDocument());
+		assertTrue(oBridge.nextEvent().isStartDocument());
+		assertTrue(oBridge.nextEvent().isStartElement());
+		XMLEvent oEvent = oBridge.nextEvent();
+		assertTrue(oEvent.isStartElement());
+		assertEquals("b", oEvent.asStartElement().getName().getLocalPart());
+		oEvent = oBridge.nextEvent();
+		assertTrue(oEvent.isAttribute());
+		assertTrue(oBridge.testExpression("b/@id"));
+		assertEquals("7", oBridge.readText());
+		// the text is read through the cursor context the bridge sits on
+		assertTrue(oBridge.nextEvent().isCharacters());
+		assertEquals("Hello", oCtxt.readText());
+		assertTrue(oBridge.nextEvent().isEndElement());
+		assertEquals(1, oBridge.getCurrentDepth());
+		assertTrue(oBridge.nextEvent().isEndElement());
+		assertTrue(oBridge.nextEvent().isEndDocument());
+	}
+
+	@Test
+	public void adapter() throws Exception {
+		Unmarshaller<String, StaxUnmarshallerContext> oLegacy = new Unmarshaller<String, StaxUnmarshallerContext>() {
+			@Override
+			public String unmarshall(StaxUnmarshallerContext pContext) throws Exception {
+				String oResult = null;
+				while (true) {
+					XMLEvent oEvent = pContext.nextEvent();
+					if (oEvent.isEndDocument()) return oResult;
+					if (oEvent.isStartElement() && pContext.testExpression("a/b")) {
+						oResult = SimpleTypeStaxUnmarshallers.StringStaxUnmarshaller.getInstance().unmarshall(pContext);
+					}
+				}
+			}
+		};
+		StaxCursorUnmarshallerAdapter<String> oAdapter = new StaxCursorUnmarshallerAdapter<String>(oLegacy);
+		assertEquals("Hello", oAdapter.unmarshall(newContext("<a><b>Hello</b></a>")));
+	}
+
+	@Test
+	public void sameMatchingAsEventContext() throws Exception {
+		// single attribute: the event API does not keep attributes in document order
+		String oXML = "<a><forecast day=\"Mon\"/><b><c/></b></a>";
+		String[] oExpressions = { "day", "ay", "@day", "forecast/@day", "a/forecast", "/a/b/c", "b/c", "c", "/c" };
+		StaxCursorUnmarshallerContext oCursor = newContext(oXML);
+		StaxUnmarshallerContext oEvent = new StaxUnmarshallerContext(mXMLInputFactory.createXMLEventReader(new StringReader(oXML)));
+		while (true) {
+			int oToken = oCursor.nextToken();
+			assertEquals(oToken, oEvent.nextEvent().getEventType());
+			if (oToken == XMLStreamConstants.END_DOCUMENT) break;
+			for (String e : oExpressions) {
+				assertEquals(e, oEvent.testExpression(e), oCursor.testExpression(e));
+				for (int d = 0; d < 4; d++) assertEquals(e + "@" + d, oEvent.testExpression(e, d), oCursor.testExpression(e, d));
+			}
+		}
+	}
+
+	@Test
+	public void pathIds() throws Exception {
+		StaxCursorUnmarshallerContext oCtxt = newContext("<a><forecast day=\"Mon\"><low>1</low></forecast></a>");
+		assertEquals(PathExpressions.NO_MATCH, oCtxt.getCurrentPathId());
+		oCtxt.setPathExpressions(new PathExpressions("forecast", "day", "low"));
+		oCtxt.nextToken(); // start document
+		oCtxt.nextToken(); // a
+		assertEquals(PathExpressions.NO_MATCH, oCtxt.getCurrentPathId());
+		oCtxt.nextToken();
+		assertEquals(0, oCtxt.getCurrentPathId());
+		oCtxt.nextToken();
+		assertEquals(1, oCtxt.getCurrentPathId());
+		assertTrue(oCtxt.testExpression(1));
+		assertFalse(oCtxt.testExpression(0));
+		oCtxt.nextToken();
+		assertEquals(2, oCtxt.getCurrentPathId());
+		assertEquals(2, oCtxt.asStaxUnmarshallerContext().getCurrentPathId());
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.transform;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Unmarshalling of a list of items (Yahoo-like response) with the event
+ * context, the cursor context, and the event API bridged on the cursor one.
+ * <p>
+ * Run with <code>main()</code> from the test classpath, add
+ * <code>-prof gc</code> through JMH options to see allocations.
+ * 
+ * @author Luc Pezet
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StaxUnmarshallerBenchmark {
+
+	@Param({ "10", "1000" })
+	private int				mItems;
+
+	private byte[]			mXML;
+	private XMLInputFactory	mFactory;
+
+	@Setup
+	public void setup() {
+		StringBuilder oSB = new StringBuilder("<query><results>");
+		for (int i = 0; i < mItems; i++) {
+			oSB.append("<place lang=\"en-US\" uri=\"http://where.yahooapis.com/v1/place/").append(i).append("\">");
+			oSB.append("<woeid>").append(i).append("</woeid><name>Place ").append(i).append("</name>");
+			oSB.append("<centroid><latitude>37.77</latitude><longitude>-122.41</longitude></centroid>");
+			oSB.append("</place>");
+		}
+		oSB.append("</results><ResponseMetadata><RequestId>abc</RequestId></ResponseMetadata></query>");
+		mXML = oSB.toString().getBytes();
+		mFactory = XMLInputFactory.newInstance();
+	}
+
+	@Benchmark
+	public int event() throws Exception {
+		XMLEventReader oReader = mFactory.createXMLEventReader(new ByteArrayInputStream(mXML));
+		StaxUnmarshallerContext oCtxt = new StaxUnmarshallerContext(oReader);
+		oCtxt.registerMetadataExpression("ResponseMetadata/RequestId", 2, "id");
+		int oCount = 0;
+		while (true) {
+			XMLEvent oEvent = oCtxt.nextEvent();
+			if (oEvent.isEndDocument()) break;
+			if (oEvent.isAttribute() && oCtxt.testExpression("place/@uri")) {
+				oCount += oCtxt.readText().length();
+			} else if (oEvent.isStartElement()) {
+				if (oCtxt.testExpression("place/name") || oCtxt.testExpression("centroid/latitude")) oCount += oCtxt.readText().length();
+			}
+		}
+		oReader.close();
+		return oCount;
+	}
+
+	@Benchmark
+	public int cursor() throws Exception {
+		XMLStreamReader oReader = mFactory.createXMLStreamReader(new ByteArrayInputStream(mXML));
+		StaxCursorUnmarshallerContext oCtxt = new StaxCursorUnmarshallerContext(oReader);
+		oCtxt.registerMetadataExpression("ResponseMetadata/RequestId", 2, "id");
+		int oCount = 0;
+		while (true) {
+			int oToken = oCtxt.nextToken();
+			if (oToken == XMLStreamConstants.END_DOCUMENT) break;
+			if (oToken == XMLStreamConstants.ATTRIBUTE && oCtxt.testExpression("place/@uri")) {
+				oCount += oCtxt.readText().length();
+			} else if (oToken == XMLStreamConstants.START_ELEMENT) {
+				if (oCtxt.testExpression("place/name") || oCtxt.testExpression("centroid/latitude")) oCount += oCtxt.readText().length();
+			}
+		}
+		oReader.close();
+		return oCount;
+	}
+
+	private static final PathExpressions	PATHS	= new PathExpressions("place/@uri", "place/name", "centroid/latitude");
+
+	@Benchmark
+	public int cursorPathIds() throws Exception {
+		XMLStreamReader oReader = mFactory.createXMLStreamReader(new ByteArrayInputStream(mXML));
+		StaxCursorUnmarshallerContext oCtxt = new StaxCursorUnmarshallerContext(oReader);
+		oCtxt.registerMetadataExpression("ResponseMetadata/RequestId", 2, "id");
+		oCtxt.setPathExpressions(PATHS);
+		int oCount = 0;
+		while (true) {
+			int oToken = oCtxt.nextToken();
+			if (oToken == XMLStreamConstants.END_DOCUMENT) break;
+			if (oToken == XMLStreamConstants.ATTRIBUTE || oToken == XMLStreamConstants.START_ELEMENT) {
+				switch (oCtxt.getCurrentPathId()) {
+					case 0:
+					case 1:
+					case 2:
+						oCount += oCtxt.readText().length();
+						break;
+					default:
+						break;
+				}
+			}
+		}
+		oReader.close();
+		return oCount;
+	}
+
+	@Benchmark
+	public int bridge() throws Exception {
+		XMLStreamReader oReader = mFactory.createXMLStreamReader(new ByteArrayInputStream(mXML));
+		StaxUnmarshallerContext oCtxt = new StaxCursorUnmarshallerContext(oReader).asStaxUnmarshallerContext();
+		oCtxt.registerMetadataExpression("ResponseMetadata/RequestId", 2, "id");
+		int oCount = 0;
+		while (true) {
+			XMLEvent oEvent = oCtxt.nextEvent();
+			if (oEvent.isEndDocument()) break;
+			if (oEvent.isAttribute() && oCtxt.testExpression("place/@uri")) {
+				oCount += oCtxt.readText().length();
+			} else if (oEvent.isStartElement()) {
+				if (oCtxt.testExpression("place/name") || oCtxt.testExpression("centroid/latitude")) oCount += oCtxt.readText().length();
+			}
+		}
+		oReader.close();
+		return oCount;
+	}
+
+	public static void main(String[] pArgs) throws Exception {
+		Options oOptions = new OptionsBuilder().include(StaxUnmarshallerBenchmark.class.getSimpleName()).build();
+		new Runner(oOptions).run();
+	}
+}
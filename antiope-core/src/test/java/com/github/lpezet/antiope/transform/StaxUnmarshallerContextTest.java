@@ -4,6 +4,7 @@
 package com.github.lpezet.antiope.transform;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.StringReader;
 
@@ -53,4 +54,29 @@ public class StaxUnmarshallerContextTest {
         oEvent = oCtxt.nextEvent();
         assertEquals(XMLStreamConstants.END_DOCUMENT, oEvent.getEventType());
 	}
+
+	@Test
+	public void pathIds() throws Exception {
+		String oXML = "<a><forecast day=\"Mon\"><low>1</low></forecast><b/></a>";
+		XMLEventReader oReader = mXMLInputFactory.createXMLEventReader(new StringReader(oXML));
+		StaxUnmarshallerContext oCtxt = new StaxUnmarshallerContext(oReader);
+		oCtxt.setPathExpressions(new PathExpressions("forecast", "day", "low", "a/b"));
+		oCtxt.nextEvent(); // start document
+		oCtxt.nextEvent(); // a
+		assertEquals(PathExpressions.NO_MATCH, oCtxt.getCurrentPathId());
+		oCtxt.nextEvent();
+		assertEquals(0, oCtxt.getCurrentPathId());
+		oCtxt.nextEvent();
+		assertEquals(1, oCtxt.getCurrentPathId());
+		assertTrue(oCtxt.testExpression(1));
+		oCtxt.nextEvent();
+		assertEquals(2, oCtxt.getCurrentPathId());
+		assertEquals("1", oCtxt.readText());
+		oCtxt.nextEvent(); // end low
+		oCtxt.nextEvent(); // end forecast
+		assertTrue(oCtxt.testExpression("/a"));
+		assertTrue(oCtxt.nextEvent().isStartElement());
+		assertEquals(3, oCtxt.getCurrentPathId());
+		assertTrue(oCtxt.testExpression("/a/b"));
+	}
 }
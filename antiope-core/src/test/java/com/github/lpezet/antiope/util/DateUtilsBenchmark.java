@@ -0,0 +1,104 @@
+/**
+ * 
+ */
+package com.github.lpezet.antiope.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.SimpleTimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * DateUtils shared between threads (as in SimpleTypeStaxUnmarshallers and
+ * XPathUtils) against the previous implementation: shared SimpleDateFormats
+ * behind locks, with the fallback through ParseException.
+ * 
+ * @author Luc Pezet
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class DateUtilsBenchmark {
+
+	private final DateUtils			mDateUtils	= new DateUtils();
+	private final SimpleDateFormat	mIso		= newFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+	private final SimpleDateFormat	mAltIso		= newFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+	private final Date				mDate		= new Date(1416000000123L);
+
+	private static SimpleDateFormat newFormat(String pPattern) {
+		SimpleDateFormat oFormat = new SimpleDateFormat(pPattern);
+		oFormat.setTimeZone(new SimpleTimeZone(0, "GMT"));
+		return oFormat;
+	}
+
+	@Benchmark
+	public Date parseIso8601() throws Exception {
+		return mDateUtils.parseIso8601Date("2014-11-14T21:20:00.123Z");
+	}
+
+	@Benchmark
+	public Date parseIso8601NoFraction() throws Exception {
+		return mDateUtils.parseIso8601Date("2014-11-14T21:20:00Z");
+	}
+
+	@Benchmark
+	public Date parseRfc822() throws Exception {
+		return mDateUtils.parseRfc822Date("Fri, 14 Nov 2014 21:20:00 GMT");
+	}
+
+	@Benchmark
+	public String formatIso8601() throws Exception {
+		return mDateUtils.formatIso8601Date(mDate);
+	}
+
+	@Benchmark
+	public Date lockedParseIso8601() throws Exception {
+		synchronized (mIso) {
+			return mIso.parse("2014-11-14T21:20:00.123Z");
+		}
+	}
+
+	@Benchmark
+	public Date lockedParseIso8601NoFraction() throws Exception {
+		try {
+			synchronized (mIso) {
+				return mIso.parse("2014-11-14T21:20:00Z");
+			}
+		} catch (java.text.ParseException e) {
+			synchronized (mAltIso) {
+				return mAltIso.parse("2014-11-14T21:20:00Z");
+			}
+		}
+	}
+
+	@Benchmark
+	public String lockedFormatIso8601() throws Exception {
+		synchronized (mIso) {
+			return mIso.format(mDate);
+		}
+	}
+
+	public static void main(String[] pArgs) throws Exception {
+		Options oOptions = new OptionsBuilder().include(DateUtilsBenchmark.class.getSimpleName()).build();
+		new Runner(oOptions).run();
+	}
+}
@@ -3,9 +3,16 @@
  */
 package com.github.lpezet.antiope.util;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SimpleTimeZone;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -37,4 +44,55 @@ public class DateUtilsTest {
 	public void parseCompressedIso8601Date() throws ParseException {
 		assertNotNull( mDateUtils.parseCompressedIso8601Date("20141113T204636Z") );
 	}
+
+	private static SimpleDateFormat newFormat(String pPattern) {
+		SimpleDateFormat oFormat = new SimpleDateFormat(pPattern, Locale.US);
+		oFormat.setTimeZone(new SimpleTimeZone(0, "GMT"));
+		return oFormat;
+	}
+
+	@Test
+	public void sameAsSimpleDateFormat() throws Exception {
+		SimpleDateFormat oIso = newFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		SimpleDateFormat oAltIso = newFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		SimpleDateFormat oRfc = newFormat("EEE, dd MMM yyyy HH:mm:ss z");
+		SimpleDateFormat oCompressed = newFormat("yyyyMMdd'T'HHmmss'Z'");
+		Random oRandom = new Random(42);
+		long oMax = oIso.parse("9999-12-31T23:59:59.999Z").getTime();
+		long oMin = oIso.parse("1583-01-01T00:00:00.000Z").getTime();
+		for (int i = 0; i < 20000; i++) {
+			Date oDate = new Date(oMin + (long) (oRandom.nextDouble() * (oMax - oMin)));
+			String oIsoString = oIso.format(oDate);
+			assertEquals(oIsoString, mDateUtils.formatIso8601Date(oDate));
+			assertEquals(oIsoString, oDate, mDateUtils.parseIso8601Date(oIsoString));
+			String oAltIsoString = oAltIso.format(oDate);
+			assertEquals(oAltIsoString, oAltIso.parse(oAltIsoString), mDateUtils.parseIso8601Date(oAltIsoString));
+			String oRfcString = oRfc.format(oDate);
+			assertEquals(oRfcString, mDateUtils.formatRfc822Date(oDate));
+			assertEquals(oRfcString, oRfc.parse(oRfcString), mDateUtils.parseRfc822Date(oRfcString));
+			String oCompressedString = oCompressed.format(oDate);
+			assertEquals(oCompressedString, oCompressed.parse(oCompressedString), mDateUtils.parseCompressedIso8601Date(oCompressedString));
+		}
+	}
+
+	@Test
+	public void edgeCases() throws Exception {
+		SimpleDateFormat oRfc = newFormat("EEE, dd MMM yyyy HH:mm:ss z");
+		String[] oRfcStrings = { "Thu, 13 Nov 2014 20:41:45 EST", "Thu, 3 Nov 2014 20:41:45 GMT", "Thu, 13 Nov 2014 20:41:45 UTC", "Thu, 13 Nov 2014 20:41:45 +0130", "Thu, 13 Nov 2014 20:41:45 -0800", "Thu, 31 Feb 2014 20:41:45 GMT", "Thu, 13 Nov 2014 20:41:60 GMT" };
+		for (String s : oRfcStrings) {
+			assertEquals(s, oRfc.parse(s), mDateUtils.parseRfc822Date(s));
+		}
+		SimpleDateFormat oIso = newFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		String[] oIsoStrings = { "2013-11-29T20:37:45.1Z", "2013-11-29T20:37:45.123456Z", "2013-02-30T20:37:45.123Z", "2013-11-29T24:00:00.000Z", "1500-01-01T00:00:00.000Z" };
+		for (String s : oIsoStrings) {
+			assertEquals(s, oIso.parse(s), mDateUtils.parseIso8601Date(s));
+		}
+		assertEquals(oIso.format(new Date(-1L)), mDateUtils.formatIso8601Date(new Date(-1L)));
+		try {
+			mDateUtils.parseIso8601Date("2013-11-29 20:37:45");
+			fail("Expected ParseException");
+		} catch (ParseException e) {
+			// expected
+		}
+	}
 }
@@ -9,6 +9,10 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.net.URI;
+import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -92,4 +96,43 @@ public class HttpUtilsTest {
 		assertEquals("http://toto.com/url/%2Ftest", HttpUtils.appendUri("http://toto.com/url", "//test", true));
 		
 	}
+	
+	@Test
+	public void appendUriToBuilder() {
+		StringBuilder oUri = new StringBuilder("ignored");
+		oUri.setLength(0);
+		HttpUtils.appendUri(oUri, "http://toto.com/url", "a b///c", true).append('?');
+		HttpUtils.encodeParameters(oUri, new LinkedHashMap<String, String>());
+		assertEquals("http://toto.com/url/a%20b/%2F/c?", oUri.toString());
+		assertEquals("http://toto.com/", HttpUtils.appendUri("http://toto.com", null, true));
+	}
+	
+	@Test
+	public void encodeParametersNullValue() {
+		Map<String, String> oParams = new LinkedHashMap<String, String>();
+		oParams.put("a", null);
+		oParams.put("b c", "\u00e9");
+		assertEquals("a&b+c=%C3%A9", HttpUtils.encodeParameters(oParams));
+		assertEquals(null, HttpUtils.encodeParameters(new LinkedHashMap<String, String>()));
+	}
+	
+	@Test
+	public void sameAsURLEncoder() throws Exception {
+		Random oRandom = new Random(42);
+		char[] oSamples = " !\"#$%&'()*+,-./09:;<=>?@AZ[\\]^_`az{|}~\u007f\u00e9\u20ac\ud83d\ude00\ud800".toCharArray();
+		for (int i = 0; i < 1000; i++) {
+			StringBuilder oValue = new StringBuilder();
+			int oLength = oRandom.nextInt(20);
+			for (int j = 0; j < oLength; j++) {
+				oValue.append(oRandom.nextInt(4) == 0 ? (char) oRandom.nextInt(0x3000) : oSamples[oRandom.nextInt(oSamples.length)]);
+			}
+			String oString = oValue.toString();
+			String oForm = URLEncoder.encode(oString, "UTF-8");
+			assertEquals(oForm, UrlEncoder.encodeForm(new StringBuilder(), oString).toString());
+			String oRfc = oForm.replace("+", "%20").replace("*", "%2A").replace("%7E", "~");
+			assertEquals(oRfc, HttpUtils.urlEncode(oString, false));
+			assertEquals(oRfc.replace("%2F", "/"), HttpUtils.urlEncode(oString, true));
+			assertEquals(new String(oString.getBytes("UTF-8"), "UTF-8"), UrlEncoder.decodeForm(oForm));
+		}
+	}
 }
@@ -123,4 +123,36 @@ public class XPathUtilsTest {
 		assertEquals(3, XPathUtils.nodeLength(oRoot.getChildNodes()));
 	}
 	
+
+	@Test
+	public void compiledPerThread() throws Exception {
+		assertTrue(XPathUtils.compile("/a/b/c") == XPathUtils.compile("/a/b/c"));
+		final Node oRoot = createDocument("<a><b><c>123</c><d>x</d></b></a>");
+		final Object[] oOther = new Object[2];
+		Thread oThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					oOther[0] = XPathUtils.compile("/a/b/c");
+					oOther[1] = XPathUtils.asInteger("/a/b/c", oRoot);
+				} catch (Exception e) {
+					oOther[1] = e;
+				}
+			}
+		});
+		oThread.start();
+		oThread.join();
+		assertTrue(oOther[0] != XPathUtils.compile("/a/b/c"));
+		assertEquals(Integer.valueOf(123), oOther[1]);
+		assertEquals(null, XPathUtils.asString("/a/b/e", oRoot));
+		assertEquals("x", XPathUtils.asString("b/d", oRoot));
+	}
+
+	@Test
+	public void documentWithNamespace() throws Exception {
+		Document oDoc = XPathUtils.documentFrom("<Error xmlns=\"http://api.example.com/\"><Code>Throttling</Code></Error>");
+		assertEquals("Throttling", XPathUtils.asString("Error/Code", oDoc));
+		oDoc = XPathUtils.documentFrom("<Error><Code>Other</Code></Error>");
+		assertEquals("Other", XPathUtils.asString("Error/Code", oDoc));
+	}
 }
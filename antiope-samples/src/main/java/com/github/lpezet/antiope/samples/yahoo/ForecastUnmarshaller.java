@@ -5,6 +5,7 @@ package com.github.lpezet.antiope.samples.yahoo;
 
 import javax.xml.stream.events.XMLEvent;
 
+import com.github.lpezet.antiope.transform.PathExpressions;
 import com.github.lpezet.antiope.transform.SimpleTypeStaxUnmarshallers.IntegerStaxUnmarshaller;
 import com.github.lpezet.antiope.transform.SimpleTypeStaxUnmarshallers.StringStaxUnmarshaller;
 import com.github.lpezet.antiope.transform.StaxUnmarshallerContext;
@@ -16,29 +17,52 @@ import com.github.lpezet.antiope.transform.Unmarshaller;
  */
 public class ForecastUnmarshaller implements Unmarshaller<Forecast, StaxUnmarshallerContext> {
 
+	/** Identifiers follow registration order. */
+	private static final PathExpressions	PATHS	= new PathExpressions("day", "date", "low", "high", "text", "code");
+	private static final int				DAY		= 0;
+	private static final int				DATE	= 1;
+	private static final int				LOW		= 2;
+	private static final int				HIGH	= 3;
+	private static final int				TEXT	= 4;
+	private static final int				CODE	= 5;
+
 	public Forecast unmarshall(StaxUnmarshallerContext context) throws Exception {
 		Forecast f = new Forecast();
-
-		while (true) {
-			XMLEvent xmlEvent = context.nextEvent();
-			if (xmlEvent.isEndDocument()) return f;
-			if (xmlEvent.isAttribute() || xmlEvent.isStartElement()) {
-				if (context.testExpression("day")) {
-					f.setDay( StringStaxUnmarshaller.getInstance().unmarshall(context) );
-				} else if (context.testExpression("date")) {
-					f.setDate( StringStaxUnmarshaller.getInstance().unmarshall(context) );
-				} else if (context.testExpression("low")) {
-					f.setLow( IntegerStaxUnmarshaller.getInstance().unmarshall(context) );
-				} else if (context.testExpression("high")) {
-					f.setHigh( IntegerStaxUnmarshaller.getInstance().unmarshall(context) );
-				} else if (context.testExpression("text")) {
-					f.setText( StringStaxUnmarshaller.getInstance().unmarshall(context) );
-				} else if (context.testExpression("code")) {
-					f.setCode( IntegerStaxUnmarshaller.getInstance().unmarshall(context) );
+		PathExpressions oPreviousPaths = context.getPathExpressions();
+		context.setPathExpressions(PATHS);
+		try {
+			while (true) {
+				XMLEvent xmlEvent = context.nextEvent();
+				if (xmlEvent.isEndDocument()) return f;
+				if (xmlEvent.isAttribute() || xmlEvent.isStartElement()) {
+					switch (context.getCurrentPathId()) {
+						case DAY:
+							f.setDay( StringStaxUnmarshaller.getInstance().unmarshall(context) );
+							break;
+						case DATE:
+							f.setDate( StringStaxUnmarshaller.getInstance().unmarshall(context) );
+							break;
+						case LOW:
+							f.setLow( IntegerStaxUnmarshaller.getInstance().unmarshall(context) );
+							break;
+						case HIGH:
+							f.setHigh( IntegerStaxUnmarshaller.getInstance().unmarshall(context) );
+							break;
+						case TEXT:
+							f.setText( StringStaxUnmarshaller.getInstance().unmarshall(context) );
+							break;
+						case CODE:
+							f.setCode( IntegerStaxUnmarshaller.getInstance().unmarshall(context) );
+							break;
+						default:
+							break;
+					}
+				} else if (xmlEvent.isEndElement()) {
+					return f;
 				}
-			} else if (xmlEvent.isEndElement()) {
-				return f;
 			}
+		} finally {
+			context.setPathExpressions(oPreviousPaths);
 		}
 	}
 
@@ -3,7 +3,10 @@
  */
 package com.github.lpezet.antiope.samples.yahoo;
 
+import java.util.concurrent.Future;
+
 import org.apache.http.client.HttpClient;
+import org.apache.http.concurrent.FutureCallback;
 
 import com.github.lpezet.antiope.APIClientException;
 import com.github.lpezet.antiope.be.APIConfiguration;
@@ -15,7 +18,7 @@ import com.github.lpezet.antiope.dao.ExecutionContext;
 import com.github.lpezet.antiope.dao.HttpResponseHandler;
 import com.github.lpezet.antiope.dao.Request;
 import com.github.lpezet.antiope.dao.Response;
-import com.github.lpezet.antiope.dao.StaxResponseHandler;
+import com.github.lpezet.antiope.dao.StaxCursorResponseHandler;
 import com.github.lpezet.antiope.metrics.APIRequestMetrics;
 import com.github.lpezet.antiope.metrics.IMetrics;
 import com.github.lpezet.antiope.transform.StaxUnmarshallerContext;
@@ -35,7 +38,7 @@ public class YahooAdvancedClient extends AdvancedAPIClient<StaxUnmarshallerConte
 	
 	@Override
 	protected <T> HttpResponseHandler<APIWebServiceResponse<T>> createResponseHandler(ExecutionContext pExecutionContext, Unmarshaller<T, StaxUnmarshallerContext> pUnmarshaller) {
-		return new StaxResponseHandler<T>(pUnmarshaller);
+		return StaxCursorResponseHandler.of(pUnmarshaller);
 	}
 	
 	public WeatherResponse getWeather(WeatherRequest pRequest) {
@@ -61,4 +64,35 @@ public class YahooAdvancedClient extends AdvancedAPIClient<StaxUnmarshallerConte
 		}
 		
 	}
+	
+	/**
+	 * Asynchronous version of {@link #getWeather(WeatherRequest)}: the
+	 * execution is ended, and its metrics collected, once the response is
+	 * processed.
+	 * 
+	 * @param pRequest
+	 *            request.
+	 * @param pCallback
+	 *            optional callback, notified once the response is processed.
+	 * @return Future of the response.
+	 */
+	public Future<Response<WeatherResponse>> getWeatherAsync(WeatherRequest pRequest, FutureCallback<Response<WeatherResponse>> pCallback) {
+		ExecutionContext oContext = createExecutionContext(pRequest);
+		IMetrics oMetrics = oContext.getMetrics();
+		Request<WeatherRequest> request = null;
+		oMetrics.startEvent(APIRequestMetrics.ClientExecuteTime);
+		try {
+			oMetrics.startEvent(APIRequestMetrics.RequestMarshallTime);
+			try {
+				request = new WeatherRequestMarshaller().marshall(pRequest);
+				request.setMetrics(oMetrics);
+			} finally {
+				oMetrics.endEvent(APIRequestMetrics.RequestMarshallTime);
+			}
+		} catch (Exception e) {
+			endClientExecution(oMetrics, request, null);
+			throw new APIClientException(e);
+		}
+		return invokeAsync(request, new WeatherResponseUnmarshaller(), oContext, pCallback);
+	}
 }
@@ -24,6 +24,8 @@ package com.github.lpezet.antiope2.be;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.github.lpezet.antiope2.dao.http.apache.IdleConnectionReaper;
+
 /**
  * @author luc
  */
@@ -71,6 +73,18 @@ public class APIConfiguration implements IAPIConfiguration {
      */
     public static final boolean DEFAULT_USE_REAPER = true;
     
+    /** The default time (ms) after which idle connections are closed by the {@link IdleConnectionReaper}. */
+    public static final long DEFAULT_CONNECTION_MAX_IDLE_MILLIS = 60 * 1000;
+    
+    /** The default inactivity time (ms) after which pooled connections are checked before being reused. */
+    public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY = 2 * 1000;
+    
+    /** The default request body size (bytes) above which uploads ask for a "100-continue" first. */
+    public static final long DEFAULT_EXPECT_CONTINUE_THRESHOLD = 1024 * 1024;
+    
+    /** Whether to ask for compressed (gzip or deflate) responses by default. */
+    public static final boolean DEFAULT_USE_GZIP = true;
+    
     public static final String DEFAULT_ENV_VAR_ACCESS_KEY = "API_ACCESS_KEY";
     public static final String DEFAULT_ENV_VAR_SECRET_KEY = "API_SECRET_KEY";
     
@@ -164,6 +178,32 @@ public class APIConfiguration implements IAPIConfiguration {
      */
     private boolean mUseReaper = DEFAULT_USE_REAPER;
     
+    /** Connections idle for longer than this (ms) are closed by the {@link IdleConnectionReaper}. */
+    private long mConnectionMaxIdleMillis = DEFAULT_CONNECTION_MAX_IDLE_MILLIS;
+    
+    /**
+     * Pooled connections idle for longer than this (ms) are checked for
+     * staleness before being reused. Checking blocks for about a millisecond,
+     * so recently used connections are not. A negative value means always
+     * checking.
+     */
+    private int mValidateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+    
+    /**
+     * PUT and POST bodies larger than this (bytes), or of unknown length, are
+     * sent with "Expect: 100-continue", to learn of a failure before
+     * uploading them. It costs a round trip (up to 3s with servers ignoring
+     * it), so smaller bodies are sent right away. A negative value disables
+     * it.
+     */
+    private long mExpectContinueThreshold = DEFAULT_EXPECT_CONTINUE_THRESHOLD;
+    
+    /**
+     * Whether requests advertise "Accept-Encoding: gzip,deflate", responses
+     * being decompressed as they are read.
+     */
+    private boolean mUseGzip = DEFAULT_USE_GZIP;
+    
     public int getConnectionTimeout() {
 		return mConnectionTimeout;
 	}
@@ -276,6 +316,38 @@ public class APIConfiguration implements IAPIConfiguration {
 		mUseReaper = pUseReaper;
 	}
     
+    public long getConnectionMaxIdleMillis() {
+		return mConnectionMaxIdleMillis;
+	}
+    
+    public void setConnectionMaxIdleMillis(long pConnectionMaxIdleMillis) {
+		mConnectionMaxIdleMillis = pConnectionMaxIdleMillis;
+	}
+    
+    public int getValidateAfterInactivity() {
+		return mValidateAfterInactivity;
+	}
+    
+    public void setValidateAfterInactivity(int pValidateAfterInactivity) {
+		mValidateAfterInactivity = pValidateAfterInactivity;
+	}
+    
+    public long getExpectContinueThreshold() {
+		return mExpectContinueThreshold;
+	}
+    
+    public void setExpectContinueThreshold(long pExpectContinueThreshold) {
+		mExpectContinueThreshold = pExpectContinueThreshold;
+	}
+    
+    public boolean isUseGzip() {
+		return mUseGzip;
+	}
+    
+    public void setUseGzip(boolean pUseGzip) {
+		mUseGzip = pUseGzip;
+	}
+    
     public boolean isCheckSSLCertificates() {
 		return mCheckSSLCertificates;
 	}
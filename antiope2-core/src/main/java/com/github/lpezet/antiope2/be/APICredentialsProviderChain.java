@@ -14,7 +14,7 @@
  */
 package com.github.lpezet.antiope2.be;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -30,10 +30,14 @@ public class APICredentialsProviderChain implements IAPICredentialsProvider {
 
 	private static final Logger log = LoggerFactory.getLogger(APICredentialsProviderChain.class);
 
-    private List<IAPICredentialsProvider> mCredentialsProviders = new LinkedList<IAPICredentialsProvider>();
+    private final List<IAPICredentialsProvider> mCredentialsProviders = new ArrayList<IAPICredentialsProvider>();
 
-    private boolean mReuseLastProvider = true;
-    private IAPICredentialsProvider mLastUsedProvider;
+    /*
+     * Read and written by concurrent requests, without locking: a stale
+     * read only costs a walk through the chain.
+     */
+    private volatile boolean mReuseLastProvider = true;
+    private volatile IAPICredentialsProvider mLastUsedProvider;
 
 
     /**
@@ -81,8 +85,9 @@ public class APICredentialsProviderChain implements IAPICredentialsProvider {
     }
 
     public IAPICredentials getCredentials() {
-        if (mReuseLastProvider && mLastUsedProvider != null) {
-            return mLastUsedProvider.getCredentials();
+        IAPICredentialsProvider oLastUsedProvider = mLastUsedProvider;
+        if (mReuseLastProvider && oLastUsedProvider != null) {
+            return oLastUsedProvider.getCredentials();
         }
 
         for (IAPICredentialsProvider oProvider : mCredentialsProviders) {
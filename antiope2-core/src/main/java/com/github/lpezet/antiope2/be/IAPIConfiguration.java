@@ -69,6 +69,16 @@ public interface IAPIConfiguration {
     
     public boolean isSecure() ;
     
+    /**
+     * @return body size (bytes) above which uploads are sent with "Expect: 100-continue", negative to never do so.
+     */
+    public long getExpectContinueThreshold() ;
+    
+    /**
+     * @return true to ask for compressed (gzip or deflate) responses.
+     */
+    public boolean isUseGzip() ;
+    
 	/**
 	 * Sets the global time offset. If this value is set then all the subsequent
 	 * requests will use this value to generate timestamps. To adjust clock skew
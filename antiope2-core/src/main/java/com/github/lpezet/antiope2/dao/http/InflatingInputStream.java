@@ -0,0 +1,278 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope2.dao.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses "gzip" and "deflate" encoded content, with an
+ * {@link Inflater} pooled per thread rather than allocated (along with its
+ * native memory) for every response, as {@link java.util.zip.GZIPInputStream}
+ * does.
+ * <p>
+ * Keeps count of the bytes inflated and of the time spent inflating them.
+ * The inflater goes back to the pool when the stream is closed.
+ * 
+ * @author luc
+ */
+public class InflatingInputStream extends InputStream {
+	
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+	
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	private static final int BUFFER_SIZE = 8 * 1024;
+	
+	/** One inflater per thread and kind (raw, for gzip, or zlib wrapped). */
+	private static final ThreadLocal<Inflater[]> POOL = new ThreadLocal<Inflater[]>() {
+		@Override
+		protected Inflater[] initialValue() {
+			return new Inflater[2];
+		}
+	};
+	
+	private final InputStream mIn;
+	private final boolean mGzip;
+	private final byte[] mBuffer = new byte[BUFFER_SIZE];
+	private int mBufferPos;
+	private int mBufferLen;
+	private Inflater mInflater;
+	private boolean mNoWrap;
+	private CRC32 mCrc;
+	private boolean mEof;
+	private long mBytesInflated;
+	private long mInflateTimeNano;
+	
+	/**
+	 * Returns a stream decoding the given content, or null if it is not
+	 * encoded or the encoding is not supported.
+	 * 
+	 * @param pIn
+	 *            content.
+	 * @param pContentEncoding
+	 *            value of the "Content-Encoding" header, possibly null.
+	 * @return decoding stream, or null.
+	 */
+	public static InflatingInputStream forEncoding(InputStream pIn, String pContentEncoding) throws IOException {
+		if (pIn == null || pContentEncoding == null) return null;
+		String oEncoding = pContentEncoding.trim();
+		if (GZIP.equalsIgnoreCase(oEncoding) || "x-gzip".equalsIgnoreCase(oEncoding)) return new InflatingInputStream(pIn, true);
+		if (DEFLATE.equalsIgnoreCase(oEncoding)) return new InflatingInputStream(pIn, false);
+		return null;
+	}
+	
+	/**
+	 * @param pIn
+	 *            compressed content.
+	 * @param pGzip
+	 *            true for gzip, false for deflate (zlib wrapped, or raw as
+	 *            some servers send it).
+	 */
+	public InflatingInputStream(InputStream pIn, boolean pGzip) throws IOException {
+		mIn = pIn;
+		mGzip = pGzip;
+		if (pGzip) {
+			mCrc = new CRC32();
+			if (!readGzipHeader(true)) mEof = true;
+		} else {
+			// zlib header: CMF (deflate, window) and FLG, together a multiple of 31.
+			if (!fill()) {
+				mEof = true;
+			} else {
+				int oCmf = mBuffer[mBufferPos] & 0xff;
+				int oFlg = mBufferLen - mBufferPos > 1 ? mBuffer[mBufferPos + 1] & 0xff : peekSecond();
+				mNoWrap = (oCmf & 0x0f) != 8 || ((oCmf << 8) | oFlg) % 31 != 0;
+			}
+		}
+		if (!mEof) mInflater = acquire(mNoWrap);
+	}
+	
+	public long getBytesInflated() {
+		return mBytesInflated;
+	}
+	
+	public long getInflateTimeNano() {
+		return mInflateTimeNano;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		byte[] oByte = new byte[1];
+		int oRead = read(oByte, 0, 1);
+		return oRead < 0 ? -1 : oByte[0] & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] pBuffer, int pOffset, int pLength) throws IOException {
+		if (pLength == 0) return 0;
+		while (!mEof) {
+			int oInflated;
+			long oStart = System.nanoTime();
+			try {
+				oInflated = mInflater.inflate(pBuffer, pOffset, pLength);
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid compressed data");
+			} finally {
+				mInflateTimeNano += System.nanoTime() - oStart;
+			}
+			if (oInflated > 0) {
+				if (mCrc != null) mCrc.update(pBuffer, pOffset, oInflated);
+				mBytesInflated += oInflated;
+				return oInflated;
+			}
+			if (mInflater.finished()) {
+				mBufferPos = mBufferLen - mInflater.getRemaining();
+				if (!mGzip || !nextGzipMember()) {
+					mEof = true;
+					break;
+				}
+			} else if (mInflater.needsDictionary()) {
+				throw new ZipException("Preset dictionaries are not supported");
+			} else if (mInflater.needsInput()) {
+				if (mBufferPos >= mBufferLen && !fill()) throw new EOFException("Unexpected end of compressed content");
+				mInflater.setInput(mBuffer, mBufferPos, mBufferLen - mBufferPos);
+				mBufferPos = mBufferLen;
+			}
+		}
+		return -1;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (mInflater != null) {
+			release(mInflater, mNoWrap);
+			mInflater = null;
+		}
+		mEof = true;
+		mIn.close();
+	}
+	
+	/**
+	 * Checks the trailer of the gzip member just inflated, and starts the
+	 * next one if any (concatenated members).
+	 * 
+	 * @return true if another member follows.
+	 */
+	private boolean nextGzipMember() throws IOException {
+		long oCrc = readIntLE();
+		long oSize = readIntLE();
+		if (oCrc != mCrc.getValue()) throw new ZipException("Corrupt gzip content: CRC mismatch");
+		if (oSize != (mInflater.getBytesWritten() & 0xffffffffL)) throw new ZipException("Corrupt gzip content: size mismatch");
+		if (!readGzipHeader(false)) return false;
+		mInflater.reset();
+		mCrc.reset();
+		return true;
+	}
+	
+	/**
+	 * @return false if there is no content (no header) at all.
+	 */
+	private boolean readGzipHeader(boolean pFirst) throws IOException {
+		if (mBufferPos >= mBufferLen && !fill()) return false;
+		if (readShortLE() != GZIP_MAGIC) {
+			if (pFirst) throw new ZipException("Not in gzip format");
+			// Trailing garbage, as GZIPInputStream tolerates it.
+			return false;
+		}
+		if (readByte() != 8) throw new ZipException("Unsupported gzip compression method");
+		int oFlags = readByte();
+		// MTIME, XFL, OS
+		skip(6);
+		if ((oFlags & FEXTRA) != 0) skip(readShortLE());
+		if ((oFlags & FNAME) != 0) while (readByte() != 0) { /* skip */ }
+		if ((oFlags & FCOMMENT) != 0) while (readByte() != 0) { /* skip */ }
+		if ((oFlags & FHCRC) != 0) skip(2);
+		if (pFirst) mNoWrap = true;
+		return true;
+	}
+	
+	private boolean fill() throws IOException {
+		int oRead = mIn.read(mBuffer, 0, mBuffer.length);
+		if (oRead < 0) return false;
+		mBufferPos = 0;
+		mBufferLen = oRead;
+		return true;
+	}
+	
+	/**
+	 * Reads the second byte of a zlib header split across reads, keeping both in the buffer.
+	 */
+	private int peekSecond() throws IOException {
+		int oSecond = mIn.read();
+		if (oSecond < 0) return 0;
+		mBuffer[1] = (byte) oSecond;
+		mBufferLen = 2;
+		return oSecond;
+	}
+	
+	private int readByte() throws IOException {
+		if (mBufferPos >= mBufferLen && !fill()) throw new EOFException("Unexpected end of gzip content");
+		return mBuffer[mBufferPos++] & 0xff;
+	}
+	
+	private int readShortLE() throws IOException {
+		return readByte() | (readByte() << 8);
+	}
+	
+	private long readIntLE() throws IOException {
+		return (readShortLE() | ((long) readShortLE() << 16)) & 0xffffffffL;
+	}
+	
+	private void skip(int pCount) throws IOException {
+		for (int i = 0; i < pCount; i++) readByte();
+	}
+	
+	private static Inflater acquire(boolean pNoWrap) {
+		Inflater[] oPooled = POOL.get();
+		int oIndex = pNoWrap ? 0 : 1;
+		Inflater oInflater = oPooled[oIndex];
+		if (oInflater == null) return new Inflater(pNoWrap);
+		oPooled[oIndex] = null;
+		return oInflater;
+	}
+	
+	/**
+	 * Gives the inflater to the pool of the calling thread, or frees it if
+	 * that thread already has one.
+	 */
+	private static void release(Inflater pInflater, boolean pNoWrap) {
+		Inflater[] oPooled = POOL.get();
+		int oIndex = pNoWrap ? 0 : 1;
+		if (oPooled[oIndex] == null) {
+			pInflater.reset();
+			oPooled[oIndex] = pInflater;
+		} else {
+			pInflater.end();
+		}
+	}
+}
@@ -61,13 +61,10 @@ public class RepeatableInputStreamRequestEntity  extends BasicHttpEntity {
      *            content length, and content).
      */
     public RepeatableInputStreamRequestEntity(final IHttpRequest request) {
-    	setChunked(false);
-
         /*
          * If we don't specify a content length when we instantiate our
-         * InputStreamRequestEntity, then HttpClient will attempt to
-         * buffer the entire stream contents into memory to determine
-         * the content length.
+         * InputStreamRequestEntity, the contents are sent chunked, rather
+         * than buffered in memory to determine the content length.
          *
          * TODO: It'd be nice to have easier access to content length and
          *       content type from the request, instead of having to look
@@ -81,7 +78,7 @@ public class RepeatableInputStreamRequestEntity  extends BasicHttpEntity {
             }
         } catch (NumberFormatException nfe) {
             log.warn("Unable to parse content length from request.  " +
-            		"Buffering contents in memory.");
+            		"Sending contents chunked.");
         }
 
         String contentType = request.getFirstHeaderValue("Content-Type");
@@ -104,11 +101,12 @@ public class RepeatableInputStreamRequestEntity  extends BasicHttpEntity {
         setContent(content);
         setContentType(contentType);
         setContentLength(contentLength);
+        setChunked(contentLength < 0);
     }
 
     @Override
 	public boolean isChunked() {
-    	return false;
+    	return getContentLength() < 0;
 	}
 
     /**
@@ -22,9 +22,11 @@
  */
 package com.github.lpezet.antiope2.dao.http.apache;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.channels.FileChannel;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.HttpDelete;
@@ -34,14 +36,14 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
-import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.params.CoreProtocolPNames;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 
 import com.github.lpezet.antiope2.APIClientException;
 import com.github.lpezet.antiope2.be.IAPIConfiguration;
 import com.github.lpezet.antiope2.dao.ExecutionContext;
+import com.github.lpezet.antiope2.dao.http.FileChannelEntity;
 import com.github.lpezet.antiope2.dao.http.Header;
 import com.github.lpezet.antiope2.dao.http.HttpExecutionContext;
 import com.github.lpezet.antiope2.dao.http.HttpMethodName;
@@ -63,6 +65,8 @@ public class ApacheHttpClientMarshaller implements IApacheHttpClientMarshaller {
 	private static final String	CONTENT_LENGTH		= "Content-Length";
 	private static final String	HOST				= "Host";
 	private static final String	CONTENT_TYPE		= "Content-Type";
+	private static final String	ACCEPT_ENCODING		= "Accept-Encoding";
+	private static final String	GZIP_DEFLATE		= "gzip,deflate";
 	private static final String	SPACE				= " ";
 	private static final String	DEFAULT_ENCODING	= "UTF-8";
 
@@ -85,20 +89,26 @@ public class ApacheHttpClientMarshaller implements IApacheHttpClientMarshaller {
 		 * have to escape the double-slash between endpoint and resource-path
 		 * into "/%2F"
 		 */
-		String oUri = HttpUtils.appendUri(oEndpoint, pSource.getResourcePath(), true);
-		String oEncodedParams = HttpUtils.encodeParameters(pSource.getParameters());
+		StringBuilder oUriBuilder = HttpUtils.appendUri(new StringBuilder(128), oEndpoint, pSource.getResourcePath(), true);
+		String oEncodedParams = null;
 
 		/*
 		 * For all non-POST requests, and any POST requests that already have a
 		 * payload, we put the encoded params directly in the URI, otherwise,
 		 * we'll put them in the POST request's payload.
+		 * Params are encoded straight into the URI builder; the standalone
+		 * string is only carved out when it is needed as POST body.
 		 */
 		boolean oRequestHasNoPayload = pSource.getContent() == null;
 		boolean oRequestIsPost = HttpMethodName.POST.name().equalsIgnoreCase( pSource.getHttpMethod() );
 		boolean oPutParamsInUri = !oRequestIsPost || oRequestHasNoPayload;
-		if (oEncodedParams != null && oPutParamsInUri) {
-			oUri += QMARK + oEncodedParams;
+		if (!pSource.getParameters().isEmpty() && oPutParamsInUri) {
+			oUriBuilder.append(QMARK);
+			int oParamsStart = oUriBuilder.length();
+			HttpUtils.encodeParameters(oUriBuilder, pSource.getParameters());
+			if (oRequestIsPost) oEncodedParams = oUriBuilder.substring(oParamsStart);
 		}
+		String oUri = oUriBuilder.toString();
 
 		HttpRequestBase oHttpRequest;
 		if (HttpMethodName.POST.name().equalsIgnoreCase( pSource.getHttpMethod() )) {
@@ -114,30 +124,13 @@ public class ApacheHttpClientMarshaller implements IApacheHttpClientMarshaller {
 			if (pSource.getContent() == null && oEncodedParams != null) {
 				oPostMethod.setEntity(newStringEntity(oEncodedParams));
 			} else if (pSource.getContent() != null) {
-				oPostMethod.setEntity(new RepeatableInputStreamRequestEntity( pSource ));
+				oPostMethod.setEntity(expectContinue(oPostMethod, newRequestEntity(pSource), oExecutionContext.getAPIConfiguration()));
 			}
 			oHttpRequest = oPostMethod;
 		} else if (HttpMethodName.PUT.name().equalsIgnoreCase( pSource.getHttpMethod() )) {
 			HttpPut putMethod = new HttpPut(oUri);
-			
-			/*
-			 * Enable 100-continue support for PUT operations, since this is
-			 * where we're potentially uploading large amounts of data and want
-			 * to find out as early as possible if an operation will fail. We
-			 * don't want to do this for all operations since it will cause
-			 * extra latency in the network interaction.
-			 */
-			putMethod.getParams().setParameter(CoreProtocolPNames.USE_EXPECT_CONTINUE, true);
-
-			//if (pPreviousEntity != null) {
-			//	putMethod.setEntity(pPreviousEntity);
-			//} else 
 			if (pSource.getContent() != null) {
-				HttpEntity entity = new RepeatableInputStreamRequestEntity( pSource );
-				if (pSource.getFirstHeaderValue(CONTENT_LENGTH) == null) {
-					entity = newBufferedHttpEntity(entity);
-				}
-				putMethod.setEntity( entity );
+				putMethod.setEntity(expectContinue(putMethod, newRequestEntity(pSource), oExecutionContext.getAPIConfiguration()));
 			}
 			
 			oHttpRequest = putMethod;
@@ -205,6 +198,12 @@ public class ApacheHttpClientMarshaller implements IApacheHttpClientMarshaller {
 			pHttpRequest.addHeader(h.getName(), h.getValue());
 		}
 
+		/* Responses are decompressed as they are read (see ApacheHttpClientUnmarshaller) */
+		IAPIConfiguration oConfiguration = pRequest.getExecutionContext() == null ? null : pRequest.getExecutionContext().getAPIConfiguration();
+		if (oConfiguration != null && oConfiguration.isUseGzip() && pHttpRequest.getFirstHeader(ACCEPT_ENCODING) == null) {
+			pHttpRequest.addHeader(ACCEPT_ENCODING, GZIP_DEFLATE);
+		}
+
 		/* Set content type and encoding */
 		if (pHttpRequest.getHeaders(CONTENT_TYPE) == null || pHttpRequest.getHeaders(CONTENT_TYPE).length == 0) {
 			pHttpRequest.addHeader(CONTENT_TYPE, "application/x-www-form-urlencoded; " + "charset=" + DEFAULT_ENCODING.toLowerCase());
@@ -246,19 +245,49 @@ public class ApacheHttpClientMarshaller implements IApacheHttpClientMarshaller {
 	}
 
 	/**
-	 * Utility function for creating a new BufferedEntity and wrapping any
-	 * errors as an TSGClientException.
-	 * 
-	 * @param entity
-	 *            The HTTP entity to wrap with a buffered HTTP entity.
-	 * @return A new BufferedHttpEntity wrapping the specified entity.
+	 * Creates the entity streaming the request's content. File content is
+	 * sent straight from its channel (see {@link FileChannelEntity}), starting
+	 * at its current position. Any other content is streamed as is, chunked
+	 * when its length is not known, instead of being buffered in memory to
+	 * compute it.
 	 */
-	private HttpEntity newBufferedHttpEntity(HttpEntity entity) {
-		try {
-			return new BufferedHttpEntity(entity);
-		} catch (IOException e) {
-			throw new APIClientException("Unable to create HTTP entity: " + e.getMessage(), e);
+	private HttpEntity newRequestEntity(IHttpRequest pSource) {
+		if (pSource.getContent() instanceof FileInputStream) {
+			FileChannel oChannel = ((FileInputStream) pSource.getContent()).getChannel();
+			try {
+				long oPosition = oChannel.position();
+				String oContentLength = pSource.getFirstHeaderValue(CONTENT_LENGTH);
+				long oLength = oContentLength != null ? Long.parseLong(oContentLength) : oChannel.size() - oPosition;
+				FileChannelEntity oEntity = new FileChannelEntity(oChannel, oPosition, oLength);
+				oEntity.setContentType(pSource.getFirstHeaderValue(CONTENT_TYPE));
+				return oEntity;
+			} catch (IOException e) {
+				throw new APIClientException("Unable to create HTTP entity: " + e.getMessage(), e);
+			} catch (NumberFormatException e) {
+				// Falling back to streaming, which deals with it.
+			}
+		}
+		return new RepeatableInputStreamRequestEntity(pSource);
+	}
+
+	/**
+	 * Enables 100-continue support for payloads larger than the configured
+	 * threshold, or of unknown length. This is where we're potentially
+	 * uploading large amounts of data and want to find out as early as
+	 * possible if an operation will fail. We don't want to do this for all
+	 * payloads since it costs an extra round trip.
+	 * <p>
+	 * The header is set directly rather than through request parameters,
+	 * which would make HttpClient drop the client's default request
+	 * configuration (timeouts, stale connection check...).
+	 */
+	private HttpEntity expectContinue(HttpRequestBase pHttpRequest, HttpEntity pEntity, IAPIConfiguration pConfiguration) {
+		long oThreshold = pConfiguration == null ? -1 : pConfiguration.getExpectContinueThreshold();
+		long oLength = pEntity.getContentLength();
+		if (oThreshold >= 0 && (oLength < 0 || oLength > oThreshold)) {
+			pHttpRequest.addHeader(HTTP.EXPECT_DIRECTIVE, HTTP.EXPECT_CONTINUE);
 		}
+		return pEntity;
 	}
 
 }
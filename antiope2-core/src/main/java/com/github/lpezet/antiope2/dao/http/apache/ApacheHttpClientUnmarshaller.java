@@ -26,12 +26,14 @@ import java.io.IOException;
 
 import org.apache.http.Header;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.protocol.HTTP;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.lpezet.antiope2.dao.http.HttpResponse;
 import com.github.lpezet.antiope2.dao.http.IHttpRequest;
 import com.github.lpezet.antiope2.dao.http.IHttpResponse;
+import com.github.lpezet.antiope2.dao.http.InflatingInputStream;
 
 /**
  * @author Luc Pezet
@@ -72,6 +74,10 @@ public class ApacheHttpClientUnmarshaller implements IApacheHttpClientUnmarshall
 		if (oApacheHttpResponse != null) {
 			if (oApacheHttpResponse.getEntity() != null) {
 				oResponse.setContent(oApacheHttpResponse.getEntity().getContent());
+				// Clients decompressing themselves remove the header.
+				Header oContentEncoding = oApacheHttpResponse.getFirstHeader(HTTP.CONTENT_ENCODING);
+				InflatingInputStream oInflating = oContentEncoding == null ? null : InflatingInputStream.forEncoding(oResponse.getContent(), oContentEncoding.getValue());
+				if (oInflating != null) oResponse.setContent(oInflating);
 			}
 	
 			oResponse.setStatusCode(oApacheHttpResponse.getStatusLine().getStatusCode());
@@ -0,0 +1,134 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope2.dao.http.apache;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Daemon thread periodically closing expired and idle connections of the
+ * registered connection managers, so stale connections are evicted from the
+ * pools without probing each one before every request.
+ * <p>
+ * A single reaper is shared by all connection managers. It is started when
+ * the first one is registered and stopped when the last one is removed.
+ * 
+ * @author luc
+ */
+public final class IdleConnectionReaper extends Thread {
+
+	/** How often the pools are checked. */
+	private static final int											PERIOD_MILLISECONDS	= 60 * 1000;
+
+	private static final Logger											LOGGER				= LoggerFactory.getLogger(IdleConnectionReaper.class);
+
+	/** Registered connection managers, with their max idle time (ms). */
+	private static final Map<HttpClientConnectionManager, Long>	CONNECTION_MANAGERS	= new ConcurrentHashMap<HttpClientConnectionManager, Long>();
+
+	private static IdleConnectionReaper									sInstance;
+
+	private volatile boolean											mShuttingDown;
+
+	private IdleConnectionReaper() {
+		super("antiope-connection-reaper");
+		setDaemon(true);
+	}
+
+	/**
+	 * Registers the given connection manager, starting the reaper if needed.
+	 * 
+	 * @param pConnectionManager
+	 *            connection manager.
+	 * @param pMaxIdleMillis
+	 *            connections idle for longer than this are closed.
+	 * @return true if the connection manager was not registered yet.
+	 */
+	public static synchronized boolean registerConnectionManager(HttpClientConnectionManager pConnectionManager, long pMaxIdleMillis) {
+		if (sInstance == null) {
+			sInstance = new IdleConnectionReaper();
+			sInstance.start();
+		}
+		return CONNECTION_MANAGERS.put(pConnectionManager, pMaxIdleMillis) == null;
+	}
+
+	/**
+	 * Removes the given connection manager, stopping the reaper if it was the
+	 * last one.
+	 * 
+	 * @param pConnectionManager
+	 *            connection manager.
+	 * @return true if the connection manager was registered.
+	 */
+	public static synchronized boolean removeConnectionManager(HttpClientConnectionManager pConnectionManager) {
+		boolean oRemoved = CONNECTION_MANAGERS.remove(pConnectionManager) != null;
+		if (CONNECTION_MANAGERS.isEmpty()) shutdown();
+		return oRemoved;
+	}
+
+	/**
+	 * Stops the reaper and forgets all connection managers.
+	 * 
+	 * @return true if the reaper was running.
+	 */
+	public static synchronized boolean shutdown() {
+		if (sInstance == null) return false;
+		sInstance.mShuttingDown = true;
+		sInstance.interrupt();
+		sInstance = null;
+		CONNECTION_MANAGERS.clear();
+		return true;
+	}
+
+	static synchronized int size() {
+		return CONNECTION_MANAGERS.size();
+	}
+
+	@Override
+	public void run() {
+		while (!mShuttingDown) {
+			try {
+				Thread.sleep(PERIOD_MILLISECONDS);
+				for (Entry<HttpClientConnectionManager, Long> e : CONNECTION_MANAGERS.entrySet()) {
+					// Each manager is independent: one failing must not stop the others from being reaped.
+					try {
+						e.getKey().closeExpiredConnections();
+						e.getKey().closeIdleConnections(e.getValue(), TimeUnit.MILLISECONDS);
+					} catch (Exception ex) {
+						LOGGER.warn("Unable to close idle connections.", ex);
+					}
+				}
+			} catch (InterruptedException e) {
+				// shutting down (or spurious): check the flag again
+			} catch (Throwable t) {
+				LOGGER.debug("Reaper thread: ", t);
+			}
+		}
+		LOGGER.debug("Shutting down reaper thread.");
+	}
+}
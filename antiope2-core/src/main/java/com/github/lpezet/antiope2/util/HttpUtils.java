@@ -14,20 +14,12 @@
  */
 package com.github.lpezet.antiope2.util;
 
-import java.io.UnsupportedEncodingException;
 import java.net.URI;
-import java.net.URLEncoder;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import org.apache.http.NameValuePair;
-import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.message.BasicNameValuePair;
 
 import com.github.lpezet.antiope2.dao.http.HttpMethodName;
 import com.github.lpezet.antiope2.dao.http.IHttpRequest;
+import com.github.lpezet.antiope2.dao.http.NameValuePair;
 
 /**
  * @author luc
@@ -43,72 +35,17 @@ public class HttpUtils {
 
 	private static final String	DOUBLE_SLASH	= "//";
 
-	private static final String DEFAULT_ENCODING = "UTF-8";
-
     /**
-     * Regex which matches any of the sequences that we need to fix up after
-     * URLEncoder.encode().
-     */
-    private static final Pattern ENCODED_CHARACTERS_PATTERN;
-    static {
-        StringBuilder pattern = new StringBuilder();
-
-        pattern
-            .append(Pattern.quote("+"))
-            .append("|")
-            .append(Pattern.quote("*"))
-            .append("|")
-            .append(Pattern.quote("%7E"))
-            .append("|")
-            .append(Pattern.quote("%2F"));
-
-        ENCODED_CHARACTERS_PATTERN = Pattern.compile(pattern.toString());
-    }
-
-    /**
-     * Encode a string for use in the path of a URL; uses URLEncoder.encode,
-     * (which encodes a string for use in the query portion of a URL), then
-     * applies some postfilters to fix things up per the RFC. Can optionally
-     * handle strings which are meant to encode a path (ie include '/'es
-     * which should NOT be escaped).
+     * Encode a string for use in the path of a URL, per RFC 3986 (see
+     * {@link UrlEncoder}). Can optionally handle strings which are meant to
+     * encode a path (ie include '/'es which should NOT be escaped).
      *
      * @param value the value to encode
      * @param path true if the value is intended to represent a path
      * @return the encoded value
      */
     public static String urlEncode(final String value, final boolean path) {
-        if (value == null) {
-            return "";
-        }
-
-        try {
-            String encoded = URLEncoder.encode(value, DEFAULT_ENCODING);
-
-            Matcher matcher = ENCODED_CHARACTERS_PATTERN.matcher(encoded);
-            StringBuffer buffer = new StringBuffer(encoded.length());
-
-            while (matcher.find()) {
-                String replacement = matcher.group(0);
-
-                if ("+".equals(replacement)) {
-                    replacement = "%20";
-                } else if ("*".equals(replacement)) {
-                    replacement = "%2A";
-                } else if ("%7E".equals(replacement)) {
-                    replacement = "~";
-                } else if (path && "%2F".equals(replacement)) {
-                    replacement = SLASH;
-                }
-
-                matcher.appendReplacement(buffer, replacement);
-            }
-
-            matcher.appendTail(buffer);
-            return buffer.toString();
-
-        } catch (UnsupportedEncodingException ex) {
-            throw new RuntimeException(ex);
-        }
+        return UrlEncoder.encode(value, path);
     }
 
     /**
@@ -153,21 +90,32 @@ public class HttpUtils {
         return encodeParameters(request.getParameters());
     }
     
-    public static String encodeParameters(List<com.github.lpezet.antiope2.dao.http.NameValuePair> pParameters) {
-    	List<NameValuePair> nameValuePairs = null;
-        if (pParameters.size() > 0) {
-            nameValuePairs = new ArrayList<NameValuePair>(pParameters.size());
-            for (com.github.lpezet.antiope2.dao.http.NameValuePair entry : pParameters) {
-                nameValuePairs.add(new BasicNameValuePair(entry.getName(), entry.getValue()));
-            }
-        }
+    public static String encodeParameters(List<NameValuePair> pParameters) {
+        if (pParameters.isEmpty()) return null;
+        return encodeParameters(new StringBuilder(pParameters.size() * 32), pParameters).toString();
+    }
 
-        String encodedParams = null;
-        if (nameValuePairs != null) {
-            encodedParams = URLEncodedUtils.format(nameValuePairs, DEFAULT_ENCODING);
+    /**
+     * Appends the parameters as an application/x-www-form-urlencoded query
+     * string (as <code>URLEncodedUtils.format()</code> would).
+     *
+     * @param to
+     *            where to append.
+     * @param pParameters
+     *            parameters to encode.
+     * @return to
+     */
+    public static StringBuilder encodeParameters(StringBuilder to, List<NameValuePair> pParameters) {
+        for (int i = 0; i < pParameters.size(); i++) {
+            NameValuePair entry = pParameters.get(i);
+            if (i > 0) to.append('&');
+            UrlEncoder.encodeForm(to, entry.getName());
+            if (entry.getValue() != null) {
+                to.append('=');
+                UrlEncoder.encodeForm(to, entry.getValue());
+            }
         }
-
-        return encodedParams;
+        return to;
     }
 
     /**
@@ -190,26 +138,40 @@ public class HttpUtils {
      * @return The baseUri with the (encoded) path appended
      */
     public static String appendUri(final String baseUri, String path, final boolean escapeDoubleSlash ) {
-        String resultUri = baseUri;
+        return appendUri(new StringBuilder(baseUri.length() + (path == null ? 1 : path.length() + 16)), baseUri, path, escapeDoubleSlash).toString();
+    }
+
+    /**
+     * Same as {@link #appendUri(String, String, boolean)}, appending to the
+     * given builder.
+     *
+     * @param to Where to append the result
+     * @param baseUri The URI to append to (required, may be relative)
+     * @param path The path to append (may be null or empty)
+     * @param escapeDoubleSlash Whether double-slash in the path should be escaped to "/%2F"
+     * @return to
+     */
+    public static StringBuilder appendUri(StringBuilder to, final String baseUri, String path, final boolean escapeDoubleSlash ) {
+        to.append(baseUri);
+        boolean endsWithSlash = baseUri.endsWith(SLASH);
         if (path != null && path.length() > 0) {
             if (path.startsWith(SLASH)) {
                 // trim the trailing slash in baseUri, since the path already starts with a slash
-                if (resultUri.endsWith(SLASH)) {
-                    resultUri = resultUri.substring(0, resultUri.length() - 1);
-                }
-            } else if (!resultUri.endsWith(SLASH)) {
-                resultUri += SLASH;
+                if (endsWithSlash) to.setLength(to.length() - 1);
+            } else if (!endsWithSlash) {
+                to.append(SLASH);
             }
-            String encodedPath = HttpUtils.urlEncode(path, true);
+            int start = to.length();
+            UrlEncoder.encode(to, path, true);
             if (escapeDoubleSlash) {
-                encodedPath = encodedPath.replace(DOUBLE_SLASH, ENCODED_DOUBLE_SLASH);
+                for (int i = to.indexOf(DOUBLE_SLASH, start); i >= 0; i = to.indexOf(DOUBLE_SLASH, i + ENCODED_DOUBLE_SLASH.length())) {
+                    to.replace(i, i + DOUBLE_SLASH.length(), ENCODED_DOUBLE_SLASH);
+                }
             }
-            resultUri += encodedPath;
-        } else if (!resultUri.endsWith(SLASH)) {
-            resultUri += SLASH;
+        } else if (!endsWithSlash) {
+            to.append(SLASH);
         }
-
-        return resultUri;
+        return to;
     }
     
     public static String getHostAndPort(String pUrl) {
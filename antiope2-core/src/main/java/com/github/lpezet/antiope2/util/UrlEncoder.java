@@ -0,0 +1,180 @@
+/**
+ * The MIT License
+ * Copyright (c) 2014 Luc Pezet
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.lpezet.antiope2.util;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+/**
+ * Single-pass, table-driven percent-encoding of strings as UTF-8, into a
+ * caller-supplied {@link StringBuilder}.
+ * <ul>
+ * <li>{@link #encode(StringBuilder, CharSequence, boolean)}: RFC 3986, only
+ * unreserved characters (ALPHA / DIGIT / "-" / "." / "_" / "~") are left as
+ * is, and "/" too when encoding a path.</li>
+ * <li>{@link #encodeForm(StringBuilder, CharSequence)}:
+ * application/x-www-form-urlencoded, same as
+ * <code>URLEncoder.encode(value, "UTF-8")</code> (space as "+", "*" as is, "~"
+ * encoded).</li>
+ * </ul>
+ * 
+ * @author luc
+ */
+public class UrlEncoder {
+
+	private static final char[]		HEX			= "0123456789ABCDEF".toCharArray();
+
+	/** RFC 3986 unreserved characters. */
+	private static final boolean[]	UNRESERVED	= new boolean[128];
+	/** Unreserved characters and "/". */
+	private static final boolean[]	PATH		= new boolean[128];
+	/** Characters URLEncoder leaves as is. */
+	private static final boolean[]	FORM		= new boolean[128];
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			UNRESERVED[c] = true;
+			UNRESERVED[Character.toUpperCase(c)] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			UNRESERVED[c] = true;
+		}
+		System.arraycopy(UNRESERVED, 0, FORM, 0, 128);
+		UNRESERVED['-'] = UNRESERVED['.'] = UNRESERVED['_'] = UNRESERVED['~'] = true;
+		System.arraycopy(UNRESERVED, 0, PATH, 0, 128);
+		PATH['/'] = true;
+		FORM['-'] = FORM['.'] = FORM['_'] = FORM['*'] = true;
+	}
+
+	private UrlEncoder() {
+	}
+
+	/**
+	 * Encodes the given value as per RFC 3986.
+	 * 
+	 * @param pValue
+	 *            value to encode, null being the same as empty.
+	 * @param pPath
+	 *            true if the value is a path, whose "/" must not be encoded.
+	 * @return encoded value.
+	 */
+	public static String encode(String pValue, boolean pPath) {
+		if (pValue == null) return "";
+		int oFirst = firstToEncode(pValue, pPath ? PATH : UNRESERVED);
+		if (oFirst < 0) return pValue;
+		StringBuilder oResult = new StringBuilder(pValue.length() + 16);
+		oResult.append(pValue, 0, oFirst);
+		return encode(oResult, pValue, oFirst, pPath ? PATH : UNRESERVED, false).toString();
+	}
+
+	/**
+	 * Appends the given value, encoded as per RFC 3986.
+	 * 
+	 * @param pTo
+	 *            where to append.
+	 * @param pValue
+	 *            value to encode.
+	 * @param pPath
+	 *            true if the value is a path, whose "/" must not be encoded.
+	 * @return pTo
+	 */
+	public static StringBuilder encode(StringBuilder pTo, CharSequence pValue, boolean pPath) {
+		return encode(pTo, pValue, 0, pPath ? PATH : UNRESERVED, false);
+	}
+
+	/**
+	 * Appends the given value, encoded as application/x-www-form-urlencoded.
+	 * 
+	 * @param pTo
+	 *            where to append.
+	 * @param pValue
+	 *            value to encode.
+	 * @return pTo
+	 */
+	public static StringBuilder encodeForm(StringBuilder pTo, CharSequence pValue) {
+		return encode(pTo, pValue, 0, FORM, true);
+	}
+
+	/**
+	 * Decodes an application/x-www-form-urlencoded value, without going
+	 * through {@link URLDecoder} when there is nothing to decode.
+	 * 
+	 * @param pValue
+	 *            value to decode.
+	 * @return decoded value.
+	 */
+	public static String decodeForm(String pValue) {
+		if (pValue.indexOf('%') < 0 && pValue.indexOf('+') < 0) return pValue;
+		try {
+			return URLDecoder.decode(pValue, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static int firstToEncode(CharSequence pValue, boolean[] pSafe) {
+		for (int i = 0; i < pValue.length(); i++) {
+			char c = pValue.charAt(i);
+			if (c >= 128 || !pSafe[c]) return i;
+		}
+		return -1;
+	}
+
+	private static StringBuilder encode(StringBuilder pTo, CharSequence pValue, int pStart, boolean[] pSafe, boolean pSpaceAsPlus) {
+		int oLength = pValue.length();
+		for (int i = pStart; i < oLength; i++) {
+			char c = pValue.charAt(i);
+			if (c < 128) {
+				if (pSafe[c]) {
+					pTo.append(c);
+				} else if (c == ' ' && pSpaceAsPlus) {
+					pTo.append('+');
+				} else {
+					appendByte(pTo, c);
+				}
+			} else if (c < 0x800) {
+				appendByte(pTo, 0xC0 | (c >> 6));
+				appendByte(pTo, 0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < oLength && Character.isLowSurrogate(pValue.charAt(i + 1))) {
+				int oCodePoint = Character.toCodePoint(c, pValue.charAt(++i));
+				appendByte(pTo, 0xF0 | (oCodePoint >> 18));
+				appendByte(pTo, 0x80 | ((oCodePoint >> 12) & 0x3F));
+				appendByte(pTo, 0x80 | ((oCodePoint >> 6) & 0x3F));
+				appendByte(pTo, 0x80 | (oCodePoint & 0x3F));
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				// unpaired surrogate: replaced by '?', like String.getBytes("UTF-8")
+				appendByte(pTo, '?');
+			} else {
+				appendByte(pTo, 0xE0 | (c >> 12));
+				appendByte(pTo, 0x80 | ((c >> 6) & 0x3F));
+				appendByte(pTo, 0x80 | (c & 0x3F));
+			}
+		}
+		return pTo;
+	}
+
+	private static void appendByte(StringBuilder pTo, int pByte) {
+		pTo.append('%').append(HEX[(pByte >> 4) & 0xF]).append(HEX[pByte & 0xF]);
+	}
+}
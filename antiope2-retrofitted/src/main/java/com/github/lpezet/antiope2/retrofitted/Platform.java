@@ -20,13 +20,18 @@ import java.util.concurrent.Executor;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 
+import com.github.lpezet.antiope2.be.APIConfiguration;
 import com.github.lpezet.antiope2.dao.http.IHttpNetworkIO;
 import com.github.lpezet.antiope2.dao.http.apache.ApacheHttpClientNetworkIO;
+import com.github.lpezet.antiope2.dao.http.apache.IdleConnectionReaper;
+import com.github.lpezet.antiope2.dao.http.apache.InactivityValidatingConnectionFactory;
 import com.github.lpezet.antiope2.retrofitted.converter.Converter;
 import com.github.lpezet.antiope2.retrofitted.converter.GsonConverter;
 
@@ -60,6 +65,10 @@ class Platform {
   }
 
   IHttpNetworkIO defaultClient() {
+	  // Stale check only probes connections idle for a while, the reaper evicts the ones idle for too long.
+	  PoolingHttpClientConnectionManager connManager = new PoolingHttpClientConnectionManager(
+			  new InactivityValidatingConnectionFactory(ManagedHttpClientConnectionFactory.INSTANCE, APIConfiguration.DEFAULT_VALIDATE_AFTER_INACTIVITY));
+	  IdleConnectionReaper.registerConnectionManager(connManager, APIConfiguration.DEFAULT_CONNECTION_MAX_IDLE_MILLIS);
 	  RequestConfig defaultRequestConfig = RequestConfig.custom()
 			    .setSocketTimeout(5000)
 			    .setConnectTimeout(5000)
@@ -67,6 +76,7 @@ class Platform {
 			    .setStaleConnectionCheckEnabled(true)
 			    .build();
 	  HttpClient oHttpClient = HttpClients.custom()
+			  .setConnectionManager(connManager)
 			  .setDefaultRequestConfig(defaultRequestConfig)
 			  .build();
     return new ApacheHttpClientNetworkIO( oHttpClient );
@@ -4,12 +4,9 @@
 package com.github.lpezet.antiope2.retrofitted;
 
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Array;
 import java.net.URI;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +28,7 @@ import com.github.lpezet.antiope2.retrofitted.annotation.http.Query;
 import com.github.lpezet.antiope2.retrofitted.annotation.http.QueryMap;
 import com.github.lpezet.antiope2.retrofitted.converter.Converter;
 import com.github.lpezet.antiope2.util.StringUtils;
+import com.github.lpezet.antiope2.util.UrlEncoder;
 
 /**
  * @author Luc Pezet
@@ -228,13 +226,9 @@ public class RequestBuilder implements RequestFacade {
 			formEncodingBuilder.addEncoded(name, value);
 		}
 		*/
-		try {
-			//Here we're letting the Http Client to encode parameter values.
-			// So if encode=true, then we leave the value as is, but if encode=false, we decode the value first.
-			mParameters.add( new BasicNameValuePair(name, encode ? value : URLDecoder.decode( value,  "UTF-8") ));
-		} catch (UnsupportedEncodingException e) {
-			mLogger.error("Error decoding value with UTF-8.", e);
-		}
+		//Here we're letting the Http Client to encode parameter values.
+		// So if encode=true, then we leave the value as is, but if encode=false, we decode the value first.
+		mParameters.add( new BasicNameValuePair(name, encode ? value : UrlEncoder.decodeForm( value ) ));
 	}
 	
 	public void addHeader(String name, String value) {
@@ -308,35 +302,30 @@ public class RequestBuilder implements RequestFacade {
 		}
 		String oValue = resolveQueryValue(pValueTemplate, pValue);
 		String oName = pName;
-		try {
-			/*
-			StringBuilder queryParams = this.queryParams;
-			if (queryParams == null) {
-				this.queryParams = queryParams = new StringBuilder();
-			}
+		/*
+		StringBuilder queryParams = this.queryParams;
+		if (queryParams == null) {
+			this.queryParams = queryParams = new StringBuilder();
+		}
 
-			queryParams.append(queryParams.length() > 0 ? '&' : '?');
-			*/
-			/*
-			if (pEncodeName) {
-				oName = URLEncoder.encode(oName, "UTF-8");
-			}
-			if (pEncodeValue) {
-				oValue = URLEncoder.encode(oValue, "UTF-8");
-			}
-			*/
-			if (!pEncodeName) {
-				oName = URLDecoder.decode( oName, "UTF-8");
-			}
-			if (!pEncodeValue) {
-				oValue = URLDecoder.decode( oValue, "UTF-8" );
-			}
-			
-			mParameters.add( new BasicNameValuePair( oName, oValue) );
-		} catch (UnsupportedEncodingException e) {
-			throw new RuntimeException(
-					"Unable to convert query parameter \"" + pName + "\" value to UTF-8: " + pValue, e);
+		queryParams.append(queryParams.length() > 0 ? '&' : '?');
+		*/
+		/*
+		if (pEncodeName) {
+			oName = URLEncoder.encode(oName, "UTF-8");
+		}
+		if (pEncodeValue) {
+			oValue = URLEncoder.encode(oValue, "UTF-8");
+		}
+		*/
+		if (!pEncodeName) {
+			oName = UrlEncoder.decodeForm( oName );
 		}
+		if (!pEncodeValue) {
+			oValue = UrlEncoder.decodeForm( oValue );
+		}
+		
+		mParameters.add( new BasicNameValuePair( oName, oValue) );
 	}
 	
 	private String resolveQueryValue(String pValueTemplate, String pValue) {
@@ -353,20 +342,11 @@ public class RequestBuilder implements RequestFacade {
 			throw new IllegalArgumentException(
 					"Path replacement \"" + pName + "\" value must not be null.");
 		}
-		try {
-			if (pUrlEncodeValue) {
-				String encodedValue = URLEncoder.encode(String.valueOf(pValue), "UTF-8");
-				// URLEncoder encodes for use as a query parameter. Path encoding uses %20 to
-				// encode spaces rather than +. Query encoding difference specified in HTML spec.
-				// Any remaining plus signs represent spaces as already URLEncoded.
-				encodedValue = encodedValue.replace("+", "%20");
-				mResourcePath = mResourcePath.replace("{" + pName + "}", encodedValue);
-			} else {
-				mResourcePath = mResourcePath.replace("{" + pName + "}", String.valueOf(pValue));
-			}
-		} catch (UnsupportedEncodingException e) {
-			throw new RuntimeException(
-					"Unable to convert path parameter \"" + pName + "\" value to UTF-8:" + pValue, e);
+		if (pUrlEncodeValue) {
+			// Path segment encoding (RFC 3986): spaces as %20, "/" encoded.
+			mResourcePath = mResourcePath.replace("{" + pName + "}", UrlEncoder.encode(String.valueOf(pValue), false));
+		} else {
+			mResourcePath = mResourcePath.replace("{" + pName + "}", String.valueOf(pValue));
 		}
 	}
 	
@@ -391,7 +371,7 @@ public class RequestBuilder implements RequestFacade {
 			String[] oParams = mMethodInfo.getResourceQuery().split("&");
 			for (String oParam : oParams) {
 				String[] oNameValue = oParam.split("=");
-				oRequest.addParameter(oNameValue[0], URLDecoder.decode( oNameValue[1], "UTF-8"));
+				oRequest.addParameter(oNameValue[0], UrlEncoder.decodeForm( oNameValue[1] ));
 			}
 		}
 		//WARNING: Here I'm not sure. For POST, best put everything in Parameters and put in body of request.